@@ -5,10 +5,16 @@
  */
 package com.jakubwawak;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
 import com.jakubwawak.database_engine.DocumentDatabaseEngine;
 import com.jakubwawak.entity.Host;
 import com.jakubwawak.entity.PingData;
 import com.jakubwawak.ping_engine.PingEngineDocument;
+import com.jakubwawak.ping_engine.ProbeEngine;
+import org.bson.types.ObjectId;
 
 /**
  * Job class for document database - for creating ping pipeline for every host
@@ -28,29 +34,68 @@ public class DocumentJob {
 
     /**
      * Run the job
+     *
+     * @param executor runs the storage of in-process probe results
+     * @return CompletableFuture with classification of the stored ping data,
+     *         null if probe was skipped or failed
      */
-    public void run() {
+    public CompletableFuture<String> run(Executor executor) {
         try {
-            documentDatabaseEngine.log("job", "Starting job for host: " + host.getHostName());
-            documentDatabaseEngine.addHostLog(host.hostId, "job", "Starting job for host: " + host.getHostName(),
-                    "info",
-                    "#0000FF");
-            PingEngineDocument pingEngine = new PingEngineDocument();
-            PingData pingData = pingEngine.pingHost(host);
-            pingData.hostIdMongo = host.hostIdMongo;
-            documentDatabaseEngine.addPingData(pingData);
-            documentDatabaseEngine.log("job", "Job for host: " + host.getHostName() + " completed,status: "
-                    + pingData.getPacketStatusCode() + " waiting for " + host.getPingInterval() + " seconds");
-            documentDatabaseEngine.addHostLog(host.hostId, "job",
-                    "Job for host: " + host.getHostName() + " completed,status: " + pingData.getPacketStatusCode()
-                            + " waiting for " + host.getPingInterval() + " seconds",
+            documentDatabaseEngine.addHostLog(host.hostIdMongo, "job", "Starting job for host: " + host.getHostName(),
                     "info",
                     "#0000FF");
+            ProbeEngine probeEngine = ProbeEngine.forHost(host, PingEngineDocument::new);
+            return probeEngine.pingHostAsync(host, executor).thenApply(this::store).exceptionally(this::failed);
         } catch (Exception e) {
-            documentDatabaseEngine.log("job", "Error in job for host: " + host.getHostName() + " - " + e.getMessage());
-            documentDatabaseEngine.addHostLog(host.hostId, "job-error",
-                    "Error in job for host: " + host.getHostName() + " - " + e.getMessage(), "error", "#FF0000");
+            return CompletableFuture.completedFuture(failed(e));
+        }
+    }
+
+    /**
+     * Store the ping data of the probe
+     *
+     * @param pingData
+     * @return String classification of the stored ping data, null if probe was
+     *         skipped
+     */
+    private String store(PingData pingData) {
+        if (pingData.probeSkipped) {
+            documentDatabaseEngine.addHostLog(host.hostIdMongo, "job",
+                    "Job for host: " + host.getHostName() + " skipped, probe not admitted", "warn", "#FFA500");
+            return null;
         }
+        pingData.hostIdMongo = host.hostIdMongo;
+        if (pingData.diagnostics != null && documentDatabaseEngine.isTimeSeriesPingData()) {
+            documentDatabaseEngine.addPingDataAfterDiagnostics(pingData); // written once with diagnostics
+        } else if (pingData.diagnostics != null) {
+            pingData.pingIdMongo = new ObjectId(); // diagnostics update the document after insert
+            documentDatabaseEngine.addPingData(pingData);
+            pingData.diagnostics.thenAccept(result -> documentDatabaseEngine.attachDiagnostics(pingData, result));
+        } else {
+            documentDatabaseEngine.addPingData(pingData);
+        }
+        if (Pynk.metrics != null) {
+            Pynk.metrics.recordProbe(host.getHostName(), pingData);
+        }
+        documentDatabaseEngine.addHostLog(host.hostIdMongo, "job",
+                "Job for host: " + host.getHostName() + " completed,status: " + pingData.getPacketStatusCode()
+                        + " waiting for " + host.getPingInterval() + " seconds",
+                "info",
+                "#0000FF");
+        return pingData.getPacketStatusCode();
+    }
+
+    /**
+     * Log the failed job
+     *
+     * @param error
+     * @return String always null
+     */
+    private String failed(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        documentDatabaseEngine.addHostLog(host.hostIdMongo, "job-error",
+                "Error in job for host: " + host.getHostName() + " - " + cause.getMessage(), "error", "#FF0000");
+        return null;
     }
 
 }
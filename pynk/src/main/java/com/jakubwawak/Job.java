@@ -5,10 +5,14 @@
  */
 package com.jakubwawak;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 import com.jakubwawak.database_engine.DatabaseEngine;
 import com.jakubwawak.entity.Host;
 import com.jakubwawak.entity.PingData;
 import com.jakubwawak.ping_engine.PingEngine;
+import com.jakubwawak.ping_engine.ProbeEngine;
 
 /**
  * Job class - for creating ping pipeline for every host
@@ -27,16 +31,38 @@ public class Job {
 
     /**
      * Run the job
+     *
+     * @param executor runs the storage of in-process probe results
+     * @return CompletableFuture with classification of the stored ping data, null if probe was skipped
      */
-    public void run(){
-        databaseEngine = new DatabaseEngine(Pynk.properties.getValue("databasePath"));
-        databaseEngine.connect();
+    public CompletableFuture<String> run(Executor executor){
+        databaseEngine = Pynk.databaseEngine; // shared engine - writes are queued to the single writer connection
         databaseEngine.addLog("job", "Starting job for host: " + host.getHostName(), "info", "#0000FF");
-        PingEngine pingEngine = new PingEngine();
-        PingData pingData = pingEngine.pingHost(host);
+        ProbeEngine probeEngine = ProbeEngine.forHost(host, PingEngine::new);
+        return probeEngine.pingHostAsync(host, executor).thenApply(this::store);
+    }
+
+    /**
+     * Store the ping data of the probe
+     *
+     * @param pingData
+     * @return String classification of the stored ping data, null if probe was skipped
+     */
+    private String store(PingData pingData){
+        if (pingData.probeSkipped) {
+            databaseEngine.addLog("job", "Job for host: " + host.getHostName() + " skipped, probe not admitted", "warn", "#FFA500");
+            return null;
+        }
         databaseEngine.addPingData(pingData);
+        if (Pynk.metrics != null) {
+            Pynk.metrics.recordProbe(host.getHostName(), pingData);
+        }
+        if (pingData.diagnostics != null) {
+            DatabaseEngine engine = databaseEngine;
+            pingData.diagnostics.thenAccept(result -> engine.attachDiagnostics(pingData, result));
+        }
         databaseEngine.addLog("job", "Job for host: " + host.getHostName() + " completed,status: "+pingData.getPacketStatusCode()+" waiting for "+host.getPingInterval()+" seconds", "info", "#0000FF");
-        databaseEngine.closeConnection();
+        return pingData.getPacketStatusCode();
     }
     
 }
@@ -5,18 +5,48 @@
  */
 package com.jakubwawak;
 
-import java.util.ArrayList;
-import java.util.concurrent.ConcurrentHashMap;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import com.jakubwawak.database_engine.DatabaseEngine;
 import com.jakubwawak.database_engine.DocumentDatabaseEngine;
+import com.jakubwawak.database_engine.DocumentHostSource;
+import com.jakubwawak.database_engine.DocumentLogSink;
+import com.jakubwawak.database_engine.DocumentRetentionTarget;
+import com.jakubwawak.database_engine.PayloadMigration;
+import com.jakubwawak.database_engine.PingDataStorage;
+import com.jakubwawak.database_engine.PingDataWriter;
+import com.jakubwawak.database_engine.SchemaManager;
+import com.jakubwawak.database_engine.SqliteHostSource;
+import com.jakubwawak.database_engine.SqliteRetentionTarget;
 import com.jakubwawak.entity.Host;
+import com.jakubwawak.entity.PayloadCodec;
 import com.jakubwawak.entity.PingData;
+import com.jakubwawak.host_engine.HostRegistry;
+import com.jakubwawak.host_engine.HostRegistryListener;
+import com.jakubwawak.host_engine.HostSnapshot;
 import com.jakubwawak.maintanance.ConsoleColors;
 import com.jakubwawak.maintanance.Properties;
+import com.jakubwawak.ping_engine.DiagnosticsExecutor;
+import com.jakubwawak.ping_engine.DnsMessage;
+import com.jakubwawak.ping_engine.NioProbeReactor;
 import com.jakubwawak.ping_engine.PingEngine;
 import com.jakubwawak.ping_engine.TraceRouteEngine;
 import com.jakubwawak.ping_engine.PingEngineDocument;
+import com.jakubwawak.ping_engine.ProbeAdmissionController;
+import com.jakubwawak.ping_engine.ProbeProcessRunner;
+import com.jakubwawak.metrics_engine.MetricsRegistry;
+import com.jakubwawak.metrics_engine.MetricsServer;
+import com.jakubwawak.retention_engine.RetentionEngine;
+import com.jakubwawak.scheduler_engine.AdaptiveIntervalPolicy;
+import com.jakubwawak.scheduler_engine.ProbeScheduler;
 
 /**
  * Service for generating network statistics
@@ -32,7 +62,78 @@ public class Pynk {
     public static DocumentDatabaseEngine documentDatabaseEngine;
 
     public static Properties properties;
-    public static ConcurrentHashMap<Integer, Host> activeHosts = new ConcurrentHashMap<>();
+
+    public static ProbeScheduler probeScheduler;
+    public static HostRegistry hostRegistry = new HostRegistry();
+
+    public static DiagnosticsExecutor diagnosticsExecutor;
+
+    public static ProbeProcessRunner processRunner;
+
+    public static NioProbeReactor probeReactor;
+
+    public static RetentionEngine retentionEngine;
+
+    public static MetricsRegistry metrics;
+    static MetricsServer metricsServer;
+
+    /**
+     * Listener starting, updating and stopping probe tasks on host registry changes
+     */
+    private static class SchedulerHostListener implements HostRegistryListener {
+
+        @Override
+        public void hostAdded(Host host) {
+            if (host.getHostStatus().equals("active") && probeScheduler.startHost(host)) {
+                logMessage("Scheduled probe task for host " + host.getHostName() + " (ID: " + host.getHostKey() + ")");
+            }
+        }
+
+        @Override
+        public void hostUpdated(Host previous, Host current) {
+            if (!current.getHostStatus().equals("active")) {
+                if (probeScheduler.stopHost(current.getHostKey())) {
+                    logMessage("Stopped probe task for inactive host " + current.getHostName() + " (ID: "
+                            + current.getHostKey() + ")");
+                }
+            } else if (previous.getHostJobTime() != current.getHostJobTime()) {
+                // new interval - reschedule with the new phase
+                probeScheduler.stopHost(current.getHostKey());
+                probeScheduler.startHost(current);
+                logMessage("Rescheduled probe task for host " + current.getHostName() + " (interval: "
+                        + current.getHostJobTime() + " ms)");
+            } else if (probeScheduler.isScheduled(current.getHostKey())) {
+                probeScheduler.updateHost(current);
+                logMessage("Updated probe task for host " + current.getHostName());
+            } else if (probeScheduler.startHost(current)) {
+                logMessage("Scheduled probe task for host " + current.getHostName() + " (ID: "
+                        + current.getHostKey() + ")");
+            }
+        }
+
+        @Override
+        public void hostRemoved(Host host) {
+            if (probeScheduler.stopHost(host.getHostKey())) {
+                logMessage("Removed probe task for deleted host (ID: " + host.getHostKey() + ")");
+            }
+            if (metrics != null) {
+                metrics.removeHost(host.getHostName());
+            }
+        }
+
+        /**
+         * Log message to the active database
+         *
+         * @param message
+         */
+        private void logMessage(String message) {
+            if (documentDatabaseEngine != null) {
+                documentDatabaseEngine.addLog("thread-manager", message, "info", "#0000FF");
+            } else if (databaseEngine != null) {
+                databaseEngine.addLog("thread-manager", message, "info", "#0000FF");
+            }
+        }
+    }
 
     /**
      * Thread class for refreshing host data periodically
@@ -40,25 +141,25 @@ public class Pynk {
     private static class HostRefreshThread implements Runnable {
         private final int refreshInterval;
         private volatile boolean running = true;
+        private final SqliteHostSource hostSource;
 
         public HostRefreshThread(int refreshIntervalSeconds) {
             this.refreshInterval = refreshIntervalSeconds * 1000; // Convert to milliseconds
+            this.hostSource = new SqliteHostSource(databaseEngine);
         }
 
         @Override
         public void run() {
             while (running && !Thread.currentThread().isInterrupted()) {
                 try {
-                    ArrayList<Host> updatedHosts = databaseEngine.getHosts();
-                    // Update the shared hosts map
-                    activeHosts.clear();
-                    for (Host host : updatedHosts) {
-                        if (host.getHostStatus().equals("active")) {
-                            activeHosts.put(host.getHostId(), host);
-                        }
+                    // Publish a new snapshot atomically, only real changes reach the scheduler
+                    long version = hostRegistry.getVersion();
+                    hostSource.refresh(hostRegistry);
+                    if (hostRegistry.getVersion() != version) {
+                        databaseEngine.addLog("host-refresh", "Host registry updated (version: "
+                                + hostRegistry.getVersion() + ", hosts: " + hostRegistry.getSnapshot().size() + ")",
+                                "info", "#0000FF");
                     }
-                    databaseEngine.addLog("host-refresh",
-                            "Host data refreshed from database (size: " + activeHosts.size() + ")", "info", "#0000FF");
                     Thread.sleep(refreshInterval);
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
@@ -81,42 +182,60 @@ public class Pynk {
     }
 
     /**
-     * Thread class for managing job threads for active hosts
+     * Thread class for managing probe tasks for active hosts
      */
     private static class JobManagerThread implements Runnable {
-        private final ConcurrentHashMap<Integer, Thread> jobThreads = new ConcurrentHashMap<>();
         private volatile boolean running = true;
 
         @Override
         public void run() {
+            long lastStatistics = 0;
             while (running && !Thread.currentThread().isInterrupted()) {
                 try {
-                    // Check active hosts and create/remove job threads as needed
-                    for (Host host : activeHosts.values()) {
-                        if (!jobThreads.containsKey(host.getHostId())) {
-                            // Create new job thread for newly active host
-                            Runnable jobRunnable = createJobRunnable(host);
-                            Thread jobThread = new Thread(jobRunnable);
-                            jobThread.start();
-                            jobThreads.put(host.getHostId(), jobThread);
+                    // Probe tasks follow registry events, this only repairs tasks out of sync with the snapshot
+                    HostSnapshot snapshot = hostRegistry.getSnapshot();
+                    for (Host host : snapshot.getHosts()) {
+                        if (host.getHostStatus().equals("active") && probeScheduler.startHost(host)) {
                             databaseEngine.addHostLog(host.getHostId(), "thread-manager",
-                                    "Created new job thread for host " + host.getHostName(), "info", "#0000FF");
+                                    "Scheduled probe task for host " + host.getHostName(), "info", "#0000FF");
                         }
                     }
-
-                    // Remove threads for inactive hosts
-                    jobThreads.entrySet().removeIf(entry -> {
-                        int hostId = entry.getKey();
-                        if (!activeHosts.containsKey(hostId)) {
-                            Thread thread = entry.getValue();
-                            thread.interrupt();
+                    for (String hostKey : probeScheduler.getHostKeys()) {
+                        Host host = snapshot.get(hostKey);
+                        if (host == null || !host.getHostStatus().equals("active")) {
+                            probeScheduler.stopHost(hostKey);
                             databaseEngine.addLog("thread-manager",
-                                    "Removed job thread for inactive host (ID: " + hostId + ")", "info", "#0000FF");
-                            return true;
+                                    "Removed probe task for inactive host (ID: " + hostKey + ")", "info", "#0000FF");
                         }
-                        return false;
-                    });
+                    }
 
+                    if (System.currentTimeMillis() - lastStatistics >= 60000) {
+                        lastStatistics = System.currentTimeMillis();
+                        databaseEngine.addLog("thread-manager", "Scheduler: " + probeScheduler.getStatistics(), "info",
+                                "#0000FF");
+                        String skippedWarning = probeScheduler.takeSkippedWarning();
+                        if (skippedWarning != null) {
+                            databaseEngine.addLog("thread-manager", skippedWarning, "warn", "#FFA500");
+                        }
+                        if (databaseEngine.getWriter() != null) {
+                            databaseEngine.addLog("thread-manager",
+                                    "SQLite writer: " + databaseEngine.getWriter().getStatistics(), "info", "#0000FF");
+                        }
+                        if (diagnosticsExecutor != null) {
+                            databaseEngine.addLog("thread-manager", "Diagnostics: " + diagnosticsExecutor.getStatistics(),
+                                    "info", "#0000FF");
+                        }
+                        if (retentionEngine != null) {
+                            databaseEngine.addLog("thread-manager", "Retention: " + retentionEngine.getStatistics(),
+                                    "info", "#0000FF");
+                        }
+                        databaseEngine.addLog("thread-manager",
+                                "Probe processes: " + getProcessRunner().getStatistics(), "info", "#0000FF");
+                        if (probeReactor != null) {
+                            databaseEngine.addLog("thread-manager", "Probe reactor: " + probeReactor.getStatistics(),
+                                    "info", "#0000FF");
+                        }
+                    }
                     Thread.sleep(5000); // Check every 5 seconds
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
@@ -127,57 +246,45 @@ public class Pynk {
             }
         }
 
-        private Runnable createJobRunnable(Host host) {
-            return new Runnable() {
-                @Override
-                public void run() {
-                    int jobNumber = 0;
-                    while (!Thread.currentThread().isInterrupted()) {
-                        // Get the latest host data from the shared map
-                        Host currentHost = activeHosts.get(host.getHostId());
+        /**
+         * Run single probe for the host
+         *
+         * @param host
+         * @param executor carrier threads of the scheduler
+         * @return CompletableFuture with classification of the probe, null if nothing was stored
+         */
+        static CompletableFuture<String> runJob(Host host, Executor executor) {
+            // Get the latest host data from the registry snapshot
+            Host currentHost = hostRegistry.get(host.getHostKey());
 
-                        // Skip if host is no longer active or has been removed
-                        if (currentHost == null || !currentHost.getHostStatus().equals("active")) {
-                            databaseEngine.addLog("thread-job",
-                                    "Host " + host.getHostName() + " is no longer active, stopping job thread", "info",
-                                    "#0000FF");
-                            break;
-                        }
+            // Skip if host is no longer active or has been removed
+            if (currentHost == null || !currentHost.getHostStatus().equals("active")) {
+                databaseEngine.addLog("thread-job",
+                        "Host " + host.getHostName() + " is no longer active, skipping probe", "info",
+                        "#0000FF");
+                return CompletableFuture.completedFuture(null);
+            }
 
-                        databaseEngine.addHostLog(currentHost.getHostId(), "thread-job",
-                                "Starting job " + jobNumber + " for host " + currentHost.getHostName(), "info",
-                                "#0000FF");
-                        Job job = new Job(currentHost);
-                        job.run();
-                        databaseEngine.addHostLog(currentHost.getHostId(), "thread-job",
-                                "Job " + jobNumber + " for host " + currentHost.getHostName() + " completed", "info",
-                                "#0000FF");
-                        jobNumber++;
-                        try {
-                            Thread.sleep(currentHost.getHostJobTime());
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            break;
-                        }
-                    }
-                }
-            };
+            databaseEngine.addHostLog(currentHost.getHostId(), "thread-job",
+                    "Starting job for host " + currentHost.getHostName(), "info", "#0000FF");
+            Job job = new Job(currentHost);
+            return job.run(executor).thenApply(status -> {
+                databaseEngine.addHostLog(currentHost.getHostId(), "thread-job",
+                        "Job for host " + currentHost.getHostName() + " completed", "info", "#0000FF");
+                return status;
+            });
         }
 
         public void stop() {
             running = false;
-            // Interrupt all job threads
-            for (Thread thread : jobThreads.values()) {
-                thread.interrupt();
-            }
+            probeScheduler.shutdown();
         }
     }
 
     /**
-     * Thread class for managing job threads for active hosts in MongoDB
+     * Thread class for managing probe tasks for active hosts in MongoDB
      */
     private static class MongoHostManagerThread implements Runnable {
-        private final ConcurrentHashMap<org.bson.types.ObjectId, Thread> jobThreads = new ConcurrentHashMap<>();
         private volatile boolean running = true;
         private final int refreshInterval = 5000; // 5 seconds
         private final int reconnectInterval = 21600000; // 6 hours in milliseconds
@@ -185,59 +292,68 @@ public class Pynk {
         @Override
         public void run() {
             // Start a separate thread for reconnecting to the database
-            new Thread(this::reconnectDatabase).start();
+            Thread reconnectThread = new Thread(this::reconnectDatabase, "pynk-mongo-reconnect");
+            reconnectThread.setDaemon(true);
+            reconnectThread.start();
 
+            DocumentHostSource hostSource = new DocumentHostSource(documentDatabaseEngine,
+                    properties.getIntValue("hostFullResyncMillis", 300000));
+            long lastStatistics = 0;
             while (running && !Thread.currentThread().isInterrupted()) {
                 try {
-                    // Get updated host list from MongoDB
-                    ArrayList<Host> currentHosts = documentDatabaseEngine.getHosts();
-
-                    documentDatabaseEngine.addLog("thread-manager",
-                            "Processing " + currentHosts.size() + " hosts", "info", "#0000FF");
+                    // Load only changed hosts, registry listener starts/stops probe tasks
+                    long version = hostRegistry.getVersion();
+                    hostSource.refresh(hostRegistry);
+                    if (hostRegistry.getVersion() != version) {
+                        documentDatabaseEngine.addLog("thread-manager", "Host registry updated (version: "
+                                + hostRegistry.getVersion() + ", hosts: " + hostRegistry.getSnapshot().size() + ")",
+                                "info", "#0000FF");
+                    }
 
-                    // Update job threads based on host status
-                    for (Host host : currentHosts) {
+                    if (System.currentTimeMillis() - lastStatistics >= 60000) {
+                        lastStatistics = System.currentTimeMillis();
                         documentDatabaseEngine.addLog("thread-manager",
-                                "Checking host: " + host.getHostName() + " (ID: " + host.getHostIdMongo() + ") Status: "
-                                        + host.getHostStatus(),
+                                "Scheduler: " + probeScheduler.getStatistics() + ", host source: "
+                                        + hostSource.getStatistics(),
                                 "info", "#0000FF");
-
-                        if (host.getHostStatus().equals("active")) {
-                            if (!jobThreads.containsKey(host.getHostIdMongo())) {
-                                // Create new job thread for newly active host
-                                Runnable jobRunnable = createMongoJobRunnable(host);
-                                Thread jobThread = new Thread(jobRunnable);
-                                jobThread.start();
-                                jobThreads.put(host.getHostIdMongo(), jobThread);
-                                documentDatabaseEngine.addLog("thread-manager",
-                                        "Created new job thread for host " + host.getHostName(), "info", "#0000FF");
-                            }
-                        } else {
-                            // Stop and remove thread for inactive host
-                            Thread existingThread = jobThreads.remove(host.getHostIdMongo());
-                            if (existingThread != null) {
-                                existingThread.interrupt();
-                                documentDatabaseEngine.addLog("thread-manager",
-                                        "Stopped job thread for inactive host " + host.getHostName() + " (ID: "
-                                                + host.getHostIdMongo() + ")",
-                                        "info", "#0000FF");
-                            }
+                        String skippedWarning = probeScheduler.takeSkippedWarning();
+                        if (skippedWarning != null) {
+                            documentDatabaseEngine.addLog("thread-manager", skippedWarning, "warn", "#FFA500");
                         }
-                    }
-
-                    // Remove threads for deleted hosts
-                    jobThreads.entrySet().removeIf(entry -> {
-                        org.bson.types.ObjectId hostId = entry.getKey();
-                        boolean hostExists = currentHosts.stream()
-                                .anyMatch(h -> h.hostIdMongo.equals(hostId));
-                        if (!hostExists) {
-                            entry.getValue().interrupt();
+                        if (documentDatabaseEngine.getLogEngine() != null) {
                             documentDatabaseEngine.addLog("thread-manager",
-                                    "Removed job thread for deleted host (ID: " + hostId + ")", "info", "#0000FF");
-                            return true;
+                                    "Log engine: " + documentDatabaseEngine.getLogEngine().getStatistics(), "info",
+                                    "#0000FF");
                         }
-                        return false;
-                    });
+                        if (documentDatabaseEngine.getPingDataWriter() != null) {
+                            documentDatabaseEngine.addLog("thread-manager",
+                                    "Ping data writer: " + documentDatabaseEngine.getPingDataWriter().getStatistics(),
+                                    "info", "#0000FF");
+                        }
+                        if (documentDatabaseEngine.getPingRollupEngine() != null) {
+                            documentDatabaseEngine.addLog("thread-manager",
+                                    "Ping rollups: " + documentDatabaseEngine.getPingRollupEngine().getStatistics(),
+                                    "info", "#0000FF");
+                        }
+                        if (documentDatabaseEngine.getSpool() != null) {
+                            documentDatabaseEngine.addLog("thread-manager",
+                                    "Spool: " + documentDatabaseEngine.getSpool().getStatistics(), "info", "#0000FF");
+                        }
+                        if (retentionEngine != null) {
+                            documentDatabaseEngine.addLog("thread-manager",
+                                    "Retention: " + retentionEngine.getStatistics(), "info", "#0000FF");
+                        }
+                        if (diagnosticsExecutor != null) {
+                            documentDatabaseEngine.addLog("thread-manager",
+                                    "Diagnostics: " + diagnosticsExecutor.getStatistics(), "info", "#0000FF");
+                        }
+                        documentDatabaseEngine.addLog("thread-manager",
+                                "Probe processes: " + getProcessRunner().getStatistics(), "info", "#0000FF");
+                        if (probeReactor != null) {
+                            documentDatabaseEngine.addLog("thread-manager",
+                                    "Probe reactor: " + probeReactor.getStatistics(), "info", "#0000FF");
+                        }
+                    }
 
                     Thread.sleep(refreshInterval);
                 } catch (InterruptedException e) {
@@ -246,6 +362,7 @@ public class Pynk {
                 } catch (Exception e) {
                     documentDatabaseEngine.addLog("error", "Error in MongoDB host manager: " + e.getMessage(), "error",
                             "#FF0000");
+                    documentDatabaseEngine.dumpRecentLogs(20);
                     try {
                         Thread.sleep(refreshInterval);
                     } catch (InterruptedException ie) {
@@ -276,49 +393,26 @@ public class Pynk {
         }
 
         /**
-         * Create a job runnable for MongoDB
-         * 
+         * Run single probe for the host stored in MongoDB
+         *
          * @param host
-         * @return Runnable
+         * @param executor carrier threads of the scheduler
+         * @return CompletableFuture with classification of the probe, null if nothing was stored
          */
-        private Runnable createMongoJobRunnable(Host host) {
-            return new Runnable() {
-                @Override
-                public void run() {
-                    while (!Thread.currentThread().isInterrupted()) {
-                        try {
-                            // Get the latest host data from MongoDB
-                            Host currentHost = documentDatabaseEngine.getHost(host.hostIdMongo);
-
-                            // Skip if host is no longer active
-                            if (currentHost == null || !currentHost.getHostStatus().equals("active")) {
-                                documentDatabaseEngine.addLog("thread-job",
-                                        "Host " + host.getHostName() + " is no longer active, stopping job thread",
-                                        "info", "#0000FF");
-                                break;
-                            }
+        static CompletableFuture<String> runMongoJob(Host host, Executor executor) {
+            // Get the latest host data from the registry snapshot, no database round trip
+            Host currentHost = hostRegistry.get(host.getHostKey());
 
-                            DocumentJob documentJob = new DocumentJob(currentHost);
-                            documentJob.run();
+            // Skip if host is no longer active
+            if (currentHost == null || !currentHost.getHostStatus().equals("active")) {
+                documentDatabaseEngine.addLog("thread-job",
+                        "Host " + host.getHostName() + " is no longer active, skipping probe",
+                        "info", "#0000FF");
+                return CompletableFuture.completedFuture(null);
+            }
 
-                            Thread.sleep(currentHost.getHostJobTime());
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            break;
-                        } catch (Exception e) {
-                            documentDatabaseEngine.addLog("error",
-                                    "Error in job thread for host " + host.getHostName() + ": " + e.getMessage(),
-                                    "error", "#FF0000");
-                            try {
-                                Thread.sleep(host.getHostJobTime());
-                            } catch (InterruptedException ie) {
-                                Thread.currentThread().interrupt();
-                                break;
-                            }
-                        }
-                    }
-                }
-            };
+            DocumentJob documentJob = new DocumentJob(currentHost);
+            return documentJob.run(executor);
         }
 
         /**
@@ -326,10 +420,7 @@ public class Pynk {
          */
         public void stop() {
             running = false;
-            // Interrupt all job threads
-            for (Thread thread : jobThreads.values()) {
-                thread.interrupt();
-            }
+            probeScheduler.shutdown();
         }
     }
 
@@ -428,7 +519,9 @@ public class Pynk {
                         PingData pingData = pingEngine.pingHost(tempHost);
                         
                         // Store the hourly ping data
-                        documentDatabaseEngine.addHourDefaultPingData(pingData);
+                        if (!pingData.probeSkipped) {
+                            documentDatabaseEngine.addHourDefaultPingData(pingData);
+                        }
                     }
                     logMessage("Hourly ping for host (" + targetHost + ") completed", "INFO", ConsoleColors.CYAN_BOLD_BRIGHT);
                     // Sleep for the specified interval
@@ -481,9 +574,24 @@ public class Pynk {
         if (properties.fileExists) {
             // Load properties
             properties.parsePropertiesFile();
+            PayloadCodec.configure(properties.getValue("payloadStorage", PayloadCodec.MODE_PLAIN));
             if (properties.getValue("databaseType").equals("sqlite")) {
                 initDatabase(properties.getValue("databasePath")); // Initialize database
 
+                // Start the single writer connection and the read pool
+                databaseEngine.startPipeline(properties.getIntValue("sqliteWriterQueueSize", 10000),
+                        properties.getIntValue("sqliteWriterBatchSize", 200),
+                        properties.getIntValue("sqliteWriterFlushMillis", 500),
+                        properties.getIntValue("sqliteReadPoolSize", 4));
+                databaseEngine.startLogEngine(properties);
+                diagnosticsExecutor = createDiagnosticsExecutor();
+                startRetention(false);
+                Runtime.getRuntime().addShutdownHook(new Thread(Pynk::shutdown, "pynk-shutdown"));
+
+                // Start the probe scheduler shared by all hosts, driven by host registry changes
+                probeScheduler = createProbeScheduler(JobManagerThread::runJob);
+                hostRegistry.addListener(new SchedulerHostListener());
+
                 // Start the host refresh thread
                 HostRefreshThread hostRefreshThread = new HostRefreshThread(30); // Refresh every 30 seconds
                 Thread refreshThread = new Thread(hostRefreshThread);
@@ -495,6 +603,7 @@ public class Pynk {
                 Thread managerThread = new Thread(jobManagerThread);
                 managerThread.setDaemon(true);
                 managerThread.start();
+                startMetrics();
 
                 // Keep the main thread alive
                 while (true) {
@@ -514,11 +623,57 @@ public class Pynk {
                     System.exit(0);
                 }
 
+                if (Arrays.asList(args).contains("--migrate-payloads")) {
+                    migratePayloads();
+                    System.exit(0);
+                }
+
+                if (Arrays.asList(args).contains("--migrate-timeseries")) {
+                    migrateTimeSeries();
+                    System.exit(0);
+                }
+
+                // Start the asynchronous log pipeline, hot path only enqueues log records
+                documentDatabaseEngine.startLogEngine(properties);
+                diagnosticsExecutor = createDiagnosticsExecutor();
+                Runtime.getRuntime().addShutdownHook(new Thread(Pynk::shutdown, "pynk-shutdown"));
+
                 if (debug) {
                     PynkTest pynkTest = new PynkTest();
                     pynkTest.run();
                 } else {
                     documentDatabaseEngine.checkAndInitializeHostsCollection();
+                    boolean timeSeries = createPingDataStorage().prepare();
+
+                    // Create missing indexes, report queries without index support
+                    if (Boolean.parseBoolean(properties.getValue("schemaBootstrap", "true"))) {
+                        SchemaManager schemaManager = new SchemaManager(documentDatabaseEngine,
+                                properties.getIntValue("rollupMinuteTtlDays", 30),
+                                properties.getIntValue("rollupHourTtlDays", 400), timeSeries);
+                        schemaManager.bootstrap();
+                        schemaManager.verify();
+                    }
+
+                    if (Boolean.parseBoolean(properties.getValue("pingRollups", "true"))) {
+                        documentDatabaseEngine.enablePingRollups();
+                    }
+
+                    // Spool probe results on disk while the database is unreachable, replay them afterwards
+                    if (Boolean.parseBoolean(properties.getValue("spoolEnabled", "true"))) {
+                        documentDatabaseEngine.startSpool(properties);
+                    }
+
+                    // Start the batched ping data writer, queued results are flushed on shutdown
+                    documentDatabaseEngine.startPingDataWriter(properties.getIntValue("pingWriterQueueSize", 10000),
+                            properties.getIntValue("pingWriterBatchSize", 500),
+                            properties.getIntValue("pingWriterFlushMillis", 1000));
+
+                    // Prune old ping history and logs in throttled background chunks
+                    startRetention(timeSeries);
+
+                    // Start the probe scheduler shared by all hosts
+                    probeScheduler = createProbeScheduler(MongoHostManagerThread::runMongoJob);
+                    hostRegistry.addListener(new SchedulerHostListener());
 
                     // Start the MongoDB host manager thread
                     System.out.println(ConsoleColors.RED_BOLD_BRIGHT+"Starting MongoDB host manager thread"+ConsoleColors.RESET);
@@ -540,6 +695,7 @@ public class Pynk {
                     Thread pingThread = new Thread(hourlyPingThread);
                     pingThread.setDaemon(true);
                     pingThread.start();
+                    startMetrics();
 
                     // Keep the main thread alive
                     while (true) {
@@ -563,6 +719,347 @@ public class Pynk {
         }
     }
 
+    /**
+     * Rewrite text of stored ping data in the configured payload storage mode
+     * (run with --migrate-payloads)
+     */
+    static void migratePayloads() {
+        System.out.println(ConsoleColors.RED_BOLD_BRIGHT + "Migrating ping data payloads to " + PayloadCodec.getMode()
+                + " storage" + ConsoleColors.RESET);
+        PayloadMigration migration = new PayloadMigration(
+                documentDatabaseEngine.getCollection(PingDataWriter.PING_DATA_COLLECTION),
+                properties.getIntValue("payloadMigrationBatchSize", 500),
+                properties.getIntValue("payloadMigrationPauseMillis", 100));
+        try {
+            migration.run();
+            System.out.println(ConsoleColors.GREEN_BOLD + "Payload migration finished: " + migration.getStatistics()
+                    + ConsoleColors.RESET);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println(ConsoleColors.RED_BOLD + "Payload migration interrupted: " + migration.getStatistics()
+                    + ConsoleColors.RESET);
+        } catch (Exception e) {
+            System.out.println(ConsoleColors.RED_BOLD + "Payload migration failed: " + e.getMessage()
+                    + ConsoleColors.RESET);
+        }
+    }
+
+    /**
+     * Create ping_data storage from the properties
+     *
+     * @return PingDataStorage
+     */
+    static PingDataStorage createPingDataStorage() {
+        return new PingDataStorage(documentDatabaseEngine,
+                properties.getValue("pingDataStorage", PingDataStorage.MODE_STANDARD),
+                properties.getIntValue("pingDataRetentionDays", 90),
+                properties.getValue("pingDataGranularity", "seconds"));
+    }
+
+    /**
+     * Move standard ping_data to time-series collection (run with
+     * --migrate-timeseries)
+     */
+    static void migrateTimeSeries() {
+        System.out.println(ConsoleColors.RED_BOLD_BRIGHT + "Migrating ping data to time-series storage"
+                + ConsoleColors.RESET);
+        PingDataStorage storage = createPingDataStorage();
+        try {
+            storage.migrate(properties.getIntValue("pingDataMigrationBatchSize", 1000),
+                    properties.getIntValue("pingDataMigrationPauseMillis", 100),
+                    properties.getIntValue("pingDataMigrationQuietSeconds", 120) * 1000L);
+            System.out.println(ConsoleColors.GREEN_BOLD + "Time-series migration finished: " + storage.getStatistics()
+                    + ", " + PingDataStorage.LEGACY_COLLECTION + " is kept until dropped manually" + ConsoleColors.RESET);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println(ConsoleColors.RED_BOLD + "Time-series migration interrupted: " + storage.getStatistics()
+                    + ConsoleColors.RESET);
+        } catch (Exception e) {
+            System.out.println(ConsoleColors.RED_BOLD + "Time-series migration failed: " + e.getMessage()
+                    + ConsoleColors.RESET);
+        }
+    }
+
+    /**
+     * Start background retention of ping history and logs (retentionEnabled) -
+     * every policy defaults to 0 days, nothing is deleted until configured
+     *
+     * @param timeSeriesPingData true - ping_data expires by its own TTL
+     */
+    static void startRetention(boolean timeSeriesPingData) {
+        if (!Boolean.parseBoolean(properties.getValue("retentionEnabled", "true"))) {
+            return;
+        }
+        int pingDays = properties.getIntValue("retentionPingDays", 0);
+        int logDays = properties.getIntValue("retentionLogDays", 0);
+        RetentionEngine engine = RetentionEngine.fromProperties(properties);
+        if (databaseEngine != null) {
+            engine.addPolicy(new SqliteRetentionTarget(databaseEngine, "ping_history", "ping_id", "ping_timestamp"),
+                    pingDays);
+            engine.addPolicy(new SqliteRetentionTarget(databaseEngine, "app_log", "log_id", "log_timestamp"), logDays);
+        } else {
+            if (!timeSeriesPingData) {
+                engine.addPolicy(new DocumentRetentionTarget(documentDatabaseEngine,
+                        PingDataWriter.PING_DATA_COLLECTION, "ping_timestamp", true), pingDays);
+            }
+            engine.addPolicy(new DocumentRetentionTarget(documentDatabaseEngine, "hour_default_ping_data",
+                    "ping_timestamp", true), pingDays);
+            engine.addPolicy(new DocumentRetentionTarget(documentDatabaseEngine, "trace_route_data", "timestamp",
+                    false), properties.getIntValue("retentionTraceRouteDays", 0));
+            engine.addPolicy(new DocumentRetentionTarget(documentDatabaseEngine, DocumentLogSink.LOGS_COLLECTION,
+                    "timestamp", false), logDays);
+            engine.addPolicy(new DocumentRetentionTarget(documentDatabaseEngine,
+                    DocumentLogSink.HOST_LOGS_COLLECTION, "timestamp", false),
+                    properties.getIntValue("retentionHostLogDays", 0));
+        }
+        engine.start();
+        retentionEngine = engine;
+    }
+
+    /**
+     * Start the metrics endpoint (metricsEnabled) - registers gauges and
+     * histograms of the running components, read when scraped
+     */
+    static void startMetrics() {
+        if (!Boolean.parseBoolean(properties.getValue("metricsEnabled", "false"))) {
+            return;
+        }
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.gauge("probe_rate_per_second", "Scheduled probes per second at the current intervals", "",
+                () -> probeScheduler == null ? Double.NaN : probeScheduler.getProbeRatePerMinute() / 60);
+        registry.gauge("scheduler_tasks", "Scheduled host tasks", "",
+                () -> probeScheduler == null ? Double.NaN : probeScheduler.getLiveTaskCount());
+        registry.gauge("probes_running", "Probes in flight (admission, subprocess or reactor)", "",
+                () -> probeScheduler == null ? Double.NaN : probeScheduler.getRunningProbeCount());
+        registry.counter("probes_skipped", "Probes skipped because the schedule fell behind or the previous "
+                + "probe was running", "", () -> probeScheduler == null ? Double.NaN
+                        : probeScheduler.getSkippedProbeCount());
+        registry.counter("probe_intervals_held", "Interval tightenings held back while the scheduler was saturated",
+                "", () -> probeScheduler == null ? Double.NaN : probeScheduler.getHeldIntervalCount());
+        if (probeScheduler != null) {
+            registry.histogram("probe_duration_seconds", "Duration of probe jobs (probe, storage and logging)", "",
+                    probeScheduler.getProbeDurations());
+        }
+        ProbeAdmissionController admission = getProcessRunner().getAdmission();
+        if (admission != null) {
+            for (ProbeAdmissionController.Priority priority : ProbeAdmissionController.Priority.values()) {
+                String labels = MetricsRegistry.label("priority", priority.name().toLowerCase());
+                registry.histogram("subprocess_admission_wait_seconds", "Time waiting for a subprocess permission",
+                        labels, admission.getWaitHistogram(priority));
+                registry.counter("subprocess_admission_rejected", "Requests not admitted before their deadline",
+                        labels, () -> admission.getRejectedCount(priority));
+            }
+            registry.gauge("subprocesses_running", "Running probe subprocesses", "", admission::getRunningCount);
+            registry.gauge("subprocess_admission_waiting", "Requests waiting for a subprocess permission", "",
+                    admission::getWaitingCount);
+        }
+        registry.gauge("queue_depth", "Entries waiting in the queue", MetricsRegistry.label("queue", "probes"),
+                () -> probeScheduler == null ? Double.NaN : probeScheduler.getQueuedProbeCount());
+        registry.gauge("queue_depth", "Entries waiting in the queue", MetricsRegistry.label("queue", "diagnostics"),
+                () -> diagnosticsExecutor == null ? Double.NaN : diagnosticsExecutor.getQueueDepth());
+        if (databaseEngine != null) {
+            registry.gauge("queue_depth", "Entries waiting in the queue",
+                    MetricsRegistry.label("queue", "sqlite_writer"),
+                    () -> databaseEngine.getWriter() == null ? Double.NaN : databaseEngine.getWriter().getQueueDepth());
+            registry.gauge("queue_depth", "Entries waiting in the queue", MetricsRegistry.label("queue", "log_engine"),
+                    () -> databaseEngine.getLogEngine() == null ? Double.NaN
+                            : databaseEngine.getLogEngine().getQueueDepth());
+            if (databaseEngine.getWriter() != null) {
+                registry.histogram("sqlite_transaction_seconds", "Duration of SQLite writer transactions", "",
+                        databaseEngine.getWriter().getTransactionLatencies());
+            }
+        }
+        if (documentDatabaseEngine != null) {
+            DocumentDatabaseEngine engine = documentDatabaseEngine;
+            registry.gauge("queue_depth", "Entries waiting in the queue", MetricsRegistry.label("queue", "ping_writer"),
+                    () -> engine.getPingDataWriter() == null ? Double.NaN : engine.getPingDataWriter().getQueueDepth());
+            registry.gauge("queue_depth", "Entries waiting in the queue", MetricsRegistry.label("queue", "log_engine"),
+                    () -> engine.getLogEngine() == null ? Double.NaN : engine.getLogEngine().getQueueDepth());
+            registry.histogram("mongo_insert_seconds", "Latency of MongoDB inserts",
+                    MetricsRegistry.label("op", "insert_one"), engine.getInsertLatencies());
+            registry.histogram("mongo_insert_seconds", "Latency of MongoDB inserts",
+                    MetricsRegistry.label("op", "insert_many"), engine.getInsertManyLatencies());
+            registry.counter("ping_writer_written", "Ping data written by the batched writer", "",
+                    () -> engine.getPingDataWriter() == null ? Double.NaN
+                            : engine.getPingDataWriter().getWrittenCount());
+            registry.counter("ping_writer_dropped", "Ping data dropped because the writer queue was full", "",
+                    () -> engine.getPingDataWriter() == null ? Double.NaN
+                            : engine.getPingDataWriter().getDroppedCount());
+            registry.gauge("spool_pending", "Spooled documents waiting for replay", "",
+                    () -> engine.getSpool() == null ? Double.NaN : engine.getSpool().getPendingCount());
+            registry.gauge("spool_size_bytes", "Size of the spool segment files", "",
+                    () -> engine.getSpool() == null ? Double.NaN : engine.getSpool().getSizeBytes());
+            registry.gauge("spool_store_available", "1 if MongoDB is written directly, 0 during outage", "",
+                    () -> engine.getSpool() == null ? Double.NaN : engine.getSpool().isStoreAvailable() ? 1 : 0);
+            registry.counter("spool_replayed", "Spooled documents replayed to MongoDB", "",
+                    () -> engine.getSpool() == null ? Double.NaN : engine.getSpool().getReplayedCount());
+            registry.gauge("spool_replay_rate", "Average replay throughput in documents per second", "",
+                    () -> engine.getSpool() == null ? Double.NaN : engine.getSpool().getReplayRate());
+        }
+        String bindAddress = properties.getValue("metricsBindAddress", "127.0.0.1");
+        int port = properties.getIntValue("metricsPort", 9464);
+        try {
+            MetricsServer server = new MetricsServer(registry, bindAddress, port);
+            server.start();
+            metrics = registry;
+            metricsServer = server;
+            System.out.println(ConsoleColors.GREEN_BOLD + "Metrics endpoint: http://" + bindAddress + ":"
+                    + server.getPort() + "/metrics" + ConsoleColors.RESET);
+        } catch (Exception e) {
+            System.out.println(ConsoleColors.RED_BOLD + "Failed to start metrics endpoint on " + bindAddress + ":"
+                    + port + " (" + e.getMessage() + ")" + ConsoleColors.RESET);
+        }
+    }
+
+    /**
+     * Stop probing and flush all queued results and logs
+     */
+    static void shutdown() {
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        if (probeScheduler != null) {
+            probeScheduler.shutdown();
+        }
+        if (probeReactor != null) {
+            probeReactor.shutdown(1000);
+        }
+        if (diagnosticsExecutor != null) {
+            diagnosticsExecutor.shutdown(2000); // finished diagnostics are queued before writers stop
+        }
+        if (retentionEngine != null) {
+            retentionEngine.stop(5000); // current chunk is checkpointed while the writers still run
+        }
+        if (documentDatabaseEngine != null) {
+            documentDatabaseEngine.stopPingDataWriter();
+            documentDatabaseEngine.stopSpool(); // results spooled by the last flush stay on disk
+            documentDatabaseEngine.stopLogEngine();
+        }
+        if (databaseEngine != null) {
+            databaseEngine.stopLogEngine(); // flushes queued logs through the writer
+            databaseEngine.stopPipeline();
+        }
+    }
+
+    /**
+     * Create the probe scheduler shared by all hosts
+     *
+     * @param probeJob
+     * @return ProbeScheduler
+     */
+    static ProbeScheduler createProbeScheduler(ProbeScheduler.ProbeJob probeJob) {
+        AdaptiveIntervalPolicy intervalPolicy = new AdaptiveIntervalPolicy(
+                Boolean.parseBoolean(properties.getValue("adaptiveIntervals", "true")),
+                properties.getIntValue("adaptiveMinDivisor", 4),
+                properties.getIntValue("adaptiveMaxMultiplier", 4),
+                properties.getIntValue("adaptiveStableProbes", 5));
+        return new ProbeScheduler(properties.getIntValue("probeWorkerThreads", 16),
+                properties.getIntValue("timerWheelTickMillis", 100),
+                properties.getIntValue("timerWheelSize", 512), probeJob, intervalPolicy, () -> {
+                    ProbeAdmissionController admission = getProcessRunner().getAdmission();
+                    return admission != null && admission.getWaitingCount() > 0;
+                });
+    }
+
+    /**
+     * Get the runner of probe subprocesses shared by all hosts, created from
+     * properties on first use
+     *
+     * @return ProbeProcessRunner
+     */
+    public static synchronized ProbeProcessRunner getProcessRunner() {
+        if (processRunner == null) {
+            Properties source = properties;
+            Map<ProbeAdmissionController.ProcessType, Integer> quotas = new EnumMap<>(
+                    ProbeAdmissionController.ProcessType.class);
+            quotas.put(ProbeAdmissionController.ProcessType.PING,
+                    source != null ? source.getIntValue("subprocessQuotaPing", 30) : 30);
+            quotas.put(ProbeAdmissionController.ProcessType.DIG,
+                    source != null ? source.getIntValue("subprocessQuotaDig", 4) : 4);
+            quotas.put(ProbeAdmissionController.ProcessType.TRACEROUTE,
+                    source != null ? source.getIntValue("subprocessQuotaTraceroute", 4) : 4);
+            ProbeAdmissionController admission = new ProbeAdmissionController(
+                    source != null ? source.getIntValue("subprocessBudget", 32) : 32, quotas);
+            processRunner = new ProbeProcessRunner(
+                    source != null ? source.getIntValue("probeTimeoutMillis", 12000) : 12000,
+                    source != null ? source.getIntValue("diagnosticsTimeoutMillis", 30000) : 30000,
+                    source != null ? source.getIntValue("probeKillGraceMillis", 1000) : 1000, admission);
+        }
+        return processRunner;
+    }
+
+    /**
+     * Get the reactor of in-process probes (tcp, udp) shared by all hosts,
+     * started on first use
+     *
+     * @return NioProbeReactor
+     */
+    public static synchronized NioProbeReactor getProbeReactor() {
+        if (probeReactor == null) {
+            Properties source = properties;
+            try {
+                probeReactor = new NioProbeReactor(
+                        source != null ? source.getIntValue("socketReplyTimeoutMillis", 1000) : 1000,
+                        source != null ? source.getIntValue("socketPacketSpacingMillis", 200) : 200);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to start probe reactor: " + e.getMessage(), e);
+            }
+        }
+        return probeReactor;
+    }
+
+    /**
+     * Get the dns server used by dns diagnostics (dnsResolver: system - first
+     * nameserver of /etc/resolv.conf, ip or ip:port)
+     *
+     * @return InetSocketAddress or null when dig subprocess should be used
+     */
+    public static InetSocketAddress getDnsResolver() {
+        String value = properties != null ? properties.getValue("dnsResolver", "system").trim() : "system";
+        if (value.equals("dig")) {
+            return null;
+        }
+        if (value.isEmpty() || value.equals("system")) {
+            // same resolver as the system (and dig), internal names and private PTR records stay inside
+            String nameserver = DnsMessage.systemNameserver(Paths.get("/etc/resolv.conf"));
+            if (nameserver == null) {
+                System.out.println(ConsoleColors.YELLOW + "No nameserver in /etc/resolv.conf, dns diagnostics use dig"
+                        + ConsoleColors.RESET);
+                return null;
+            }
+            InetSocketAddress resolver = new InetSocketAddress(nameserver, 53);
+            return resolver.isUnresolved() ? null : resolver;
+        }
+        int separator = value.lastIndexOf(':');
+        int port = 53;
+        if (separator > 0 && value.indexOf(':') == separator) {
+            try {
+                port = Integer.parseInt(value.substring(separator + 1).trim());
+            } catch (NumberFormatException e) {
+                System.out.println(ConsoleColors.RED_BOLD + "Invalid dnsResolver port, using dig" + ConsoleColors.RESET);
+                return null;
+            }
+            value = value.substring(0, separator);
+        }
+        InetSocketAddress resolver = new InetSocketAddress(value, port);
+        return resolver.isUnresolved() ? null : resolver;
+    }
+
+    /**
+     * Create the executor of failure diagnostics shared by all hosts
+     *
+     * @return DiagnosticsExecutor
+     */
+    static DiagnosticsExecutor createDiagnosticsExecutor() {
+        InetSocketAddress resolver = getDnsResolver();
+        return new DiagnosticsExecutor(getProcessRunner(), resolver != null ? getProbeReactor() : null, resolver,
+                properties.getIntValue("diagnosticsThreads", 2),
+                properties.getIntValue("diagnosticsQueueSize", 100),
+                properties.getIntValue("diagnosticsDedupSeconds", 300) * 1000L,
+                properties.getIntValue("diagnosticsOutageTargets", 5),
+                properties.getIntValue("diagnosticsOutageSeconds", 60) * 1000L);
+    }
+
     /**
      * Initialize the database
      */
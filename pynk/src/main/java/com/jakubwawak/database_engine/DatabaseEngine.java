@@ -13,10 +13,16 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.List;
 
 import com.jakubwawak.entity.Host;
 import com.jakubwawak.entity.PingData;
+import com.jakubwawak.log_engine.LogEngine;
+import com.jakubwawak.log_engine.LogRecord;
 import com.jakubwawak.maintanance.ConsoleColors;
+import com.jakubwawak.maintanance.Properties;
+import com.jakubwawak.ping_engine.DiagnosticsExecutor;
+import org.sqlite.SQLiteConfig;
 
 /**
  * Database engine for the application
@@ -26,6 +32,15 @@ public class DatabaseEngine {
     public boolean connected = false;
     private Connection connection;
     private String databasePath;
+    private volatile SqliteWriter writer;
+    private volatile SqliteReadPool readPool;
+    private volatile LogEngine logEngine;
+
+    static final String PING_INSERT_SQL = "INSERT INTO ping_history (host_id, ping_timestamp, packet_status_code, packet_status_color_hex, packet_transmitted, packet_received, packet_hop_time1, packet_hop_time2, packet_hop_time3, packet_hop_time4, packet_hop_time5, packet_hop_time6, packet_hop_time7, packet_hop_time8, packet_round_trip_time_min, packet_round_trip_time_max, packet_round_trip_time_avg, packet_dig_data, packet_tracert_data, packet_raw_ping) VALUES (?,?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+
+    static final String PING_DIAGNOSTICS_SQL = "UPDATE ping_history SET packet_dig_data = ?, packet_tracert_data = ? WHERE ping_id = ?;";
+
+    static final String LOG_INSERT_SQL = "INSERT INTO app_log (host_id, log_timestamp, log_category, log_data, log_code, log_color_hex) VALUES (?, ?, ?, ?, ?, ?);";
 
     /**
      * Constructor to initialize the database path and connect
@@ -45,15 +60,7 @@ public class DatabaseEngine {
             if (connection != null && !connection.isClosed()) {
                 connection.close();
             }
-            connection = DriverManager.getConnection("jdbc:sqlite:" + databasePath);
-
-            // Enable WAL mode and set pragmas for better concurrency
-            try (Statement stmt = connection.createStatement()) {
-                stmt.execute("PRAGMA journal_mode=WAL");
-                stmt.execute("PRAGMA busy_timeout=30000"); // 30 second timeout
-                stmt.execute("PRAGMA synchronous=NORMAL"); // Faster writes with reasonable safety
-            }
-
+            connection = openConnection(databasePath, false);
             connected = true;
         } catch (SQLException e) {
             connected = false;
@@ -61,6 +68,167 @@ public class DatabaseEngine {
         }
     }
 
+    /**
+     * Method to open a new SQLite connection with the application pragmas
+     *
+     * @param databasePath
+     * @param readOnly
+     * @return Connection
+     * @throws SQLException
+     */
+    static Connection openConnection(String databasePath, boolean readOnly) throws SQLException {
+        if (readOnly) {
+            SQLiteConfig config = new SQLiteConfig();
+            config.setReadOnly(true);
+            config.setBusyTimeout(30000);
+            return DriverManager.getConnection("jdbc:sqlite:" + databasePath, config.toProperties());
+        }
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databasePath);
+
+        // Enable WAL mode and set pragmas for better concurrency
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA busy_timeout=30000"); // 30 second timeout
+            stmt.execute("PRAGMA synchronous=NORMAL"); // Faster writes with reasonable safety
+        }
+        return connection;
+    }
+
+    /**
+     * Method to start the write pipeline - single long-lived writer connection
+     * fed by a queue and a pool of read-only connections
+     *
+     * @param queueCapacity
+     * @param batchSize
+     * @param flushIntervalMillis
+     * @param readPoolSize
+     */
+    public void startPipeline(int queueCapacity, int batchSize, long flushIntervalMillis, int readPoolSize) {
+        try {
+            readPool = new SqliteReadPool(databasePath, readPoolSize);
+            SqliteWriter sqliteWriter = new SqliteWriter(databasePath, queueCapacity, batchSize, flushIntervalMillis);
+            sqliteWriter.start();
+            writer = sqliteWriter;
+            addLog("info", "SQLite pipeline started (writer batch: " + batchSize + ", read pool: " + readPoolSize
+                    + ")", "info", ConsoleColors.GREEN_BOLD);
+        } catch (SQLException e) {
+            addLog("error", "Error starting SQLite pipeline: " + e.getMessage(), "error", ConsoleColors.RED_BOLD);
+        }
+    }
+
+    /**
+     * Method to stop the write pipeline - queued writes are committed
+     */
+    public void stopPipeline() {
+        SqliteWriter sqliteWriter = writer;
+        if (sqliteWriter != null) {
+            writer = null;
+            sqliteWriter.stop(10000);
+            System.out.println("SQLite writer stopped (" + sqliteWriter.getStatistics() + ")");
+        }
+        if (readPool != null) {
+            readPool.close();
+            readPool = null;
+        }
+    }
+
+    /**
+     * Method to start asynchronous batched logging - records are written to
+     * app_log with parameterized batches on size, time and shutdown
+     *
+     * @param properties
+     */
+    public void startLogEngine(Properties properties) {
+        LogEngine engine = LogEngine.fromProperties(new SqliteLogSink(this), properties);
+        engine.start();
+        logEngine = engine;
+        addLog("info", "Started asynchronous log engine", "info", ConsoleColors.GREEN_BOLD);
+    }
+
+    /**
+     * Method to stop asynchronous logging - queued records are written, has to
+     * be called before stopPipeline
+     */
+    public void stopLogEngine() {
+        LogEngine engine = logEngine;
+        if (engine != null) {
+            logEngine = null;
+            engine.stop(10000);
+            System.out.println("SQLite log engine stopped (" + engine.getStatistics() + ")");
+        }
+    }
+
+    /**
+     * Method to get asynchronous log engine
+     *
+     * @return LogEngine or null if not started
+     */
+    public LogEngine getLogEngine() {
+        return logEngine;
+    }
+
+    /**
+     * Method to write batch of log records in one transaction - queued to the
+     * writer when pipeline is running
+     *
+     * @param records
+     * @throws SQLException
+     */
+    void writeLogBatch(List<LogRecord> records) throws SQLException {
+        SqliteWriter sqliteWriter = writer;
+        if (sqliteWriter != null) {
+            List<LogRecord> batch = new ArrayList<>(records); // caller reuses its list
+            if (!sqliteWriter.submit(w -> bindLogBatch(w.statement(LOG_INSERT_SQL), batch).executeBatch())) {
+                throw new SQLException("SQLite writer queue full");
+            }
+            return;
+        }
+        synchronized (this) {
+            boolean autoCommit = connection.getAutoCommit();
+            try (PreparedStatement pstmt = connection.prepareStatement(LOG_INSERT_SQL)) {
+                connection.setAutoCommit(false);
+                bindLogBatch(pstmt, records).executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * Method to add log records to statement batch
+     *
+     * @param pstmt
+     * @param records
+     * @return PreparedStatement
+     * @throws SQLException
+     */
+    private static PreparedStatement bindLogBatch(PreparedStatement pstmt, List<LogRecord> records)
+            throws SQLException {
+        for (LogRecord record : records) {
+            pstmt.setInt(1, record.isHostLog() ? (Integer) record.hostId : 0);
+            pstmt.setString(2, new Timestamp(record.timestamp).toString()); // same text format as before
+            pstmt.setString(3, record.category);
+            pstmt.setString(4, record.message);
+            pstmt.setString(5, record.code);
+            pstmt.setString(6, record.colorHex);
+            pstmt.addBatch();
+        }
+        return pstmt;
+    }
+
+    /**
+     * Method to get the writer of the pipeline
+     *
+     * @return SqliteWriter or null if pipeline is not started
+     */
+    public SqliteWriter getWriter() {
+        return writer;
+    }
+
     /**
      * Method to get the database path
      * 
@@ -124,6 +292,20 @@ public class DatabaseEngine {
         return 0;
     }
 
+    /**
+     * Method to execute a write statement - queued to the writer when pipeline is running
+     *
+     * @param sql
+     */
+    private void executeWrite(String sql) {
+        SqliteWriter sqliteWriter = writer;
+        if (sqliteWriter != null) {
+            sqliteWriter.submit(w -> w.executeSQL(sql));
+            return;
+        }
+        executeSQL(sql);
+    }
+
     /**
      * Method to create a host entry in the database
      * 
@@ -167,7 +349,11 @@ public class DatabaseEngine {
                     "host_category VARCHAR(100), " +
                     "host_description TEXT, " +
                     "host_status VARCHAR(20), " +
-                    "host_job_time INTEGER);");
+                    "host_job_time INTEGER, " +
+                    "host_probe_type VARCHAR(20) DEFAULT 'icmp', " +
+                    "host_probe_port INTEGER DEFAULT 0, " +
+                    "host_job_time_min INTEGER DEFAULT 0, " +
+                    "host_job_time_max INTEGER DEFAULT 0);");
 
             createHostEntry("localhost", "127.0.0.1", "local", "Localhost", 30000, "active");
             addLog("info", "Localhost added", "info", ConsoleColors.GREEN_BOLD);
@@ -177,6 +363,13 @@ public class DatabaseEngine {
             addLog("info", "Cloudflare DNS added", "info", ConsoleColors.GREEN_BOLD);
         }
 
+        // probe engine selection, added to databases created by older versions
+        addColumnIfMissing("host_data", "host_probe_type", "VARCHAR(20) DEFAULT 'icmp'");
+        addColumnIfMissing("host_data", "host_probe_port", "INTEGER DEFAULT 0");
+        // adaptive interval bounds
+        addColumnIfMissing("host_data", "host_job_time_min", "INTEGER DEFAULT 0");
+        addColumnIfMissing("host_data", "host_job_time_max", "INTEGER DEFAULT 0");
+
         if (!doesTableExist("ping_history")) {
             System.out.println("Creating ping_history table");
             executeSQL("CREATE TABLE ping_history (" +
@@ -203,6 +396,40 @@ public class DatabaseEngine {
                     "packet_raw_ping TEXT);");
         }
 
+        if (!doesTableExist("retention_state")) {
+            System.out.println("Creating retention_state table");
+            executeSQL("CREATE TABLE retention_state (" +
+                    "policy_name VARCHAR(100) PRIMARY KEY, " +
+                    "last_run INTEGER, " +
+                    "last_cutoff INTEGER, " +
+                    "deleted_total INTEGER, " +
+                    "last_pass_deleted INTEGER, " +
+                    "pass_complete INTEGER);");
+        }
+
+    }
+
+    /**
+     * Method to add the column to the existing table
+     *
+     * @param tableName
+     * @param columnName
+     * @param definition
+     */
+    private void addColumnIfMissing(String tableName, String columnName, String definition) {
+        try (Statement stmt = connection.createStatement();
+                ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + tableName + ");")) {
+            while (rs.next()) {
+                if (columnName.equalsIgnoreCase(rs.getString("name"))) {
+                    return;
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error checking columns of " + tableName + ": " + e.getMessage());
+            return;
+        }
+        System.out.println("Adding " + columnName + " column to " + tableName + " table");
+        executeSQL("ALTER TABLE " + tableName + " ADD COLUMN " + columnName + " " + definition + ";");
     }
 
     /**
@@ -230,10 +457,15 @@ public class DatabaseEngine {
      * @param colorHex
      */
     public void addLog(String category, String data, String code, String colorHex) {
+        LogEngine engine = logEngine;
+        if (engine != null) {
+            engine.submit(new LogRecord(category, data, code, colorHex, null));
+            return;
+        }
         System.out.println(ConsoleColors.GREEN_BOLD + "[" + new Timestamp(System.currentTimeMillis()) + "] "
                 + ConsoleColors.RESET + ConsoleColors.GREEN_BOLD + category + ConsoleColors.RESET + ": "
                 + ConsoleColors.GREEN_BOLD + data + ConsoleColors.RESET);
-        executeSQL(
+        executeWrite(
                 "INSERT INTO app_log (host_id, log_timestamp, log_category, log_data, log_code, log_color_hex) VALUES (0, '"
                         + new Timestamp(System.currentTimeMillis()) + "', '" + category + "', '" + data + "', '" + code
                         + "', '" + colorHex + "');");
@@ -249,10 +481,15 @@ public class DatabaseEngine {
      * @param colorHex
      */
     public void addHostLog(int hostId, String category, String data, String code, String colorHex) {
+        LogEngine engine = logEngine;
+        if (engine != null) {
+            engine.submit(new LogRecord(category, data, code, colorHex, hostId));
+            return;
+        }
         System.out.println(ConsoleColors.BLUE_BOLD + "[" + new Timestamp(System.currentTimeMillis()) + "] "
                 + ConsoleColors.RESET + ConsoleColors.BLUE_BOLD + category + ConsoleColors.RESET + ": "
                 + ConsoleColors.BLUE_BOLD + data + ConsoleColors.RESET);
-        executeSQL(
+        executeWrite(
                 "INSERT INTO app_log (host_id, log_timestamp, log_category, log_data, log_code, log_color_hex) VALUES ("
                         + hostId + ", '" + new Timestamp(System.currentTimeMillis()) + "', '" + category + "', '" + data
                         + "', '" + code + "', '" + colorHex + "');");
@@ -264,29 +501,24 @@ public class DatabaseEngine {
      * @param pingData
      */
     public void addPingData(PingData pingData) {
-        String sql = "INSERT INTO ping_history (host_id, ping_timestamp, packet_status_code, packet_status_color_hex, packet_transmitted, packet_received, packet_hop_time1, packet_hop_time2, packet_hop_time3, packet_hop_time4, packet_hop_time5, packet_hop_time6, packet_hop_time7, packet_hop_time8, packet_round_trip_time_min, packet_round_trip_time_max, packet_round_trip_time_avg, packet_dig_data, packet_tracert_data, packet_raw_ping) VALUES (?,?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, pingData.hostId);
-            pstmt.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
-            pstmt.setString(3, pingData.packetStatusCode);
-            pstmt.setString(4, pingData.packetStatusColorHex);
-            pstmt.setInt(5, pingData.packetTransmitted);
-            pstmt.setInt(6, pingData.packetReceived);
-            pstmt.setDouble(7, pingData.packetHopTime1);
-            pstmt.setDouble(8, pingData.packetHopTime2);
-            pstmt.setDouble(9, pingData.packetHopTime3);
-            pstmt.setDouble(10, pingData.packetHopTime4);
-            pstmt.setDouble(11, pingData.packetHopTime5);
-            pstmt.setDouble(12, pingData.packetHopTime6);
-            pstmt.setDouble(13, pingData.packetHopTime7);
-            pstmt.setDouble(14, pingData.packetHopTime8);
-            pstmt.setDouble(15, pingData.packetRoundTripTimeMin);
-            pstmt.setDouble(16, pingData.packetRoundTripTimeMax);
-            pstmt.setDouble(17, pingData.packetRoundTripTimeAvg);
-            pstmt.setString(18, pingData.packetDigData);
-            pstmt.setString(19, pingData.packetTracertData);
-            pstmt.setString(20, pingData.packetRawPing);
-            pstmt.executeUpdate();
+        SqliteWriter sqliteWriter = writer;
+        if (sqliteWriter != null) {
+            sqliteWriter.submit(w -> {
+                bindPingData(w.statement(PING_INSERT_SQL), pingData).executeUpdate();
+                if (pingData.diagnostics != null) {
+                    pingData.pingId = (int) w.lastInsertRowId(); // needed by the diagnostics update
+                }
+            });
+            return;
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(PING_INSERT_SQL,
+                Statement.RETURN_GENERATED_KEYS)) {
+            bindPingData(pstmt, pingData).executeUpdate();
+            try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                if (keys.next()) {
+                    pingData.pingId = keys.getInt(1);
+                }
+            }
 
             addLog("info", "Ping data added to database", "info", ConsoleColors.GREEN_BOLD);
 
@@ -296,6 +528,75 @@ public class DatabaseEngine {
         }
     }
 
+    /**
+     * Method to attach diagnostics (dig/traceroute) to stored ping data - the
+     * update is queued behind the insert on the writer
+     *
+     * @param pingData
+     * @param result
+     */
+    public void attachDiagnostics(PingData pingData, DiagnosticsExecutor.DiagnosticsResult result) {
+        if (result == null) {
+            return;
+        }
+        pingData.packetDigData = result.digData; // dns results are stored in their compact text form
+        pingData.packetTracertData = result.tracertData;
+        SqliteWriter sqliteWriter = writer;
+        if (sqliteWriter != null) {
+            sqliteWriter.submit(w -> bindDiagnostics(w.statement(PING_DIAGNOSTICS_SQL), pingData).executeUpdate());
+            return;
+        }
+        synchronized (this) {
+            try (PreparedStatement pstmt = connection.prepareStatement(PING_DIAGNOSTICS_SQL)) {
+                bindDiagnostics(pstmt, pingData).executeUpdate();
+            } catch (SQLException e) {
+                addLog("error", "Error attaching diagnostics: " + e.getMessage(), "error", ConsoleColors.RED_BOLD);
+            }
+        }
+    }
+
+    /**
+     * Method to bind diagnostics of ping data to the update statement
+     *
+     * @param pstmt
+     * @param pingData
+     * @return PreparedStatement
+     * @throws SQLException
+     */
+    private static PreparedStatement bindDiagnostics(PreparedStatement pstmt, PingData pingData)
+            throws SQLException {
+        pstmt.setString(1, pingData.packetDigData);
+        pstmt.setString(2, pingData.packetTracertData);
+        pstmt.setInt(3, pingData.pingId);
+        return pstmt;
+    }
+
+    /**
+     * Method to bind ping data to the insert statement
+     *
+     * @param pstmt
+     * @param pingData
+     * @return PreparedStatement
+     * @throws SQLException
+     */
+    private static PreparedStatement bindPingData(PreparedStatement pstmt, PingData pingData) throws SQLException {
+        pstmt.setInt(1, pingData.hostId);
+        pstmt.setTimestamp(2, pingData.pingTimestamp != null ? pingData.pingTimestamp
+                : new Timestamp(System.currentTimeMillis()));
+        pstmt.setString(3, pingData.packetStatusCode);
+        pstmt.setString(4, pingData.packetStatusColorHex);
+        pstmt.setInt(5, pingData.packetTransmitted);
+        pstmt.setInt(6, pingData.packetReceived);
+        pingData.packetTimes.bind(pstmt, 7); // packet_hop_time1..8
+        pstmt.setDouble(15, pingData.packetRoundTripTimeMin);
+        pstmt.setDouble(16, pingData.packetRoundTripTimeMax);
+        pstmt.setDouble(17, pingData.packetRoundTripTimeAvg);
+        pstmt.setString(18, pingData.packetDigData);
+        pstmt.setString(19, pingData.packetTracertData);
+        pstmt.setString(20, pingData.packetRawPing);
+        return pstmt;
+    }
+
     /**
      * Method to get all hosts from the database
      * 
@@ -303,12 +604,8 @@ public class DatabaseEngine {
      */
     public ArrayList<Host> getHosts() {
         ArrayList<Host> hosts = new ArrayList<>();
-        String sql = "SELECT * FROM host_data;";
-        try (Statement stmt = connection.createStatement()) {
-            ResultSet rs = stmt.executeQuery(sql);
-            while (rs.next()) {
-                hosts.add(new Host(rs));
-            }
+        try {
+            hosts = loadHosts();
             addLog("info", "Hosts fetched from database", "info", ConsoleColors.GREEN_BOLD);
         } catch (SQLException e) {
             addLog("error", "Error getting hosts: " + e.getMessage(), "error", ConsoleColors.RED_BOLD);
@@ -316,6 +613,56 @@ public class DatabaseEngine {
         return hosts;
     }
 
+    /**
+     * Method to load all hosts - unlike getHosts failure is reported to the caller
+     *
+     * @return ArrayList<Host>
+     * @throws SQLException
+     */
+    public ArrayList<Host> loadHosts() throws SQLException {
+        ArrayList<Host> hosts = new ArrayList<>();
+        SqliteReadPool pool = readPool;
+        if (pool != null) {
+            return pool.read(readConnection -> selectHosts(readConnection, hosts));
+        }
+        return selectHosts(connection, hosts);
+    }
+
+    /**
+     * Method to execute read on a pooled connection - main connection is used
+     * when pipeline is not started
+     *
+     * @param task
+     * @return T
+     * @throws SQLException
+     */
+    public <T> T read(SqliteReadPool.ReadTask<T> task) throws SQLException {
+        SqliteReadPool pool = readPool;
+        if (pool != null) {
+            return pool.read(task);
+        }
+        synchronized (this) {
+            return task.execute(connection);
+        }
+    }
+
+    /**
+     * Method to select all hosts using given connection
+     *
+     * @param readConnection
+     * @param hosts
+     * @return ArrayList<Host>
+     * @throws SQLException
+     */
+    private static ArrayList<Host> selectHosts(Connection readConnection, ArrayList<Host> hosts) throws SQLException {
+        try (Statement stmt = readConnection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT * FROM host_data;")) {
+            while (rs.next()) {
+                hosts.add(new Host(rs));
+            }
+        }
+        return hosts;
+    }
+
     /**
      * Method to close the database connection
      */
@@ -6,16 +6,28 @@
 package com.jakubwawak.database_engine;
 
 import com.jakubwawak.entity.Host;
+import com.jakubwawak.entity.PayloadCodec;
 import com.jakubwawak.entity.PingData;
 import com.jakubwawak.entity.TraceSinglePath;
+import com.jakubwawak.log_engine.LogEngine;
+import com.jakubwawak.log_engine.LogLevel;
+import com.jakubwawak.log_engine.LogRecord;
+import com.jakubwawak.log_engine.LogRingBuffer;
 import com.jakubwawak.maintanance.ConsoleColors;
+import com.jakubwawak.maintanance.Properties;
+import com.jakubwawak.metrics_engine.LatencyHistogram;
+import com.jakubwawak.ping_engine.DiagnosticsExecutor;
 import com.mongodb.*;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
 import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.result.InsertManyResult;
 import com.mongodb.client.result.InsertOneResult;
 import com.mongodb.client.result.UpdateResult;
 import org.bson.BsonDocument;
@@ -31,6 +43,7 @@ import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.PojoCodecProvider;
@@ -42,11 +55,25 @@ import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
  */
 public class DocumentDatabaseEngine {
 
+    public static final int RECENT_LOGS_CAPACITY = 4096;
+
+    // default codecs with POJO support - shared with the spool, which encodes documents while offline
+    static final CodecRegistry CODEC_REGISTRY = fromRegistries(
+            MongoClientSettings.getDefaultCodecRegistry(),
+            fromProviders(PojoCodecProvider.builder().automatic(true).build()));
+
     public String database_url;
     public boolean connected;
     MongoClient mongoClient;
     MongoDatabase mongoDatabase;
-    ArrayList<String> error_collection;
+    LogRingBuffer recentLogs;
+    volatile PingDataWriter pingDataWriter;
+    volatile PingRollupEngine pingRollupEngine;
+    volatile DocumentSpool spool;
+    volatile boolean timeSeriesPingData;
+    volatile LogEngine logEngine;
+    final LatencyHistogram insertLatencies = new LatencyHistogram();
+    final LatencyHistogram insertManyLatencies = new LatencyHistogram();
 
     /**
      * Constructor
@@ -54,7 +81,7 @@ public class DocumentDatabaseEngine {
     public DocumentDatabaseEngine() {
         this.database_url = "";
         connected = false;
-        error_collection = new ArrayList<>();
+        recentLogs = new LogRingBuffer(RECENT_LOGS_CAPACITY);
     }
 
     /**
@@ -76,16 +103,10 @@ public class DocumentDatabaseEngine {
                 .version(ServerApiVersion.V1)
                 .build();
 
-        // Create a CodecRegistry that includes POJO support
-        CodecRegistry pojoCodecRegistry = fromRegistries(
-            MongoClientSettings.getDefaultCodecRegistry(),
-            fromProviders(PojoCodecProvider.builder().automatic(true).build())
-        );
-
         MongoClientSettings settings = MongoClientSettings.builder()
                 .applyConnectionString(new ConnectionString(database_url))
                 .serverApi(serverApi)
-                .codecRegistry(pojoCodecRegistry)  // Add the POJO codec registry
+                .codecRegistry(CODEC_REGISTRY)  // Add the POJO codec registry
                 .build();
         try {
             log("DB-CONNECTION", "Connecting to database...");
@@ -177,6 +198,7 @@ public class DocumentDatabaseEngine {
      * @return int
      */
     public int insert(String collectionName, Document document) {
+        long start = System.nanoTime();
         try {
             InsertOneResult result = mongoDatabase.getCollection(collectionName).insertOne(document);
             if (result.getInsertedId() != null) {
@@ -188,6 +210,56 @@ public class DocumentDatabaseEngine {
         } catch (MongoException ex) {
             log("DB-INSERT-ERROR", "Failed to insert document to collection (" + ex.toString() + ")");
             return -1;
+        } finally {
+            insertLatencies.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Function for inserting documents to collection with single unordered insertMany
+     *
+     * @param collectionName
+     * @param documents
+     * @return int
+     *         amount of inserted documents, -1 on error
+     */
+    public int insertMany(String collectionName, List<Document> documents) {
+        return insertMany(collectionName, documents, null);
+    }
+
+    /**
+     * Function for inserting documents to collection with single unordered
+     * insertMany, collecting indexes of documents rejected by the server
+     *
+     * @param collectionName
+     * @param documents
+     * @param rejectedIndexes filled with indexes of rejected documents, may be null
+     * @return int
+     *         amount of inserted documents, -1 on error
+     */
+    public int insertMany(String collectionName, List<Document> documents, Set<Integer> rejectedIndexes) {
+        if (documents.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        try {
+            InsertManyResult result = mongoDatabase.getCollection(collectionName).insertMany(documents,
+                    new InsertManyOptions().ordered(false));
+            return result.getInsertedIds().size();
+        } catch (MongoBulkWriteException ex) {
+            log("DB-INSERT-ERROR", "Failed to insert " + ex.getWriteErrors().size() + " documents to collection "
+                    + collectionName + " (" + ex.getMessage() + ")");
+            if (rejectedIndexes != null) {
+                for (BulkWriteError error : ex.getWriteErrors()) {
+                    rejectedIndexes.add(error.getIndex());
+                }
+            }
+            return ex.getWriteResult().getInsertedCount();
+        } catch (MongoException ex) {
+            log("DB-INSERT-ERROR", "Failed to insert documents to collection (" + ex.toString() + ")");
+            return -1;
+        } finally {
+            insertManyLatencies.record(System.nanoTime() - start);
         }
     }
 
@@ -262,16 +334,242 @@ public class DocumentDatabaseEngine {
      * @param pingData
      */
     public void addPingData(PingData pingData) {
+        if (pingDataWriter != null) {
+            pingDataWriter.enqueue(pingData);
+            return;
+        }
         Document pingDataDocument = pingData.toDocument();
+        if (spoolOnOutage(PingDataWriter.PING_DATA_COLLECTION, pingDataDocument)) {
+            return;
+        }
         int result = insert("ping_data", pingDataDocument);
+        if (result == -1 && spoolAfterFailure(PingDataWriter.PING_DATA_COLLECTION, pingDataDocument)) {
+            return;
+        }
         if (result == 1) {
             log("DB-PING-DATA", "Added ping data for host (" + pingData.hostIdMongo + ") ping_timestamp: "
                     + pingData.pingTimestamp);
+            PingRollupEngine rollups = pingRollupEngine;
+            if (rollups != null) {
+                rollups.add(List.of(pingData));
+            }
         } else {
             log("DB-PING-DATA-ERROR", "Failed to add ping data for host (" + pingData.hostIdMongo + ")");
         }
     }
 
+    /**
+     * Function for attaching diagnostics (dig/traceroute) to stored ping data -
+     * with the writer running the update is applied after the insert
+     *
+     * @param pingData
+     * @param result
+     */
+    public void attachDiagnostics(PingData pingData, DiagnosticsExecutor.DiagnosticsResult result) {
+        if (pingData.pingIdMongo == null || result == null) {
+            return;
+        }
+        applyDiagnostics(pingData, result);
+        Bson update = Updates.combine(Updates.set("packet_dig_data", PayloadCodec.encode(result.digData)),
+                Updates.set("packet_tracert_data", PayloadCodec.encode(result.tracertData)));
+        if (result.dnsResults != null) {
+            update = Updates.combine(update,
+                    Updates.set("packet_dns_results", PingData.dnsResultDocuments(result.dnsResults)));
+        }
+        PingDataWriter writer = pingDataWriter;
+        if (writer != null) {
+            writer.enqueueUpdate(pingData, update);
+            return;
+        }
+        try {
+            getCollection(PingDataWriter.PING_DATA_COLLECTION).updateOne(Filters.eq("_id", pingData.pingIdMongo),
+                    update);
+        } catch (Exception e) {
+            log("DB-PING-DATA-ERROR", "Failed to attach diagnostics for host (" + pingData.hostIdMongo + ") ("
+                    + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Function for adding ping data once its diagnostics finished - used with
+     * time-series ping_data where stored measurements are not updated
+     *
+     * @param pingData
+     */
+    public void addPingDataAfterDiagnostics(PingData pingData) {
+        pingData.diagnostics.whenComplete((result, error) -> {
+            if (result != null) {
+                applyDiagnostics(pingData, result);
+            }
+            addPingData(pingData);
+        });
+    }
+
+    /**
+     * Copy diagnostics result to the ping data
+     *
+     * @param pingData
+     * @param result
+     */
+    private void applyDiagnostics(PingData pingData, DiagnosticsExecutor.DiagnosticsResult result) {
+        pingData.packetDigData = result.digData;
+        pingData.packetTracertData = result.tracertData;
+        pingData.packetDnsResults = result.dnsResults;
+    }
+
+    /**
+     * Function for checking if ping_data is a time-series collection
+     *
+     * @return boolean
+     */
+    public boolean isTimeSeriesPingData() {
+        return timeSeriesPingData;
+    }
+
+    /**
+     * Function for starting asynchronous ping data writer, after this call
+     * addPingData only enqueues the data
+     *
+     * @param queueCapacity
+     * @param batchSize
+     * @param flushIntervalMillis
+     */
+    public void startPingDataWriter(int queueCapacity, int batchSize, long flushIntervalMillis) {
+        pingDataWriter = new PingDataWriter(this, queueCapacity, batchSize, flushIntervalMillis);
+        pingDataWriter.start();
+        log("DB-PING-WRITER", "Started ping data writer (queue: " + queueCapacity + ", batch: " + batchSize
+                + ", flush interval: " + flushIntervalMillis + " ms)");
+    }
+
+    /**
+     * Function for stopping asynchronous ping data writer - queued data is flushed
+     */
+    public void stopPingDataWriter() {
+        if (pingDataWriter != null) {
+            PingDataWriter writer = pingDataWriter;
+            pingDataWriter = null;
+            writer.stop(10000);
+            log("DB-PING-WRITER", "Stopped ping data writer (" + writer.getStatistics() + ")");
+        }
+    }
+
+    /**
+     * Function for starting the on-disk spool of probe results, results of an
+     * outage are replayed once the database is available
+     *
+     * @param properties
+     */
+    public void startSpool(Properties properties) {
+        try {
+            DocumentSpool documentSpool = DocumentSpool.fromProperties(this, properties);
+            documentSpool.start();
+            spool = documentSpool;
+            log("DB-SPOOL", "Started probe result spool (" + documentSpool.getStatistics() + ")");
+        } catch (Exception e) {
+            log("DB-SPOOL-ERROR", "Failed to open probe result spool (" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Function for stopping the spool - has to be called after the ping data
+     * writer was stopped, not replayed documents stay on disk
+     */
+    public void stopSpool() {
+        DocumentSpool documentSpool = spool;
+        if (documentSpool != null) {
+            spool = null;
+            documentSpool.stop(5000);
+            log("DB-SPOOL", "Stopped probe result spool (" + documentSpool.getStatistics() + ")");
+        }
+    }
+
+    /**
+     * Function for getting latency histogram of single document inserts
+     *
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getInsertLatencies() {
+        return insertLatencies;
+    }
+
+    /**
+     * Function for getting latency histogram of batched inserts
+     *
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getInsertManyLatencies() {
+        return insertManyLatencies;
+    }
+
+    /**
+     * Function for getting the spool of probe results
+     *
+     * @return DocumentSpool or null if not started
+     */
+    public DocumentSpool getSpool() {
+        return spool;
+    }
+
+    /**
+     * Function for spooling the document while the database is unavailable
+     *
+     * @param collectionName
+     * @param document
+     * @return boolean true if document was spooled
+     */
+    private boolean spoolOnOutage(String collectionName, Document document) {
+        DocumentSpool documentSpool = spool;
+        if (documentSpool == null || documentSpool.isStoreAvailable()) {
+            return false;
+        }
+        documentSpool.append(collectionName, List.of(document), false);
+        return true;
+    }
+
+    /**
+     * Function for spooling the document after a failed insert - the insert may
+     * have reached the database, replay rolls up its duplicate
+     *
+     * @param collectionName
+     * @param document
+     * @return boolean true if document was spooled
+     */
+    private boolean spoolAfterFailure(String collectionName, Document document) {
+        DocumentSpool documentSpool = spool;
+        if (documentSpool == null) {
+            return false;
+        }
+        documentSpool.markUnavailable("insert to " + collectionName + " failed");
+        documentSpool.append(collectionName, List.of(document), true);
+        return true;
+    }
+
+    /**
+     * Function for enabling ingest-time rollups of written ping data
+     */
+    public void enablePingRollups() {
+        pingRollupEngine = new PingRollupEngine(this);
+        log("DB-PING-ROLLUP", "Enabled ping data rollups (" + String.join(", ", PingRollupEngine.GRANULARITIES) + ")");
+    }
+
+    /**
+     * Function for getting ping data rollups
+     *
+     * @return PingRollupEngine or null if not enabled
+     */
+    public PingRollupEngine getPingRollupEngine() {
+        return pingRollupEngine;
+    }
+
+    /**
+     * Function for getting asynchronous ping data writer
+     *
+     * @return PingDataWriter or null if not started
+     */
+    public PingDataWriter getPingDataWriter() {
+        return pingDataWriter;
+    }
+
     /**
      * Function for adding hour default ping data
      * 
@@ -283,7 +581,13 @@ public class DocumentDatabaseEngine {
             .append("ping_avg", pingData.packetRoundTripTimeAvg)
             .append("ping_min", pingData.packetRoundTripTimeMin)
             .append("ping_max", pingData.packetRoundTripTimeMax);
+        if (spoolOnOutage("hour_default_ping_data", hourDocument)) {
+            return;
+        }
         int result = insert("hour_default_ping_data", hourDocument);
+        if (result == -1 && spoolAfterFailure("hour_default_ping_data", hourDocument)) {
+            return;
+        }
         if (result == 1) {
             log("DB-HOUR-DEFAULT-PING-DATA", "Added hour default ping data for host (" + pingData.hostIdMongo + ")");
         } else {
@@ -350,12 +654,45 @@ public class DocumentDatabaseEngine {
      * @param colorHex
      */
     public void addHostLog(int hostId, String category, String data, String code, String colorHex) {
+        addHostLogEntry(hostId, category, data, code, colorHex);
+    }
+
+    /**
+     * Function for adding host log for host stored in MongoDB
+     *
+     * @param hostId
+     * @param category
+     * @param data
+     * @param code
+     * @param colorHex
+     */
+    public void addHostLog(ObjectId hostId, String category, String data, String code, String colorHex) {
+        addHostLogEntry(hostId, category, data, code, colorHex);
+    }
+
+    /**
+     * Function for adding host log entry - asynchronous when log engine is running
+     *
+     * @param hostId
+     * @param category
+     * @param data
+     * @param code
+     * @param colorHex
+     */
+    private void addHostLogEntry(Object hostId, String category, String data, String code, String colorHex) {
+        recentLogs.record(category, data, LogLevel.parse(code));
+        LogEngine engine = logEngine;
+        if (engine != null) {
+            engine.submit(new LogRecord(category, data, code, colorHex, hostId));
+            return;
+        }
         Document logEntry = new Document("host_id", hostId)
                 .append("category", category)
                 .append("data", data)
                 .append("code", code)
-                .append("colorHex", colorHex);
-        int result = insert("host_logs", logEntry);
+                .append("colorHex", colorHex)
+                .append("timestamp", System.currentTimeMillis());
+        int result = insert(DocumentLogSink.HOST_LOGS_COLLECTION, logEntry);
         if (result == 1) {
             System.out.println(ConsoleColors.BLUE_BOLD_BRIGHT + category + "["
                     + LocalDateTime.now(ZoneId.of("Europe/Warsaw")).toString() + ") - lvl: " + code + " - " + data
@@ -395,7 +732,7 @@ public class DocumentDatabaseEngine {
     }
 
     /**
-     * Function for adding a log entry with color
+     * Function for adding a log entry with color - asynchronous when log engine is running
      * 
      * @param category
      * @param message
@@ -403,13 +740,19 @@ public class DocumentDatabaseEngine {
      * @param colorHex
      */
     public void addLog(String category, String message, String level, String colorHex) {
+        recentLogs.record(category, message, LogLevel.parse(level));
+        LogEngine engine = logEngine;
+        if (engine != null) {
+            engine.submit(new LogRecord(category, message, level, colorHex, null));
+            return;
+        }
         Document logEntry = new Document()
                 .append("category", category)
                 .append("message", message)
                 .append("level", level)
                 .append("color_hex", colorHex)
                 .append("timestamp", LocalDateTime.now().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
-        int result = insert("logs", logEntry);
+        int result = insert(DocumentLogSink.LOGS_COLLECTION, logEntry);
         if (result == 1) {
             System.out.println(ConsoleColors.GREEN_BRIGHT + category + "["
                     + LocalDateTime.now(ZoneId.of("Europe/Warsaw")).toString() + ") - lvl: " + level + " - " + message
@@ -420,23 +763,58 @@ public class DocumentDatabaseEngine {
     }
 
     /**
-     * Function for creating log entry
-     * 
-     * @param log_category
-     * @param log_text
+     * Function for starting asynchronous log engine, after this call all log
+     * functions only enqueue records
+     *
+     * @param properties
      */
-    private void createLogEntry(String log_category, String log_text) {
-        try {
-            MongoCollection<Document> collection = mongoDatabase.getCollection("logs");
-            Document logEntry = new Document("category", log_category)
-                    .append("text", log_text)
-                    .append("timestamp", LocalDateTime.now(ZoneId.of("Europe/Warsaw")));
-            collection.insertOne(logEntry);
-        } catch (Exception ex) {
-            log("DB-LOG-ERROR", "Failed to create log entry (" + ex.toString() + ")");
+    public void startLogEngine(Properties properties) {
+        LogEngine engine = LogEngine.fromProperties(new DocumentLogSink(this), properties);
+        engine.start();
+        logEngine = engine;
+        log("LOG-ENGINE", "Started asynchronous log engine");
+    }
+
+    /**
+     * Function for stopping asynchronous log engine - queued records are written
+     */
+    public void stopLogEngine() {
+        LogEngine engine = logEngine;
+        if (engine != null) {
+            log("LOG-ENGINE", "Stopping log engine (" + engine.getStatistics() + ")");
+            logEngine = null;
+            engine.stop(10000);
         }
     }
 
+    /**
+     * Function for getting asynchronous log engine
+     *
+     * @return LogEngine or null if not started
+     */
+    public LogEngine getLogEngine() {
+        return logEngine;
+    }
+
+    /**
+     * Function for getting the most recent log entries kept in memory
+     *
+     * @param count
+     * @return List<String> oldest first
+     */
+    public List<String> getRecentLogs(int count) {
+        return recentLogs.recent(count);
+    }
+
+    /**
+     * Function for printing the most recent log entries kept in memory
+     *
+     * @param count
+     */
+    public void dumpRecentLogs(int count) {
+        recentLogs.dump(count, System.out);
+    }
+
     /**
      * Function for story log data
      * 
@@ -444,9 +822,16 @@ public class DocumentDatabaseEngine {
      * @param log_text
      */
     public void log(String log_category, String log_text) {
-        error_collection
-                .add(log_category + "(" + LocalDateTime.now(ZoneId.of("Europe/Warsaw")).toString() + ") - " + log_text);
-        if (log_category.contains("FAILED") || log_category.contains("ERROR")) {
+        boolean failure = log_category.contains("FAILED") || log_category.contains("ERROR");
+        recentLogs.record(log_category, log_text, failure ? LogLevel.ERROR : LogLevel.INFO);
+        LogEngine engine = logEngine;
+        if (engine != null) {
+            // single record - console output and persistence are done by the log engine
+            engine.submit(new LogRecord(log_category, log_text, failure ? "error" : "info",
+                    failure ? "#FF0000" : "#0000FF", null));
+            return;
+        }
+        if (failure) {
             System.out.println(ConsoleColors.RED_BRIGHT + log_category + "["
                     + LocalDateTime.now(ZoneId.of("Europe/Warsaw")).toString() + ") - " + log_text + "]"
                     + ConsoleColors.RESET);
@@ -455,9 +840,6 @@ public class DocumentDatabaseEngine {
                     + LocalDateTime.now(ZoneId.of("Europe/Warsaw")).toString() + ") - " + log_text + "]"
                     + ConsoleColors.RESET);
         }
-        if (connected) {
-            createLogEntry(log_category, log_text);
-        }
     }
 
-}
+}
\ No newline at end of file
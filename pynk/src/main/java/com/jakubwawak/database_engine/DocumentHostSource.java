@@ -0,0 +1,136 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.database_engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.jakubwawak.entity.Host;
+import com.jakubwawak.host_engine.HostRegistry;
+import com.jakubwawak.host_engine.HostSource;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+
+/**
+ * Incremental host source for the hosts collection - every refresh reads only
+ * _id and the hostModified marker, full documents are loaded only for new and
+ * modified hosts. A full reload is done periodically in case some writer does
+ * not bump the marker
+ */
+public class DocumentHostSource implements HostSource {
+
+    public static final String HOSTS_COLLECTION = "hosts";
+
+    private final DocumentDatabaseEngine documentDatabaseEngine;
+    private final long fullResyncMillis;
+    private final Map<ObjectId, Long> knownMarkers = new HashMap<>();
+    private long lastFullResync;
+
+    // statistics
+    private long refreshes;
+    private long loadedDocuments;
+    private long fullResyncs;
+
+    /**
+     * Constructor
+     *
+     * @param documentDatabaseEngine
+     * @param fullResyncMillis       interval of full reloads, 0 - never
+     */
+    public DocumentHostSource(DocumentDatabaseEngine documentDatabaseEngine, long fullResyncMillis) {
+        this.documentDatabaseEngine = documentDatabaseEngine;
+        this.fullResyncMillis = fullResyncMillis;
+    }
+
+    /**
+     * Load changed hosts and publish them to the registry
+     *
+     * @param registry
+     */
+    @Override
+    public void refresh(HostRegistry registry) {
+        if (!documentDatabaseEngine.connected) {
+            throw new IllegalStateException("database not connected");
+        }
+        refreshes++;
+        long now = System.currentTimeMillis();
+        if (lastFullResync == 0 || (fullResyncMillis > 0 && now - lastFullResync >= fullResyncMillis)) {
+            fullResync(registry);
+            lastFullResync = now;
+            return;
+        }
+
+        List<ObjectId> changedIds = new ArrayList<>();
+        Set<ObjectId> presentIds = new HashSet<>();
+        for (Document document : documentDatabaseEngine.getCollection(HOSTS_COLLECTION).find()
+                .projection(Projections.include("_id", "hostModified"))) {
+            ObjectId id = document.getObjectId("_id");
+            presentIds.add(id);
+            Long known = knownMarkers.get(id);
+            if (known == null || known != Host.getModifiedMarker(document)) {
+                changedIds.add(id);
+            }
+        }
+
+        List<String> removedKeys = new ArrayList<>();
+        for (ObjectId id : new ArrayList<>(knownMarkers.keySet())) {
+            if (!presentIds.contains(id)) {
+                knownMarkers.remove(id);
+                removedKeys.add(id.toHexString());
+            }
+        }
+
+        List<Host> changedHosts = new ArrayList<>();
+        if (!changedIds.isEmpty()) {
+            for (Document document : documentDatabaseEngine.getCollection(HOSTS_COLLECTION)
+                    .find(Filters.in("_id", changedIds))) {
+                Host host = new Host(document);
+                knownMarkers.put(host.hostIdMongo, host.hostModified);
+                changedHosts.add(host);
+            }
+            loadedDocuments += changedHosts.size();
+        }
+        if (!changedHosts.isEmpty() || !removedKeys.isEmpty()) {
+            registry.publishChanges(changedHosts, removedKeys);
+        }
+    }
+
+    /**
+     * Load all hosts and replace the registry content
+     *
+     * @param registry
+     */
+    private void fullResync(HostRegistry registry) {
+        List<Host> hosts = new ArrayList<>();
+        for (Document document : documentDatabaseEngine.getCollection(HOSTS_COLLECTION).find()) {
+            hosts.add(new Host(document));
+        }
+        knownMarkers.clear();
+        for (Host host : hosts) {
+            knownMarkers.put(host.hostIdMongo, host.hostModified);
+        }
+        loadedDocuments += hosts.size();
+        fullResyncs++;
+        registry.publish(hosts);
+    }
+
+    /**
+     * Get short source statistics for logging
+     *
+     * @return String
+     */
+    public String getStatistics() {
+        return "refreshes: " + refreshes + ", full resyncs: " + fullResyncs + ", loaded documents: "
+                + loadedDocuments + ", known hosts: " + knownMarkers.size();
+    }
+}
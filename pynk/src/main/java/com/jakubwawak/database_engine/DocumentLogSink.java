@@ -0,0 +1,73 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.database_engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+
+import com.jakubwawak.log_engine.LogRecord;
+import com.jakubwawak.log_engine.LogSink;
+import com.mongodb.client.model.InsertManyOptions;
+
+/**
+ * Log sink storing records in logs and host_logs collections
+ */
+public class DocumentLogSink implements LogSink {
+
+    public static final String LOGS_COLLECTION = "logs";
+    public static final String HOST_LOGS_COLLECTION = "host_logs";
+
+    private final DocumentDatabaseEngine documentDatabaseEngine;
+
+    /**
+     * Constructor
+     *
+     * @param documentDatabaseEngine
+     */
+    public DocumentLogSink(DocumentDatabaseEngine documentDatabaseEngine) {
+        this.documentDatabaseEngine = documentDatabaseEngine;
+    }
+
+    /**
+     * Write batch of records - one unordered insertMany per collection
+     *
+     * @param records
+     */
+    @Override
+    public void write(List<LogRecord> records) {
+        if (!documentDatabaseEngine.connected) {
+            throw new IllegalStateException("database not connected");
+        }
+        List<Document> logs = new ArrayList<>();
+        List<Document> hostLogs = new ArrayList<>();
+        for (LogRecord record : records) {
+            if (record.isHostLog()) {
+                hostLogs.add(new Document("host_id", record.hostId)
+                        .append("category", record.category)
+                        .append("data", record.message)
+                        .append("code", record.code)
+                        .append("colorHex", record.colorHex)
+                        .append("timestamp", record.timestamp));
+            } else {
+                logs.add(new Document()
+                        .append("category", record.category)
+                        .append("message", record.message)
+                        .append("level", record.code)
+                        .append("color_hex", record.colorHex)
+                        .append("timestamp", record.timestamp));
+            }
+        }
+        InsertManyOptions options = new InsertManyOptions().ordered(false);
+        if (!logs.isEmpty()) {
+            documentDatabaseEngine.getCollection(LOGS_COLLECTION).insertMany(logs, options);
+        }
+        if (!hostLogs.isEmpty()) {
+            documentDatabaseEngine.getCollection(HOST_LOGS_COLLECTION).insertMany(hostLogs, options);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.database_engine;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+
+import com.jakubwawak.retention_engine.RetentionCheckpoint;
+import com.jakubwawak.retention_engine.RetentionTarget;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * MongoDB collection pruned by the retention engine - every chunk reads _id of
+ * the oldest documents through the time index and deletes exactly them.
+ * Checkpoints are stored in the retention_state collection
+ */
+public class DocumentRetentionTarget implements RetentionTarget {
+
+    public static final String STATE_COLLECTION = "retention_state";
+
+    private final DocumentDatabaseEngine documentDatabaseEngine;
+    private final String collection;
+    private final String timeField;
+    private final boolean dateField;
+
+    /**
+     * Constructor
+     *
+     * @param documentDatabaseEngine
+     * @param collection
+     * @param timeField              indexed time field of the documents
+     * @param dateField              true - time is a Date, false - epoch
+     *                               milliseconds
+     */
+    public DocumentRetentionTarget(DocumentDatabaseEngine documentDatabaseEngine, String collection, String timeField,
+            boolean dateField) {
+        this.documentDatabaseEngine = documentDatabaseEngine;
+        this.collection = collection;
+        this.timeField = timeField;
+        this.dateField = dateField;
+    }
+
+    @Override
+    public String getName() {
+        return collection;
+    }
+
+    @Override
+    public long deleteChunk(long cutoffMillis, int limit) {
+        MongoCollection<Document> documents = documentDatabaseEngine.getCollection(collection);
+        List<Object> ids = documents.find(Filters.lt(timeField, dateField ? new Date(cutoffMillis) : cutoffMillis))
+                .sort(Sorts.ascending(timeField)).projection(Projections.include("_id")).limit(limit)
+                .map(document -> document.get("_id")).into(new ArrayList<>());
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return documents.deleteMany(Filters.in("_id", ids)).getDeletedCount();
+    }
+
+    @Override
+    public boolean isBusy() {
+        PingDataWriter writer = documentDatabaseEngine.getPingDataWriter();
+        return writer != null && writer.getQueueDepth() > writer.getBatchSize();
+    }
+
+    @Override
+    public RetentionCheckpoint loadCheckpoint() {
+        Document state = documentDatabaseEngine.getCollection(STATE_COLLECTION).find(Filters.eq("_id", collection))
+                .first();
+        if (state == null) {
+            return null;
+        }
+        RetentionCheckpoint checkpoint = new RetentionCheckpoint(collection);
+        checkpoint.lastRunMillis = state.get("last_run", 0L);
+        checkpoint.lastCutoffMillis = state.get("last_cutoff", 0L);
+        checkpoint.deletedTotal = state.get("deleted_total", 0L);
+        checkpoint.lastPassDeleted = state.get("last_pass_deleted", 0L);
+        checkpoint.passComplete = state.getBoolean("pass_complete", true);
+        return checkpoint;
+    }
+
+    @Override
+    public void saveCheckpoint(RetentionCheckpoint checkpoint) {
+        Document state = new Document("_id", collection)
+                .append("last_run", checkpoint.lastRunMillis)
+                .append("last_cutoff", checkpoint.lastCutoffMillis)
+                .append("deleted_total", checkpoint.deletedTotal)
+                .append("last_pass_deleted", checkpoint.lastPassDeleted)
+                .append("pass_complete", checkpoint.passComplete)
+                .append("updated", new Date());
+        documentDatabaseEngine.getCollection(STATE_COLLECTION).replaceOne(Filters.eq("_id", collection), state,
+                new ReplaceOptions().upsert(true));
+    }
+}
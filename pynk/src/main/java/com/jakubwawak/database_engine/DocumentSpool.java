@@ -0,0 +1,478 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.database_engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.types.ObjectId;
+
+import com.jakubwawak.entity.PingData;
+import com.jakubwawak.maintanance.ConsoleColors;
+import com.jakubwawak.maintanance.Properties;
+import com.jakubwawak.spool_engine.SegmentSpool;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+
+/**
+ * Local spool of probe results for MongoDB outages - while the database is
+ * unreachable or slow the documents are appended to the memory-mapped
+ * segment spool instead of being lost. Replay thread probes the database and
+ * inserts spooled documents in order with batched unordered inserts, rate
+ * limited so the replay does not compete with live writes. Documents get their
+ * _id before spooling, duplicate key errors of a repeated replay are ignored.
+ * Ping data spooled after a failed insert may have been written without its
+ * rollups, such documents are rolled up on replay even when they are duplicates
+ */
+public class DocumentSpool {
+
+    static final int DUPLICATE_KEY = 11000;
+
+    private final DocumentDatabaseEngine documentDatabaseEngine;
+    private final SegmentSpool spool;
+    private final Codec<Document> codec;
+    private final int replayBatchSize;
+    private final int maxReplayPerSecond;
+    private final long probeIntervalMillis;
+    private final long slowMillis;
+    private final long syncIntervalMillis;
+    private final Object lock = new Object();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean storeAvailable = true;
+
+    // statistics
+    private final AtomicLong spooled = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong outages = new AtomicLong();
+    private final AtomicLong replayNanos = new AtomicLong();
+    private volatile double lastReplayRate;
+    private final Set<ObjectId> rolledUp = new HashSet<>(); // replay thread, ids of the uncommitted batch
+
+    /**
+     * Constructor
+     *
+     * @param documentDatabaseEngine
+     * @param spool
+     * @param replayBatchSize     max documents inserted at once on replay
+     * @param maxReplayPerSecond  replay rate limit, 0 - unlimited
+     * @param probeIntervalMillis time between availability checks during outage
+     * @param slowMillis          writes or checks slower than this are treated
+     *                            as outage
+     * @param syncIntervalMillis  flush interval of the spool (interval fsync)
+     */
+    public DocumentSpool(DocumentDatabaseEngine documentDatabaseEngine, SegmentSpool spool, int replayBatchSize,
+            int maxReplayPerSecond, long probeIntervalMillis, long slowMillis, long syncIntervalMillis) {
+        this.documentDatabaseEngine = documentDatabaseEngine;
+        this.spool = spool;
+        this.codec = DocumentDatabaseEngine.CODEC_REGISTRY.get(Document.class);
+        this.replayBatchSize = Math.max(1, replayBatchSize);
+        this.maxReplayPerSecond = Math.max(0, maxReplayPerSecond);
+        this.probeIntervalMillis = Math.max(100, probeIntervalMillis);
+        this.slowMillis = Math.max(1, slowMillis);
+        this.syncIntervalMillis = Math.max(1, syncIntervalMillis);
+        this.thread = new Thread(this::run, "pynk-spool-replay");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Create spool configured from properties file
+     *
+     * @param documentDatabaseEngine
+     * @param properties
+     * @return DocumentSpool
+     * @throws IOException when the spool directory could not be opened
+     */
+    public static DocumentSpool fromProperties(DocumentDatabaseEngine documentDatabaseEngine, Properties properties)
+            throws IOException {
+        long fsyncIntervalMillis = properties.getIntValue("spoolFsyncIntervalMillis", 1000);
+        SegmentSpool spool = new SegmentSpool(Paths.get(properties.getValue("spoolPath", "./spool")),
+                properties.getIntValue("spoolSegmentMb", 16) * 1024 * 1024,
+                properties.getIntValue("spoolMaxMb", 256) * 1024L * 1024,
+                properties.getValue("spoolFsyncPolicy", SegmentSpool.FSYNC_INTERVAL), fsyncIntervalMillis);
+        return new DocumentSpool(documentDatabaseEngine, spool, properties.getIntValue("spoolReplayBatchSize", 500),
+                properties.getIntValue("spoolReplayMaxPerSecond", 2000),
+                properties.getIntValue("spoolProbeMillis", 5000), properties.getIntValue("spoolSlowMillis", 5000),
+                fsyncIntervalMillis);
+    }
+
+    /**
+     * Start the replay thread - documents left by the previous run are
+     * replayed first
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Check if documents should be written to the database directly
+     *
+     * @return boolean false during outage
+     */
+    public boolean isStoreAvailable() {
+        return storeAvailable;
+    }
+
+    /**
+     * Get latency above which the database is treated as unavailable
+     *
+     * @return long milliseconds
+     */
+    public long getSlowMillis() {
+        return slowMillis;
+    }
+
+    /**
+     * Check if spooled documents wait for replay
+     *
+     * @return boolean
+     */
+    public boolean hasBacklog() {
+        return spool.getPendingRecords() > 0;
+    }
+
+    /**
+     * Mark the database as unreachable - next writes are spooled until the
+     * replay thread sees it healthy again
+     *
+     * @param reason
+     */
+    public void markUnavailable(String reason) {
+        if (storeAvailable) {
+            storeAvailable = false;
+            outages.incrementAndGet();
+            documentDatabaseEngine.log("DB-SPOOL-ERROR", "Database unavailable (" + reason
+                    + "), spooling probe results");
+        }
+    }
+
+    /**
+     * Append documents to the spool
+     *
+     * @param collection
+     * @param documents
+     * @param written    true when the failed insert may have written part of
+     *                   the documents without rollups
+     * @return int amount of spooled documents
+     */
+    public int append(String collection, List<Document> documents, boolean written) {
+        int count = 0;
+        for (Document document : documents) {
+            if (!document.containsKey("_id")) {
+                document.put("_id", new ObjectId()); // replay of the same record hits duplicate key
+            }
+            try {
+                if (spool.append(encode(collection, document, written))) {
+                    count++;
+                } else {
+                    rejected.incrementAndGet();
+                }
+            } catch (Exception e) {
+                rejected.incrementAndGet();
+                System.out.println(ConsoleColors.RED_BOLD + "Spool: failed to append document of " + collection
+                        + " (" + e.getMessage() + ")" + ConsoleColors.RESET);
+            }
+        }
+        spooled.addAndGet(count);
+        if (count < documents.size()) {
+            documentDatabaseEngine.log("DB-SPOOL-ERROR", "Spool full, lost " + (documents.size() - count) + " of "
+                    + documents.size() + " documents of " + collection);
+        }
+        return count;
+    }
+
+    /**
+     * Replay loop - probe the database during outage, replay backlog when it
+     * is available
+     */
+    private void run() {
+        while (running) {
+            try {
+                if (!storeAvailable) {
+                    if (!probe()) {
+                        spool.sync();
+                        pause(probeIntervalMillis);
+                        continue;
+                    }
+                    storeAvailable = true;
+                    documentDatabaseEngine.log("DB-SPOOL", "Database available, replaying "
+                            + spool.getPendingRecords() + " spooled documents");
+                }
+                if (!hasBacklog()) {
+                    spool.sync();
+                    pause(syncIntervalMillis);
+                    continue;
+                }
+                long start = System.nanoTime();
+                int count = replayBatch();
+                long elapsed = System.nanoTime() - start;
+                if (count > 0) {
+                    replayNanos.addAndGet(elapsed);
+                    lastReplayRate = count / (elapsed / 1_000_000_000.0);
+                    if (maxReplayPerSecond > 0) {
+                        pause(count * 1000L / maxReplayPerSecond - TimeUnit.NANOSECONDS.toMillis(elapsed));
+                    }
+                    if (!hasBacklog()) {
+                        documentDatabaseEngine.log("DB-SPOOL", "Spool replayed (" + getStatistics() + ")");
+                    }
+                }
+            } catch (Exception e) {
+                System.out.println(ConsoleColors.RED_BOLD + "Spool: replay error (" + e.getMessage() + ")"
+                        + ConsoleColors.RESET);
+                pause(probeIntervalMillis);
+            }
+        }
+    }
+
+    /**
+     * Check if the database answers ping in time
+     *
+     * @return boolean
+     */
+    private boolean probe() {
+        long start = System.nanoTime();
+        try {
+            documentDatabaseEngine.mongoDatabase.runCommand(new BsonDocument("ping", new BsonInt64(1)));
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < slowMillis;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Replay the oldest spooled documents - one unordered insert per
+     * collection, batch is removed from the spool when all inserts were
+     * executed
+     *
+     * @return int amount of replayed documents
+     */
+    int replayBatch() {
+        SegmentSpool.Batch batch = spool.read(replayBatchSize);
+        Map<String, List<Document>> collections = new LinkedHashMap<>();
+        Map<String, Set<Integer>> writtenIndexes = new LinkedHashMap<>();
+        for (byte[] record : batch.records) {
+            try {
+                Document wrapper = decode(record);
+                List<Document> documents = collections.computeIfAbsent(wrapper.getString("c"),
+                        key -> new ArrayList<>());
+                if (wrapper.getBoolean("w", false)) {
+                    writtenIndexes.computeIfAbsent(wrapper.getString("c"), key -> new HashSet<>())
+                            .add(documents.size());
+                }
+                documents.add(wrapper.get("d", Document.class));
+            } catch (Exception e) {
+                failed.incrementAndGet(); // unreadable record is skipped
+            }
+        }
+        for (Map.Entry<String, List<Document>> entry : collections.entrySet()) {
+            List<Document> documents = entry.getValue();
+            Set<Integer> rejectedIndexes = new HashSet<>();
+            Set<Integer> duplicateIndexes = new HashSet<>();
+            try {
+                documentDatabaseEngine.getCollection(entry.getKey()).insertMany(documents,
+                        new InsertManyOptions().ordered(false));
+            } catch (MongoBulkWriteException e) {
+                for (BulkWriteError error : e.getWriteErrors()) {
+                    rejectedIndexes.add(error.getIndex());
+                    if (error.getCode() == DUPLICATE_KEY) {
+                        duplicateIndexes.add(error.getIndex());
+                        duplicates.incrementAndGet(); // written before the cursor was moved
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                }
+            } catch (Exception e) {
+                markUnavailable(e.getMessage()); // batch stays in the spool
+                return 0;
+            }
+            replayed.addAndGet(documents.size() - rejectedIndexes.size());
+            if (PingDataWriter.PING_DATA_COLLECTION.equals(entry.getKey())) {
+                addRollups(documents, rejectedIndexes, duplicateIndexes,
+                        writtenIndexes.getOrDefault(entry.getKey(), Set.of()));
+            }
+        }
+        spool.commit(batch);
+        rolledUp.clear();
+        return batch.records.size();
+    }
+
+    /**
+     * Add replayed ping data to the rollups - duplicates are added only when
+     * the failed insert before spooling wrote them without rollups and an
+     * earlier replay of the batch did not add them already
+     *
+     * @param documents
+     * @param rejectedIndexes
+     * @param duplicateIndexes
+     * @param writtenIndexes   documents spooled after a failed insert
+     */
+    private void addRollups(List<Document> documents, Set<Integer> rejectedIndexes, Set<Integer> duplicateIndexes,
+            Set<Integer> writtenIndexes) {
+        PingRollupEngine rollups = documentDatabaseEngine.getPingRollupEngine();
+        if (rollups == null) {
+            return;
+        }
+        List<PingData> batch = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            boolean unrolledDuplicate = duplicateIndexes.contains(i) && writtenIndexes.contains(i);
+            if (rejectedIndexes.contains(i) && !unrolledDuplicate) {
+                continue;
+            }
+            ObjectId id = documents.get(i).getObjectId("_id");
+            if (!rolledUp.add(id)) {
+                continue; // added by an earlier replay of the batch
+            }
+            try {
+                batch.add(new PingData(documents.get(i)));
+            } catch (Exception e) {
+                // incomplete document, counted only in ping_data
+            }
+        }
+        rollups.add(batch);
+    }
+
+    /**
+     * Encode document with its collection
+     *
+     * @param collection
+     * @param document
+     * @param written    document may have been written without rollups
+     * @return byte[] BSON
+     */
+    byte[] encode(String collection, Document document, boolean written) {
+        Document wrapper = new Document("c", collection).append("d", document);
+        if (written) {
+            wrapper.append("w", true);
+        }
+        RawBsonDocument raw = new RawBsonDocument(wrapper, codec);
+        ByteBuffer buffer = raw.getByteBuffer().asNIO();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Decode spooled record
+     *
+     * @param record
+     * @return Document with collection (c), document (d) and written flag (w)
+     */
+    Document decode(byte[] record) {
+        try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(record))) {
+            return codec.decode(reader, DecoderContext.builder().build());
+        }
+    }
+
+    /**
+     * Wait, returns early when the spool is stopped
+     *
+     * @param millis
+     */
+    private void pause(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            try {
+                lock.wait(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+        }
+    }
+
+    /**
+     * Stop replay and flush the spool - has to be called after the ping data
+     * writer was stopped
+     *
+     * @param timeoutMillis
+     */
+    public void stop(long timeoutMillis) {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        spool.close();
+    }
+
+    /**
+     * Get replay throughput while batches were running
+     *
+     * @return double documents per second
+     */
+    public double getReplayRate() {
+        long nanos = replayNanos.get();
+        return nanos == 0 ? 0 : (replayed.get() + duplicates.get()) / (nanos / 1_000_000_000.0);
+    }
+
+    /**
+     * Get amount of documents waiting for replay
+     *
+     * @return long
+     */
+    public long getPendingCount() {
+        return spool.getPendingRecords();
+    }
+
+    /**
+     * Get size of the spool files
+     *
+     * @return long bytes
+     */
+    public long getSizeBytes() {
+        return spool.getSizeBytes();
+    }
+
+    /**
+     * Get amount of replayed documents
+     *
+     * @return long
+     */
+    public long getReplayedCount() {
+        return replayed.get();
+    }
+
+    /**
+     * Get short spool statistics for logging
+     *
+     * @return String
+     */
+    public String getStatistics() {
+        return String.format("store: %s, spooled: %d, replayed: %d, duplicates: %d, lost: %d, failed: %d, "
+                + "outages: %d, replay rate avg/last: %.0f/%.0f per s, %s",
+                storeAvailable ? "available" : "unavailable", spooled.get(), replayed.get(), duplicates.get(),
+                rejected.get(), failed.get(), outages.get(), getReplayRate(), lastReplayRate, spool.getStatistics());
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.database_engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.jakubwawak.entity.PayloadCodec;
+import com.jakubwawak.maintanance.ConsoleColors;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Migration of stored ping data text to the configured payload mode - plain
+ * strings of existing documents are rewritten as compressed binaries (lean
+ * mode also removes raw ping output of successful probes). Documents are
+ * walked in _id order in small batches, the migration can be stopped and run
+ * again at any time
+ */
+public class PayloadMigration {
+
+    static final String[] PAYLOAD_FIELDS = { "packet_raw_ping", "packet_dig_data", "packet_tracert_data" };
+
+    private final MongoCollection<Document> collection;
+    private final int batchSize;
+    private final long pauseMillis;
+
+    public long scanned;
+    public long updated;
+    public long bytesBefore;
+    public long bytesAfter;
+
+    /**
+     * Constructor
+     *
+     * @param collection  ping data collection
+     * @param batchSize   documents read and updated at once
+     * @param pauseMillis pause between batches, keeps load of the live database
+     *                    low
+     */
+    public PayloadMigration(MongoCollection<Document> collection, int batchSize, long pauseMillis) {
+        this.collection = collection;
+        this.batchSize = Math.max(1, batchSize);
+        this.pauseMillis = Math.max(0, pauseMillis);
+    }
+
+    /**
+     * Run the migration until no document with plain text is left
+     *
+     * @return PayloadMigration with statistics
+     * @throws InterruptedException
+     */
+    public PayloadMigration run() throws InterruptedException {
+        if (PayloadCodec.MODE_PLAIN.equals(PayloadCodec.getMode())) {
+            System.out.println(ConsoleColors.YELLOW + "Payload storage is plain, nothing to migrate" + ConsoleColors.RESET);
+            return this;
+        }
+        List<Bson> plainText = new ArrayList<>();
+        for (String field : PAYLOAD_FIELDS) {
+            plainText.add(Filters.type(field, BsonType.STRING));
+        }
+        Bson filter = Filters.or(plainText);
+        Bson projection = Projections.include("packet_status_code", PAYLOAD_FIELDS[0], PAYLOAD_FIELDS[1],
+                PAYLOAD_FIELDS[2]);
+        ObjectId lastId = null;
+        while (true) {
+            Bson batchFilter = lastId == null ? filter : Filters.and(Filters.gt("_id", lastId), filter);
+            List<Document> batch = collection.find(batchFilter).projection(projection).sort(Sorts.ascending("_id"))
+                    .limit(batchSize).into(new ArrayList<>());
+            if (batch.isEmpty()) {
+                break;
+            }
+            List<WriteModel<Document>> updates = new ArrayList<>(batch.size());
+            for (Document document : batch) {
+                Bson update = migrate(document);
+                if (update != null) {
+                    updates.add(new UpdateOneModel<>(Filters.eq("_id", document.getObjectId("_id")), update));
+                }
+            }
+            if (!updates.isEmpty()) {
+                collection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+                updated += updates.size();
+            }
+            scanned += batch.size();
+            lastId = batch.get(batch.size() - 1).getObjectId("_id");
+            System.out.println(ConsoleColors.CYAN + "Payload migration: " + getStatistics() + ConsoleColors.RESET);
+            if (pauseMillis > 0) {
+                Thread.sleep(pauseMillis);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Build update of the document
+     *
+     * @param document
+     * @return Bson update or null if nothing changes
+     */
+    Bson migrate(Document document) {
+        List<Bson> updates = new ArrayList<>();
+        for (String field : PAYLOAD_FIELDS) {
+            Object value = document.get(field);
+            if (!(value instanceof String)) {
+                continue;
+            }
+            bytesBefore += PayloadCodec.storedSize(value);
+            if (field.equals("packet_raw_ping") && PayloadCodec.omitRawPing(document.getString("packet_status_code"))) {
+                updates.add(Updates.unset(field));
+                continue;
+            }
+            Object encoded = PayloadCodec.encode((String) value);
+            bytesAfter += PayloadCodec.storedSize(encoded);
+            if (encoded != value) {
+                updates.add(Updates.set(field, encoded));
+            }
+        }
+        return updates.isEmpty() ? null : Updates.combine(updates);
+    }
+
+    /**
+     * Get short migration statistics
+     *
+     * @return String
+     */
+    public String getStatistics() {
+        return String.format("scanned: %d, updated: %d, text bytes before/after: %d/%d (%.1fx)", scanned, updated,
+                bytesBefore, bytesAfter, bytesAfter == 0 ? 0 : bytesBefore / (double) bytesAfter);
+    }
+}
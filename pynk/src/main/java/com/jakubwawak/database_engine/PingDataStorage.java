@@ -0,0 +1,301 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.database_engine;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.jakubwawak.maintanance.ConsoleColors;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.TimeSeriesGranularity;
+import com.mongodb.client.model.TimeSeriesOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+
+/**
+ * Storage mode of the ping_data collection - standard collection or MongoDB
+ * time-series collection (ping_timestamp as time field, host_id as meta
+ * field) where retention is done by expireAfterSeconds. Existing standard
+ * collection is migrated by renaming it to ping_data_legacy and copying the
+ * documents in _id order, the copied position is kept in the migrations
+ * collection so the migration can be stopped and run again. Collectors have
+ * to be stopped for the rename - a running writer would create standard
+ * ping_data again before the time-series collection exists
+ */
+public class PingDataStorage {
+
+    public static final String MODE_STANDARD = "standard";
+    public static final String MODE_TIMESERIES = "timeseries";
+    public static final String LEGACY_COLLECTION = "ping_data_legacy";
+    public static final String MIGRATIONS_COLLECTION = "migrations";
+    static final String CHECKPOINT_ID = "ping_data_timeseries";
+
+    private final DocumentDatabaseEngine documentDatabaseEngine;
+    private final String mode;
+    private final int retentionDays;
+    private final TimeSeriesGranularity granularity;
+
+    public long copied;
+    public long skipped;
+
+    /**
+     * Constructor
+     *
+     * @param documentDatabaseEngine
+     * @param mode                   standard or timeseries (unknown - standard)
+     * @param retentionDays          days ping data is kept in time-series mode,
+     *                               0 - forever
+     * @param granularity            seconds, minutes or hours - bucket span of
+     *                               the time-series collection
+     */
+    public PingDataStorage(DocumentDatabaseEngine documentDatabaseEngine, String mode, int retentionDays,
+            String granularity) {
+        this.documentDatabaseEngine = documentDatabaseEngine;
+        this.mode = MODE_TIMESERIES.equalsIgnoreCase(mode != null ? mode.trim() : "") ? MODE_TIMESERIES
+                : MODE_STANDARD;
+        this.retentionDays = Math.max(0, retentionDays);
+        TimeSeriesGranularity parsed = TimeSeriesGranularity.SECONDS;
+        for (TimeSeriesGranularity value : TimeSeriesGranularity.values()) {
+            if (value.name().equalsIgnoreCase(granularity != null ? granularity.trim() : "")) {
+                parsed = value;
+            }
+        }
+        this.granularity = parsed;
+    }
+
+    /**
+     * Check if time-series storage is configured
+     *
+     * @return boolean
+     */
+    public boolean isTimeSeries() {
+        return MODE_TIMESERIES.equals(mode);
+    }
+
+    /**
+     * Prepare ping_data at startup - in time-series mode the collection is
+     * created when missing and its retention is updated, standard collection
+     * is kept until it is migrated
+     *
+     * @return boolean true if ping_data is a time-series collection
+     */
+    public boolean prepare() {
+        String type = collectionType(PingDataWriter.PING_DATA_COLLECTION);
+        if (isTimeSeries()) {
+            try {
+                if (type == null) {
+                    createTimeSeriesCollection();
+                    type = MODE_TIMESERIES;
+                } else if (MODE_TIMESERIES.equals(type)) {
+                    updateRetention();
+                } else {
+                    System.out.println(ConsoleColors.YELLOW + "ping_data is a standard collection, run with "
+                            + "--migrate-timeseries to move it to time-series storage" + ConsoleColors.RESET);
+                    documentDatabaseEngine.log("DB-PING-STORAGE-ERROR",
+                            "Time-series storage configured, ping_data is a standard collection (not migrated)");
+                }
+            } catch (Exception e) {
+                documentDatabaseEngine.log("DB-PING-STORAGE-ERROR",
+                        "Failed to prepare time-series ping_data (" + e.getMessage() + ")");
+            }
+        }
+        boolean timeSeries = MODE_TIMESERIES.equals(type);
+        documentDatabaseEngine.timeSeriesPingData = timeSeries;
+        documentDatabaseEngine.log("DB-PING-STORAGE", "ping_data storage: " + (timeSeries ? "time-series" : "standard")
+                + (timeSeries ? ", retention: " + (retentionDays > 0 ? retentionDays + " days" : "none") : ""));
+        return timeSeries;
+    }
+
+    /**
+     * Migrate standard ping_data to time-series collection
+     *
+     * @param batchSize   documents copied at once
+     * @param pauseMillis pause between batches
+     * @param quietMillis ping_data has to be without new documents for this
+     *                    long before it is renamed, 0 - no check
+     * @return PingDataStorage with statistics
+     * @throws InterruptedException
+     * @throws IllegalStateException when ping_data still receives writes
+     */
+    public PingDataStorage migrate(int batchSize, long pauseMillis, long quietMillis) throws InterruptedException {
+        String type = collectionType(PingDataWriter.PING_DATA_COLLECTION);
+        boolean legacy = collectionType(LEGACY_COLLECTION) != null;
+        if (!MODE_TIMESERIES.equals(type)) {
+            if (type != null && legacy) {
+                System.out.println(ConsoleColors.RED_BOLD + "Both ping_data and " + LEGACY_COLLECTION
+                        + " are standard collections, resolve manually" + ConsoleColors.RESET);
+                return this;
+            }
+            if (type != null) {
+                checkQuiet(quietMillis);
+                documentDatabaseEngine.getCollection(PingDataWriter.PING_DATA_COLLECTION).renameCollection(
+                        new MongoNamespace(documentDatabaseEngine.mongoDatabase.getName(), LEGACY_COLLECTION));
+                legacy = true;
+                System.out.println(ConsoleColors.CYAN + "Renamed ping_data to " + LEGACY_COLLECTION + ConsoleColors.RESET);
+                if (collectionType(PingDataWriter.PING_DATA_COLLECTION) != null) {
+                    throw new IllegalStateException("ping_data was created again right after the rename, a collector "
+                            + "is still running - stop all collectors, move the new documents to " + LEGACY_COLLECTION
+                            + " or drop ping_data and run again");
+                }
+            }
+            createTimeSeriesCollection();
+        }
+        if (!legacy) {
+            System.out.println(ConsoleColors.YELLOW + "ping_data is a time-series collection, nothing to migrate"
+                    + ConsoleColors.RESET);
+            return this;
+        }
+        copyLegacy(Math.max(1, batchSize), Math.max(0, pauseMillis));
+        return this;
+    }
+
+    /**
+     * Refuse the migration while ping_data receives writes - the newest
+     * document has to be older than the quiet time
+     *
+     * @param quietMillis
+     * @throws IllegalStateException when a collector wrote to ping_data recently
+     */
+    private void checkQuiet(long quietMillis) {
+        if (quietMillis <= 0) {
+            return;
+        }
+        Document newest = documentDatabaseEngine.getCollection(PingDataWriter.PING_DATA_COLLECTION).find()
+                .sort(Sorts.descending("_id")).limit(1).first();
+        if (newest == null || !(newest.get("_id") instanceof ObjectId)) {
+            return;
+        }
+        long age = System.currentTimeMillis() - newest.getObjectId("_id").getDate().getTime();
+        if (age < quietMillis) {
+            throw new IllegalStateException("ping_data received a document " + TimeUnit.MILLISECONDS.toSeconds(age)
+                    + " s ago - stop all collectors and wait " + TimeUnit.MILLISECONDS.toSeconds(quietMillis)
+                    + " s (pingDataMigrationQuietSeconds) before the migration");
+        }
+    }
+
+    /**
+     * Copy legacy documents after the checkpoint into time-series ping_data
+     *
+     * @param batchSize
+     * @param pauseMillis
+     * @throws InterruptedException
+     */
+    private void copyLegacy(int batchSize, long pauseMillis) throws InterruptedException {
+        MongoCollection<Document> source = documentDatabaseEngine.getCollection(LEGACY_COLLECTION);
+        MongoCollection<Document> target = documentDatabaseEngine.getCollection(PingDataWriter.PING_DATA_COLLECTION);
+        MongoCollection<Document> migrations = documentDatabaseEngine.getCollection(MIGRATIONS_COLLECTION);
+        Document checkpoint = migrations.find(Filters.eq("_id", CHECKPOINT_ID)).first();
+        ObjectId lastId = checkpoint != null ? checkpoint.getObjectId("last_id") : null;
+        boolean resumed = lastId != null || target.find().limit(1).first() != null; // run interrupted before checkpoint
+        long expiredBefore = retentionDays > 0 ? System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays)
+                : Long.MIN_VALUE;
+        while (true) {
+            Bson filter = lastId == null ? new Document() : Filters.gt("_id", lastId);
+            List<Document> batch = source.find(filter).sort(Sorts.ascending("_id")).limit(batchSize)
+                    .into(new ArrayList<>());
+            if (batch.isEmpty()) {
+                break;
+            }
+            List<Document> documents = new ArrayList<>(batch.size());
+            for (Document document : batch) {
+                Object timestamp = document.get("ping_timestamp");
+                if (!(timestamp instanceof Date) || ((Date) timestamp).getTime() < expiredBefore) {
+                    skipped++; // no time field or already past retention
+                } else if (resumed && isCopied(target, document)) {
+                    skipped++; // batch of the interrupted run
+                } else {
+                    documents.add(document);
+                }
+            }
+            resumed = false;
+            if (!documents.isEmpty()) {
+                target.insertMany(documents, new InsertManyOptions().ordered(false));
+                copied += documents.size();
+            }
+            lastId = batch.get(batch.size() - 1).getObjectId("_id");
+            migrations.updateOne(Filters.eq("_id", CHECKPOINT_ID),
+                    Updates.combine(Updates.set("last_id", lastId), Updates.set("updated", new Date())),
+                    new UpdateOptions().upsert(true));
+            System.out.println(ConsoleColors.CYAN + "Time-series migration: " + getStatistics() + ConsoleColors.RESET);
+            if (pauseMillis > 0) {
+                Thread.sleep(pauseMillis);
+            }
+        }
+        migrations.updateOne(Filters.eq("_id", CHECKPOINT_ID), Updates.set("finished", new Date()),
+                new UpdateOptions().upsert(true));
+    }
+
+    /**
+     * Check if the legacy document is already in time-series ping_data - the
+     * meta and time fields narrow the lookup to a single bucket
+     *
+     * @param target
+     * @param document
+     * @return boolean
+     */
+    private boolean isCopied(MongoCollection<Document> target, Document document) {
+        return target.find(Filters.and(Filters.eq("host_id", document.get("host_id")),
+                Filters.eq("ping_timestamp", document.get("ping_timestamp")),
+                Filters.eq("_id", document.get("_id")))).limit(1).first() != null;
+    }
+
+    /**
+     * Create time-series ping_data
+     */
+    private void createTimeSeriesCollection() {
+        CreateCollectionOptions options = new CreateCollectionOptions().timeSeriesOptions(
+                new TimeSeriesOptions("ping_timestamp").metaField("host_id").granularity(granularity));
+        if (retentionDays > 0) {
+            options.expireAfter(retentionDays, TimeUnit.DAYS);
+        }
+        documentDatabaseEngine.mongoDatabase.createCollection(PingDataWriter.PING_DATA_COLLECTION, options);
+        documentDatabaseEngine.log("DB-PING-STORAGE", "Created time-series ping_data (granularity: "
+                + granularity.name().toLowerCase() + ", retention: " + retentionDays + " days)");
+    }
+
+    /**
+     * Apply configured retention to existing time-series ping_data
+     */
+    private void updateRetention() {
+        documentDatabaseEngine.mongoDatabase.runCommand(new Document("collMod", PingDataWriter.PING_DATA_COLLECTION)
+                .append("expireAfterSeconds", retentionDays > 0 ? TimeUnit.DAYS.toSeconds(retentionDays) : "off"));
+    }
+
+    /**
+     * Get type of the collection
+     *
+     * @param name
+     * @return String timeseries, collection or null if missing
+     */
+    String collectionType(String name) {
+        Document info = documentDatabaseEngine.mongoDatabase.listCollections().filter(Filters.eq("name", name))
+                .first();
+        if (info == null) {
+            return null;
+        }
+        return info.getString("type");
+    }
+
+    /**
+     * Get short migration statistics
+     *
+     * @return String
+     */
+    public String getStatistics() {
+        return String.format("copied: %d, skipped: %d", copied, skipped);
+    }
+}
@@ -0,0 +1,429 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.database_engine;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.jakubwawak.entity.PingData;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Asynchronous writer for ping data - probe threads only enqueue results, the
+ * writer thread flushes them with unordered insertMany when the batch is full
+ * or the flush interval elapsed
+ */
+public class PingDataWriter {
+
+    public static final String PING_DATA_COLLECTION = "ping_data";
+    private static final long UPDATE_MAX_AGE_MILLIS = 10 * 60 * 1000;
+
+    private final DocumentDatabaseEngine documentDatabaseEngine;
+    private final ArrayBlockingQueue<PingData> queue;
+    private final ConcurrentLinkedQueue<PendingUpdate> updates = new ConcurrentLinkedQueue<>();
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long offerTimeoutMillis;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // statistics
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spooled = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong updated = new AtomicLong();
+    private final AtomicLong expiredUpdates = new AtomicLong();
+    private final AtomicLong flushLatencySumNanos = new AtomicLong();
+    private volatile int lastBatchSize;
+    private volatile long lastFlushLatencyNanos;
+    private volatile long maxFlushLatencyNanos;
+
+    /**
+     * Constructor
+     *
+     * @param documentDatabaseEngine
+     * @param queueCapacity          max amount of results waiting for flush
+     * @param batchSize              max amount of results in single insertMany
+     * @param flushIntervalMillis    max time result waits for flush
+     */
+    public PingDataWriter(DocumentDatabaseEngine documentDatabaseEngine, int queueCapacity, int batchSize,
+            long flushIntervalMillis) {
+        this.documentDatabaseEngine = documentDatabaseEngine;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+        this.offerTimeoutMillis = 100;
+        this.writerThread = new Thread(this::runWriter, "pynk-ping-writer");
+        this.writerThread.setDaemon(true);
+    }
+
+    /**
+     * Start the writer thread
+     */
+    public void start() {
+        writerThread.start();
+    }
+
+    /**
+     * Enqueue ping data for writing
+     *
+     * @param pingData
+     * @return true if ping data was accepted
+     */
+    public boolean enqueue(PingData pingData) {
+        try {
+            if (queue.offer(pingData, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                enqueued.incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dropped.incrementAndGet();
+        documentDatabaseEngine.log("DB-PING-WRITER-ERROR",
+                "Ping data queue full, dropped result for host (" + pingData.hostIdMongo + ")");
+        return false;
+    }
+
+    /**
+     * Queue update of already enqueued ping data - applied by the writer after
+     * the insert of the ping data was executed
+     *
+     * @param pingData
+     * @param update   update document ($set etc.)
+     */
+    public void enqueueUpdate(PingData pingData, Bson update) {
+        updates.add(new PendingUpdate(pingData, update));
+    }
+
+    /**
+     * Writer loop
+     */
+    private void runWriter() {
+        List<PingData> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PingData first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    applyUpdates();
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (running && batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PingData next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!running) {
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+            applyUpdates();
+        }
+    }
+
+    /**
+     * Write the batch with single unordered insertMany - during database
+     * outage the batch is stored in the spool
+     *
+     * @param batch
+     */
+    private void flush(List<PingData> batch) {
+        List<Document> documents = new ArrayList<>(batch.size());
+        for (PingData pingData : batch) {
+            documents.add(pingData.toDocument());
+        }
+        DocumentSpool spool = documentDatabaseEngine.getSpool();
+        if (spool != null && !spool.isStoreAvailable()) {
+            spool(spool, batch, documents, false);
+            return;
+        }
+        long start = System.nanoTime();
+        Set<Integer> rejectedIndexes = new HashSet<>();
+        int inserted = documentDatabaseEngine.insertMany(PING_DATA_COLLECTION, documents, rejectedIndexes);
+        long latency = System.nanoTime() - start;
+        if (inserted < 0 && spool != null) {
+            spool.markUnavailable("ping data insert failed");
+            // documents got their _id, inserted part is deduplicated and rolled up on replay
+            spool(spool, batch, documents, true);
+            return;
+        }
+        if (spool != null && TimeUnit.NANOSECONDS.toMillis(latency) > spool.getSlowMillis()) {
+            spool.markUnavailable("ping data insert took " + TimeUnit.NANOSECONDS.toMillis(latency) + " ms");
+        }
+        for (PingData pingData : batch) {
+            pingData.writeAttempted = true;
+        }
+
+        lastBatchSize = batch.size();
+        lastFlushLatencyNanos = latency;
+        if (latency > maxFlushLatencyNanos) {
+            maxFlushLatencyNanos = latency;
+        }
+        flushLatencySumNanos.addAndGet(latency);
+        flushes.incrementAndGet();
+        if (inserted > 0) {
+            written.addAndGet(inserted);
+            PingRollupEngine rollups = documentDatabaseEngine.getPingRollupEngine();
+            if (rollups != null) {
+                rollups.add(inserted(batch, rejectedIndexes));
+            }
+        }
+        if (inserted < batch.size()) {
+            failed.addAndGet(batch.size() - Math.max(0, inserted));
+            documentDatabaseEngine.log("DB-PING-DATA-ERROR",
+                    "Failed to write " + (batch.size() - Math.max(0, inserted)) + " of " + batch.size()
+                            + " ping data documents");
+        }
+    }
+
+    /**
+     * Get results of the batch accepted by the unordered insert
+     *
+     * @param batch
+     * @param rejectedIndexes
+     * @return List
+     */
+    private static List<PingData> inserted(List<PingData> batch, Set<Integer> rejectedIndexes) {
+        if (rejectedIndexes.isEmpty()) {
+            return batch;
+        }
+        List<PingData> inserted = new ArrayList<>(batch.size() - rejectedIndexes.size());
+        for (int i = 0; i < batch.size(); i++) {
+            if (!rejectedIndexes.contains(i)) {
+                inserted.add(batch.get(i));
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Store the batch in the spool
+     *
+     * @param spool
+     * @param batch
+     * @param documents
+     * @param written   insert failed, part of the documents may be written
+     */
+    private void spool(DocumentSpool spool, List<PingData> batch, List<Document> documents, boolean written) {
+        int count = spool.append(PING_DATA_COLLECTION, documents, written);
+        for (int i = 0; i < batch.size(); i++) {
+            PingData pingData = batch.get(i);
+            pingData.pingIdMongo = documents.get(i).getObjectId("_id"); // pending updates find the replayed document
+            pingData.spooled = true;
+            pingData.writeAttempted = true;
+        }
+        spooled.addAndGet(count);
+        if (count < batch.size()) {
+            failed.addAndGet(batch.size() - count);
+        }
+    }
+
+    /**
+     * Apply pending updates of ping data already written - one unordered bulk
+     * write, updates of ping data still waiting for insert or replay stay
+     * queued
+     */
+    private void applyUpdates() {
+        if (updates.isEmpty()) {
+            return;
+        }
+        DocumentSpool spool = documentDatabaseEngine.getSpool();
+        if (spool != null && !spool.isStoreAvailable()) {
+            return; // kept until the database is back, old ones expire
+        }
+        boolean replaying = spool != null && spool.hasBacklog();
+        long now = System.currentTimeMillis();
+        List<WriteModel<Document>> models = new ArrayList<>();
+        List<PendingUpdate> waiting = new ArrayList<>();
+        PendingUpdate pending;
+        while ((pending = updates.poll()) != null) {
+            if (pending.pingData.writeAttempted && !(pending.pingData.spooled && replaying)) {
+                models.add(new UpdateOneModel<>(Filters.eq("_id", pending.pingData.pingIdMongo), pending.update));
+            } else if (now - pending.createdMillis < UPDATE_MAX_AGE_MILLIS) {
+                waiting.add(pending);
+            } else {
+                expiredUpdates.incrementAndGet(); // ping data was dropped before insert
+            }
+        }
+        updates.addAll(waiting);
+        if (models.isEmpty()) {
+            return;
+        }
+        try {
+            documentDatabaseEngine.getCollection(PING_DATA_COLLECTION).bulkWrite(models,
+                    new BulkWriteOptions().ordered(false));
+            updated.addAndGet(models.size());
+        } catch (Exception e) {
+            documentDatabaseEngine.log("DB-PING-DATA-ERROR",
+                    "Failed to apply " + models.size() + " ping data updates (" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Stop the writer - waits until queued results are flushed
+     *
+     * @param timeoutMillis
+     */
+    public void stop(long timeoutMillis) {
+        running = false; // writer notices within one flush interval, no interrupt during insert
+        try {
+            writerThread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get max amount of results written at once
+     *
+     * @return int
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Get amount of results waiting for flush
+     *
+     * @return int
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Get size of the last flushed batch
+     *
+     * @return int
+     */
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * Get average batch size
+     *
+     * @return double
+     */
+    public double getAverageBatchSize() {
+        long count = flushes.get();
+        return count == 0 ? 0 : (written.get() + failed.get()) / (double) count;
+    }
+
+    /**
+     * Get latency of the last flush
+     *
+     * @return double milliseconds
+     */
+    public double getLastFlushLatencyMillis() {
+        return lastFlushLatencyNanos / 1_000_000.0;
+    }
+
+    /**
+     * Get average flush latency
+     *
+     * @return double milliseconds
+     */
+    public double getAverageFlushLatencyMillis() {
+        long count = flushes.get();
+        return count == 0 ? 0 : flushLatencySumNanos.get() / (double) count / 1_000_000.0;
+    }
+
+    /**
+     * Get max flush latency
+     *
+     * @return double milliseconds
+     */
+    public double getMaxFlushLatencyMillis() {
+        return maxFlushLatencyNanos / 1_000_000.0;
+    }
+
+    /**
+     * Get amount of written results
+     *
+     * @return long
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * Get amount of results dropped because the queue was full
+     *
+     * @return long
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Get amount of results rejected by the database
+     *
+     * @return long
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Get short writer statistics for logging
+     *
+     * @return String
+     */
+    public String getStatistics() {
+        return String.format("queue: %d, batch last/avg: %d/%.1f, flush latency last/avg/max: %.1f/%.1f/%.1f ms, "
+                + "written: %d, failed: %d, dropped: %d, spooled: %d, updated: %d, pending updates: %d, "
+                + "expired updates: %d",
+                getQueueDepth(), getLastBatchSize(), getAverageBatchSize(), getLastFlushLatencyMillis(),
+                getAverageFlushLatencyMillis(), getMaxFlushLatencyMillis(), getWrittenCount(), getFailedCount(),
+                getDroppedCount(), spooled.get(), updated.get(), updates.size(), expiredUpdates.get());
+    }
+
+    /**
+     * Update waiting for the insert of its ping data
+     */
+    private static class PendingUpdate {
+        final PingData pingData;
+        final Bson update;
+        final long createdMillis = System.currentTimeMillis();
+
+        PendingUpdate(PingData pingData, Bson update) {
+            this.pingData = pingData;
+            this.update = update;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.database_engine;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.jakubwawak.entity.PingData;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Ingest-time rollups of ping data - every written batch is aggregated per
+ * host and minute/hour/day bucket and applied as $inc/$min/$max upserts, so
+ * long range views read one document per bucket instead of the raw samples.
+ * Average round trip time is rtt_sum / rtt_count, loss is
+ * 1 - packets_received / packets_transmitted. Failed upserts are kept and
+ * retried with the next batch
+ */
+public class PingRollupEngine {
+
+    public static final String[] GRANULARITIES = { "1m", "1h", "1d" };
+    static final long[] BUCKET_MILLIS = { 60_000L, 3_600_000L, 86_400_000L };
+    public static final String COLLECTION_PREFIX = "ping_rollup_";
+    static final int MAX_PENDING_UPDATES = 10_000;
+    static final int MAX_ATTEMPTS = 5;
+
+    private final DocumentDatabaseEngine documentDatabaseEngine;
+    private final ConcurrentLinkedQueue<PendingUpdate> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    // statistics
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong upserts = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private volatile long lastLatencyNanos;
+
+    /**
+     * Constructor
+     *
+     * @param documentDatabaseEngine
+     */
+    public PingRollupEngine(DocumentDatabaseEngine documentDatabaseEngine) {
+        this.documentDatabaseEngine = documentDatabaseEngine;
+    }
+
+    /**
+     * Get collection name of the granularity
+     *
+     * @param granularity 1m, 1h or 1d
+     * @return String
+     */
+    public static String collectionName(String granularity) {
+        return COLLECTION_PREFIX + granularity;
+    }
+
+    /**
+     * Add written ping data to the rollups - one unordered bulk write per
+     * granularity, upserts failed before are retried first
+     *
+     * @param batch
+     */
+    public void add(List<PingData> batch) {
+        long start = System.nanoTime();
+        retryPending();
+        for (int level = 0; level < GRANULARITIES.length; level++) {
+            List<WriteModel<Document>> models = buildUpdates(batch, BUCKET_MILLIS[level]);
+            List<PendingUpdate> updates = new ArrayList<>(models.size());
+            for (WriteModel<Document> model : models) {
+                updates.add(new PendingUpdate(level, model, 0));
+            }
+            write(level, updates);
+        }
+        samples.addAndGet(batch.size());
+        lastLatencyNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Write upserts kept after failed bulk writes
+     */
+    void retryPending() {
+        List<List<PendingUpdate>> levels = new ArrayList<>(GRANULARITIES.length);
+        for (int level = 0; level < GRANULARITIES.length; level++) {
+            levels.add(new ArrayList<>());
+        }
+        int count = pendingCount.get();
+        PendingUpdate update;
+        while (count-- > 0 && (update = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            levels.get(update.level).add(update);
+        }
+        for (int level = 0; level < GRANULARITIES.length; level++) {
+            if (!levels.get(level).isEmpty()) {
+                retried.addAndGet(levels.get(level).size());
+                write(level, levels.get(level));
+            }
+        }
+    }
+
+    /**
+     * Write upserts of one granularity - upserts rejected by the server or
+     * lost with the connection are kept for the next batch
+     *
+     * @param level
+     * @param updates
+     */
+    private void write(int level, List<PendingUpdate> updates) {
+        if (updates.isEmpty()) {
+            return;
+        }
+        List<WriteModel<Document>> models = new ArrayList<>(updates.size());
+        for (PendingUpdate update : updates) {
+            models.add(update.model);
+        }
+        try {
+            documentDatabaseEngine.getCollection(collectionName(GRANULARITIES[level])).bulkWrite(models,
+                    new BulkWriteOptions().ordered(false));
+            upserts.addAndGet(models.size());
+        } catch (MongoBulkWriteException e) {
+            List<PendingUpdate> rejected = new ArrayList<>(e.getWriteErrors().size());
+            for (BulkWriteError error : e.getWriteErrors()) {
+                rejected.add(updates.get(error.getIndex()));
+            }
+            upserts.addAndGet(models.size() - rejected.size());
+            keep(level, rejected, e.getMessage());
+        } catch (Exception e) {
+            keep(level, updates, e.getMessage()); // outcome unknown, a retried upsert may be counted twice
+        }
+    }
+
+    /**
+     * Keep failed upserts for the next batch - upserts failing MAX_ATTEMPTS
+     * times or over MAX_PENDING_UPDATES are dropped
+     *
+     * @param level
+     * @param updates
+     * @param reason
+     */
+    private void keep(int level, List<PendingUpdate> updates, String reason) {
+        failed.addAndGet(updates.size());
+        int dropped = 0;
+        for (PendingUpdate update : updates) {
+            if (update.attempts + 1 < MAX_ATTEMPTS && pendingCount.incrementAndGet() <= MAX_PENDING_UPDATES) {
+                pending.add(new PendingUpdate(level, update.model, update.attempts + 1));
+            } else {
+                if (update.attempts + 1 < MAX_ATTEMPTS) {
+                    pendingCount.decrementAndGet();
+                }
+                dropped++;
+            }
+        }
+        lost.addAndGet(dropped);
+        documentDatabaseEngine.log("DB-PING-ROLLUP-ERROR", "Failed to update " + updates.size() + " "
+                + GRANULARITIES[level] + " rollups, " + (updates.size() - dropped) + " kept for retry, "
+                + dropped + " dropped (" + reason + ")");
+    }
+
+    /**
+     * Get amount of rollup upserts waiting for retry
+     *
+     * @return int
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Aggregate the batch per host and bucket, one upsert for every bucket
+     *
+     * @param batch
+     * @param bucketMillis
+     * @return List of WriteModel
+     */
+    List<WriteModel<Document>> buildUpdates(List<PingData> batch, long bucketMillis) {
+        Map<String, Bucket> buckets = new LinkedHashMap<>();
+        for (PingData pingData : batch) {
+            if (pingData.hostIdMongo == null || pingData.pingTimestamp == null) {
+                continue;
+            }
+            long time = pingData.pingTimestamp.getTime();
+            long bucketStart = time - Math.floorMod(time, bucketMillis);
+            buckets.computeIfAbsent(pingData.hostIdMongo.toHexString() + "/" + bucketStart,
+                    key -> new Bucket(pingData.hostIdMongo, bucketStart)).add(pingData);
+        }
+        List<WriteModel<Document>> models = new ArrayList<>(buckets.size());
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+        for (Bucket bucket : buckets.values()) {
+            models.add(new UpdateOneModel<>(bucket.filter(), bucket.update(), upsert));
+        }
+        return models;
+    }
+
+    /**
+     * Get field name of the status counter
+     *
+     * @param packetStatusCode
+     * @return String
+     */
+    static String statusField(String packetStatusCode) {
+        String status = packetStatusCode == null || packetStatusCode.isBlank() ? "unknown"
+                : packetStatusCode.trim().toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "_");
+        return "status." + status;
+    }
+
+    /**
+     * Get short rollup statistics for logging
+     *
+     * @return String
+     */
+    public String getStatistics() {
+        return String.format("samples: %d, upserts: %d, failed: %d, pending: %d, retried: %d, lost: %d, "
+                + "last update: %.1f ms", samples.get(), upserts.get(), failed.get(), getPendingCount(),
+                retried.get(), lost.get(), lastLatencyNanos / 1_000_000.0);
+    }
+
+    /**
+     * Upsert of one granularity waiting for retry
+     */
+    private static class PendingUpdate {
+        final int level;
+        final WriteModel<Document> model;
+        final int attempts;
+
+        PendingUpdate(int level, WriteModel<Document> model, int attempts) {
+            this.level = level;
+            this.model = model;
+            this.attempts = attempts;
+        }
+    }
+
+    /**
+     * Counters of a single host bucket collected from the batch
+     */
+    private static class Bucket {
+        final ObjectId hostId;
+        final long bucketStart;
+        final Map<String, Integer> statuses = new LinkedHashMap<>();
+        int count;
+        long transmitted;
+        long received;
+        int rttCount;
+        double rttSum;
+        double rttMin = Double.MAX_VALUE;
+        double rttMax = -1;
+        double lossMax;
+
+        Bucket(ObjectId hostId, long bucketStart) {
+            this.hostId = hostId;
+            this.bucketStart = bucketStart;
+        }
+
+        void add(PingData pingData) {
+            count++;
+            statuses.merge(statusField(pingData.packetStatusCode), 1, Integer::sum);
+            transmitted += pingData.packetTransmitted;
+            received += pingData.packetReceived;
+            if (pingData.packetTransmitted > 0) {
+                lossMax = Math.max(lossMax,
+                        1 - Math.min(pingData.packetReceived, pingData.packetTransmitted)
+                                / (double) pingData.packetTransmitted);
+            }
+            if (pingData.packetReceived > 0 && pingData.packetRoundTripTimeAvg >= 0) {
+                rttCount++;
+                rttSum += pingData.packetRoundTripTimeAvg;
+                rttMin = Math.min(rttMin, pingData.packetRoundTripTimeMin);
+                rttMax = Math.max(rttMax, pingData.packetRoundTripTimeMax);
+            }
+        }
+
+        Bson filter() {
+            return Filters.eq("_id", new Document("host_id", hostId).append("bucket_start", new Date(bucketStart)));
+        }
+
+        Bson update() {
+            List<Bson> updates = new ArrayList<>();
+            updates.add(Updates.setOnInsert("host_id", hostId));
+            updates.add(Updates.setOnInsert("bucket_start", new Date(bucketStart)));
+            updates.add(Updates.inc("count", count));
+            for (Map.Entry<String, Integer> status : statuses.entrySet()) {
+                updates.add(Updates.inc(status.getKey(), status.getValue()));
+            }
+            updates.add(Updates.inc("packets_transmitted", transmitted));
+            updates.add(Updates.inc("packets_received", received));
+            updates.add(Updates.max("loss_max", lossMax));
+            updates.add(Updates.inc("rtt_count", rttCount));
+            updates.add(Updates.inc("rtt_sum", rttSum));
+            if (rttCount > 0) {
+                updates.add(Updates.min("rtt_min", rttMin));
+                updates.add(Updates.max("rtt_max", rttMax));
+            }
+            updates.add(Updates.max("updated", new Date()));
+            return Updates.combine(updates);
+        }
+    }
+}
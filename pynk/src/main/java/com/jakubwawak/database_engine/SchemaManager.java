@@ -0,0 +1,405 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.database_engine;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.jakubwawak.maintanance.ConsoleColors;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * Schema management of the MongoDB collections - declares the indexes needed
+ * by the collector and pynk_web queries, creates the missing ones at startup
+ * and verifies with explain() that the query shapes are served by an index
+ * (no collection scan, no in-memory sort). Indexes are matched by name, a
+ * changed TTL is applied with collMod, changed keys recreate the index
+ */
+public class SchemaManager {
+
+    public static final String STATUS_NO_RESPONSE = "No response";
+    public static final String STATUS_PARTIAL_LOSS = "Partial loss";
+
+    private final DocumentDatabaseEngine documentDatabaseEngine;
+    private final List<IndexSpec> indexes = new ArrayList<>();
+    private final List<QueryCheck> queries = new ArrayList<>();
+    private final boolean timeSeriesPingData;
+
+    public int created;
+    public int modified;
+    public int failed;
+
+    /**
+     * Constructor
+     *
+     * @param documentDatabaseEngine
+     * @param minuteRollupTtlDays    days minute rollups are kept, 0 - forever
+     * @param hourRollupTtlDays      days hour rollups are kept, 0 - forever
+     * @param timeSeriesPingData     ping_data is a time-series collection
+     */
+    public SchemaManager(DocumentDatabaseEngine documentDatabaseEngine, int minuteRollupTtlDays,
+            int hourRollupTtlDays, boolean timeSeriesPingData) {
+        this.documentDatabaseEngine = documentDatabaseEngine;
+        this.timeSeriesPingData = timeSeriesPingData;
+        declareIndexes(minuteRollupTtlDays, hourRollupTtlDays);
+        declareQueries();
+    }
+
+    /**
+     * Declare indexes of every collection
+     *
+     * @param minuteRollupTtlDays
+     * @param hourRollupTtlDays
+     */
+    private void declareIndexes(int minuteRollupTtlDays, int hourRollupTtlDays) {
+        String pingData = PingDataWriter.PING_DATA_COLLECTION;
+        // per host history and range views of all hosts
+        index(pingData, "host_time", new Document("host_id", 1).append("ping_timestamp", -1));
+        index(pingData, "time", new Document("ping_timestamp", -1));
+        if (!timeSeriesPingData) {
+            // failures are a small part of the data - partial indexes serve the failure views
+            index(pingData, "time_no_response", new Document("ping_timestamp", -1))
+                    .partial(Filters.eq("packet_status_code", STATUS_NO_RESPONSE));
+            index(pingData, "time_partial_loss", new Document("ping_timestamp", -1))
+                    .partial(Filters.eq("packet_status_code", STATUS_PARTIAL_LOSS));
+        }
+
+        index("hour_default_ping_data", "time", new Document("ping_timestamp", -1));
+        index("trace_route_data", "time", new Document("timestamp", -1));
+
+        index(DocumentLogSink.LOGS_COLLECTION, "time", new Document("timestamp", -1));
+        index(DocumentLogSink.LOGS_COLLECTION, "log_time", new Document("log_timestamp", 1))
+                .partial(Filters.exists("log_timestamp"));
+        index(DocumentLogSink.HOST_LOGS_COLLECTION, "host_time", new Document("host_id", 1).append("timestamp", -1));
+        index(DocumentLogSink.HOST_LOGS_COLLECTION, "time", new Document("timestamp", -1)); // retention chunks
+
+        index("sessions", "session", new Document("session_id", 1)).unique();
+        index("sessions", "user_created", new Document("user_id", 1).append("created_at", 1));
+
+        int[] ttlDays = { minuteRollupTtlDays, hourRollupTtlDays, 0 };
+        for (int level = 0; level < PingRollupEngine.GRANULARITIES.length; level++) {
+            String rollups = PingRollupEngine.collectionName(PingRollupEngine.GRANULARITIES[level]);
+            index(rollups, "host_bucket", new Document("host_id", 1).append("bucket_start", 1));
+            // _id index can not expire documents, separate TTL index on the bucket start
+            IndexSpec ttl = index(rollups, "bucket_ttl", new Document("bucket_start", 1));
+            if (ttlDays[level] > 0) {
+                ttl.ttl(ttlDays[level]);
+            } else {
+                ttl.drop(); // retention disabled, documents are kept
+            }
+        }
+    }
+
+    /**
+     * Declare query shapes of pynk_web and the collector
+     */
+    private void declareQueries() {
+        String pingData = PingDataWriter.PING_DATA_COLLECTION;
+        Date from = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+        Date to = new Date();
+        ObjectId host = new ObjectId();
+        Bson range = Filters.and(Filters.gt("ping_timestamp", from), Filters.lt("ping_timestamp", to));
+
+        query("ping data between dates", pingData, range, Sorts.descending("ping_timestamp"));
+        query("host ping data between dates", pingData, Filters.and(Filters.eq("host_id", host), range),
+                Sorts.descending("ping_timestamp"));
+        query("no response in hours", pingData,
+                Filters.and(range, Filters.eq("packet_status_code", STATUS_NO_RESPONSE)), null);
+        query("partial loss in hours", pingData,
+                Filters.and(range, Filters.eq("packet_status_code", STATUS_PARTIAL_LOSS)), null);
+        query("failures from 24h", pingData, Filters.and(range, Filters.ne("packet_status_code", "Success")),
+                Sorts.descending("ping_timestamp"));
+        query("last hour default ping", "hour_default_ping_data", null, Sorts.descending("ping_timestamp"));
+        query("last trace route", "trace_route_data", null, Sorts.descending("timestamp"));
+        query("app logs between dates", DocumentLogSink.LOGS_COLLECTION,
+                Filters.and(Filters.gte("log_timestamp", from), Filters.lte("log_timestamp", to)), null);
+        query("host logs", DocumentLogSink.HOST_LOGS_COLLECTION, Filters.eq("host_id", host),
+                Sorts.descending("timestamp"));
+        query("user sessions", "sessions", Filters.eq("user_id", host), Sorts.ascending("created_at"));
+        for (String granularity : PingRollupEngine.GRANULARITIES) {
+            query(granularity + " rollups of host", PingRollupEngine.collectionName(granularity),
+                    Filters.and(Filters.eq("host_id", host), Filters.gte("bucket_start", from),
+                            Filters.lt("bucket_start", to)),
+                    Sorts.ascending("bucket_start"));
+        }
+    }
+
+    /**
+     * Create missing indexes, fix changed ones
+     *
+     * @return int amount of created or modified indexes
+     */
+    public int bootstrap() {
+        Map<String, List<IndexSpec>> byCollection = new HashMap<>();
+        for (IndexSpec spec : indexes) {
+            byCollection.computeIfAbsent(spec.collection, key -> new ArrayList<>()).add(spec);
+        }
+        for (Map.Entry<String, List<IndexSpec>> entry : byCollection.entrySet()) {
+            MongoCollection<Document> collection = documentDatabaseEngine.getCollection(entry.getKey());
+            Map<String, Document> existing = new HashMap<>();
+            try {
+                for (Document index : collection.listIndexes()) {
+                    existing.put(index.getString("name"), index);
+                }
+            } catch (Exception e) {
+                // collection does not exist yet
+            }
+            for (IndexSpec spec : entry.getValue()) {
+                try {
+                    apply(collection, spec, existing.get(spec.name));
+                } catch (Exception e) {
+                    failed++;
+                    documentDatabaseEngine.log("DB-SCHEMA-ERROR", "Failed to create index " + spec + " ("
+                            + e.getMessage() + ")");
+                }
+            }
+        }
+        documentDatabaseEngine.log("DB-SCHEMA", "Schema bootstrap done (indexes: " + indexes.size() + ", created: "
+                + created + ", modified: " + modified + ", failed: " + failed + ")");
+        return created + modified;
+    }
+
+    /**
+     * Create or update single index
+     *
+     * @param collection
+     * @param spec
+     * @param current    index with the same name, null if missing
+     */
+    private void apply(MongoCollection<Document> collection, IndexSpec spec, Document current) {
+        if (spec.drop) {
+            if (current != null) {
+                collection.dropIndex(spec.name);
+                modified++;
+                documentDatabaseEngine.log("DB-SCHEMA", "Dropped index " + spec);
+            }
+            return;
+        }
+        if (current == null) {
+            collection.createIndex(spec.keys, spec.options());
+            created++;
+            documentDatabaseEngine.log("DB-SCHEMA", "Created index " + spec);
+            return;
+        }
+        Number currentTtl = (Number) current.get("expireAfterSeconds");
+        long currentSeconds = currentTtl == null ? -1 : currentTtl.longValue();
+        if (sameKeys(spec.keys, current.get("key", Document.class)) && currentSeconds == spec.ttlSeconds) {
+            return;
+        }
+        if (sameKeys(spec.keys, current.get("key", Document.class)) && currentSeconds >= 0 && spec.ttlSeconds >= 0) {
+            documentDatabaseEngine.mongoDatabase.runCommand(new Document("collMod", spec.collection).append("index",
+                    new Document("name", spec.name).append("expireAfterSeconds", spec.ttlSeconds)));
+        } else {
+            collection.dropIndex(spec.name);
+            collection.createIndex(spec.keys, spec.options());
+        }
+        modified++;
+        documentDatabaseEngine.log("DB-SCHEMA", "Updated index " + spec);
+    }
+
+    /**
+     * Verify with explain() that every declared query shape is served by an
+     * index
+     *
+     * @return List of descriptions of queries without index support
+     */
+    public List<String> verify() {
+        List<String> missing = new ArrayList<>();
+        for (QueryCheck check : queries) {
+            if (timeSeriesPingData && check.collection.equals(PingDataWriter.PING_DATA_COLLECTION)) {
+                continue; // bucket scans of time-series collections are planned as collection scans
+            }
+            try {
+                Document plan = documentDatabaseEngine.getCollection(check.collection).find(check.filter)
+                        .sort(check.sort).limit(1).explain();
+                Document queryPlanner = plan.get("queryPlanner", Document.class);
+                Object winningPlan = queryPlanner == null ? null : queryPlanner.get("winningPlan");
+                List<String> stages = new ArrayList<>();
+                collectStages(winningPlan, stages);
+                if (stages.contains("COLLSCAN") || stages.contains("SORT")) {
+                    missing.add(check.description + " (" + check.collection + ": " + String.join(" < ", stages) + ")");
+                }
+            } catch (Exception e) {
+                missing.add(check.description + " (" + check.collection + ": explain failed - " + e.getMessage() + ")");
+            }
+        }
+        if (missing.isEmpty()) {
+            documentDatabaseEngine.log("DB-SCHEMA", "All " + queries.size() + " query shapes use an index");
+        } else {
+            for (String query : missing) {
+                documentDatabaseEngine.log("DB-SCHEMA-ERROR", "Query without index support: " + query);
+            }
+            System.out.println(ConsoleColors.YELLOW + "Schema check: " + missing.size() + " of " + queries.size()
+                    + " query shapes without index support" + ConsoleColors.RESET);
+        }
+        return missing;
+    }
+
+    /**
+     * Collect stage names of the plan tree (classic and slot based plans)
+     *
+     * @param node
+     * @param stages
+     */
+    static void collectStages(Object node, List<String> stages) {
+        if (node instanceof Document) {
+            Document document = (Document) node;
+            Object stage = document.get("stage");
+            if (stage instanceof String) {
+                stages.add((String) stage);
+            }
+            for (Object value : document.values()) {
+                collectStages(value, stages);
+            }
+        } else if (node instanceof List) {
+            for (Object value : (List<?>) node) {
+                collectStages(value, stages);
+            }
+        }
+    }
+
+    /**
+     * Compare index keys - same fields in the same order and direction
+     *
+     * @param expected
+     * @param current
+     * @return boolean
+     */
+    static boolean sameKeys(Document expected, Document current) {
+        if (current == null || expected.size() != current.size()) {
+            return false;
+        }
+        List<String> expectedFields = new ArrayList<>(expected.keySet());
+        List<String> currentFields = new ArrayList<>(current.keySet());
+        for (int i = 0; i < expectedFields.size(); i++) {
+            Object value = current.get(currentFields.get(i));
+            if (!expectedFields.get(i).equals(currentFields.get(i)) || !(value instanceof Number)
+                    || ((Number) value).intValue() != ((Number) expected.get(expectedFields.get(i))).intValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Declare index
+     *
+     * @param collection
+     * @param name
+     * @param keys
+     * @return IndexSpec
+     */
+    private IndexSpec index(String collection, String name, Document keys) {
+        IndexSpec spec = new IndexSpec(collection, name, keys);
+        indexes.add(spec);
+        return spec;
+    }
+
+    /**
+     * Declare query shape
+     *
+     * @param description
+     * @param collection
+     * @param filter      null - all documents
+     * @param sort        null - no sort
+     */
+    private void query(String description, String collection, Bson filter, Bson sort) {
+        queries.add(new QueryCheck(description, collection, filter == null ? new Document() : filter, sort));
+    }
+
+    /**
+     * Get declared indexes
+     *
+     * @return List of IndexSpec
+     */
+    public List<IndexSpec> getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * Declared index of a collection
+     */
+    public static class IndexSpec {
+        public final String collection;
+        public final String name;
+        public final Document keys;
+        public Bson partialFilter;
+        public boolean unique;
+        public long ttlSeconds = -1;
+        public boolean drop; // declared obsolete, removed when present
+
+        IndexSpec(String collection, String name, Document keys) {
+            this.collection = collection;
+            this.name = name;
+            this.keys = keys;
+        }
+
+        IndexSpec partial(Bson filter) {
+            this.partialFilter = filter;
+            return this;
+        }
+
+        IndexSpec unique() {
+            this.unique = true;
+            return this;
+        }
+
+        IndexSpec ttl(int days) {
+            this.ttlSeconds = TimeUnit.DAYS.toSeconds(days);
+            return this;
+        }
+
+        IndexSpec drop() {
+            this.drop = true;
+            return this;
+        }
+
+        IndexOptions options() {
+            IndexOptions options = new IndexOptions().name(name).unique(unique);
+            if (partialFilter != null) {
+                options.partialFilterExpression(partialFilter);
+            }
+            if (ttlSeconds >= 0) {
+                options.expireAfter(ttlSeconds, TimeUnit.SECONDS);
+            }
+            return options;
+        }
+
+        @Override
+        public String toString() {
+            return collection + "." + name + " " + keys.toJson() + (partialFilter != null ? " partial" : "")
+                    + (unique ? " unique" : "") + (ttlSeconds >= 0 ? " ttl " + ttlSeconds + " s" : "") + (drop ? " obsolete" : "");
+        }
+    }
+
+    /**
+     * Query shape checked with explain()
+     */
+    private static class QueryCheck {
+        final String description;
+        final String collection;
+        final Bson filter;
+        final Bson sort;
+
+        QueryCheck(String description, String collection, Bson filter, Bson sort) {
+            this.description = description;
+            this.collection = collection;
+            this.filter = filter;
+            this.sort = sort;
+        }
+    }
+}
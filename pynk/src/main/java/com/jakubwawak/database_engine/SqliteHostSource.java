@@ -0,0 +1,41 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.database_engine;
+
+import java.sql.SQLException;
+
+import com.jakubwawak.host_engine.HostRegistry;
+import com.jakubwawak.host_engine.HostSource;
+
+/**
+ * Host source for the host_data table - the table is small, so every refresh
+ * loads it whole and the registry publishes only the difference
+ */
+public class SqliteHostSource implements HostSource {
+
+    private final DatabaseEngine databaseEngine;
+
+    /**
+     * Constructor
+     *
+     * @param databaseEngine
+     */
+    public SqliteHostSource(DatabaseEngine databaseEngine) {
+        this.databaseEngine = databaseEngine;
+    }
+
+    /**
+     * Load all hosts and publish them to the registry
+     *
+     * @param registry
+     * @throws SQLException when hosts could not be loaded - registry keeps the
+     *                      previous snapshot
+     */
+    @Override
+    public void refresh(HostRegistry registry) throws SQLException {
+        registry.publish(databaseEngine.loadHosts());
+    }
+}
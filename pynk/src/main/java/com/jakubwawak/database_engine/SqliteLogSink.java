@@ -0,0 +1,42 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.database_engine;
+
+import java.util.List;
+
+import com.jakubwawak.log_engine.LogRecord;
+import com.jakubwawak.log_engine.LogSink;
+
+/**
+ * Log sink storing records in the app_log table - whole batch is written with
+ * one parameterized executeBatch inside a single transaction
+ */
+public class SqliteLogSink implements LogSink {
+
+    private final DatabaseEngine databaseEngine;
+
+    /**
+     * Constructor
+     *
+     * @param databaseEngine
+     */
+    public SqliteLogSink(DatabaseEngine databaseEngine) {
+        this.databaseEngine = databaseEngine;
+    }
+
+    /**
+     * Write batch of records
+     *
+     * @param records
+     */
+    @Override
+    public void write(List<LogRecord> records) throws Exception {
+        if (!databaseEngine.connected) {
+            throw new IllegalStateException("database not connected");
+        }
+        databaseEngine.writeLogBatch(records);
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.database_engine;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small pool of read-only SQLite connections - readers never wait for the
+ * writer connection (WAL allows concurrent readers)
+ */
+public class SqliteReadPool {
+
+    /**
+     * Read executed on a pooled connection
+     */
+    public interface ReadTask<T> {
+        T execute(Connection connection) throws SQLException;
+    }
+
+    private final ArrayBlockingQueue<Connection> idleConnections;
+    private final ArrayList<Connection> allConnections = new ArrayList<>();
+
+    /**
+     * Constructor
+     *
+     * @param databasePath
+     * @param size
+     * @throws SQLException when connections could not be opened
+     */
+    public SqliteReadPool(String databasePath, int size) throws SQLException {
+        int poolSize = Math.max(1, size);
+        this.idleConnections = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            Connection connection = DatabaseEngine.openConnection(databasePath, true);
+            allConnections.add(connection);
+            idleConnections.add(connection);
+        }
+    }
+
+    /**
+     * Execute read on a pooled connection
+     *
+     * @param task
+     * @return T
+     * @throws SQLException
+     */
+    public <T> T read(ReadTask<T> task) throws SQLException {
+        Connection connection;
+        try {
+            connection = idleConnections.poll(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for read connection");
+        }
+        if (connection == null) {
+            throw new SQLException("No read connection available");
+        }
+        try {
+            return task.execute(connection);
+        } finally {
+            idleConnections.add(connection);
+        }
+    }
+
+    /**
+     * Close all connections
+     */
+    public void close() {
+        for (Connection connection : allConnections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.database_engine;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.jakubwawak.retention_engine.RetentionCheckpoint;
+import com.jakubwawak.retention_engine.RetentionTarget;
+
+/**
+ * SQLite table pruned by the retention engine - chunks are deleted in row id
+ * order (row ids grow with time) as tasks of the single writer, so deletes
+ * are interleaved with probe writes instead of locking the database.
+ * Checkpoints are stored in the retention_state table
+ */
+public class SqliteRetentionTarget implements RetentionTarget {
+
+    static final long WRITE_TIMEOUT_MILLIS = 30_000;
+
+    static final String SAVE_CHECKPOINT_SQL = "INSERT OR REPLACE INTO retention_state (policy_name, last_run, "
+            + "last_cutoff, deleted_total, last_pass_deleted, pass_complete) VALUES (?,?,?,?,?,?);";
+
+    private final DatabaseEngine databaseEngine;
+    private final String table;
+    private final String deleteSql;
+
+    /**
+     * Constructor
+     *
+     * @param databaseEngine
+     * @param table
+     * @param idColumn       autoincrement primary key
+     * @param timeColumn     timestamp stored as epoch milliseconds or text
+     */
+    public SqliteRetentionTarget(DatabaseEngine databaseEngine, String table, String idColumn, String timeColumn) {
+        this.databaseEngine = databaseEngine;
+        this.table = table;
+        // timestamps are bound as milliseconds by the writer and as text by older inserts
+        String older = "(" + timeColumn + " < ? OR (typeof(" + timeColumn + ") = 'text' AND " + timeColumn + " < ?))";
+        this.deleteSql = "DELETE FROM " + table + " WHERE " + idColumn + " IN (SELECT " + idColumn + " FROM " + table
+                + " WHERE " + older + " ORDER BY " + idColumn + " LIMIT ?);";
+    }
+
+    @Override
+    public String getName() {
+        return table;
+    }
+
+    @Override
+    public long deleteChunk(long cutoffMillis, int limit) throws Exception {
+        return write(writer -> {
+            PreparedStatement pstmt = writer.statement(deleteSql);
+            pstmt.setLong(1, cutoffMillis);
+            pstmt.setString(2, new Timestamp(cutoffMillis).toString());
+            pstmt.setInt(3, limit);
+            return (long) pstmt.executeUpdate();
+        });
+    }
+
+    @Override
+    public boolean isBusy() {
+        SqliteWriter writer = databaseEngine.getWriter();
+        return writer != null && writer.getQueueDepth() > writer.getBatchSize();
+    }
+
+    @Override
+    public RetentionCheckpoint loadCheckpoint() throws SQLException {
+        return databaseEngine.read(connection -> {
+            try (PreparedStatement pstmt = connection
+                    .prepareStatement("SELECT * FROM retention_state WHERE policy_name = ?;")) {
+                pstmt.setString(1, table);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    RetentionCheckpoint checkpoint = new RetentionCheckpoint(table);
+                    checkpoint.lastRunMillis = rs.getLong("last_run");
+                    checkpoint.lastCutoffMillis = rs.getLong("last_cutoff");
+                    checkpoint.deletedTotal = rs.getLong("deleted_total");
+                    checkpoint.lastPassDeleted = rs.getLong("last_pass_deleted");
+                    checkpoint.passComplete = rs.getInt("pass_complete") != 0;
+                    return checkpoint;
+                }
+            }
+        });
+    }
+
+    @Override
+    public void saveCheckpoint(RetentionCheckpoint checkpoint) throws Exception {
+        long lastRun = checkpoint.lastRunMillis;
+        long lastCutoff = checkpoint.lastCutoffMillis;
+        long deletedTotal = checkpoint.deletedTotal;
+        long lastPassDeleted = checkpoint.lastPassDeleted;
+        boolean passComplete = checkpoint.passComplete;
+        write(writer -> {
+            PreparedStatement pstmt = writer.statement(SAVE_CHECKPOINT_SQL);
+            pstmt.setString(1, table);
+            pstmt.setLong(2, lastRun);
+            pstmt.setLong(3, lastCutoff);
+            pstmt.setLong(4, deletedTotal);
+            pstmt.setLong(5, lastPassDeleted);
+            pstmt.setInt(6, passComplete ? 1 : 0);
+            return (long) pstmt.executeUpdate();
+        });
+    }
+
+    /**
+     * Execute statement on the writer thread and wait for its result
+     *
+     * @param call
+     * @return long result of the statement
+     * @throws Exception when writer is not running, queue is full or statement
+     *                   failed
+     */
+    private long write(WriterCall call) throws Exception {
+        SqliteWriter writer = databaseEngine.getWriter();
+        if (writer == null) {
+            throw new IllegalStateException("SQLite writer is not running");
+        }
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        boolean accepted = writer.submit(w -> {
+            try {
+                result.complete(call.execute(w));
+            } catch (SQLException e) {
+                result.completeExceptionally(e);
+                throw e;
+            }
+        });
+        if (!accepted) {
+            throw new IllegalStateException("SQLite writer queue full");
+        }
+        return result.get(WRITE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Statement executed by the writer
+     */
+    private interface WriterCall {
+        long execute(SqliteWriter writer) throws SQLException;
+    }
+}
@@ -0,0 +1,335 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.database_engine;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jakubwawak.maintanance.ConsoleColors;
+import com.jakubwawak.metrics_engine.LatencyHistogram;
+
+/**
+ * Single long-lived SQLite writer - all inserts are queued and executed by one
+ * thread on one connection, queued tasks are grouped into one transaction and
+ * prepared statements are cached for the connection lifetime
+ */
+public class SqliteWriter {
+
+    /**
+     * Write executed by the writer thread inside a transaction
+     */
+    public interface WriteTask {
+        void execute(SqliteWriter writer) throws SQLException;
+    }
+
+    private static final int MAX_COMMIT_RETRIES = 5;
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>(); // writer thread only
+    private final ArrayBlockingQueue<WriteTask> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // statistics
+    private final AtomicLong executedTasks = new AtomicLong();
+    private final AtomicLong failedTasks = new AtomicLong();
+    private final AtomicLong droppedTasks = new AtomicLong();
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong commitLatencySumNanos = new AtomicLong();
+    private final LatencyHistogram transactionLatencies = new LatencyHistogram();
+    private volatile int lastTransactionSize;
+
+    /**
+     * Constructor
+     *
+     * @param databasePath
+     * @param queueCapacity       max amount of tasks waiting for the writer
+     * @param batchSize           max amount of tasks in one transaction
+     * @param flushIntervalMillis max time task waits for commit
+     * @throws SQLException when writer connection could not be opened
+     */
+    public SqliteWriter(String databasePath, int queueCapacity, int batchSize, long flushIntervalMillis)
+            throws SQLException {
+        this.connection = DatabaseEngine.openConnection(databasePath, false);
+        this.connection.setAutoCommit(false);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+        this.writerThread = new Thread(this::runWriter, "pynk-sqlite-writer");
+        this.writerThread.setDaemon(true);
+    }
+
+    /**
+     * Start the writer thread
+     */
+    public void start() {
+        writerThread.start();
+    }
+
+    /**
+     * Queue the write - blocks for a moment when the queue is full
+     *
+     * @param task
+     * @return true if task was accepted
+     */
+    public boolean submit(WriteTask task) {
+        try {
+            if (queue.offer(task, 100, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        droppedTasks.incrementAndGet();
+        System.out.println(ConsoleColors.RED_BOLD + "Error: SQLite writer queue full, write dropped"
+                + ConsoleColors.RESET);
+        return false;
+    }
+
+    /**
+     * Get cached prepared statement of the writer connection - to be used only
+     * inside write tasks
+     *
+     * @param sql
+     * @return PreparedStatement
+     * @throws SQLException
+     */
+    public PreparedStatement statement(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Execute ad-hoc statement on the writer connection (not cached) - to be used
+     * only inside write tasks
+     *
+     * @param sql
+     * @return int number of rows affected
+     * @throws SQLException
+     */
+    public int executeSQL(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            return statement.executeUpdate(sql);
+        }
+    }
+
+    /**
+     * Get row id of the last insert on the writer connection - to be used only
+     * inside write tasks
+     *
+     * @return long
+     * @throws SQLException
+     */
+    public long lastInsertRowId() throws SQLException {
+        try (ResultSet resultSet = statement("SELECT last_insert_rowid();").executeQuery()) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Writer loop
+     */
+    private void runWriter() {
+        List<WriteTask> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                WriteTask first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (running && batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    WriteTask next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!running) {
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+            if (!batch.isEmpty()) {
+                executeTransaction(batch);
+                batch.clear();
+            }
+        }
+        closeConnection();
+    }
+
+    /**
+     * Execute tasks in one transaction, whole transaction is retried when the
+     * database is locked
+     *
+     * @param batch
+     */
+    private void executeTransaction(List<WriteTask> batch) {
+        for (int attempt = 1; attempt <= MAX_COMMIT_RETRIES; attempt++) {
+            int failed = 0;
+            long start = System.nanoTime();
+            try {
+                for (WriteTask task : batch) {
+                    try {
+                        task.execute(this);
+                    } catch (SQLException e) {
+                        if (isLockError(e)) {
+                            throw e;
+                        }
+                        failed++;
+                        System.out.println(ConsoleColors.RED_BOLD + "Error executing SQLite write: " + e.getMessage()
+                                + ConsoleColors.RESET);
+                    }
+                }
+                connection.commit();
+                long latency = System.nanoTime() - start;
+                commitLatencySumNanos.addAndGet(latency);
+                transactionLatencies.record(latency);
+                transactions.incrementAndGet();
+                executedTasks.addAndGet(batch.size() - failed);
+                failedTasks.addAndGet(failed);
+                lastTransactionSize = batch.size();
+                return;
+            } catch (SQLException e) {
+                rollback();
+                if (!isLockError(e) || attempt == MAX_COMMIT_RETRIES) {
+                    failedTasks.addAndGet(batch.size());
+                    System.out.println(ConsoleColors.RED_BOLD + "Error: SQLite transaction of " + batch.size()
+                            + " writes failed: " + e.getMessage() + ConsoleColors.RESET);
+                    return;
+                }
+                try {
+                    // Exponential backoff: wait longer after each retry
+                    Thread.sleep(100L * (1L << (attempt - 1)));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if exception was caused by locked database
+     *
+     * @param e
+     * @return boolean
+     */
+    private static boolean isLockError(SQLException e) {
+        String message = e.getMessage();
+        return message != null && (message.contains("database is locked") || message.contains("busy"));
+    }
+
+    /**
+     * Rollback the current transaction
+     */
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            System.out.println(ConsoleColors.RED_BOLD + "Error: SQLite rollback failed: " + e.getMessage()
+                    + ConsoleColors.RESET);
+        }
+    }
+
+    /**
+     * Close cached statements and the writer connection
+     */
+    private void closeConnection() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // connection is closed below anyway
+            }
+        }
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stop the writer - waits until queued tasks are committed
+     *
+     * @param timeoutMillis
+     */
+    public void stop(long timeoutMillis) {
+        running = false;
+        try {
+            writerThread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get max amount of tasks written at once
+     *
+     * @return int
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Get histogram of committed transaction durations
+     *
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getTransactionLatencies() {
+        return transactionLatencies;
+    }
+
+    /**
+     * Get amount of tasks waiting for the writer
+     *
+     * @return int
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Get short writer statistics for logging
+     *
+     * @return String
+     */
+    public String getStatistics() {
+        long count = transactions.get();
+        return String.format("queue: %d, transactions: %d, writes last/avg per transaction: %d/%.1f, "
+                + "avg transaction time: %.1f ms, executed: %d, failed: %d, dropped: %d",
+                getQueueDepth(), count, lastTransactionSize,
+                count == 0 ? 0 : (executedTasks.get() + failedTasks.get()) / (double) count,
+                count == 0 ? 0 : commitLatencySumNanos.get() / (double) count / 1_000_000.0,
+                executedTasks.get(), failedTasks.get(), droppedTasks.get());
+    }
+}
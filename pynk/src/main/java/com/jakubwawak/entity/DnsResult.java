@@ -0,0 +1,74 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.entity;
+
+import org.bson.Document;
+
+/**
+ * Result of a single DNS query sent by the DNS probe
+ */
+public class DnsResult {
+
+    public String queryName;
+    public String queryType; // A, AAAA, PTR
+    public String rcode; // NOERROR, NXDOMAIN, ... or TIMEOUT
+    public int answerCount;
+    public String answer; // first answer of the queried type
+    public double timeMillis; // -1 when there was no response
+
+    /**
+     * Constructor
+     *
+     * @param queryName
+     * @param queryType
+     */
+    public DnsResult(String queryName, String queryType) {
+        this.queryName = queryName;
+        this.queryType = queryType;
+        this.rcode = "TIMEOUT";
+        this.timeMillis = -1;
+    }
+
+    /**
+     * Check if resolver responded with an answer
+     *
+     * @return boolean
+     */
+    public boolean isResolved() {
+        return "NOERROR".equals(rcode) && answerCount > 0;
+    }
+
+    /**
+     * Convert the result to a document
+     *
+     * @return Document
+     */
+    public Document toDocument() {
+        return new Document("name", queryName)
+                .append("type", queryType)
+                .append("rcode", rcode)
+                .append("answers", answerCount)
+                .append("answer", answer)
+                .append("time", timeMillis);
+    }
+
+    /**
+     * Compact single line form, stored as dig data
+     *
+     * @return String
+     */
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder(queryType).append(' ').append(queryName).append(' ').append(rcode);
+        if (timeMillis >= 0) {
+            line.append(" answers=").append(answerCount).append(" time=").append(timeMillis).append("ms");
+        }
+        if (answer != null) {
+            line.append(' ').append(answer);
+        }
+        return line.toString();
+    }
+}
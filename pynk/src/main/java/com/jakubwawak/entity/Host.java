@@ -7,6 +7,7 @@ package com.jakubwawak.entity;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Objects;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
@@ -24,6 +25,11 @@ public class Host {
     public String hostDescription; // Corresponds to host_description
     public String hostStatus; // Corresponds to host_status
     public int hostJobTime; // Corresponds to host_job_time
+    public long hostModified; // change marker, incremented on every host update (mongo only)
+    public String hostProbeType = "icmp"; // Corresponds to host_probe_type (icmp, tcp, udp)
+    public int hostProbePort; // Corresponds to host_probe_port (0 - default port of the probe type)
+    public int hostJobTimeMin; // Corresponds to host_job_time_min (0 - derived from job time)
+    public int hostJobTimeMax; // Corresponds to host_job_time_max (0 - derived from job time)
 
     /**
      * Constructor to create a host
@@ -58,6 +64,12 @@ public class Host {
         this.hostDescription = document.getString("hostDescription");
         this.hostStatus = document.getString("hostStatus");
         this.hostJobTime = document.getInteger("hostJobTime");
+        this.hostModified = getModifiedMarker(document);
+        this.hostProbeType = document.getString("hostProbeType") != null ? document.getString("hostProbeType")
+                : "icmp";
+        this.hostProbePort = document.getInteger("hostProbePort", 0);
+        this.hostJobTimeMin = document.getInteger("hostJobTimeMin", 0);
+        this.hostJobTimeMax = document.getInteger("hostJobTimeMax", 0);
     }
 
     /**
@@ -74,6 +86,11 @@ public class Host {
             this.hostDescription = resultSet.getString("host_description");
             this.hostStatus = resultSet.getString("host_status");
             this.hostJobTime = resultSet.getInt("host_job_time");
+            String probeType = resultSet.getString("host_probe_type");
+            this.hostProbeType = probeType != null ? probeType : "icmp";
+            this.hostProbePort = resultSet.getInt("host_probe_port");
+            this.hostJobTimeMin = resultSet.getInt("host_job_time_min");
+            this.hostJobTimeMax = resultSet.getInt("host_job_time_max");
         } catch (SQLException e) {
             System.out.println("Error creating host from result set: " + e.getMessage());
         }
@@ -91,18 +108,103 @@ public class Host {
                 .append("hostCategory", hostCategory)
                 .append("hostDescription", hostDescription)
                 .append("hostStatus", hostStatus)
-                .append("hostJobTime", hostJobTime);
+                .append("hostJobTime", hostJobTime)
+                .append("hostModified", hostModified)
+                .append("hostProbeType", hostProbeType)
+                .append("hostProbePort", hostProbePort)
+                .append("hostJobTimeMin", hostJobTimeMin)
+                .append("hostJobTimeMax", hostJobTimeMax);
+    }
+
+    /**
+     * Check if other host has the same configuration
+     *
+     * @param other
+     * @return boolean
+     */
+    public boolean sameConfiguration(Host other) {
+        return other != null
+                && hostJobTime == other.hostJobTime
+                && hostProbePort == other.hostProbePort
+                && hostJobTimeMin == other.hostJobTimeMin
+                && hostJobTimeMax == other.hostJobTimeMax
+                && Objects.equals(hostProbeType, other.hostProbeType)
+                && Objects.equals(hostName, other.hostName)
+                && Objects.equals(hostIp, other.hostIp)
+                && Objects.equals(hostCategory, other.hostCategory)
+                && Objects.equals(hostDescription, other.hostDescription)
+                && Objects.equals(hostStatus, other.hostStatus);
+    }
+
+    /**
+     * Get change marker of the host document
+     *
+     * @param document
+     * @return long 0 if document was never modified
+     */
+    public static long getModifiedMarker(Document document) {
+        Object marker = document.get("hostModified");
+        return marker instanceof Number ? ((Number) marker).longValue() : 0;
+    }
+
+    /**
+     * Get the key identifying the host in the scheduler
+     * (mongo object id if present, sqlite host id otherwise)
+     *
+     * @return String
+     */
+    public String getHostKey() {
+        if (hostIdMongo != null) {
+            return hostIdMongo.toHexString();
+        }
+        return String.valueOf(hostId);
     }
 
     /**
      * Get the host job time
-     * 
+     *
      * @return int
      */
     public int getHostJobTime() {
         return hostJobTime;
     }
 
+    /**
+     * Get the lowest adaptive probe interval
+     *
+     * @return int milliseconds, 0 for default bound
+     */
+    public int getHostJobTimeMin() {
+        return hostJobTimeMin;
+    }
+
+    /**
+     * Get the highest adaptive probe interval
+     *
+     * @return int milliseconds, 0 for default bound
+     */
+    public int getHostJobTimeMax() {
+        return hostJobTimeMax;
+    }
+
+    /**
+     * Get the probe type of the host
+     *
+     * @return String icmp, tcp or udp
+     */
+    public String getHostProbeType() {
+        return hostProbeType != null ? hostProbeType.toLowerCase() : "icmp";
+    }
+
+    /**
+     * Get the port probed by tcp and udp probes
+     *
+     * @return int 0 for default port
+     */
+    public int getHostProbePort() {
+        return hostProbePort;
+    }
+
     // Getters and Setters
     public int getHostId() {
         return hostId;
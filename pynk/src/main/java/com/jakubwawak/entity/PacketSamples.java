@@ -0,0 +1,222 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.entity;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.bson.Document;
+
+/**
+ * Per-packet round trip times of a single probe - times are kept in a
+ * primitive array of any length, packets without a reply are flagged in a
+ * bitmap. Stored as packet_hop_time1..N fields (-1 for lost packets) in the
+ * document and the first eight packet_hop_time columns in SQLite
+ */
+public class PacketSamples {
+
+    public static final int DEFAULT_PACKETS = 8; // ping -c 8, stored columns of sqlite
+    public static final String FIELD_PREFIX = "packet_hop_time";
+
+    private float[] times;
+    private long[] absent; // bit set - no reply for the packet
+
+    /**
+     * Constructor - every packet is absent until its reply is set
+     *
+     * @param count amount of packets of the probe
+     */
+    public PacketSamples(int count) {
+        this.times = new float[Math.max(0, count)];
+        this.absent = new long[words(times.length)];
+        Arrays.fill(absent, -1L);
+    }
+
+    /**
+     * Get amount of packets
+     *
+     * @return int
+     */
+    public int size() {
+        return times.length;
+    }
+
+    /**
+     * Change amount of packets, new packets are absent
+     *
+     * @param count
+     */
+    public void resize(int count) {
+        int previous = times.length;
+        if (count == previous) {
+            return;
+        }
+        times = Arrays.copyOf(times, Math.max(0, count));
+        long[] bits = new long[words(times.length)];
+        Arrays.fill(bits, -1L);
+        for (int slot = 0; slot < Math.min(previous, times.length); slot++) {
+            if (!isAbsent(absent, slot)) {
+                bits[slot >>> 6] &= ~(1L << slot);
+            }
+        }
+        absent = bits;
+    }
+
+    /**
+     * Set round trip time of the packet, array grows for packets above the
+     * size
+     *
+     * @param slot   packet number counted from 0
+     * @param millis
+     */
+    public void set(int slot, double millis) {
+        if (slot < 0) {
+            return;
+        }
+        if (slot >= times.length) {
+            resize(slot + 1);
+        }
+        times[slot] = (float) millis;
+        if (millis < 0) {
+            absent[slot >>> 6] |= 1L << slot;
+        } else {
+            absent[slot >>> 6] &= ~(1L << slot);
+        }
+    }
+
+    /**
+     * Get round trip time of the packet
+     *
+     * @param slot packet number counted from 0
+     * @return double milliseconds, -1 if there was no reply
+     */
+    public double get(int slot) {
+        if (slot < 0 || slot >= times.length || isAbsent(absent, slot)) {
+            return -1;
+        }
+        return Math.round(times[slot] * 1000.0) / 1000.0; // ping reports microseconds, float keeps them below 10 s
+    }
+
+    /**
+     * Check if the packet was answered
+     *
+     * @param slot
+     * @return boolean
+     */
+    public boolean isPresent(int slot) {
+        return slot >= 0 && slot < times.length && !isAbsent(absent, slot);
+    }
+
+    /**
+     * Get amount of answered packets
+     *
+     * @return int
+     */
+    public int presentCount() {
+        int count = 0;
+        for (int slot = 0; slot < times.length; slot++) {
+            if (!isAbsent(absent, slot)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Check if every packet was answered
+     *
+     * @return boolean
+     */
+    public boolean allPresent() {
+        return times.length > 0 && presentCount() == times.length;
+    }
+
+    /**
+     * Append packet_hop_time fields, at least the eight fields read by older
+     * readers are written
+     *
+     * @param document
+     * @return Document
+     */
+    public Document appendTo(Document document) {
+        for (int slot = 0; slot < Math.max(DEFAULT_PACKETS, times.length); slot++) {
+            document.append(FIELD_PREFIX + (slot + 1), get(slot));
+        }
+        return document;
+    }
+
+    /**
+     * Read packet_hop_time fields of the document
+     *
+     * @param document
+     * @return PacketSamples
+     */
+    public static PacketSamples fromDocument(Document document) {
+        int count = 0;
+        while (document.containsKey(FIELD_PREFIX + (count + 1))) {
+            count++;
+        }
+        PacketSamples samples = new PacketSamples(count);
+        for (int slot = 0; slot < count; slot++) {
+            Object value = document.get(FIELD_PREFIX + (slot + 1));
+            if (value instanceof Number) {
+                samples.set(slot, ((Number) value).doubleValue());
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Read packet_hop_time columns of the row
+     *
+     * @param resultSet
+     * @return PacketSamples
+     * @throws SQLException
+     */
+    public static PacketSamples fromResultSet(ResultSet resultSet) throws SQLException {
+        PacketSamples samples = new PacketSamples(DEFAULT_PACKETS);
+        for (int slot = 0; slot < DEFAULT_PACKETS; slot++) {
+            samples.set(slot, resultSet.getDouble(FIELD_PREFIX + (slot + 1)));
+        }
+        return samples;
+    }
+
+    /**
+     * Bind the eight packet_hop_time columns
+     *
+     * @param statement
+     * @param firstIndex parameter index of packet_hop_time1
+     * @throws SQLException
+     */
+    public void bind(PreparedStatement statement, int firstIndex) throws SQLException {
+        for (int slot = 0; slot < DEFAULT_PACKETS; slot++) {
+            statement.setDouble(firstIndex + slot, get(slot));
+        }
+    }
+
+    /**
+     * Get amount of bitmap words for the packet count
+     *
+     * @param count
+     * @return int
+     */
+    private static int words(int count) {
+        return (count + 63) >>> 6;
+    }
+
+    /**
+     * Check the absent bit
+     *
+     * @param bits
+     * @param slot
+     * @return boolean
+     */
+    private static boolean isAbsent(long[] bits, int slot) {
+        return (bits[slot >>> 6] & (1L << slot)) != 0;
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.entity;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.bson.BsonBinarySubType;
+import org.bson.types.Binary;
+
+/**
+ * Storage encoding of the bulky ping data text (raw ping, dig, traceroute).
+ * In compressed mode longer text is stored as deflated BSON binary, lean mode
+ * also omits raw ping output of successful probes. Decoding accepts plain
+ * strings and compressed binaries, so documents of every mode can be read
+ */
+public class PayloadCodec {
+
+    public static final String MODE_PLAIN = "plain";
+    public static final String MODE_COMPRESSED = "compressed";
+    public static final String MODE_LEAN = "lean";
+
+    static final byte FORMAT_DEFLATE = 1;
+    static final int MIN_COMPRESSED_LENGTH = 64; // shorter text does not shrink
+    static final int MAX_PAYLOAD_LENGTH = 16 * 1024 * 1024; // BSON document limit
+    static final int MAX_DEFLATE_RATIO = 1032; // deflate can not expand input more
+    static final byte SUBTYPE = BsonBinarySubType.USER_DEFINED.getValue();
+
+    private static volatile String mode = MODE_PLAIN;
+
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal
+            .withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    /**
+     * Set storage mode
+     *
+     * @param storageMode plain, compressed or lean (unknown - plain)
+     */
+    public static void configure(String storageMode) {
+        String value = storageMode != null ? storageMode.trim().toLowerCase() : MODE_PLAIN;
+        mode = MODE_COMPRESSED.equals(value) || MODE_LEAN.equals(value) ? value : MODE_PLAIN;
+    }
+
+    /**
+     * Get storage mode
+     *
+     * @return String
+     */
+    public static String getMode() {
+        return mode;
+    }
+
+    /**
+     * Check if raw ping output of the probe is left out of the document
+     *
+     * @param packetStatusCode
+     * @return boolean
+     */
+    public static boolean omitRawPing(String packetStatusCode) {
+        return MODE_LEAN.equals(mode) && "Success".equals(packetStatusCode);
+    }
+
+    /**
+     * Encode text for storage in the current mode
+     *
+     * @param text
+     * @return Object String or Binary, null for null text
+     */
+    public static Object encode(String text) {
+        if (text == null || MODE_PLAIN.equals(mode) || text.length() < MIN_COMPRESSED_LENGTH) {
+            return text;
+        }
+        return compress(text);
+    }
+
+    /**
+     * Compress text into binary - format byte, original length and deflated
+     * UTF-8 bytes
+     *
+     * @param text
+     * @return Binary
+     */
+    public static Binary compress(String text) {
+        byte[] input = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 3 + 16);
+        output.write(FORMAT_DEFLATE);
+        output.write(input.length >>> 24);
+        output.write(input.length >>> 16);
+        output.write(input.length >>> 8);
+        output.write(input.length);
+        byte[] buffer = new byte[Math.max(64, Math.min(input.length, 8192))];
+        while (!deflater.finished()) {
+            output.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return new Binary(SUBTYPE, output.toByteArray());
+    }
+
+    /**
+     * Decode stored value
+     *
+     * @param value String, compressed Binary or null
+     * @return String null if value is missing or not readable
+     */
+    public static String decode(Object value) {
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        if (!(value instanceof Binary)) {
+            return null;
+        }
+        Binary binary = (Binary) value;
+        byte[] data = binary.getData();
+        if (binary.getType() != SUBTYPE || data.length < 5 || data[0] != FORMAT_DEFLATE) {
+            return null;
+        }
+        int length = ((data[1] & 0xFF) << 24) | ((data[2] & 0xFF) << 16) | ((data[3] & 0xFF) << 8) | (data[4] & 0xFF);
+        // length comes from the stored document - check it before allocating
+        if (length < 0 || length > MAX_PAYLOAD_LENGTH || length > (long) (data.length - 5) * MAX_DEFLATE_RATIO) {
+            return null;
+        }
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(data, 5, data.length - 5);
+        byte[] output = new byte[length];
+        try {
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int count = inflater.inflate(output, read, length - read);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null; // truncated
+                }
+                read += count;
+            }
+            if (read != length || !inflater.finished()) {
+                return null; // stored length does not match the data
+            }
+            return new String(output, 0, read, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get stored size of the value (text as UTF-8, binary data)
+     *
+     * @param value
+     * @return int bytes
+     */
+    public static int storedSize(Object value) {
+        if (value instanceof String) {
+            return ((String) value).getBytes(StandardCharsets.UTF_8).length;
+        }
+        if (value instanceof Binary) {
+            return ((Binary) value).length();
+        }
+        return 0;
+    }
+}
@@ -9,11 +9,16 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
 
 import com.jakubwawak.Pynk;
+import com.jakubwawak.ping_engine.DiagnosticsExecutor;
+import com.jakubwawak.ping_engine.PingOutputParser;
 
 /**
  * Ping data entity
@@ -29,22 +34,24 @@ public class PingData {
     public String packetStatusColorHex;
     public int packetTransmitted;
     public int packetReceived;
-    public double packetHopTime1;
-    public double packetHopTime2;
-    public double packetHopTime3;
-    public double packetHopTime4;
-    public double packetHopTime5;
-    public double packetHopTime6;
-    public double packetHopTime7;
-    public double packetHopTime8;
+    public PacketSamples packetTimes; // per-packet round trip times, lost packets flagged
     public String packetDigData;
     public String packetTracertData;
     public String packetRawPing;
     public double packetRoundTripTimeMin;
     public double packetRoundTripTimeMax;
     public double packetRoundTripTimeAvg;
+    public List<DnsResult> packetDnsResults; // typed results of the dns probe or diagnostics, null otherwise
 
     public boolean error;
+    public boolean probeSkipped; // probe was not admitted to run, not stored
+
+    // diagnostics (dig/traceroute) running for this probe, results are attached after the ping data is stored
+    public CompletableFuture<DiagnosticsExecutor.DiagnosticsResult> diagnostics;
+    // set by the batched writer once the insert of this ping data was executed
+    public volatile boolean writeAttempted;
+    // set by the batched writer when this ping data was stored in the outage spool instead of the database
+    public volatile boolean spooled;
 
     /**
      * Default constructor
@@ -59,14 +66,7 @@ public class PingData {
         this.packetStatusColorHex = null;
         this.packetTransmitted = 0;
         this.packetReceived = 0;
-        this.packetHopTime1 = -1;
-        this.packetHopTime2 = -1;
-        this.packetHopTime3 = -1;
-        this.packetHopTime4 = -1;
-        this.packetHopTime5 = -1;
-        this.packetHopTime6 = -1;
-        this.packetHopTime7 = -1;
-        this.packetHopTime8 = -1;
+        this.packetTimes = new PacketSamples(PacketSamples.DEFAULT_PACKETS);
         this.packetDigData = null;
         this.packetTracertData = null;
         this.packetRoundTripTimeMin = -1;
@@ -85,22 +85,13 @@ public class PingData {
      * @param packetStatusColorHex
      * @param packetTransmitted
      * @param packetReceived
-     * @param packetHopTime1
-     * @param packetHopTime2
-     * @param packetHopTime3
-     * @param packetHopTime4
-     * @param packetHopTime5
-     * @param packetHopTime6
-     * @param packetHopTime7
-     * @param packetHopTime8
+     * @param packetTimes
      * @param packetDigData
      * @param packetTracertData
      */
     public PingData(int pingId, int hostId, Timestamp pingTimestamp, String packetStatusCode,
             String packetStatusColorHex, int packetTransmitted, int packetReceived,
-            double packetHopTime1, double packetHopTime2, double packetHopTime3,
-            double packetHopTime4, double packetHopTime5, double packetHopTime6,
-            double packetHopTime7, double packetHopTime8, String packetDigData,
+            PacketSamples packetTimes, String packetDigData,
             String packetTracertData, double packetRoundTripTimeMin,
             double packetRoundTripTimeMax, double packetRoundTripTimeAvg, String packetRawPing) {
         this.pingId = pingId;
@@ -112,14 +103,7 @@ public class PingData {
         this.packetStatusColorHex = packetStatusColorHex;
         this.packetTransmitted = packetTransmitted;
         this.packetReceived = packetReceived;
-        this.packetHopTime1 = packetHopTime1;
-        this.packetHopTime2 = packetHopTime2;
-        this.packetHopTime3 = packetHopTime3;
-        this.packetHopTime4 = packetHopTime4;
-        this.packetHopTime5 = packetHopTime5;
-        this.packetHopTime6 = packetHopTime6;
-        this.packetHopTime7 = packetHopTime7;
-        this.packetHopTime8 = packetHopTime8;
+        this.packetTimes = packetTimes;
         this.packetDigData = packetDigData;
         this.packetTracertData = packetTracertData;
         this.packetRoundTripTimeMin = packetRoundTripTimeMin;
@@ -143,20 +127,13 @@ public class PingData {
         this.packetStatusColorHex = document.getString("packet_status_color_hex");
         this.packetTransmitted = document.getInteger("packet_transmitted");
         this.packetReceived = document.getInteger("packet_received");
-        this.packetHopTime1 = document.getDouble("packet_hop_time1");
-        this.packetHopTime2 = document.getDouble("packet_hop_time2");
-        this.packetHopTime3 = document.getDouble("packet_hop_time3");
-        this.packetHopTime4 = document.getDouble("packet_hop_time4");
-        this.packetHopTime5 = document.getDouble("packet_hop_time5");
-        this.packetHopTime6 = document.getDouble("packet_hop_time6");
-        this.packetHopTime7 = document.getDouble("packet_hop_time7");
-        this.packetHopTime8 = document.getDouble("packet_hop_time8");
-        this.packetDigData = document.getString("packet_dig_data");
-        this.packetTracertData = document.getString("packet_tracert_data");
+        this.packetTimes = PacketSamples.fromDocument(document);
+        this.packetDigData = PayloadCodec.decode(document.get("packet_dig_data"));
+        this.packetTracertData = PayloadCodec.decode(document.get("packet_tracert_data"));
         this.packetRoundTripTimeMin = document.getDouble("packet_round_trip_time_min");
         this.packetRoundTripTimeMax = document.getDouble("packet_round_trip_time_max");
         this.packetRoundTripTimeAvg = document.getDouble("packet_round_trip_time_avg");
-        this.packetRawPing = document.getString("packet_raw_ping");
+        this.packetRawPing = PayloadCodec.decode(document.get("packet_raw_ping"));
     }
 
     /**
@@ -165,26 +142,44 @@ public class PingData {
      * @return Document
      */
     public Document toDocument() {
-        return new Document("host_id", this.hostIdMongo)
+        Document document = new Document();
+        if (this.pingIdMongo != null) {
+            document.append("_id", this.pingIdMongo); // client side id - diagnostics are attached later
+        }
+        document.append("host_id", this.hostIdMongo)
                 .append("ping_timestamp", this.pingTimestamp)
                 .append("packet_status_code", this.packetStatusCode)
                 .append("packet_status_color_hex", this.packetStatusColorHex)
                 .append("packet_transmitted", this.packetTransmitted)
-                .append("packet_received", this.packetReceived)
-                .append("packet_hop_time1", this.packetHopTime1)
-                .append("packet_hop_time2", this.packetHopTime2)
-                .append("packet_hop_time3", this.packetHopTime3)
-                .append("packet_hop_time4", this.packetHopTime4)
-                .append("packet_hop_time5", this.packetHopTime5)
-                .append("packet_hop_time6", this.packetHopTime6)
-                .append("packet_hop_time7", this.packetHopTime7)
-                .append("packet_hop_time8", this.packetHopTime8)
-                .append("packet_dig_data", this.packetDigData)
-                .append("packet_tracert_data", this.packetTracertData)
+                .append("packet_received", this.packetReceived);
+        this.packetTimes.appendTo(document);
+        // text is stored in the configured payload mode (plain, compressed binary, omitted on success)
+        document.append("packet_dig_data", PayloadCodec.encode(this.packetDigData))
+                .append("packet_tracert_data", PayloadCodec.encode(this.packetTracertData))
                 .append("packet_round_trip_time_min", this.packetRoundTripTimeMin)
                 .append("packet_round_trip_time_max", this.packetRoundTripTimeMax)
-                .append("packet_round_trip_time_avg", this.packetRoundTripTimeAvg)
-                .append("packet_raw_ping", this.packetRawPing);
+                .append("packet_round_trip_time_avg", this.packetRoundTripTimeAvg);
+        if (!PayloadCodec.omitRawPing(this.packetStatusCode)) {
+            document.append("packet_raw_ping", PayloadCodec.encode(this.packetRawPing));
+        }
+        if (this.packetDnsResults != null) {
+            document.append("packet_dns_results", dnsResultDocuments(this.packetDnsResults));
+        }
+        return document;
+    }
+
+    /**
+     * Convert dns results to documents
+     *
+     * @param results
+     * @return List of Document
+     */
+    public static List<Document> dnsResultDocuments(List<DnsResult> results) {
+        List<Document> documents = new ArrayList<>(results.size());
+        for (DnsResult result : results) {
+            documents.add(result.toDocument());
+        }
+        return documents;
     }
 
     /**
@@ -203,14 +198,7 @@ public class PingData {
             this.packetStatusColorHex = resultSet.getString("packet_status_color_hex");
             this.packetTransmitted = resultSet.getInt("packet_transmitted");
             this.packetReceived = resultSet.getInt("packet_received");
-            this.packetHopTime1 = resultSet.getDouble("packet_hop_time1");
-            this.packetHopTime2 = resultSet.getDouble("packet_hop_time2");
-            this.packetHopTime3 = resultSet.getDouble("packet_hop_time3");
-            this.packetHopTime4 = resultSet.getDouble("packet_hop_time4");
-            this.packetHopTime5 = resultSet.getDouble("packet_hop_time5");
-            this.packetHopTime6 = resultSet.getDouble("packet_hop_time6");
-            this.packetHopTime7 = resultSet.getDouble("packet_hop_time7");
-            this.packetHopTime8 = resultSet.getDouble("packet_hop_time8");
+            this.packetTimes = PacketSamples.fromResultSet(resultSet);
             this.packetDigData = resultSet.getString("packet_dig_data");
             this.packetTracertData = resultSet.getString("packet_tracert_data");
             this.packetRoundTripTimeMin = resultSet.getDouble("packet_round_trip_time_min");
@@ -333,9 +321,7 @@ public class PingData {
      * @return boolean
      */
     public boolean verifyPacketHopTimes() {
-        return this.packetHopTime1 != -1 && this.packetHopTime2 != -1 && this.packetHopTime3 != -1 &&
-                this.packetHopTime4 != -1 && this.packetHopTime5 != -1 && this.packetHopTime6 != -1 &&
-                this.packetHopTime7 != -1 && this.packetHopTime8 != -1;
+        return this.packetTimes.allPresent();
     }
 
     /**
@@ -344,9 +330,7 @@ public class PingData {
      * @return boolean
      */
     public boolean hasValidPacketHopTimes() {
-        return this.packetHopTime1 == -1 || this.packetHopTime2 == -1 || this.packetHopTime3 == -1 ||
-                this.packetHopTime4 == -1 || this.packetHopTime5 == -1 || this.packetHopTime6 == -1 ||
-                this.packetHopTime7 == -1 || this.packetHopTime8 == -1;
+        return !this.packetTimes.allPresent();
     }
 
     /**
@@ -376,70 +360,42 @@ public class PingData {
      */
     public void setPacketHopTime(String data, int index) {
         try {
-            double packetHopTime = Double.parseDouble(data);
-            String os = System.getProperty("os.name").toLowerCase();
-            if (os.contains("nix") || os.contains("nux")) {
-                // Unix/Linux specific handling if needed
-                switch (index) {
-                    case 1:
-                        this.packetHopTime1 = packetHopTime;
-                        break;
-                    case 2:
-                        this.packetHopTime2 = packetHopTime;
-                        break;
-                    case 3:
-                        this.packetHopTime3 = packetHopTime;
-                        break;
-                    case 4:
-                        this.packetHopTime4 = packetHopTime;
-                        break;
-                    case 5:
-                        this.packetHopTime5 = packetHopTime;
-                        break;
-                    case 6:
-                        this.packetHopTime6 = packetHopTime;
-                        break;
-                    case 7:
-                        this.packetHopTime7 = packetHopTime;
-                        break;
-                    case 8:
-                        this.packetHopTime8 = packetHopTime;
-                        break;
-                }
-            } else if (os.contains("mac")) {
-                switch (index) {
-                    case 0:
-                        this.packetHopTime1 = packetHopTime;
-                        break;
-                    case 1:
-                        this.packetHopTime2 = packetHopTime;
-                        break;
-                    case 2:
-                        this.packetHopTime3 = packetHopTime;
-                        break;
-                    case 3:
-                        this.packetHopTime4 = packetHopTime;
-                        break;
-                    case 4:
-                        this.packetHopTime5 = packetHopTime;
-                        break;
-                    case 5:
-                        this.packetHopTime6 = packetHopTime;
-                        break;
-                    case 6:
-                        this.packetHopTime7 = packetHopTime;
-                        break;
-                    case 7:
-                        this.packetHopTime8 = packetHopTime;
-                        break;
-                }
-            }
+            setPacketHopTime(Double.parseDouble(data), index - PingOutputParser.SEQUENCE_BASE);
         } catch (Exception e) {
             this.error = true;
             Pynk.databaseEngine.addLog("error", "Error: " + e.getMessage(), "error", "#FF0000");
         }
     }
 
+    /**
+     * Set packet hop time
+     *
+     * @param packetHopTime
+     * @param slot packet number counted from 0
+     */
+    public void setPacketHopTime(double packetHopTime, int slot) {
+        this.packetTimes.set(slot, packetHopTime);
+    }
+
+    /**
+     * Get packet hop time
+     *
+     * @param slot packet number counted from 0
+     * @return double milliseconds, -1 if packet was lost
+     */
+    public double getPacketHopTime(int slot) {
+        return this.packetTimes.get(slot);
+    }
+
+    /**
+     * Set amount of packets sent by the probe (default 8)
+     *
+     * @param count
+     */
+    public void setPacketCount(int count) {
+        this.packetTimes.resize(count);
+    }
+
     /**
      * Set classification
      */
@@ -55,7 +55,6 @@ public class TraceSinglePath {
         this.max = max != null ? max : "0.0";
         this.min = min != null ? min : "0.0";
         this.avg = avg != null ? avg : "0.0";
-        System.out.println("TraceSinglePath constructor: " + this.name + " " + this.ip + " " + this.max + " " + this.min + " " + this.avg);
     }
 
     // Getters and setters required by MongoDB
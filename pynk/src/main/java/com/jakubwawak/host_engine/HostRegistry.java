@@ -0,0 +1,144 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.host_engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.jakubwawak.entity.Host;
+import com.jakubwawak.maintanance.ConsoleColors;
+
+/**
+ * In-memory registry of hosts - readers get the current immutable snapshot
+ * without locking or database round trips, the refresher builds a new snapshot
+ * from the changes, swaps it atomically and notifies listeners about the
+ * difference
+ */
+public class HostRegistry {
+
+    private final AtomicReference<HostSnapshot> snapshot = new AtomicReference<>(HostSnapshot.EMPTY);
+    private final CopyOnWriteArrayList<HostRegistryListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Add listener notified about host changes
+     *
+     * @param listener
+     */
+    public void addListener(HostRegistryListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Get current snapshot
+     *
+     * @return HostSnapshot
+     */
+    public HostSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Get host from current snapshot
+     *
+     * @param hostKey
+     * @return Host or null if not present
+     */
+    public Host get(String hostKey) {
+        return snapshot.get().get(hostKey);
+    }
+
+    /**
+     * Get current snapshot version
+     *
+     * @return long
+     */
+    public long getVersion() {
+        return snapshot.get().getVersion();
+    }
+
+    /**
+     * Replace all hosts - hosts missing in the given list are removed
+     *
+     * @param hosts
+     * @return int amount of changed hosts
+     */
+    public synchronized int publish(Collection<Host> hosts) {
+        Map<String, Host> next = new HashMap<>();
+        for (Host host : hosts) {
+            next.put(host.getHostKey(), host);
+        }
+        List<String> removed = new ArrayList<>();
+        for (String hostKey : snapshot.get().asMap().keySet()) {
+            if (!next.containsKey(hostKey)) {
+                removed.add(hostKey);
+            }
+        }
+        return publishChanges(hosts, removed);
+    }
+
+    /**
+     * Apply incremental changes - only given hosts are added/updated/removed
+     *
+     * @param changed     added or modified hosts
+     * @param removedKeys keys of deleted hosts
+     * @return int amount of changed hosts
+     */
+    public synchronized int publishChanges(Collection<Host> changed, Collection<String> removedKeys) {
+        HostSnapshot current = snapshot.get();
+        Map<String, Host> next = new HashMap<>(current.asMap());
+        List<Host> added = new ArrayList<>();
+        List<Host[]> updated = new ArrayList<>();
+        List<Host> removed = new ArrayList<>();
+
+        for (Host host : changed) {
+            Host previous = next.put(host.getHostKey(), host);
+            if (previous == null) {
+                added.add(host);
+            } else if (!previous.sameConfiguration(host)) {
+                updated.add(new Host[] { previous, host });
+            }
+        }
+        for (String hostKey : removedKeys) {
+            Host previous = next.remove(hostKey);
+            if (previous != null) {
+                removed.add(previous);
+            }
+        }
+
+        int changes = added.size() + updated.size() + removed.size();
+        if (changes == 0) {
+            if (!changed.isEmpty()) {
+                // same configuration, keep the fresh objects without a new version
+                snapshot.set(new HostSnapshot(current.getVersion(), next));
+            }
+            return 0;
+        }
+        snapshot.set(new HostSnapshot(current.getVersion() + 1, next));
+
+        for (HostRegistryListener listener : listeners) {
+            try {
+                for (Host host : removed) {
+                    listener.hostRemoved(host);
+                }
+                for (Host[] pair : updated) {
+                    listener.hostUpdated(pair[0], pair[1]);
+                }
+                for (Host host : added) {
+                    listener.hostAdded(host);
+                }
+            } catch (Exception e) {
+                System.out.println(ConsoleColors.RED_BOLD + "Error in host registry listener: " + e.getMessage()
+                        + ConsoleColors.RESET);
+            }
+        }
+        return changes;
+    }
+}
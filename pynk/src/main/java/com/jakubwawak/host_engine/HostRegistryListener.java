@@ -0,0 +1,36 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.host_engine;
+
+import com.jakubwawak.entity.Host;
+
+/**
+ * Receives host changes after a new snapshot was published
+ */
+public interface HostRegistryListener {
+
+    /**
+     * Host appeared in the registry
+     *
+     * @param host
+     */
+    void hostAdded(Host host);
+
+    /**
+     * Host configuration changed
+     *
+     * @param previous
+     * @param current
+     */
+    void hostUpdated(Host previous, Host current);
+
+    /**
+     * Host was removed from the registry
+     *
+     * @param host last known host data
+     */
+    void hostRemoved(Host host);
+}
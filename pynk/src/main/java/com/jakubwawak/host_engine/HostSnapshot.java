@@ -0,0 +1,81 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.host_engine;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import com.jakubwawak.entity.Host;
+
+/**
+ * Immutable view of all known hosts, keyed by host key - every refresh which
+ * changes anything publishes a new snapshot with a higher version
+ */
+public class HostSnapshot {
+
+    public static final HostSnapshot EMPTY = new HostSnapshot(0, Collections.emptyMap());
+
+    private final long version;
+    private final Map<String, Host> hosts;
+
+    /**
+     * Constructor
+     *
+     * @param version
+     * @param hosts   map is not copied, caller must not modify it afterwards
+     */
+    HostSnapshot(long version, Map<String, Host> hosts) {
+        this.version = version;
+        this.hosts = Collections.unmodifiableMap(hosts);
+    }
+
+    /**
+     * Get snapshot version
+     *
+     * @return long
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get host by host key
+     *
+     * @param hostKey
+     * @return Host or null if not present
+     */
+    public Host get(String hostKey) {
+        return hosts.get(hostKey);
+    }
+
+    /**
+     * Get all hosts
+     *
+     * @return Collection<Host>
+     */
+    public Collection<Host> getHosts() {
+        return hosts.values();
+    }
+
+    /**
+     * Get hosts as unmodifiable map
+     *
+     * @return Map<String, Host>
+     */
+    public Map<String, Host> asMap() {
+        return hosts;
+    }
+
+    /**
+     * Get amount of hosts
+     *
+     * @return int
+     */
+    public int size() {
+        return hosts.size();
+    }
+}
@@ -0,0 +1,20 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.host_engine;
+
+/**
+ * Storage backend feeding the host registry
+ */
+public interface HostSource {
+
+    /**
+     * Load changes from the storage and publish them to the registry
+     *
+     * @param registry
+     * @throws Exception when hosts could not be loaded
+     */
+    void refresh(HostRegistry registry) throws Exception;
+}
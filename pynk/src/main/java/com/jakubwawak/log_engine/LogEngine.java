@@ -0,0 +1,282 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.log_engine;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jakubwawak.maintanance.ConsoleColors;
+import com.jakubwawak.maintanance.Properties;
+
+/**
+ * Asynchronous log pipeline - callers only filter and enqueue records, the
+ * writer thread prints them to console and persists them in batches. Records
+ * can be sampled and rate limited per category so a chatty category can not
+ * flood the database
+ */
+public class LogEngine {
+
+    private final LogSink sink;
+    private final ArrayBlockingQueue<LogRecord> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final LogLevel minLevel;
+    private final boolean consoleEnabled;
+    private final int rateLimitPerSecond;
+    private final Map<String, Double> samplingRates;
+    private final ConcurrentHashMap<String, TokenBucket> rateLimiters = new ConcurrentHashMap<>();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // statistics
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong sampledOut = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param sink                storage for the records
+     * @param minLevel            records below this level are ignored
+     * @param consoleEnabled      print records to console
+     * @param queueCapacity       max amount of records waiting for the writer
+     * @param batchSize           max amount of records in single write
+     * @param flushIntervalMillis max time record waits for write
+     * @param rateLimitPerSecond  max records per second per category, 0 - unlimited
+     * @param samplingRates       fraction of records kept per category (errors are never sampled out)
+     */
+    public LogEngine(LogSink sink, LogLevel minLevel, boolean consoleEnabled, int queueCapacity, int batchSize,
+            long flushIntervalMillis, int rateLimitPerSecond, Map<String, Double> samplingRates) {
+        this.sink = sink;
+        this.minLevel = minLevel;
+        this.consoleEnabled = consoleEnabled;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+        this.rateLimitPerSecond = Math.max(0, rateLimitPerSecond);
+        this.samplingRates = Map.copyOf(samplingRates);
+        this.writerThread = new Thread(this::runWriter, "pynk-log-writer");
+        this.writerThread.setDaemon(true);
+    }
+
+    /**
+     * Create log engine configured from properties file
+     *
+     * @param sink
+     * @param properties
+     * @return LogEngine
+     */
+    public static LogEngine fromProperties(LogSink sink, Properties properties) {
+        return new LogEngine(sink,
+                LogLevel.parse(properties.getValue("logLevel", "info")),
+                Boolean.parseBoolean(properties.getValue("logConsole", "true")),
+                properties.getIntValue("logQueueSize", 20000),
+                properties.getIntValue("logBatchSize", 500),
+                properties.getIntValue("logFlushMillis", 2000),
+                properties.getIntValue("logRateLimit", 50),
+                parseSamplingRates(properties.getValue("logSampling", "")));
+    }
+
+    /**
+     * Parse sampling rates in format category:rate,category:rate
+     *
+     * @param value
+     * @return Map<String, Double>
+     */
+    static Map<String, Double> parseSamplingRates(String value) {
+        Map<String, Double> rates = new HashMap<>();
+        for (String entry : value.split(",")) {
+            int separator = entry.lastIndexOf(':');
+            if (separator <= 0) {
+                continue;
+            }
+            try {
+                double rate = Double.parseDouble(entry.substring(separator + 1).trim());
+                rates.put(entry.substring(0, separator).trim(), Math.max(0, Math.min(1, rate)));
+            } catch (NumberFormatException ex) {
+                System.out.println("PROPERTIES-PARSER-FAILED - Invalid log sampling entry: " + entry);
+            }
+        }
+        return rates;
+    }
+
+    /**
+     * Start the writer thread
+     */
+    public void start() {
+        writerThread.start();
+    }
+
+    /**
+     * Submit record - never blocks, record is dropped when the queue is full
+     *
+     * @param record
+     * @return true if record was accepted
+     */
+    public boolean submit(LogRecord record) {
+        if (!record.level.isAtLeast(minLevel)) {
+            return false;
+        }
+        if (record.level != LogLevel.ERROR) {
+            Double rate = samplingRates.get(record.category);
+            if (rate != null && ThreadLocalRandom.current().nextDouble() >= rate) {
+                sampledOut.incrementAndGet();
+                return false;
+            }
+        }
+        if (rateLimitPerSecond > 0
+                && !rateLimiters.computeIfAbsent(record.category, c -> new TokenBucket(rateLimitPerSecond))
+                        .tryAcquire()) {
+            rateLimited.incrementAndGet();
+            return false;
+        }
+        if (!queue.offer(record)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Writer loop
+     */
+    private void runWriter() {
+        List<LogRecord> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                LogRecord first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - batch.size());
+                if (running && batch.size() < batchSize) {
+                    // wait a moment for more records - fewer and bigger writes
+                    Thread.sleep(Math.min(flushIntervalMillis, 200));
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Print and persist the batch
+     *
+     * @param batch
+     */
+    private void write(List<LogRecord> batch) {
+        if (consoleEnabled) {
+            for (LogRecord record : batch) {
+                print(record);
+            }
+        }
+        try {
+            sink.write(batch);
+            written.addAndGet(batch.size());
+        } catch (Exception e) {
+            failed.addAndGet(batch.size());
+            System.out.println(ConsoleColors.RED_BRIGHT + "LOG-ENGINE-ERROR - Failed to persist " + batch.size()
+                    + " log records (" + e.getMessage() + ")" + ConsoleColors.RESET);
+        }
+    }
+
+    /**
+     * Print record to console
+     *
+     * @param record
+     */
+    private void print(LogRecord record) {
+        String color;
+        if (record.level == LogLevel.ERROR) {
+            color = ConsoleColors.RED_BRIGHT;
+        } else if (record.isHostLog()) {
+            color = ConsoleColors.BLUE_BOLD_BRIGHT;
+        } else {
+            color = ConsoleColors.GREEN_BRIGHT;
+        }
+        System.out.println(color + record.category + "[" + new Timestamp(record.timestamp) + ") - lvl: "
+                + record.code + " - " + record.message + ConsoleColors.RESET);
+    }
+
+    /**
+     * Stop the writer - waits until queued records are written
+     *
+     * @param timeoutMillis
+     */
+    public void stop(long timeoutMillis) {
+        running = false;
+        try {
+            writerThread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get amount of records waiting for the writer
+     *
+     * @return int
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Get short log engine statistics
+     *
+     * @return String
+     */
+    public String getStatistics() {
+        return String.format("queue: %d, accepted: %d, written: %d, sampled out: %d, rate limited: %d, "
+                + "dropped: %d, failed: %d", getQueueDepth(), accepted.get(), written.get(), sampledOut.get(),
+                rateLimited.get(), dropped.get(), failed.get());
+    }
+
+    /**
+     * Token bucket limiting records per second of single category
+     */
+    private static class TokenBucket {
+        private final double capacity;
+        private double tokens;
+        private long lastRefillNanos;
+
+        TokenBucket(int perSecond) {
+            this.capacity = perSecond;
+            this.tokens = perSecond;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * capacity / 1_000_000_000.0);
+            lastRefillNanos = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+    }
+}
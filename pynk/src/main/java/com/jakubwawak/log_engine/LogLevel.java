@@ -0,0 +1,53 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.log_engine;
+
+/**
+ * Levels of log records, ordered by severity
+ */
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    SUCCESS,
+    WARN,
+    ERROR;
+
+    /**
+     * Parse level from the codes used across the application ("info", "error", "success", ...)
+     *
+     * @param code
+     * @return LogLevel, INFO for unknown codes
+     */
+    public static LogLevel parse(String code) {
+        if (code == null) {
+            return INFO;
+        }
+        switch (code.trim().toLowerCase()) {
+            case "debug":
+                return DEBUG;
+            case "success":
+                return SUCCESS;
+            case "warn":
+            case "warning":
+                return WARN;
+            case "error":
+            case "failed":
+                return ERROR;
+            default:
+                return INFO;
+        }
+    }
+
+    /**
+     * Check if level is at least as severe as the given one
+     *
+     * @param other
+     * @return boolean
+     */
+    public boolean isAtLeast(LogLevel other) {
+        return ordinal() >= other.ordinal();
+    }
+}
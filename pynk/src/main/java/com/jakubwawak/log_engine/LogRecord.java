@@ -0,0 +1,48 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.log_engine;
+
+/**
+ * Single structured log record
+ */
+public class LogRecord {
+
+    public final long timestamp;
+    public final String category;
+    public final String message;
+    public final LogLevel level;
+    public final String code; // level code as given by the caller
+    public final String colorHex;
+    public final Object hostId; // null for application logs, sqlite id or mongo object id for host logs
+
+    /**
+     * Constructor
+     *
+     * @param category
+     * @param message
+     * @param code
+     * @param colorHex
+     * @param hostId
+     */
+    public LogRecord(String category, String message, String code, String colorHex, Object hostId) {
+        this.timestamp = System.currentTimeMillis();
+        this.category = category;
+        this.message = message;
+        this.level = LogLevel.parse(code);
+        this.code = code;
+        this.colorHex = colorHex;
+        this.hostId = hostId;
+    }
+
+    /**
+     * Check if record belongs to a host
+     *
+     * @return boolean
+     */
+    public boolean isHostLog() {
+        return hostId != null;
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.log_engine;
+
+import java.io.PrintStream;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed capacity ring buffer of the most recent log records. Writers claim a
+ * slot with a single atomic increment and publish the record as one immutable
+ * entry, so readers never see a partly written record. Readers skip slots
+ * already holding a newer record
+ */
+public class LogRingBuffer {
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param capacity amount of kept records (rounded up to power of two)
+     */
+    public LogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Record log entry - overwrites the oldest one when buffer is full
+     *
+     * @param category
+     * @param message
+     * @param level
+     */
+    public void record(String category, String message, LogLevel level) {
+        long sequence = cursor.getAndIncrement();
+        int index = (int) (sequence & mask);
+        Entry entry = new Entry(sequence, System.currentTimeMillis(), category, message, level);
+        while (true) {
+            Entry current = slots.get(index);
+            if (current != null && current.sequence > sequence) {
+                return; // lapped by a writer of a newer record while claiming the slot
+            }
+            if (slots.compareAndSet(index, current, entry)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the most recent records, oldest first
+     *
+     * @param count
+     * @return List<String>
+     */
+    public List<String> recent(int count) {
+        return recent(count, null);
+    }
+
+    /**
+     * Get the most recent records with at least given level, oldest first
+     *
+     * @param count
+     * @param minLevel null for all levels
+     * @return List<String>
+     */
+    public List<String> recent(int count, LogLevel minLevel) {
+        ArrayList<String> result = new ArrayList<>();
+        long end = cursor.get();
+        long start = Math.max(0, end - slots.length());
+        for (long sequence = end - 1; sequence >= start && result.size() < count; sequence--) {
+            Entry entry = slots.get((int) (sequence & mask));
+            if (entry == null || entry.sequence != sequence) {
+                continue; // overwritten or not yet published
+            }
+            if (minLevel == null || entry.level.isAtLeast(minLevel)) {
+                result.add(entry.category + "(" + new Timestamp(entry.timestamp) + ") - " + entry.level + " - "
+                        + entry.message);
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Print the most recent records
+     *
+     * @param count
+     * @param out
+     */
+    public void dump(int count, PrintStream out) {
+        for (String entry : recent(count)) {
+            out.println(entry);
+        }
+    }
+
+    /**
+     * Get amount of records ever written
+     *
+     * @return long
+     */
+    public long getTotalCount() {
+        return cursor.get();
+    }
+
+    /**
+     * Get capacity of the buffer
+     *
+     * @return int
+     */
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    /**
+     * Published log record
+     */
+    private static final class Entry {
+        final long sequence;
+        final long timestamp;
+        final String category;
+        final String message;
+        final LogLevel level;
+
+        Entry(long sequence, long timestamp, String category, String message, LogLevel level) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.category = category;
+            this.message = message;
+            this.level = level;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.log_engine;
+
+import java.util.List;
+
+/**
+ * Persistent storage for batches of log records
+ */
+public interface LogSink {
+
+    /**
+     * Write batch of log records
+     *
+     * @param records
+     * @throws Exception when batch could not be stored
+     */
+    void write(List<LogRecord> records) throws Exception;
+}
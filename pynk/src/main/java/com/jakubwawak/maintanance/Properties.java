@@ -58,6 +58,37 @@ public class Properties {
         return null;
     }
 
+    /**
+     * Function for getting properties value with fallback when key is missing
+     *
+     * @param key
+     * @param defaultValue
+     * @return String
+     */
+    public String getValue(String key, String defaultValue) {
+        String value = getValue(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return value;
+    }
+
+    /**
+     * Function for getting integer properties value with fallback
+     *
+     * @param key
+     * @param defaultValue
+     * @return int
+     */
+    public int getIntValue(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(getValue(key, String.valueOf(defaultValue)).trim());
+        } catch (NumberFormatException ex) {
+            System.out.println("PROPERTIES-PARSER-FAILED - Invalid number for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
     /**
      * Function for parsing properties file
      */
@@ -130,6 +161,108 @@ public class Properties {
             writer.write("$pingInterval=60\n");
             writer.write("#hourly ping target\n");
             writer.write("$pingTarget=8.8.8.8\n");
+            writer.write("#probe scheduler carrier threads (shared by all hosts)\n");
+            writer.write("$probeWorkerThreads=16\n");
+            writer.write("#timer wheel used for spreading host probes over their interval\n");
+            writer.write("$timerWheelTickMillis=100\n");
+            writer.write("$timerWheelSize=512\n");
+            writer.write("#batched ping data writer (mongodb)\n");
+            writer.write("$pingWriterQueueSize=10000\n");
+            writer.write("$pingWriterBatchSize=500\n");
+            writer.write("$pingWriterFlushMillis=1000\n");
+            writer.write("#full reload of the hosts collection (incremental refresh in between)\n");
+            writer.write("$hostFullResyncMillis=300000\n");
+            writer.write("#failure diagnostics (dig/traceroute), results reused per target for dedup seconds\n");
+            writer.write("$diagnosticsThreads=2\n");
+            writer.write("$diagnosticsQueueSize=100\n");
+            writer.write("$diagnosticsDedupSeconds=300\n");
+            writer.write("#outage: after this many targets diagnosed within outage seconds new targets share the last diagnostics (0 - off)\n");
+            writer.write("$diagnosticsOutageTargets=5\n");
+            writer.write("$diagnosticsOutageSeconds=60\n");
+            writer.write("#probe subprocess deadlines, processes are killed after the grace period\n");
+            writer.write("$probeTimeoutMillis=12000\n");
+            writer.write("$diagnosticsTimeoutMillis=30000\n");
+            writer.write("$probeKillGraceMillis=1000\n");
+            writer.write("#in-process tcp/udp probes (host probe type tcp or udp)\n");
+            writer.write("$socketReplyTimeoutMillis=1000\n");
+            writer.write("$socketPacketSpacingMillis=200\n");
+            writer.write("#dns server used by failure diagnostics (system - first nameserver of /etc/resolv.conf, ip or ip:port of a chosen server, dig - use dig subprocess)\n");
+            writer.write("$dnsResolver=system\n");
+            writer.write("#name resolved by dns probes of hosts without a domain name\n");
+            writer.write("$dnsQueryName=example.com\n");
+            writer.write("#probe subprocess admission: max running processes and quota per process type\n");
+            writer.write("$subprocessBudget=32\n");
+            writer.write("$subprocessQuotaPing=32\n");
+            writer.write("$subprocessQuotaDig=4\n");
+            writer.write("$subprocessQuotaTraceroute=4\n");
+            writer.write("#adaptive probe intervals: degraded hosts are probed more often, stable hosts back off\n");
+            writer.write("#default bounds are job time / divisor and job time * multiplier (host hostJobTimeMin/hostJobTimeMax override)\n");
+            writer.write("$adaptiveIntervals=true\n");
+            writer.write("$adaptiveMinDivisor=4\n");
+            writer.write("$adaptiveMaxMultiplier=4\n");
+            writer.write("$adaptiveStableProbes=5\n");
+            writer.write("#storage of raw ping/dig/traceroute text (plain, compressed - deflated binary, lean - compressed and no raw ping on success)\n");
+            writer.write("#existing documents are rewritten by running with --migrate-payloads\n");
+            writer.write("$payloadStorage=compressed\n");
+            writer.write("$payloadMigrationBatchSize=500\n");
+            writer.write("$payloadMigrationPauseMillis=100\n");
+            writer.write("#per-host 1m/1h/1d rollups of ping data updated by the ping data writer (mongodb)\n");
+            writer.write("$pingRollups=true\n");
+            writer.write("#index bootstrap and explain() check at startup (mongodb), ttl of minute/hour rollups in days (0 - keep)\n");
+            writer.write("$schemaBootstrap=true\n");
+            writer.write("$rollupMinuteTtlDays=30\n");
+            writer.write("$rollupHourTtlDays=400\n");
+            writer.write("#ping_data storage (mongodb): standard or timeseries (ping_timestamp time field, host_id meta field, retention by ttl)\n");
+            writer.write("#existing standard collection is moved with --migrate-timeseries (kept as ping_data_legacy)\n");
+            writer.write("$pingDataStorage=standard\n");
+            writer.write("$pingDataRetentionDays=90\n");
+            writer.write("$pingDataGranularity=seconds\n");
+            writer.write("$pingDataMigrationBatchSize=1000\n");
+            writer.write("$pingDataMigrationPauseMillis=100\n");
+            writer.write("#migration refuses to start while ping_data got documents in the last quiet seconds (stop all collectors first)\n");
+            writer.write("$pingDataMigrationQuietSeconds=120\n");
+            writer.write("#background retention - chunked, rate limited deletes of old records (0 days - kept forever, every policy is opt-in)\n");
+            writer.write("$retentionEnabled=true\n");
+            writer.write("$retentionPingDays=0\n");
+            writer.write("$retentionLogDays=0\n");
+            writer.write("$retentionHostLogDays=0\n");
+            writer.write("$retentionTraceRouteDays=0\n");
+            writer.write("$retentionIntervalMinutes=60\n");
+            writer.write("$retentionChunkSize=1000\n");
+            writer.write("$retentionMaxDeletesPerSecond=2000\n");
+            writer.write("$retentionMaxChunkMillis=200\n");
+            writer.write("$retentionBusyPauseMillis=500\n");
+            writer.write("#on-disk spool of probe results while mongodb is unreachable or slower than spoolSlowMillis, replayed in order\n");
+            writer.write("#spoolFsyncPolicy: always (every record), interval (spoolFsyncIntervalMillis) or never (left to the os)\n");
+            writer.write("$spoolEnabled=true\n");
+            writer.write("$spoolPath=./spool\n");
+            writer.write("$spoolSegmentMb=16\n");
+            writer.write("$spoolMaxMb=256\n");
+            writer.write("$spoolFsyncPolicy=interval\n");
+            writer.write("$spoolFsyncIntervalMillis=1000\n");
+            writer.write("$spoolReplayBatchSize=500\n");
+            writer.write("$spoolReplayMaxPerSecond=2000\n");
+            writer.write("$spoolProbeMillis=5000\n");
+            writer.write("$spoolSlowMillis=5000\n");
+            writer.write("#prometheus text endpoint http://metricsBindAddress:metricsPort/metrics (0.0.0.0 exposes it outside the host)\n");
+            writer.write("$metricsEnabled=false\n");
+            writer.write("$metricsPort=9464\n");
+            writer.write("$metricsBindAddress=127.0.0.1\n");
+            writer.write("#sqlite single writer connection and read-only connection pool\n");
+            writer.write("$sqliteWriterQueueSize=10000\n");
+            writer.write("$sqliteWriterBatchSize=200\n");
+            writer.write("$sqliteWriterFlushMillis=500\n");
+            writer.write("$sqliteReadPoolSize=4\n");
+            writer.write("#asynchronous log pipeline (levels: debug, info, success, warn, error)\n");
+            writer.write("$logLevel=info\n");
+            writer.write("$logConsole=true\n");
+            writer.write("$logQueueSize=20000\n");
+            writer.write("$logBatchSize=500\n");
+            writer.write("$logFlushMillis=2000\n");
+            writer.write("#max log records per second per category (0 - unlimited)\n");
+            writer.write("$logRateLimit=50\n");
+            writer.write("#fraction of records kept per category, format category:rate,category:rate\n");
+            writer.write("$logSampling=thread-manager:0.1,thread-job:0.2\n");
             writer.close();
         } catch (Exception ex) {
             error = true;
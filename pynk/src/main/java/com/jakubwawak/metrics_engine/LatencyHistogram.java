@@ -0,0 +1,108 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.metrics_engine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed bucket bounds - every bucket and the sum are
+ * striped LongAdder counters, so recording threads never contend on a lock
+ * or a single cache line. Buckets are made cumulative only when rendered
+ */
+public class LatencyHistogram {
+
+    // upper bounds in milliseconds, last bucket is +Inf
+    public static final double[] DEFAULT_BOUNDS_MILLIS = { 0.5, 1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500,
+            5000, 10000, 30000 };
+
+    private final long[] boundsNanos;
+    private final LongAdder[] buckets;
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * Constructor with default bounds
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_BOUNDS_MILLIS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param boundsMillis ascending upper bounds of the buckets
+     */
+    public LatencyHistogram(double[] boundsMillis) {
+        this.boundsNanos = new long[boundsMillis.length];
+        for (int i = 0; i < boundsMillis.length; i++) {
+            boundsNanos[i] = (long) (boundsMillis[i] * 1_000_000);
+        }
+        this.buckets = new LongAdder[boundsMillis.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record latency
+     *
+     * @param nanos
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int bucket = 0;
+        while (bucket < boundsNanos.length && value > boundsNanos[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumNanos.add(value);
+    }
+
+    /**
+     * Record latency in milliseconds
+     *
+     * @param millis
+     */
+    public void recordMillis(double millis) {
+        record((long) (millis * 1_000_000));
+    }
+
+    /**
+     * Get amount of recorded values
+     *
+     * @return long
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Render histogram samples in Prometheus text format (seconds)
+     *
+     * @param out
+     * @param name   metric name without suffix
+     * @param labels rendered labels without braces, empty for none
+     */
+    public void render(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+            String bound = i < boundsNanos.length ? MetricsRegistry.formatDouble(boundsNanos[i] / 1e9) : "+Inf";
+            out.append(name).append("_bucket{").append(prefix).append("le=\"").append(bound).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(suffix).append(' ')
+                .append(MetricsRegistry.formatDouble(sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1)))
+                .append('\n');
+        out.append(name).append("_count").append(suffix).append(' ').append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.metrics_engine;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import com.jakubwawak.entity.PingData;
+
+/**
+ * Runtime metrics of the collector rendered in Prometheus text format 0.0.4.
+ * Hot path only increments striped counters (probe results, per-host round
+ * trip histograms), gauges and component histograms are read when scraped.
+ * Counter samples and their HELP/TYPE lines share the _total name
+ */
+public class MetricsRegistry {
+
+    public static final String PREFIX = "pynk_";
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> probes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> hostRoundTrips = new ConcurrentHashMap<>();
+    private final LongAdder scrapes = new LongAdder();
+
+    /**
+     * Constructor - registers JVM thread metrics
+     */
+    public MetricsRegistry() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        gauge("jvm_threads", "Live platform threads", "", threads::getThreadCount);
+        gauge("jvm_threads_daemon", "Live daemon threads", "", threads::getDaemonThreadCount);
+        gauge("jvm_threads_peak", "Peak live threads", "", threads::getPeakThreadCount);
+        gauge("jvm_heap_used_bytes", "Used heap memory", "",
+                () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
+
+    /**
+     * Record stored probe result - status counter and round trip time of every
+     * answered packet
+     *
+     * @param hostName
+     * @param pingData
+     */
+    public void recordProbe(String hostName, PingData pingData) {
+        String status = pingData.getPacketStatusCode() == null ? "unknown" : pingData.getPacketStatusCode();
+        probes.computeIfAbsent(status, key -> new LongAdder()).increment();
+        if (pingData.packetTimes == null || pingData.packetReceived <= 0) {
+            return;
+        }
+        LatencyHistogram histogram = hostRoundTrips.computeIfAbsent(hostName, key -> new LatencyHistogram());
+        boolean recorded = false;
+        for (int slot = 0; slot < pingData.packetTimes.size(); slot++) {
+            if (pingData.packetTimes.isPresent(slot)) {
+                histogram.recordMillis(pingData.packetTimes.get(slot));
+                recorded = true;
+            }
+        }
+        if (!recorded && pingData.packetRoundTripTimeAvg >= 0) {
+            histogram.recordMillis(pingData.packetRoundTripTimeAvg); // probes without per-packet samples
+        }
+    }
+
+    /**
+     * Forget round trip histogram of removed host
+     *
+     * @param hostName
+     */
+    public void removeHost(String hostName) {
+        hostRoundTrips.remove(hostName);
+    }
+
+    /**
+     * Register gauge read on scrape
+     *
+     * @param name     metric name without prefix
+     * @param help
+     * @param labels   rendered labels without braces, empty for none
+     * @param supplier value, NaN when the source is not running
+     */
+    public synchronized void gauge(String name, String help, String labels, DoubleSupplier supplier) {
+        family(name, help, "gauge").samples.add(new Sample(labels, supplier, null));
+    }
+
+    /**
+     * Register counter read on scrape
+     *
+     * @param name     metric name without prefix, _total is appended
+     * @param help
+     * @param labels   rendered labels without braces, empty for none
+     * @param supplier
+     */
+    public synchronized void counter(String name, String help, String labels, DoubleSupplier supplier) {
+        family(name, help, "counter").samples.add(new Sample(labels, supplier, null));
+    }
+
+    /**
+     * Register histogram owned by a component
+     *
+     * @param name      metric name without prefix
+     * @param help
+     * @param labels    rendered labels without braces, empty for none
+     * @param histogram
+     */
+    public synchronized void histogram(String name, String help, String labels, LatencyHistogram histogram) {
+        family(name, help, "histogram").samples.add(new Sample(labels, null, histogram));
+    }
+
+    /**
+     * Get or create metric family
+     *
+     * @param name
+     * @param help
+     * @param type
+     * @return Family
+     */
+    private Family family(String name, String help, String type) {
+        return families.computeIfAbsent(name, key -> new Family(help, type));
+    }
+
+    /**
+     * Render all metrics in Prometheus text format
+     *
+     * @return String
+     */
+    public String render() {
+        scrapes.increment();
+        StringBuilder out = new StringBuilder(8192);
+        List<Map.Entry<String, Family>> registered;
+        synchronized (this) {
+            registered = new ArrayList<>(families.entrySet());
+        }
+        for (Map.Entry<String, Family> entry : registered) {
+            Family family = entry.getValue();
+            String name = PREFIX + entry.getKey() + ("counter".equals(family.type) ? "_total" : "");
+            header(out, name, family.help, family.type);
+            for (Sample sample : family.samples) {
+                if (sample.histogram != null) {
+                    sample.histogram.render(out, name, sample.labels);
+                    continue;
+                }
+                double value = sample.supplier.getAsDouble();
+                out.append(name);
+                if (!sample.labels.isEmpty()) {
+                    out.append('{').append(sample.labels).append('}');
+                }
+                out.append(' ').append(formatDouble(value)).append('\n');
+            }
+        }
+        header(out, PREFIX + "probes_total", "Stored probe results by status", "counter");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(probes).entrySet()) {
+            out.append(PREFIX).append("probes_total{").append(label("status", entry.getKey())).append("} ")
+                    .append(entry.getValue().sum()).append('\n');
+        }
+        String roundTrip = PREFIX + "host_round_trip_seconds";
+        header(out, roundTrip, "Round trip time of answered packets per host", "histogram");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(hostRoundTrips).entrySet()) {
+            entry.getValue().render(out, roundTrip, label("host", entry.getKey()));
+        }
+        header(out, PREFIX + "metrics_scrapes_total", "Scrapes of the metrics endpoint", "counter");
+        out.append(PREFIX).append("metrics_scrapes_total ").append(scrapes.sum()).append('\n');
+        return out.toString();
+    }
+
+    /**
+     * Render HELP and TYPE lines
+     *
+     * @param out
+     * @param name
+     * @param help
+     * @param type
+     */
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Render label with escaped value
+     *
+     * @param name
+     * @param value
+     * @return String
+     */
+    public static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    /**
+     * Format sample value
+     *
+     * @param value
+     * @return String
+     */
+    static String formatDouble(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString(); // no exponent in bucket bounds
+    }
+
+    /**
+     * Metrics of one name
+     */
+    private static class Family {
+        final String help;
+        final String type;
+        final List<Sample> samples = new ArrayList<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Single registered sample - supplier or histogram
+     */
+    private static class Sample {
+        final String labels;
+        final DoubleSupplier supplier;
+        final LatencyHistogram histogram;
+
+        Sample(String labels, DoubleSupplier supplier, LatencyHistogram histogram) {
+            this.labels = labels;
+            this.supplier = supplier;
+            this.histogram = histogram;
+        }
+    }
+}
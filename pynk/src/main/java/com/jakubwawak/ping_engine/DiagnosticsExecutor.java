@@ -0,0 +1,362 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jakubwawak.entity.DnsResult;
+import com.jakubwawak.entity.PingData;
+import com.jakubwawak.ping_engine.ProbeAdmissionController.Priority;
+import com.jakubwawak.ping_engine.ProbeAdmissionController.ProcessType;
+
+/**
+ * Failure diagnostics (dns lookup and traceroute) executed outside of the probe
+ * threads - concurrency is bounded by a small pool with a bounded queue and
+ * requests for the same target inside the deduplication window share one
+ * result. When many targets fail at once (outage window) new targets share the
+ * diagnostics of the last diagnosed target, so an outage of many hosts does
+ * not start a traceroute per host
+ */
+public class DiagnosticsExecutor {
+
+    /**
+     * Result of the diagnostics of a single target
+     */
+    public static class DiagnosticsResult {
+        public final String target;
+        public final String digData;
+        public final String tracertData;
+        public final List<DnsResult> dnsResults; // null when dig subprocess was used
+        public final long finishedMillis;
+
+        DiagnosticsResult(String target, String digData, List<DnsResult> dnsResults, String tracertData) {
+            this.target = target;
+            this.digData = digData;
+            this.dnsResults = dnsResults;
+            this.tracertData = tracertData;
+            this.finishedMillis = System.currentTimeMillis();
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final ProbeProcessRunner runner;
+    private final NioProbeReactor reactor;
+    private final InetSocketAddress resolver;
+    private final long dedupWindowMillis;
+    private final int outageTargets;
+    private final long outageWindowMillis;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ArrayDeque<Long> recentStarts = new ArrayDeque<>(); // guarded by this
+    private Entry lastStarted; // guarded by this
+
+    // statistics
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param runner             runner bounding dig and traceroute by deadline
+     * @param reactor            reactor of the in-process dns probe, null to use
+     *                           dig
+     * @param resolver           dns server queried by the dns probe
+     * @param threads            max amount of diagnostics running at once
+     * @param queueCapacity      max amount of diagnostics waiting for a thread
+     * @param dedupWindowMillis  time in which result of the target is reused
+     * @param outageTargets      targets diagnosed inside the outage window after
+     *                           which new targets share diagnostics, 0 - never
+     * @param outageWindowMillis outage window
+     */
+    public DiagnosticsExecutor(ProbeProcessRunner runner, NioProbeReactor reactor, InetSocketAddress resolver,
+            int threads, int queueCapacity, long dedupWindowMillis, int outageTargets, long outageWindowMillis) {
+        this.runner = runner;
+        this.reactor = reactor;
+        this.resolver = resolver;
+        AtomicInteger counter = new AtomicInteger();
+        int poolSize = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), runnable -> {
+                    Thread thread = new Thread(runnable, "pynk-diagnostics-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.dedupWindowMillis = Math.max(0, dedupWindowMillis);
+        this.outageTargets = Math.max(0, outageTargets);
+        this.outageWindowMillis = Math.max(0, outageWindowMillis);
+    }
+
+    /**
+     * Request diagnostics of the target - returns running or recent result of
+     * the same target when available, during an outage the result of the last
+     * diagnosed target
+     *
+     * @param target
+     * @return CompletableFuture or null when the queue is full
+     */
+    public CompletableFuture<DiagnosticsResult> submit(String target) {
+        long now = System.currentTimeMillis();
+        Entry current = entries.get(target);
+        if (current != null && current.isReusable(now, dedupWindowMillis)) {
+            deduplicated.incrementAndGet();
+            return current.future;
+        }
+        Entry created = new Entry(target);
+        Entry outage;
+        synchronized (this) {
+            Entry existing = entries.get(target);
+            if (existing != null && existing.isReusable(now, dedupWindowMillis)) {
+                deduplicated.incrementAndGet();
+                return existing.future;
+            }
+            outage = outageEntry(now);
+            entries.put(target, created);
+            if (outage == null) {
+                recentStarts.addLast(now);
+                lastStarted = created;
+            }
+        }
+        entries.values().removeIf(entry -> !entry.isReusable(now, dedupWindowMillis));
+        if (outage != null) {
+            share(outage, created);
+            return created.future;
+        }
+        try {
+            executor.execute(() -> run(target, created));
+        } catch (RejectedExecutionException e) {
+            entries.remove(target, created);
+            created.finishedMillis = now;
+            created.future.complete(null); // targets sharing it during an outage get no diagnostics either
+            rejected.incrementAndGet();
+            return null;
+        }
+        submitted.incrementAndGet();
+        return created.future;
+    }
+
+    /**
+     * Get diagnostics shared by new targets - outageTargets targets were
+     * diagnosed inside the outage window
+     *
+     * @param now
+     * @return Entry or null when there is no outage
+     */
+    private Entry outageEntry(long now) {
+        while (!recentStarts.isEmpty() && now - recentStarts.peekFirst() >= outageWindowMillis) {
+            recentStarts.pollFirst();
+        }
+        if (outageTargets == 0 || recentStarts.size() < outageTargets || lastStarted == null
+                || !lastStarted.isReusable(now, outageWindowMillis)) {
+            return null;
+        }
+        return lastStarted;
+    }
+
+    /**
+     * Complete diagnostics of the target with the result of the outage entry
+     *
+     * @param outage
+     * @param entry
+     */
+    private void share(Entry outage, Entry entry) {
+        shared.incrementAndGet();
+        outage.future.whenComplete((result, error) -> {
+            try {
+                if (result == null) {
+                    entry.future.complete(null);
+                    return;
+                }
+                String note = "Diagnostics shared with " + outage.target + " (" + outageTargets
+                        + " or more targets failed within " + outageWindowMillis / 1000 + " s)\n";
+                entry.future.complete(new DiagnosticsResult(entry.target, note, null,
+                        note + (result.tracertData == null ? "" : result.tracertData)));
+            } finally {
+                entry.finishedMillis = System.currentTimeMillis();
+            }
+        });
+    }
+
+    /**
+     * Run diagnostics of the target
+     *
+     * @param target
+     * @param entry
+     */
+    private void run(String target, Entry entry) {
+        try {
+            DiagnosticsResult result;
+            if (reactor != null && resolver != null) {
+                PingData dns = resolveHost(reactor, resolver, target);
+                result = new DiagnosticsResult(target, dns.packetDigData, dns.packetDnsResults,
+                        traceHost(runner, target));
+            } else {
+                result = new DiagnosticsResult(target, digHost(runner, target), null, traceHost(runner, target));
+            }
+            entry.future.complete(result);
+            completed.incrementAndGet();
+        } catch (Throwable e) {
+            entry.future.completeExceptionally(e);
+        } finally {
+            entry.finishedMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Trace a host
+     *
+     * @param runner
+     * @param host
+     * @return String
+     */
+    public static String traceHost(ProbeProcessRunner runner, String host) {
+        StringBuilder result = new StringBuilder();
+        try {
+            ProbeProcessRunner.ProbeResult probe = runner.runForText(ProcessType.TRACEROUTE, Priority.DIAGNOSTICS,
+                    Arrays.asList("traceroute", "-m", "10", "-q", "1", "-w", "2", host),
+                    runner.getDiagnosticsDeadline(), result);
+            if (probe.notAdmitted) {
+                return "Traceroute skipped, subprocess budget exhausted";
+            }
+            if (probe.timedOut) {
+                result.append("Traceroute stopped at deadline (").append(runner.getDiagnosticsDeadline())
+                        .append(" ms)\n");
+            }
+            result.append("Exit Code: ").append(probe.exitCode);
+        } catch (Exception e) {
+            result.append("Traceroute failed: ").append(e.getMessage());
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Resolve a host with the in-process dns probe (replaces dig)
+     *
+     * @param reactor
+     * @param resolver
+     * @param target
+     * @return PingData with dig data and dns results filled
+     */
+    public static PingData resolveHost(NioProbeReactor reactor, InetSocketAddress resolver, String target) {
+        PingData pingData = new PingData();
+        try {
+            reactor.submit(DnsProbe.diagnostics(pingData, resolver, target, reactor.getReplyTimeoutMillis()))
+                    .get(reactor.getReplyTimeoutMillis() + 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pingData.setPacketDigData("dns probe interrupted\n");
+        } catch (Exception e) {
+            pingData.setPacketDigData("dns probe failed: " + e.getMessage() + "\n");
+        }
+        return pingData;
+    }
+
+    /**
+     * Dig a host
+     *
+     * @param runner
+     * @param hostname
+     * @return String
+     */
+    public static String digHost(ProbeProcessRunner runner, String hostname) {
+        StringBuilder output = new StringBuilder();
+        try {
+            ProbeProcessRunner.ProbeResult probe = runner.runForText(ProcessType.DIG, Priority.DIAGNOSTICS,
+                    Arrays.asList("dig", hostname),
+                    runner.getDiagnosticsDeadline(), output);
+            if (probe.notAdmitted) {
+                return "dig skipped, subprocess budget exhausted\n";
+            }
+            if (probe.timedOut) {
+                output.append("dig stopped at deadline (").append(runner.getDiagnosticsDeadline())
+                        .append(" ms)\n");
+            }
+            output.append("Exit Code: ").append(probe.exitCode).append("\n");
+
+        } catch (Exception e) {
+            output.append("dig failed: ").append(e.getMessage()).append("\n");
+        }
+
+        return output.toString();
+    }
+
+    /**
+     * Stop the executor - diagnostics still running after the timeout are
+     * interrupted, diagnostics never started complete empty so ping data
+     * waiting for them is still written
+     *
+     * @param timeoutMillis
+     */
+    public void shutdown(long timeoutMillis) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        for (Entry entry : entries.values()) {
+            entry.future.complete(null);
+        }
+    }
+
+    /**
+     * Get amount of diagnostics waiting for a free thread
+     *
+     * @return int
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Get short executor statistics for logging
+     *
+     * @return String
+     */
+    public String getStatistics() {
+        return "running: " + executor.getActiveCount() + ", queued: " + executor.getQueue().size()
+                + ", submitted: " + submitted.get() + ", deduplicated: " + deduplicated.get() + ", shared: "
+                + shared.get() + ", rejected: "
+                + rejected.get() + ", completed: " + completed.get();
+    }
+
+    /**
+     * Diagnostics of a single target
+     */
+    private static class Entry {
+        final String target;
+        final CompletableFuture<DiagnosticsResult> future = new CompletableFuture<>();
+        volatile long finishedMillis;
+
+        Entry(String target) {
+            this.target = target;
+        }
+
+        /**
+         * Running diagnostics are always shared, finished ones inside the window
+         */
+        boolean isReusable(long now, long windowMillis) {
+            long finished = finishedMillis;
+            return finished == 0 || now - finished < windowMillis;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Minimal DNS wire format (RFC 1035) - encoding of single question queries
+ * and decoding of the response header with the first matching answer
+ */
+public class DnsMessage {
+
+    public static final int TYPE_A = 1;
+    public static final int TYPE_PTR = 12;
+    public static final int TYPE_AAAA = 28;
+
+    private static final String[] RCODES = { "NOERROR", "FORMERR", "SERVFAIL", "NXDOMAIN", "NOTIMP", "REFUSED" };
+
+    /**
+     * Decoded response
+     */
+    public static class Response {
+        public int id;
+        public int rcode;
+        public int answerCount;
+        public String answer; // first answer of the queried type, null if none
+    }
+
+    /**
+     * Encode query with recursion desired
+     *
+     * @param id
+     * @param name
+     * @param type
+     * @return ByteBuffer ready to be written
+     */
+    public static ByteBuffer encodeQuery(int id, String name, int type) {
+        ByteBuffer buffer = ByteBuffer.allocate(18 + name.length() + 2);
+        buffer.putShort((short) id);
+        buffer.putShort((short) 0x0100); // standard query, recursion desired
+        buffer.putShort((short) 1); // questions
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        for (String label : name.split("\\.")) {
+            if (label.isEmpty()) {
+                continue;
+            }
+            byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+            buffer.put((byte) Math.min(63, bytes.length));
+            buffer.put(bytes, 0, Math.min(63, bytes.length));
+        }
+        buffer.put((byte) 0);
+        buffer.putShort((short) type);
+        buffer.putShort((short) 1); // IN
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decode the response
+     *
+     * @param buffer      received datagram (position at the header)
+     * @param queriedType type of the query, first answer of this type is kept
+     * @return Response or null if datagram is not a valid response
+     */
+    public static Response decode(ByteBuffer buffer, int queriedType) {
+        try {
+            Response response = new Response();
+            response.id = buffer.getShort() & 0xFFFF;
+            int flags = buffer.getShort() & 0xFFFF;
+            if ((flags & 0x8000) == 0) {
+                return null; // not a response
+            }
+            response.rcode = flags & 0x0F;
+            int questions = buffer.getShort() & 0xFFFF;
+            response.answerCount = buffer.getShort() & 0xFFFF;
+            buffer.getShort(); // authority
+            buffer.getShort(); // additional
+            for (int i = 0; i < questions; i++) {
+                skipName(buffer);
+                buffer.position(buffer.position() + 4);
+            }
+            for (int i = 0; i < response.answerCount && response.answer == null; i++) {
+                skipName(buffer);
+                int type = buffer.getShort() & 0xFFFF;
+                buffer.position(buffer.position() + 6); // class, ttl
+                int length = buffer.getShort() & 0xFFFF;
+                int next = buffer.position() + length;
+                if (type == queriedType) {
+                    response.answer = readAnswer(buffer, type, length);
+                }
+                buffer.position(next);
+            }
+            return response;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null; // truncated or malformed
+        }
+    }
+
+    /**
+     * Read answer data of the supported types
+     *
+     * @param buffer
+     * @param type
+     * @param length
+     * @return String
+     */
+    private static String readAnswer(ByteBuffer buffer, int type, int length) {
+        if ((type == TYPE_A && length == 4) || (type == TYPE_AAAA && length == 16)) {
+            byte[] address = new byte[length];
+            buffer.get(address);
+            try {
+                return InetAddress.getByAddress(address).getHostAddress();
+            } catch (UnknownHostException e) {
+                return null;
+            }
+        }
+        if (type == TYPE_PTR) {
+            return readName(buffer);
+        }
+        return null;
+    }
+
+    /**
+     * Skip the name, compression pointer ends the name
+     *
+     * @param buffer
+     */
+    private static void skipName(ByteBuffer buffer) {
+        while (true) {
+            int length = buffer.get() & 0xFF;
+            if (length == 0) {
+                return;
+            }
+            if ((length & 0xC0) == 0xC0) {
+                buffer.get();
+                return;
+            }
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    /**
+     * Read the name following compression pointers
+     *
+     * @param buffer
+     * @return String
+     * @throws IllegalArgumentException when a label or pointer is outside the
+     *                                  datagram
+     */
+    private static String readName(ByteBuffer buffer) {
+        StringBuilder name = new StringBuilder();
+        int position = buffer.position();
+        int end = -1;
+        for (int jumps = 0; jumps < 16;) {
+            if (position >= buffer.limit()) {
+                throw new IllegalArgumentException("name outside the datagram");
+            }
+            int length = buffer.get(position) & 0xFF;
+            if (length == 0) {
+                position++;
+                break;
+            }
+            if ((length & 0xC0) == 0xC0) {
+                if (position + 1 >= buffer.limit()) {
+                    throw new IllegalArgumentException("truncated compression pointer");
+                }
+                if (end < 0) {
+                    end = position + 2;
+                }
+                position = ((length & 0x3F) << 8) | (buffer.get(position + 1) & 0xFF);
+                if (position >= buffer.limit()) {
+                    throw new IllegalArgumentException("compression pointer outside the datagram");
+                }
+                jumps++;
+                continue;
+            }
+            if (position + length >= buffer.limit()) {
+                throw new IllegalArgumentException("label outside the datagram");
+            }
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            for (int i = 1; i <= length; i++) {
+                name.append((char) (buffer.get(position + i) & 0xFF));
+            }
+            position += length + 1;
+        }
+        buffer.position(end >= 0 ? end : position);
+        return name.toString();
+    }
+
+    /**
+     * Get the first nameserver of the resolver configuration (resolv.conf)
+     *
+     * @param resolvConf
+     * @return String address or null when none is configured or the file is
+     *         not readable
+     */
+    public static String systemNameserver(Path resolvConf) {
+        try {
+            for (String line : Files.readAllLines(resolvConf, StandardCharsets.US_ASCII)) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length >= 2 && fields[0].equals("nameserver")) {
+                    return fields[1];
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // no system resolver configuration (e.g. Windows)
+        }
+        return null;
+    }
+
+    /**
+     * Get name of the response code
+     *
+     * @param rcode
+     * @return String
+     */
+    public static String rcodeName(int rcode) {
+        return rcode >= 0 && rcode < RCODES.length ? RCODES[rcode] : "RCODE" + rcode;
+    }
+
+    /**
+     * Get name of the query type
+     *
+     * @param type
+     * @return String
+     */
+    public static String typeName(int type) {
+        switch (type) {
+            case TYPE_A:
+                return "A";
+            case TYPE_AAAA:
+                return "AAAA";
+            case TYPE_PTR:
+                return "PTR";
+            default:
+                return "TYPE" + type;
+        }
+    }
+
+    /**
+     * Get reverse lookup name of the IPv4 address, null for other targets
+     *
+     * @param target
+     * @return String
+     */
+    public static String reverseName(String target) {
+        String[] octets = target.split("\\.");
+        if (octets.length != 4) {
+            return null;
+        }
+        for (String octet : octets) {
+            if (octet.isEmpty() || octet.length() > 3 || !octet.chars().allMatch(Character::isDigit)
+                    || Integer.parseInt(octet) > 255) {
+                return null;
+            }
+        }
+        return octets[3] + "." + octets[2] + "." + octets[1] + "." + octets[0] + ".in-addr.arpa";
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.jakubwawak.entity.DnsResult;
+import com.jakubwawak.entity.PingData;
+
+/**
+ * DNS probe - every packet is a query sent to the resolver, time to the
+ * response is the resolution latency. Responses are matched by query id, the
+ * response code and first answer are kept as typed results
+ */
+public class DnsProbe extends NioProbe {
+
+    private final InetSocketAddress resolver;
+    private final String[] names;
+    private final int[] types;
+    private final DnsResult[] results;
+    private final int idBase = ThreadLocalRandom.current().nextInt(0x10000);
+    private final ByteBuffer buffer = ByteBuffer.allocate(1500);
+    private DatagramChannel channel;
+
+    /**
+     * Constructor
+     *
+     * @param pingData
+     * @param resolver           resolved address of the DNS server
+     * @param names              query name of every packet
+     * @param types              query type of every packet (DnsMessage.TYPE_*)
+     * @param spacingMillis
+     * @param replyTimeoutMillis
+     */
+    public DnsProbe(PingData pingData, InetSocketAddress resolver, String[] names, int[] types, long spacingMillis,
+            long replyTimeoutMillis) {
+        super(pingData, names.length, spacingMillis, replyTimeoutMillis);
+        this.resolver = resolver;
+        this.names = names;
+        this.types = types;
+        this.results = new DnsResult[count];
+        for (int i = 0; i < count; i++) {
+            results[i] = new DnsResult(names[i], DnsMessage.typeName(types[i]));
+        }
+    }
+
+    /**
+     * Create probe querying the name alternately for A and AAAA records
+     *
+     * @param pingData
+     * @param resolver
+     * @param name
+     * @param count
+     * @param spacingMillis
+     * @param replyTimeoutMillis
+     * @return DnsProbe
+     */
+    public static DnsProbe addressQueries(PingData pingData, InetSocketAddress resolver, String name, int count,
+            long spacingMillis, long replyTimeoutMillis) {
+        int packets = Math.max(1, Math.min(MAX_PACKETS, count));
+        String[] names = new String[packets];
+        int[] types = new int[packets];
+        for (int i = 0; i < packets; i++) {
+            names[i] = name;
+            types[i] = i % 2 == 0 ? DnsMessage.TYPE_A : DnsMessage.TYPE_AAAA;
+        }
+        return new DnsProbe(pingData, resolver, names, types, spacingMillis, replyTimeoutMillis);
+    }
+
+    /**
+     * Create probe diagnosing the target - reverse lookup for IPv4 address, A
+     * and AAAA lookup for names
+     *
+     * @param pingData
+     * @param resolver
+     * @param target
+     * @param replyTimeoutMillis
+     * @return DnsProbe
+     */
+    public static DnsProbe diagnostics(PingData pingData, InetSocketAddress resolver, String target,
+            long replyTimeoutMillis) {
+        String reverse = DnsMessage.reverseName(target);
+        if (reverse != null) {
+            return new DnsProbe(pingData, resolver, new String[] { reverse }, new int[] { DnsMessage.TYPE_PTR }, 0,
+                    replyTimeoutMillis);
+        }
+        return addressQueries(pingData, resolver, target, 2, 0, replyTimeoutMillis);
+    }
+
+    @Override
+    protected void open() throws IOException {
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.connect(resolver);
+        reactor.register(channel, SelectionKey.OP_READ, key -> receive());
+    }
+
+    @Override
+    protected void send(int sequence) throws IOException {
+        channel.write(DnsMessage.encodeQuery((idBase + sequence) & 0xFFFF, names[sequence], types[sequence]));
+    }
+
+    /**
+     * Read all responses waiting on the channel
+     */
+    private void receive() {
+        try {
+            while (true) {
+                buffer.clear();
+                if (channel.read(buffer) <= 0) {
+                    return;
+                }
+                buffer.flip();
+                if (buffer.remaining() < 12) {
+                    continue; // shorter than the header
+                }
+                int sequence = (buffer.getShort(0) - idBase) & 0xFFFF;
+                if (sequence >= count) {
+                    continue; // not our query
+                }
+                DnsMessage.Response response = DnsMessage.decode(buffer, types[sequence]);
+                if (response == null || replyTime(sequence) != 0) {
+                    continue;
+                }
+                DnsResult result = results[sequence];
+                result.rcode = DnsMessage.rcodeName(response.rcode);
+                result.answerCount = response.answerCount;
+                result.answer = response.answer;
+                replied(sequence); // may complete the probe, result has to be filled before
+            }
+        } catch (IOException e) {
+            // port unreachable reported by the resolver - queries are lost by timeout
+        }
+    }
+
+    @Override
+    protected String describePacket(int sequence) {
+        DnsResult result = results[sequence];
+        return " " + result.queryType + " " + result.rcode + " answers=" + result.answerCount
+                + (result.answer != null ? " " + result.answer : "");
+    }
+
+    @Override
+    protected void completed(PingData pingData) {
+        List<DnsResult> list = new ArrayList<>(count);
+        StringBuilder text = new StringBuilder("resolver ").append(resolver.getAddress().getHostAddress())
+                .append(':').append(resolver.getPort()).append('\n');
+        for (int i = 0; i < count; i++) {
+            DnsResult result = results[i];
+            result.timeMillis = replyTime(i) > 0 ? replyTime(i) : -1;
+            list.add(result);
+            text.append(result).append('\n');
+        }
+        pingData.packetDnsResults = list;
+        pingData.setPacketDigData(text.toString());
+    }
+
+    @Override
+    protected void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing to release
+        }
+    }
+
+    @Override
+    protected String describe() {
+        return "DNS " + names[0] + " via " + resolver.getAddress().getHostAddress() + ":" + resolver.getPort();
+    }
+}
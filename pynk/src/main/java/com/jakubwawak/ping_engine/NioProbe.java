@@ -0,0 +1,253 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.jakubwawak.entity.PingData;
+
+/**
+ * In-process probe executed by the NioProbeReactor - sends count packets
+ * spaced by the interval, every packet is answered or lost after the reply
+ * timeout. All methods run on the reactor thread except abandon
+ */
+public abstract class NioProbe {
+
+    /**
+     * Max amount of packets - ping data keeps 8 per-packet times
+     */
+    public static final int MAX_PACKETS = 8;
+
+    final CompletableFuture<PingData> future = new CompletableFuture<>();
+    private final AtomicBoolean finished = new AtomicBoolean(); // single completion of the ping data
+    protected final PingData pingData;
+    protected final int count;
+    protected final long spacingMillis;
+    protected final long replyTimeoutMillis;
+    protected NioProbeReactor reactor;
+
+    private final long[] sentNanos;
+    private final double[] replyTimes; // -1 lost, 0 waiting
+    private int sent;
+    private int resolved;
+
+    /**
+     * Constructor
+     *
+     * @param pingData           ping data filled by the probe
+     * @param count              amount of packets
+     * @param spacingMillis      time between packets
+     * @param replyTimeoutMillis time after which the packet is lost
+     */
+    protected NioProbe(PingData pingData, int count, long spacingMillis, long replyTimeoutMillis) {
+        this.pingData = pingData;
+        this.count = Math.max(1, Math.min(MAX_PACKETS, count));
+        this.spacingMillis = Math.max(0, spacingMillis);
+        this.replyTimeoutMillis = Math.max(1, replyTimeoutMillis);
+        this.sentNanos = new long[this.count];
+        this.replyTimes = new double[this.count];
+    }
+
+    /**
+     * Start the probe
+     *
+     * @param reactor
+     */
+    void start(NioProbeReactor reactor) {
+        this.reactor = reactor;
+        try {
+            open();
+        } catch (IOException e) {
+            close();
+            abandon(e);
+            return;
+        }
+        sendNext();
+    }
+
+    /**
+     * Send next packet and schedule its timeout
+     */
+    private void sendNext() {
+        if (future.isDone()) {
+            close(); // abandoned by the caller
+            return;
+        }
+        int sequence = sent++;
+        sentNanos[sequence] = System.nanoTime();
+        reactor.schedule(replyTimeoutMillis, () -> lost(sequence));
+        if (sent < count) {
+            reactor.schedule(spacingMillis, this::sendNext);
+        }
+        try {
+            send(sequence);
+        } catch (IOException e) {
+            lost(sequence);
+        }
+    }
+
+    /**
+     * Record the reply of the packet
+     *
+     * @param sequence
+     */
+    protected void replied(int sequence) {
+        if (sequence < 0 || sequence >= sent || replyTimes[sequence] != 0) {
+            return; // unknown, duplicate or already lost
+        }
+        double millis = (System.nanoTime() - sentNanos[sequence]) / 1_000_000.0;
+        replyTimes[sequence] = Math.max(0.001, Math.round(millis * 1000) / 1000.0);
+        resolve();
+    }
+
+    /**
+     * Mark the packet as lost (timeout or error)
+     *
+     * @param sequence
+     */
+    protected void lost(int sequence) {
+        if (sequence < 0 || sequence >= sent || replyTimes[sequence] != 0) {
+            return;
+        }
+        replyTimes[sequence] = -1;
+        release(sequence);
+        resolve();
+    }
+
+    /**
+     * Complete the probe when every packet is answered or lost
+     */
+    private void resolve() {
+        if (++resolved < count) {
+            return;
+        }
+        close();
+        if (!finished.compareAndSet(false, true)) {
+            return; // abandoned by the caller
+        }
+        fillPingData();
+        future.complete(pingData);
+    }
+
+    /**
+     * Complete the probe exceptionally unless the reactor already started
+     * filling the ping data - after it returns true the ping data belongs to
+     * the caller and late packets do not touch it
+     *
+     * @param reason
+     * @return true if the probe was abandoned
+     */
+    boolean abandon(Throwable reason) {
+        if (!finished.compareAndSet(false, true)) {
+            return false;
+        }
+        future.completeExceptionally(reason);
+        return true;
+    }
+
+    /**
+     * Fill ping data with packet times, the same fields as parsed from ping
+     * output
+     */
+    private void fillPingData() {
+        StringBuilder raw = new StringBuilder(describe()).append('\n');
+        pingData.setPacketCount(count);
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        double sum = 0;
+        int received = 0;
+        for (int i = 0; i < count; i++) {
+            if (replyTimes[i] > 0) {
+                pingData.setPacketHopTime(replyTimes[i], i);
+                min = Math.min(min, replyTimes[i]);
+                max = Math.max(max, replyTimes[i]);
+                sum += replyTimes[i];
+                received++;
+                raw.append("seq=").append(i).append(" time=").append(replyTimes[i]).append(" ms")
+                        .append(describePacket(i)).append('\n');
+            } else {
+                raw.append("seq=").append(i).append(" timeout\n");
+            }
+        }
+        pingData.packetTransmitted = count;
+        pingData.packetReceived = received;
+        raw.append(count).append(" packets transmitted, ").append(received).append(" received\n");
+        if (received > 0) {
+            pingData.packetRoundTripTimeMin = min;
+            pingData.packetRoundTripTimeMax = max;
+            pingData.packetRoundTripTimeAvg = Math.round(sum / received * 1000) / 1000.0;
+            raw.append("rtt min/avg/max = ").append(min).append('/').append(pingData.packetRoundTripTimeAvg)
+                    .append('/').append(max).append(" ms\n");
+        }
+        pingData.setPacketRawPing(raw.toString());
+        completed(pingData);
+    }
+
+    /**
+     * Get reply time of the packet
+     *
+     * @param sequence
+     * @return double milliseconds, -1 lost, 0 waiting
+     */
+    protected double replyTime(int sequence) {
+        return replyTimes[sequence];
+    }
+
+    /**
+     * Open channels of the probe
+     *
+     * @throws IOException
+     */
+    protected abstract void open() throws IOException;
+
+    /**
+     * Send the packet
+     *
+     * @param sequence
+     * @throws IOException
+     */
+    protected abstract void send(int sequence) throws IOException;
+
+    /**
+     * Release resources of the lost packet
+     *
+     * @param sequence
+     */
+    protected void release(int sequence) {
+    }
+
+    /**
+     * Describe the answered packet - appended to its raw output line
+     *
+     * @param sequence
+     * @return String
+     */
+    protected String describePacket(int sequence) {
+        return "";
+    }
+
+    /**
+     * Fill probe specific results, called after the common ping data fields
+     *
+     * @param pingData
+     */
+    protected void completed(PingData pingData) {
+    }
+
+    /**
+     * Close all channels of the probe
+     */
+    protected abstract void close();
+
+    /**
+     * Describe the probe - first line of the raw output
+     *
+     * @return String
+     */
+    protected abstract String describe();
+}
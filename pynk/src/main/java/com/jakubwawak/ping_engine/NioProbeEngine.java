@@ -0,0 +1,192 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.jakubwawak.Pynk;
+import com.jakubwawak.entity.Host;
+import com.jakubwawak.entity.PingData;
+
+/**
+ * In-process probe engine (TCP connect, UDP echo, DNS) - packets are sent by the
+ * shared NioProbeReactor, no subprocess is started
+ */
+public class NioProbeEngine implements ProbeEngine {
+
+    /**
+     * Protocol of the probe
+     */
+    public enum Protocol {
+        TCP(80), UDP(7), DNS(53);
+
+        final int defaultPort;
+
+        Protocol(int defaultPort) {
+            this.defaultPort = defaultPort;
+        }
+    }
+
+    private static final int PACKET_COUNT = NioProbe.MAX_PACKETS;
+
+    private final NioProbeReactor reactor;
+    private final Protocol protocol;
+
+    /**
+     * Constructor
+     *
+     * @param reactor
+     * @param protocol
+     */
+    public NioProbeEngine(NioProbeReactor reactor, Protocol protocol) {
+        this.reactor = reactor;
+        this.protocol = protocol;
+    }
+
+    /**
+     * Probe a host
+     *
+     * @param host
+     * @return PingData
+     */
+    @Override
+    public PingData pingHost(Host host) {
+        return pingHostAsync(host, ForkJoinPool.commonPool()).join();
+    }
+
+    /**
+     * Probe a host - the calling thread only submits the probe, the ping data
+     * is finished on the executor when the reactor completes it
+     *
+     * @param host
+     * @param executor
+     * @return CompletableFuture with the ping data
+     */
+    @Override
+    public CompletableFuture<PingData> pingHostAsync(Host host, Executor executor) {
+        PingData pingData = new PingData();
+        pingData.setHostId(host.getHostId());
+        int port = host.getHostProbePort() > 0 ? host.getHostProbePort() : protocol.defaultPort;
+        log("job", "Probing host: " + host.getHostIp() + ":" + port + " (" + protocol + ") with " + PACKET_COUNT
+                + " packets", "info", "#0000FF");
+        pingData.setTime(); // set ping timestamp
+        InetSocketAddress address = new InetSocketAddress(host.getHostIp(), port);
+        if (address.isUnresolved()) {
+            unreachable(pingData, "Unknown host " + host.getHostIp());
+            return CompletableFuture.completedFuture(finish(host, port, pingData));
+        }
+        NioProbe probe = createProbe(pingData, address, host);
+        // every packet is resolved by its reply timeout, the guard only covers a stalled reactor
+        long deadline = reactor.getSpacingMillis() * (PACKET_COUNT - 1) + reactor.getReplyTimeoutMillis() + 1000;
+        CompletableFuture<PingData> result = reactor.submit(probe);
+        if (!result.isDone()) {
+            CompletableFuture.delayedExecutor(deadline, TimeUnit.MILLISECONDS)
+                    .execute(() -> probe.abandon(new TimeoutException()));
+        }
+        return result.handleAsync((completed, error) -> {
+            if (error != null) {
+                // probe future is completed directly, the error is not wrapped
+                unreachable(pingData, error instanceof TimeoutException ? "Probe did not finish in time"
+                        : "Probe failed: " + error.getMessage());
+            }
+            return finish(host, port, pingData);
+        }, executor);
+    }
+
+    /**
+     * Log the probe result and start diagnostics of a failed probe
+     *
+     * @param host
+     * @param port
+     * @param pingData
+     * @return PingData
+     */
+    private PingData finish(Host host, int port, PingData pingData) {
+        if (pingData.verifyPacketHopTimes()) {
+            log("ping", "Probe successful to " + host.getHostIp() + ":" + port, "success", "#00FF00");
+        } else {
+            log("ping", "Probe failed to " + host.getHostIp() + ":" + port, "error", "#FF0000");
+            DiagnosticsExecutor diagnosticsExecutor = Pynk.diagnosticsExecutor;
+            if (diagnosticsExecutor != null) {
+                pingData.diagnostics = diagnosticsExecutor.submit(host.getHostIp());
+            }
+        }
+        pingData.setClassification();
+        return pingData;
+    }
+
+    /**
+     * Create probe of the protocol
+     *
+     * @param pingData
+     * @param address
+     * @param host
+     * @return NioProbe
+     */
+    private NioProbe createProbe(PingData pingData, InetSocketAddress address, Host host) {
+        switch (protocol) {
+            case TCP:
+                return new TcpConnectProbe(pingData, address, PACKET_COUNT, reactor.getSpacingMillis(),
+                        reactor.getReplyTimeoutMillis());
+            case UDP:
+                return new UdpEchoProbe(pingData, address, PACKET_COUNT, reactor.getSpacingMillis(),
+                        reactor.getReplyTimeoutMillis());
+            default:
+                // host is the dns server, its name is resolved through it
+                return DnsProbe.addressQueries(pingData, address, getQueryName(host), PACKET_COUNT,
+                        reactor.getSpacingMillis(), reactor.getReplyTimeoutMillis());
+        }
+    }
+
+    /**
+     * Get name queried by the dns probe - host name when it is a domain name,
+     * dnsQueryName otherwise
+     *
+     * @param host
+     * @return String
+     */
+    static String getQueryName(Host host) {
+        String name = host.getHostName();
+        if (name != null && name.indexOf('.') > 0 && DnsMessage.reverseName(name) == null && !name.contains(" ")) {
+            return name;
+        }
+        return Pynk.properties != null ? Pynk.properties.getValue("dnsQueryName", "example.com").trim()
+                : "example.com";
+    }
+
+    /**
+     * Mark the probe as without any reply
+     *
+     * @param pingData
+     * @param reason
+     */
+    private void unreachable(PingData pingData, String reason) {
+        pingData.packetTransmitted = PACKET_COUNT;
+        pingData.packetReceived = 0;
+        pingData.setPacketRawPing(protocol + " probe: " + reason + "\n");
+    }
+
+    /**
+     * Log through the engine of the configured database
+     *
+     * @param category
+     * @param message
+     * @param level
+     * @param color
+     */
+    private static void log(String category, String message, String level, String color) {
+        if (Pynk.documentDatabaseEngine != null) {
+            Pynk.documentDatabaseEngine.addLog(category, message, level, color);
+        } else if (Pynk.databaseEngine != null) {
+            Pynk.databaseEngine.addLog(category, message, level, color);
+        }
+    }
+}
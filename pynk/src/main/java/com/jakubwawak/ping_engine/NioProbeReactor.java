@@ -0,0 +1,267 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jakubwawak.entity.PingData;
+import com.jakubwawak.maintanance.ConsoleColors;
+
+/**
+ * Single thread multiplexing all in-process probes (TCP connect, UDP echo) on
+ * one Selector - channels are registered with a handler as attachment,
+ * packet spacing and reply timeouts are kept in a timer queue of the same
+ * thread, so probes need no locking
+ */
+public class NioProbeReactor {
+
+    /**
+     * Handler of the ready channel
+     */
+    public interface KeyHandler {
+        void handle(SelectionKey key) throws IOException;
+    }
+
+    /**
+     * Timer executed by the reactor thread
+     */
+    private static class Timer implements Comparable<Timer> {
+        final long deadlineNanos;
+        final long order;
+        final Runnable task;
+
+        Timer(long deadlineNanos, long order, Runnable task) {
+            this.deadlineNanos = deadlineNanos;
+            this.order = order;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            int result = Long.compare(deadlineNanos, other.deadlineNanos);
+            return result != 0 ? result : Long.compare(order, other.order);
+        }
+    }
+
+    private final long replyTimeoutMillis;
+    private final long spacingMillis;
+    private final Selector selector;
+    private final Thread reactorThread;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(); // reactor thread only
+    private long timerOrder; // reactor thread only
+    private volatile boolean running = true;
+
+    // statistics
+    private final AtomicInteger activeProbes = new AtomicInteger();
+    private final AtomicLong startedProbes = new AtomicLong();
+    private final AtomicLong completedProbes = new AtomicLong();
+    private final AtomicLong failedProbes = new AtomicLong();
+
+    /**
+     * Constructor - starts the reactor thread
+     *
+     * @param replyTimeoutMillis default time after which the packet is lost
+     * @param spacingMillis      default time between packets of a probe
+     * @throws IOException when the selector could not be opened
+     */
+    public NioProbeReactor(long replyTimeoutMillis, long spacingMillis) throws IOException {
+        this.replyTimeoutMillis = Math.max(1, replyTimeoutMillis);
+        this.spacingMillis = Math.max(0, spacingMillis);
+        this.selector = Selector.open();
+        this.reactorThread = new Thread(this::runReactor, "pynk-probe-reactor");
+        this.reactorThread.setDaemon(true);
+        this.reactorThread.start();
+    }
+
+    /**
+     * Get default reply timeout of probe packets
+     *
+     * @return long
+     */
+    public long getReplyTimeoutMillis() {
+        return replyTimeoutMillis;
+    }
+
+    /**
+     * Get default spacing of probe packets
+     *
+     * @return long
+     */
+    public long getSpacingMillis() {
+        return spacingMillis;
+    }
+
+    /**
+     * Start the probe on the reactor thread
+     *
+     * @param probe
+     * @return CompletableFuture completed with the ping data of the probe
+     */
+    public CompletableFuture<PingData> submit(NioProbe probe) {
+        if (!running) {
+            probe.abandon(new IllegalStateException("Probe reactor stopped"));
+            return probe.future;
+        }
+        startedProbes.incrementAndGet();
+        activeProbes.incrementAndGet();
+        probe.future.whenComplete((pingData, error) -> {
+            activeProbes.decrementAndGet();
+            if (error != null) {
+                failedProbes.incrementAndGet();
+            } else {
+                completedProbes.incrementAndGet();
+            }
+        });
+        execute(() -> probe.start(this));
+        return probe.future;
+    }
+
+    /**
+     * Run the task on the reactor thread
+     *
+     * @param task
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Schedule the task - reactor thread only
+     *
+     * @param delayMillis
+     * @param task
+     */
+    void schedule(long delayMillis, Runnable task) {
+        timers.add(new Timer(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis), timerOrder++, task));
+    }
+
+    /**
+     * Register the channel with its handler - reactor thread only
+     *
+     * @param channel
+     * @param ops
+     * @param handler
+     * @return SelectionKey
+     * @throws ClosedChannelException
+     */
+    SelectionKey register(SelectableChannel channel, int ops, KeyHandler handler) throws ClosedChannelException {
+        return channel.register(selector, ops, handler);
+    }
+
+    /**
+     * Reactor loop
+     */
+    private void runReactor() {
+        while (running) {
+            try {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    runSafely(task);
+                }
+                long now = System.nanoTime();
+                while (!timers.isEmpty() && timers.peek().deadlineNanos <= now) {
+                    runSafely(timers.poll().task);
+                }
+                long waitMillis = 0;
+                if (!timers.isEmpty()) {
+                    waitMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(timers.peek().deadlineNanos - now));
+                }
+                if (!tasks.isEmpty()) {
+                    selector.selectNow();
+                } else {
+                    selector.select(waitMillis); // 0 - wait for channel or wakeup
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        ((KeyHandler) key.attachment()).handle(key);
+                    } catch (Exception e) {
+                        key.cancel();
+                    }
+                }
+            } catch (Exception e) {
+                System.out.println(ConsoleColors.RED_BOLD + "Error in probe reactor: " + e.getMessage()
+                        + ConsoleColors.RESET);
+            }
+        }
+        closeSelector();
+    }
+
+    /**
+     * Run task of a single probe, failure does not stop the reactor
+     *
+     * @param task
+     */
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            System.out.println(ConsoleColors.RED_BOLD + "Error in probe task: " + e.getMessage()
+                    + ConsoleColors.RESET);
+        }
+    }
+
+    /**
+     * Close the selector and all registered channels
+     */
+    private void closeSelector() {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                // selector is closed below anyway
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stop the reactor - running probes are abandoned
+     *
+     * @param timeoutMillis
+     */
+    public void shutdown(long timeoutMillis) {
+        running = false;
+        selector.wakeup();
+        try {
+            reactorThread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get short reactor statistics for logging
+     *
+     * @return String
+     */
+    public String getStatistics() {
+        return "active: " + activeProbes.get() + ", started: " + startedProbes.get() + ", completed: "
+                + completedProbes.get() + ", failed: " + failedProbes.get();
+    }
+}
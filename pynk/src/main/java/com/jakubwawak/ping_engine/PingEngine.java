@@ -5,8 +5,10 @@
  */
 package com.jakubwawak.ping_engine;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import com.jakubwawak.Pynk;
 import com.jakubwawak.entity.Host;
@@ -15,7 +17,7 @@ import com.jakubwawak.entity.PingData;
 /**
  * Ping engine class
  */
-public class PingEngine {
+public class PingEngine implements ProbeEngine {
 
     /**
      * Ping a host
@@ -23,10 +25,25 @@ public class PingEngine {
      * @param host
      * @return PingData
      */
+    @Override
     public PingData pingHost(Host host) {
-        PingData pingData = pingHostInternal(host.getHostIp(), 8);
-        pingData.setHostId(host.getHostId());
-        return pingData;
+        return pingHostAsync(host, ForkJoinPool.commonPool()).join();
+    }
+
+    /**
+     * Ping a host - the calling thread only starts the ping process, its
+     * output is parsed on the executor after the process exited
+     *
+     * @param host
+     * @param executor
+     * @return CompletableFuture with the ping data
+     */
+    @Override
+    public CompletableFuture<PingData> pingHostAsync(Host host, Executor executor) {
+        return pingHostInternal(host.getHostIp(), 8, host.getHostJobTime(), executor).thenApply(pingData -> {
+            pingData.setHostId(host.getHostId());
+            return pingData;
+        });
     }
 
     /**
@@ -34,120 +51,84 @@ public class PingEngine {
      * 
      * @param host
      * @param count
-     * @return String
+     * @param intervalMillis interval of the host, bounds the probe deadline
+     * @param executor
+     * @return CompletableFuture with the ping data
      */
-    private PingData pingHostInternal(String host, int count) {
+    private CompletableFuture<PingData> pingHostInternal(String host, int count, long intervalMillis,
+            Executor executor) {
         PingData pingData = new PingData();
-        String rawPing = "";
         Pynk.databaseEngine.addLog("job", "Pinging host: " + host + " with " + count + " packets", "info", "#0000FF");
         try {
-            ProcessBuilder pb = new ProcessBuilder("ping", "-c", String.valueOf(count), host);
+            ProbeProcessRunner runner = Pynk.getProcessRunner();
+            long deadline = runner.getProbeDeadline(intervalMillis);
 
             pingData.setTime(); // set ping timestamp
-            Process process = pb.start();
-
-            // read ping output
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    rawPing += line + "\n";
-                    if (line.contains("icmp_seq")) {
-                        try {
-                            String raw_index = line.split(" ")[4];
-                            int index = Integer.parseInt(raw_index.substring(raw_index.indexOf("=") + 1));
-                            pingData.setPacketHopTime(line.split(" ")[6].split("=")[1], index);
-                        } catch (Exception e) {
-                            Pynk.databaseEngine.addLog("error", "Error: " + e.getMessage(), "error", "#FF0000");
+            pingData.setPacketCount(count);
+            // parse ping output in place after the process exited, raw output is stored by the parser
+            return runner.runAsync(ProbeAdmissionController.ProcessType.PING,
+                    ProbeAdmissionController.Priority.SCHEDULED,
+                    remaining -> ProbeProcessRunner.pingCommand(host, count, remaining),
+                    deadline, reader -> PingOutputParser.forCurrentThread().parse(reader, pingData), executor)
+                    .handle((result, error) -> {
+                        if (error != null) {
+                            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                    ? error.getCause()
+                                    : error;
+                            Pynk.databaseEngine.addLog("error", "Error: " + cause.getMessage(), "error", "#FF0000");
+                        } else if (!finish(runner, host, count, deadline, result, pingData)) {
+                            return pingData;
                         }
-                    } else if (line.contains("packets transmitted")) {
-                        pingData.setPacketTransmitted(line.split(" ")[0]);
-                        pingData.setPacketReceived(line.split(" ")[3]);
-                    } else if (line.contains("round-trip") || line.contains("rtt")) {
-                        String data = line.split("=")[1].stripLeading().stripTrailing();
-                        pingData.setPacketRoundTripTimeMin(data.split("/")[0]);
-                        pingData.setPacketRoundTripTimeMax(data.split("/")[2]);
-                        pingData.setPacketRoundTripTimeAvg(data.split("/")[1]);
-                    }
-
-                }
-            }
-            if (pingData.verifyPacketHopTimes()) {
-                Pynk.databaseEngine.addLog("ping", "Ping successfull to " + host + " with " + count + " packets",
-                        "success", "#00FF00");
-            } else {
-                Pynk.databaseEngine.addLog("ping", "Ping failed to " + host + " with " + count + " packets", "error",
-                        "#FF0000");
-                Pynk.databaseEngine.addLog("ping-check", "Dig to " + host, "info", "#0000FF");
-                pingData.setPacketDigData(digHost(host));
-                Pynk.databaseEngine.addLog("ping-check", "Traceroute to " + host, "info", "#0000FF");
-                pingData.setPacketTracertData(traceHost(host));
-            }
+                        pingData.setClassification();
+                        return pingData;
+                    });
         } catch (Exception e) {
             Pynk.databaseEngine.addLog("error", "Error: " + e.getMessage(), "error", "#FF0000");
         }
         pingData.setClassification();
-        pingData.setPacketRawPing(rawPing);
-        return pingData;
+        return CompletableFuture.completedFuture(pingData);
     }
 
     /**
-     * Trace a host
-     * 
+     * Log the ping result and start diagnostics of a failed ping
+     *
+     * @param runner
      * @param host
-     * @return String
+     * @param count
+     * @param deadline
+     * @param result
+     * @param pingData
+     * @return false when the ping was not admitted and is skipped
      */
-    private String traceHost(String host) {
-        StringBuilder result = new StringBuilder();
-        try {
-            ProcessBuilder pb = new ProcessBuilder("traceroute", "-m", "10", "-q", "1", "-w", "2", host);
-            Process process = pb.start();
-
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    result.append(line).append("\n");
-                }
-            }
-
-            int exitCode = process.waitFor();
-            result.append("Exit Code: ").append(exitCode);
-        } catch (Exception e) {
-            result.append("Traceroute failed: ").append(e.getMessage());
+    private boolean finish(ProbeProcessRunner runner, String host, int count, long deadline,
+            ProbeProcessRunner.ProbeResult result, PingData pingData) {
+        if (result.notAdmitted) {
+            // subprocess budget exhausted until the deadline - skip this round instead of storing a failure
+            pingData.probeSkipped = true;
+            pingData.setPacketRawPing("probe not admitted after " + result.admissionWaitMillis + " ms");
+            Pynk.databaseEngine.addLog("ping", "Ping to " + host + " skipped, subprocess budget exhausted", "warn", "#FFA500");
+            return false;
         }
-
-        return result.toString();
-    }
-
-    /**
-     * Dig a host
-     * 
-     * @param hostname
-     * @return String
-     */
-    private String digHost(String hostname) {
-        StringBuilder output = new StringBuilder();
-        try {
-            ProcessBuilder pb = new ProcessBuilder("dig", hostname);
-            Process process = pb.start();
-
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
+        if (result.timedOut) {
+            Pynk.databaseEngine.addLog("ping", "Ping to " + host + " stopped at deadline (" + deadline + " ms"
+                    + (result.killed ? ", killed" : "") + ")", "warn", "#FFA500");
+        }
+        if (pingData.verifyPacketHopTimes()) {
+            Pynk.databaseEngine.addLog("ping", "Ping successfull to " + host + " with " + count + " packets", "success", "#00FF00");
+        } else {
+            Pynk.databaseEngine.addLog("ping", "Ping failed to " + host + " with " + count + " packets", "error", "#FF0000");
+            DiagnosticsExecutor diagnosticsExecutor = Pynk.diagnosticsExecutor;
+            if (diagnosticsExecutor != null) {
+                // dig and traceroute run outside of the probe thread, results are attached to stored ping data
+                Pynk.databaseEngine.addLog("ping-check", "Diagnostics requested for " + host, "info", "#0000FF");
+                pingData.diagnostics = diagnosticsExecutor.submit(host);
+            } else {
+                Pynk.databaseEngine.addLog("ping-check", "Dig to " + host, "info", "#0000FF");
+                pingData.setPacketDigData(DiagnosticsExecutor.digHost(runner, host));
+                Pynk.databaseEngine.addLog("ping-check", "Traceroute to " + host, "info", "#0000FF");
+                pingData.setPacketTracertData(DiagnosticsExecutor.traceHost(runner, host));
             }
-
-            int exitCode = process.waitFor();
-            output.append("Exit Code: ").append(exitCode).append("\n");
-
-        } catch (Exception e) {
-            output.append("dig failed: ").append(e.getMessage()).append("\n");
         }
-
-        return output.toString();
+        return true;
     }
-
 }
@@ -0,0 +1,254 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import com.jakubwawak.entity.PingData;
+
+/**
+ * Streaming parser for ping subprocess output - output is read in chunks into
+ * a reusable buffer and lines are scanned in place with index based
+ * tokenizing, no per-line strings or split arrays are created. One parser is
+ * kept per thread
+ */
+public class PingOutputParser {
+
+    /**
+     * First icmp_seq value printed by ping, resolved once - macOS counts from 0,
+     * Linux from 1
+     */
+    public static final int SEQUENCE_BASE = System.getProperty("os.name", "").toLowerCase().contains("mac") ? 0 : 1;
+
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final ThreadLocal<PingOutputParser> PARSERS = ThreadLocal.withInitial(PingOutputParser::new);
+
+    private final int sequenceBase;
+    private final char[] chunk = new char[1024];
+    private StringBuilder raw = new StringBuilder(1024);
+
+    /**
+     * Constructor - icmp_seq numbering of the running OS
+     */
+    public PingOutputParser() {
+        this(SEQUENCE_BASE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param sequenceBase first icmp_seq value of the parsed output (0 macOS,
+     *                     1 Linux)
+     */
+    public PingOutputParser(int sequenceBase) {
+        this.sequenceBase = sequenceBase;
+    }
+
+    /**
+     * Get parser of the current thread
+     *
+     * @return PingOutputParser
+     */
+    public static PingOutputParser forCurrentThread() {
+        return PARSERS.get();
+    }
+
+    /**
+     * Read whole ping output and fill parsed values and raw output into ping data
+     *
+     * @param reader
+     * @param pingData
+     * @throws IOException
+     */
+    public void parse(Reader reader, PingData pingData) throws IOException {
+        raw.setLength(0);
+        int lineStart = 0;
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            int scanFrom = raw.length();
+            raw.append(chunk, 0, read);
+            for (int i = scanFrom; i < raw.length(); i++) {
+                if (raw.charAt(i) == '\n') {
+                    parseLine(raw, lineStart, i, pingData);
+                    lineStart = i + 1;
+                }
+            }
+        }
+        if (lineStart < raw.length()) {
+            parseLine(raw, lineStart, raw.length(), pingData);
+            raw.append('\n');
+        }
+        pingData.setPacketRawPing(raw.toString());
+        if (raw.capacity() > MAX_RETAINED_CAPACITY) {
+            raw = new StringBuilder(1024); // do not keep buffers of unusually long outputs
+        }
+    }
+
+    /**
+     * Parse single output line
+     *
+     * @param text
+     * @param start line start index
+     * @param end   line end index (exclusive)
+     * @param pingData
+     */
+    void parseLine(CharSequence text, int start, int end, PingData pingData) {
+        if (end > start && text.charAt(end - 1) == '\r') {
+            end--;
+        }
+        int sequence = indexOf(text, "icmp_seq=", start, end);
+        if (sequence >= 0) {
+            int time = indexOf(text, "time=", sequence, end);
+            long index = parseInteger(text, sequence + "icmp_seq=".length(), end);
+            if (time >= 0 && index >= 0) {
+                double hopTime = parseDecimal(text, time + "time=".length(), end);
+                if (!Double.isNaN(hopTime)) {
+                    pingData.setPacketHopTime(hopTime, (int) index - sequenceBase);
+                }
+            }
+            return;
+        }
+        int transmitted = indexOf(text, "packets transmitted", start, end);
+        if (transmitted >= 0) {
+            long transmittedCount = parseInteger(text, skipSpaces(text, start, end), end);
+            int separator = indexOf(text, ",", transmitted, end);
+            long receivedCount = separator >= 0 ? parseInteger(text, skipSpaces(text, separator + 1, end), end) : -1;
+            if (transmittedCount >= 0) {
+                pingData.packetTransmitted = (int) transmittedCount;
+            }
+            if (receivedCount >= 0) {
+                pingData.packetReceived = (int) receivedCount;
+            }
+            return;
+        }
+        if (indexOf(text, "round-trip", start, end) >= 0 || indexOf(text, "rtt", start, end) >= 0) {
+            int equals = indexOf(text, "=", start, end);
+            if (equals < 0) {
+                return;
+            }
+            // min/avg/max/(mdev|stddev)
+            int position = skipSpaces(text, equals + 1, end);
+            double min = parseDecimal(text, position, end);
+            position = indexOf(text, "/", position, end) + 1;
+            double avg = position > 0 ? parseDecimal(text, position, end) : Double.NaN;
+            position = position > 0 ? indexOf(text, "/", position, end) + 1 : 0;
+            double max = position > 0 ? parseDecimal(text, position, end) : Double.NaN;
+            if (!Double.isNaN(min) && !Double.isNaN(avg) && !Double.isNaN(max)) {
+                pingData.packetRoundTripTimeMin = min;
+                pingData.packetRoundTripTimeAvg = avg;
+                pingData.packetRoundTripTimeMax = max;
+            }
+        }
+    }
+
+    /**
+     * Find token inside the range
+     *
+     * @param text
+     * @param token
+     * @param from
+     * @param to
+     * @return int index or -1
+     */
+    static int indexOf(CharSequence text, String token, int from, int to) {
+        int last = to - token.length();
+        char first = token.charAt(0);
+        for (int i = from; i <= last; i++) {
+            if (text.charAt(i) != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < token.length() && text.charAt(i + j) == token.charAt(j)) {
+                j++;
+            }
+            if (j == token.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Skip spaces
+     *
+     * @param text
+     * @param from
+     * @param to
+     * @return int index of the first non space character
+     */
+    static int skipSpaces(CharSequence text, int from, int to) {
+        while (from < to && text.charAt(from) == ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Parse non negative integer
+     *
+     * @param text
+     * @param from
+     * @param to
+     * @return long value or -1 if there are no digits
+     */
+    static long parseInteger(CharSequence text, int from, int to) {
+        long value = 0;
+        int i = from;
+        while (i < to) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            i++;
+        }
+        return i == from ? -1 : value;
+    }
+
+    /**
+     * Parse non negative decimal number (digits with optional fraction)
+     *
+     * @param text
+     * @param from
+     * @param to
+     * @return double value or NaN if there are no digits
+     */
+    static double parseDecimal(CharSequence text, int from, int to) {
+        long mantissa = 0;
+        int scale = 0;
+        int digits = 0;
+        boolean fraction = false;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (fraction) {
+                        scale++;
+                    }
+                } else if (!fraction) {
+                    scale--; // too many integer digits - keep magnitude
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        if (-scale >= POWERS_OF_TEN.length) {
+            return Double.NaN; // not a plausible ping value
+        }
+        // single division by exact power of ten - correctly rounded for ping precision
+        return scale >= 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa * POWERS_OF_TEN[-scale];
+    }
+}
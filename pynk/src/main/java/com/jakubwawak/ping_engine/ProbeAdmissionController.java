@@ -0,0 +1,379 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.jakubwawak.metrics_engine.LatencyHistogram;
+
+/**
+ * Admission control of probe subprocesses - a global budget of running
+ * processes with a quota per process type. Waiting probes are admitted by
+ * priority (scheduled probes before diagnostics) and in arrival order, probes
+ * not admitted before their deadline are skipped instead of failing on
+ * process start. Asynchronous requests wait in the same queue without holding
+ * a thread
+ */
+public class ProbeAdmissionController {
+
+    /**
+     * Type of the subprocess
+     */
+    public enum ProcessType {
+        PING, DIG, TRACEROUTE
+    }
+
+    /**
+     * Priority of the request, lower ordinal is admitted first
+     */
+    public enum Priority {
+        SCHEDULED, DIAGNOSTICS
+    }
+
+    /**
+     * Waiting request
+     */
+    private static class Waiter implements Comparable<Waiter> {
+        final ProcessType type;
+        final Priority priority;
+        final long order;
+        final Condition admitted; // blocking waiter
+        final CompletableFuture<Boolean> future; // asynchronous waiter
+        final long start = System.nanoTime();
+        boolean granted;
+
+        Waiter(ProcessType type, Priority priority, long order, Condition admitted,
+                CompletableFuture<Boolean> future) {
+            this.type = type;
+            this.priority = priority;
+            this.order = order;
+            this.admitted = admitted;
+            this.future = future;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int result = priority.compareTo(other.priority);
+            return result != 0 ? result : Long.compare(order, other.order);
+        }
+    }
+
+    /**
+     * Statistics of one priority
+     */
+    private static class WaitStatistics {
+        final AtomicLong admitted = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong waitSumNanos = new AtomicLong();
+        final LatencyHistogram waits = new LatencyHistogram();
+        volatile long maxWaitNanos;
+
+        void record(long waitNanos, boolean wasAdmitted) {
+            waits.record(waitNanos);
+            if (wasAdmitted) {
+                admitted.incrementAndGet();
+            } else {
+                rejected.incrementAndGet();
+            }
+            waitSumNanos.addAndGet(waitNanos);
+            if (waitNanos > maxWaitNanos) {
+                maxWaitNanos = waitNanos;
+            }
+        }
+    }
+
+    private final int budget;
+    private final Map<ProcessType, Integer> quotas = new EnumMap<>(ProcessType.class);
+    private final Map<ProcessType, Integer> running = new EnumMap<>(ProcessType.class); // guarded by lock
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(); // guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Priority, WaitStatistics> statistics = new EnumMap<>(Priority.class);
+    private int runningTotal; // guarded by lock
+    private long order; // guarded by lock
+
+    /**
+     * Constructor
+     *
+     * @param budget max amount of subprocesses running at once
+     * @param quotas max amount of running subprocesses per type (missing type -
+     *               whole budget)
+     */
+    public ProbeAdmissionController(int budget, Map<ProcessType, Integer> quotas) {
+        this.budget = Math.max(1, budget);
+        for (ProcessType type : ProcessType.values()) {
+            Integer quota = quotas.get(type);
+            this.quotas.put(type, quota == null || quota <= 0 ? this.budget : Math.min(this.budget, quota));
+            this.running.put(type, 0);
+        }
+        for (Priority priority : Priority.values()) {
+            statistics.put(priority, new WaitStatistics());
+        }
+    }
+
+    /**
+     * Wait for the permission to start the subprocess
+     *
+     * @param type
+     * @param priority
+     * @param timeoutMillis max wait time
+     * @return true if admitted - release has to be called after the process ends
+     * @throws InterruptedException
+     */
+    public boolean acquire(ProcessType type, Priority priority, long timeoutMillis) throws InterruptedException {
+        List<Waiter> granted = new ArrayList<>();
+        lock.lock();
+        try {
+            Waiter waiter = new Waiter(type, priority, order++, lock.newCondition(), null);
+            waiters.add(waiter);
+            grantWaiting(granted); // admitted at once when nothing of higher priority waits for the permission
+            long remaining = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+            try {
+                while (!waiter.granted && remaining > 0) {
+                    remaining = waiter.admitted.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    waiter.granted = false; // permission granted together with the interrupt is returned
+                    running.put(type, running.get(type) - 1);
+                    runningTotal--;
+                }
+                throw e;
+            } finally {
+                if (!waiter.granted) {
+                    waiters.remove(waiter);
+                    grantWaiting(granted); // waiter of other type may fit now
+                }
+            }
+            statistics.get(priority).record(System.nanoTime() - waiter.start, waiter.granted);
+            return waiter.granted;
+        } finally {
+            lock.unlock();
+            complete(granted);
+        }
+    }
+
+    /**
+     * Request the permission without blocking - the future completes with true
+     * when admitted (release has to be called after the process ends) or with
+     * false at the timeout
+     *
+     * @param type
+     * @param priority
+     * @param timeoutMillis max wait time
+     * @return CompletableFuture, completed outside of the admission lock
+     */
+    public CompletableFuture<Boolean> acquireAsync(ProcessType type, Priority priority, long timeoutMillis) {
+        Waiter waiter;
+        List<Waiter> granted = new ArrayList<>();
+        lock.lock();
+        try {
+            waiter = new Waiter(type, priority, order++, null, new CompletableFuture<>());
+            waiters.add(waiter);
+            grantWaiting(granted);
+        } finally {
+            lock.unlock();
+            complete(granted);
+        }
+        if (!waiter.future.isDone()) {
+            CompletableFuture.delayedExecutor(Math.max(0, timeoutMillis), TimeUnit.MILLISECONDS)
+                    .execute(() -> expire(waiter));
+        }
+        return waiter.future;
+    }
+
+    /**
+     * Complete the asynchronous waiter with false when it was not admitted
+     * before its timeout
+     *
+     * @param waiter
+     */
+    private void expire(Waiter waiter) {
+        List<Waiter> granted = new ArrayList<>();
+        lock.lock();
+        try {
+            if (waiter.granted || !waiters.remove(waiter)) {
+                return;
+            }
+            statistics.get(waiter.priority).record(System.nanoTime() - waiter.start, false);
+            grantWaiting(granted); // waiter of other type may fit now
+        } finally {
+            lock.unlock();
+            complete(granted);
+        }
+        waiter.future.complete(false);
+    }
+
+    /**
+     * Return the permission after the subprocess ended
+     *
+     * @param type
+     */
+    public void release(ProcessType type) {
+        List<Waiter> granted = new ArrayList<>();
+        lock.lock();
+        try {
+            running.put(type, running.get(type) - 1);
+            runningTotal--;
+            grantWaiting(granted);
+        } finally {
+            lock.unlock();
+            complete(granted);
+        }
+    }
+
+    /**
+     * Grant free permissions to waiters by priority, waiters of types over
+     * quota are skipped - lock has to be held
+     *
+     * @param granted receives asynchronous waiters to complete after unlock
+     */
+    private void grantWaiting(List<Waiter> granted) {
+        if (waiters.isEmpty() || runningTotal >= budget) {
+            return;
+        }
+        // priority queue iterator is unordered, collect candidates in order
+        Waiter[] ordered = waiters.toArray(new Waiter[0]);
+        Arrays.sort(ordered);
+        for (Waiter waiter : ordered) {
+            if (runningTotal >= budget) {
+                return;
+            }
+            if (fits(waiter.type)) {
+                waiters.remove(waiter);
+                take(waiter.type);
+                waiter.granted = true;
+                if (waiter.future != null) {
+                    statistics.get(waiter.priority).record(System.nanoTime() - waiter.start, true);
+                    granted.add(waiter);
+                } else {
+                    waiter.admitted.signal();
+                }
+            }
+        }
+    }
+
+    /**
+     * Complete granted asynchronous waiters - called without the lock, so
+     * their continuations never run under it
+     *
+     * @param granted
+     */
+    private void complete(List<Waiter> granted) {
+        for (Waiter waiter : granted) {
+            if (!waiter.future.complete(true)) {
+                release(waiter.type); // cancelled by the caller, permission is not used
+            }
+        }
+    }
+
+    /**
+     * Check if the process of the type can start - lock has to be held
+     *
+     * @param type
+     * @return boolean
+     */
+    private boolean fits(ProcessType type) {
+        return runningTotal < budget && running.get(type) < quotas.get(type);
+    }
+
+    /**
+     * Take the permission - lock has to be held
+     *
+     * @param type
+     */
+    private void take(ProcessType type) {
+        running.put(type, running.get(type) + 1);
+        runningTotal++;
+    }
+
+    /**
+     * Get histogram of admission wait times of the priority (admitted and
+     * rejected requests)
+     *
+     * @param priority
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getWaitHistogram(Priority priority) {
+        return statistics.get(priority).waits;
+    }
+
+    /**
+     * Get amount of requests of the priority not admitted before their timeout
+     *
+     * @param priority
+     * @return long
+     */
+    public long getRejectedCount(Priority priority) {
+        return statistics.get(priority).rejected.get();
+    }
+
+    /**
+     * Get amount of running subprocesses
+     *
+     * @return int
+     */
+    public int getRunningCount() {
+        lock.lock();
+        try {
+            return runningTotal;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get amount of requests waiting for the permission
+     *
+     * @return int
+     */
+    public int getWaitingCount() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get short admission statistics for logging
+     *
+     * @return String
+     */
+    public String getStatistics() {
+        StringBuilder text = new StringBuilder();
+        lock.lock();
+        try {
+            text.append("running: ").append(runningTotal).append('/').append(budget);
+            for (ProcessType type : ProcessType.values()) {
+                text.append(", ").append(type.name().toLowerCase()).append(": ").append(running.get(type))
+                        .append('/').append(quotas.get(type));
+            }
+            text.append(", waiting: ").append(waiters.size());
+        } finally {
+            lock.unlock();
+        }
+        for (Map.Entry<Priority, WaitStatistics> entry : statistics.entrySet()) {
+            WaitStatistics stats = entry.getValue();
+            long count = stats.admitted.get() + stats.rejected.get();
+            text.append(String.format(", %s admitted/rejected: %d/%d wait avg/max: %.1f/%.1f ms",
+                    entry.getKey().name().toLowerCase(), stats.admitted.get(), stats.rejected.get(),
+                    count == 0 ? 0 : stats.waitSumNanos.get() / (double) count / 1_000_000.0,
+                    stats.maxWaitNanos / 1_000_000.0));
+        }
+        return text.toString();
+    }
+}
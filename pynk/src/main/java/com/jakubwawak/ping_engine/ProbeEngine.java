@@ -0,0 +1,66 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import com.jakubwawak.Pynk;
+import com.jakubwawak.entity.Host;
+import com.jakubwawak.entity.PingData;
+
+/**
+ * Probe engine - measures a host and returns the same ping data fields
+ * (transmitted/received, per-packet times, min/avg/max) for every probe type
+ */
+public interface ProbeEngine {
+
+    String TYPE_ICMP = "icmp";
+    String TYPE_TCP = "tcp";
+    String TYPE_UDP = "udp";
+    String TYPE_DNS = "dns";
+
+    /**
+     * Probe the host
+     *
+     * @param host
+     * @return PingData
+     */
+    PingData pingHost(Host host);
+
+    /**
+     * Probe the host without blocking the caller - engines waiting for a
+     * subprocess probe on the calling thread
+     *
+     * @param host
+     * @param executor runs the completion of the probe
+     * @return CompletableFuture with the ping data
+     */
+    default CompletableFuture<PingData> pingHostAsync(Host host, Executor executor) {
+        return CompletableFuture.completedFuture(pingHost(host));
+    }
+
+    /**
+     * Select probe engine configured for the host
+     *
+     * @param host
+     * @param icmpEngine engine running the ping subprocess (depends on the database type)
+     * @return ProbeEngine
+     */
+    static ProbeEngine forHost(Host host, Supplier<ProbeEngine> icmpEngine) {
+        switch (host.getHostProbeType()) {
+            case TYPE_TCP:
+                return new NioProbeEngine(Pynk.getProbeReactor(), NioProbeEngine.Protocol.TCP);
+            case TYPE_UDP:
+                return new NioProbeEngine(Pynk.getProbeReactor(), NioProbeEngine.Protocol.UDP);
+            case TYPE_DNS:
+                return new NioProbeEngine(Pynk.getProbeReactor(), NioProbeEngine.Protocol.DNS);
+            default:
+                return icmpEngine.get();
+        }
+    }
+}
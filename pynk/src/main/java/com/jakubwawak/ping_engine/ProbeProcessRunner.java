@@ -0,0 +1,451 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * Execution of probe subprocesses (ping, dig, traceroute) bounded by a
+ * deadline - process still running at the deadline is destroyed, and killed
+ * forcibly after the grace period, so a black-holed host occupies a worker
+ * for a predictable time. stderr is discarded by the OS, stdout is consumed
+ * on the calling thread, or after the exit of an asynchronous process
+ */
+public class ProbeProcessRunner {
+
+    /**
+     * Consumer of the process standard output, reads until EOF
+     */
+    public interface OutputConsumer {
+        void consume(Reader reader) throws IOException;
+    }
+
+    /**
+     * Result of the single process execution
+     */
+    public static class ProbeResult {
+        public int exitCode = -1;
+        public boolean notAdmitted; // process was not started, admission wait reached the deadline
+        public long admissionWaitMillis;
+        public volatile boolean timedOut;
+        public volatile boolean killed;
+        public long elapsedMillis;
+    }
+
+    private static final boolean MAC = System.getProperty("os.name", "").toLowerCase().contains("mac");
+
+    private final long probeTimeoutMillis;
+    private final long diagnosticsTimeoutMillis;
+    private final long killGraceMillis;
+    private final ProbeAdmissionController admission;
+    private final ScheduledThreadPoolExecutor watchdog;
+
+    // statistics
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong killed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong notAdmitted = new AtomicLong();
+    private final AtomicLong elapsedSumMillis = new AtomicLong();
+    private volatile long maxElapsedMillis;
+
+    /**
+     * Constructor
+     *
+     * @param probeTimeoutMillis       max run time of ping
+     * @param diagnosticsTimeoutMillis max run time of dig and traceroute
+     * @param killGraceMillis          time between destroy and forced kill
+     * @param admission                admission control of started processes, null - unlimited
+     */
+    public ProbeProcessRunner(long probeTimeoutMillis, long diagnosticsTimeoutMillis, long killGraceMillis,
+            ProbeAdmissionController admission) {
+        this.admission = admission;
+        this.probeTimeoutMillis = Math.max(1000, probeTimeoutMillis);
+        this.diagnosticsTimeoutMillis = Math.max(1000, diagnosticsTimeoutMillis);
+        this.killGraceMillis = Math.max(0, killGraceMillis);
+        this.watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "pynk-probe-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog.setRemoveOnCancelPolicy(true); // finished probes do not leave cancelled kills queued
+    }
+
+    /**
+     * Get ping deadline for the host interval - probe never runs longer than
+     * the interval of the host
+     *
+     * @param intervalMillis
+     * @return long deadline in milliseconds
+     */
+    public long getProbeDeadline(long intervalMillis) {
+        return Math.min(probeTimeoutMillis, Math.max(2000, intervalMillis));
+    }
+
+    /**
+     * Get deadline of dig and traceroute
+     *
+     * @return long deadline in milliseconds
+     */
+    public long getDiagnosticsDeadline() {
+        return diagnosticsTimeoutMillis;
+    }
+
+    /**
+     * Build ping command with its own deadline, the watchdog is only the last
+     * resort
+     *
+     * @param host
+     * @param count
+     * @param deadlineMillis
+     * @return List of command arguments
+     */
+    public static List<String> pingCommand(String host, int count, long deadlineMillis) {
+        String deadlineSeconds = String.valueOf(Math.max(1, deadlineMillis / 1000 - 1));
+        List<String> command = new ArrayList<>();
+        command.add("ping");
+        command.add("-c");
+        command.add(String.valueOf(count));
+        if (MAC) {
+            command.add("-t"); // total timeout in seconds
+            command.add(deadlineSeconds);
+        } else {
+            command.add("-W"); // reply timeout of the last packet in seconds
+            command.add("1");
+            command.add("-w"); // total deadline in seconds
+            command.add(deadlineSeconds);
+        }
+        command.add(host);
+        return command;
+    }
+
+    /**
+     * Run the process once admitted - time waiting for admission is part of the
+     * deadline
+     *
+     * @param type
+     * @param priority
+     * @param command
+     * @param deadlineMillis
+     * @param consumer
+     * @return ProbeResult, notAdmitted set when the process was not started
+     * @throws IOException when the process could not be started or read
+     */
+    public ProbeResult run(ProbeAdmissionController.ProcessType type, ProbeAdmissionController.Priority priority,
+            List<String> command, long deadlineMillis, OutputConsumer consumer) throws IOException {
+        return run(type, priority, remainingMillis -> command, deadlineMillis, consumer);
+    }
+
+    /**
+     * Run the process once admitted - command is built after admission from the
+     * remaining deadline, so the own timeout of the process (ping -w) never
+     * outlasts the watchdog
+     *
+     * @param type
+     * @param priority
+     * @param command        command for the remaining deadline in milliseconds
+     * @param deadlineMillis
+     * @param consumer
+     * @return ProbeResult, notAdmitted set when the process was not started
+     * @throws IOException when the process could not be started or read
+     */
+    public ProbeResult run(ProbeAdmissionController.ProcessType type, ProbeAdmissionController.Priority priority,
+            LongFunction<List<String>> command, long deadlineMillis, OutputConsumer consumer) throws IOException {
+        if (admission == null) {
+            return run(command.apply(deadlineMillis), deadlineMillis, consumer);
+        }
+        long start = System.nanoTime();
+        boolean admitted;
+        try {
+            admitted = admission.acquire(type, priority, deadlineMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (!admitted) {
+            notAdmitted.incrementAndGet();
+            ProbeResult result = new ProbeResult();
+            result.notAdmitted = true;
+            result.admissionWaitMillis = waited;
+            return result;
+        }
+        try {
+            long remaining = Math.max(1, deadlineMillis - waited);
+            ProbeResult result = run(command.apply(remaining), remaining, consumer);
+            result.admissionWaitMillis = waited;
+            return result;
+        } finally {
+            admission.release(type);
+        }
+    }
+
+    /**
+     * Run the process once admitted without blocking the caller - admission
+     * wait, process run time and the deadline are tracked by futures, the
+     * caller thread only starts the process. Output is consumed on the
+     * executor after the process exited, so it has to fit the pipe buffer
+     * (ping -c 8 writes about 1 KB, a longer output stops the process until
+     * the deadline)
+     *
+     * @param type
+     * @param priority
+     * @param command        command for the remaining deadline in milliseconds
+     * @param deadlineMillis
+     * @param consumer
+     * @param executor       starts the process and consumes its output
+     * @return CompletableFuture with ProbeResult, notAdmitted set when the
+     *         process was not started, completed exceptionally when the process
+     *         could not be started or read
+     */
+    public CompletableFuture<ProbeResult> runAsync(ProbeAdmissionController.ProcessType type,
+            ProbeAdmissionController.Priority priority, LongFunction<List<String>> command, long deadlineMillis,
+            OutputConsumer consumer, Executor executor) {
+        if (admission == null) {
+            return start(command.apply(deadlineMillis), deadlineMillis, consumer, executor);
+        }
+        long start = System.nanoTime();
+        return admission.acquireAsync(type, priority, deadlineMillis).thenComposeAsync(admitted -> {
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (!admitted) {
+                notAdmitted.incrementAndGet();
+                ProbeResult result = new ProbeResult();
+                result.notAdmitted = true;
+                result.admissionWaitMillis = waited;
+                return CompletableFuture.completedFuture(result);
+            }
+            long remaining = Math.max(1, deadlineMillis - waited);
+            return start(command.apply(remaining), remaining, consumer, executor).whenComplete((completed, error) -> {
+                admission.release(type);
+                if (completed != null) {
+                    completed.admissionWaitMillis = waited;
+                }
+            });
+        }, executor);
+    }
+
+    /**
+     * Start the process and finish it on the executor after exit
+     *
+     * @param command
+     * @param deadlineMillis
+     * @param consumer
+     * @param executor
+     * @return CompletableFuture with ProbeResult
+     */
+    private CompletableFuture<ProbeResult> start(List<String> command, long deadlineMillis, OutputConsumer consumer,
+            Executor executor) {
+        ProbeResult result = new ProbeResult();
+        long start = System.nanoTime();
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+        started.incrementAndGet();
+        ScheduledFuture<?> kill = watchdog.schedule(() -> terminate(process, result, false), deadlineMillis,
+                TimeUnit.MILLISECONDS);
+        return process.onExit().thenApplyAsync(exited -> {
+            kill.cancel(false);
+            result.exitCode = exited.exitValue();
+            result.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            record(result);
+            try (Reader reader = new InputStreamReader(exited.getInputStream())) {
+                consumer.consume(reader); // output stayed in the pipe, EOF follows at once
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return result;
+        }, executor);
+    }
+
+    /**
+     * Run the process until it exits or the deadline passes
+     *
+     * @param command
+     * @param deadlineMillis
+     * @param consumer
+     * @return ProbeResult
+     * @throws IOException when the process could not be started or read
+     */
+    public ProbeResult run(List<String> command, long deadlineMillis, OutputConsumer consumer) throws IOException {
+        ProbeResult result = new ProbeResult();
+        long start = System.nanoTime();
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            throw e;
+        }
+        started.incrementAndGet();
+        ScheduledFuture<?> kill = watchdog.schedule(() -> terminate(process, result), deadlineMillis,
+                TimeUnit.MILLISECONDS);
+        try (Reader reader = new InputStreamReader(process.getInputStream())) {
+            consumer.consume(reader); // EOF arrives when the process exits or is destroyed
+            long remaining = deadlineMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (!process.waitFor(Math.max(0, remaining), TimeUnit.MILLISECONDS)) {
+                terminate(process, result);
+                process.waitFor(killGraceMillis + 100, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            kill.cancel(false);
+            if (process.isAlive()) {
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                process.destroyForcibly();
+            }
+            result.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            record(result);
+        }
+        if (!process.isAlive()) {
+            result.exitCode = process.exitValue();
+        }
+        return result;
+    }
+
+    /**
+     * Run the process and collect its output as text (dig, traceroute)
+     *
+     * @param type
+     * @param priority
+     * @param command
+     * @param deadlineMillis
+     * @param output         builder receiving the output
+     * @return ProbeResult
+     * @throws IOException
+     */
+    public ProbeResult runForText(ProbeAdmissionController.ProcessType type,
+            ProbeAdmissionController.Priority priority, List<String> command, long deadlineMillis,
+            StringBuilder output) throws IOException {
+        return run(type, priority, command, deadlineMillis, reader -> {
+            char[] buffer = new char[1024];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                output.append(buffer, 0, read);
+            }
+        });
+    }
+
+    /**
+     * Destroy the process at the deadline and schedule the forced kill
+     *
+     * @param process
+     * @param result
+     */
+    private void terminate(Process process, ProbeResult result) {
+        terminate(process, result, true);
+    }
+
+    /**
+     * Destroy the process at the deadline and schedule the forced kill
+     *
+     * @param process
+     * @param result
+     * @param closeOutput false - only signal the process, output written
+     *                    before the deadline stays readable after exit
+     */
+    private void terminate(Process process, ProbeResult result, boolean closeOutput) {
+        if (!process.isAlive() || result.timedOut) {
+            return;
+        }
+        result.timedOut = true;
+        // children (e.g. of a wrapper shell) hold the output pipe as well
+        process.descendants().forEach(ProcessHandle::destroy);
+        if (closeOutput) {
+            process.destroy();
+        } else {
+            process.toHandle().destroy();
+        }
+        watchdog.schedule(() -> {
+            if (process.isAlive() || process.descendants().anyMatch(ProcessHandle::isAlive)) {
+                result.killed = true;
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                if (closeOutput) {
+                    process.destroyForcibly();
+                } else {
+                    process.toHandle().destroyForcibly();
+                }
+            }
+        }, killGraceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Record finished execution in statistics
+     *
+     * @param result
+     */
+    private void record(ProbeResult result) {
+        completed.incrementAndGet();
+        elapsedSumMillis.addAndGet(result.elapsedMillis);
+        if (result.elapsedMillis > maxElapsedMillis) {
+            maxElapsedMillis = result.elapsedMillis;
+        }
+        if (result.timedOut) {
+            timedOut.incrementAndGet();
+        }
+        if (result.killed) {
+            killed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get admission control of the runner
+     *
+     * @return ProbeAdmissionController, null when unlimited
+     */
+    public ProbeAdmissionController getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Get amount of executions stopped at the deadline
+     *
+     * @return long
+     */
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    /**
+     * Get amount of executions killed forcibly after the grace period
+     *
+     * @return long
+     */
+    public long getKilledCount() {
+        return killed.get();
+    }
+
+    /**
+     * Get short runner statistics for logging
+     *
+     * @return String
+     */
+    public String getStatistics() {
+        long count = completed.get();
+        String text = String.format("processes started: %d, running: %d, timed out: %d, killed: %d, "
+                + "failed to start: %d, not admitted: %d, run time avg/max: %.1f/%d ms",
+                started.get(), started.get() - count, getTimedOutCount(), getKilledCount(), failed.get(),
+                notAdmitted.get(), count == 0 ? 0 : elapsedSumMillis.get() / (double) count, maxElapsedMillis);
+        return admission != null ? text + ", admission: " + admission.getStatistics() : text;
+    }
+}
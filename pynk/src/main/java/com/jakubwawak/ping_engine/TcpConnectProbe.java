@@ -0,0 +1,105 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import com.jakubwawak.entity.PingData;
+
+/**
+ * TCP connect probe - every packet is a non-blocking connect, time to the
+ * finished handshake is the packet time. Refused or failed connects are lost
+ * packets
+ */
+public class TcpConnectProbe extends NioProbe {
+
+    private final InetSocketAddress address;
+    private final SocketChannel[] channels;
+
+    /**
+     * Constructor
+     *
+     * @param pingData
+     * @param address            resolved address of the host
+     * @param count
+     * @param spacingMillis
+     * @param replyTimeoutMillis
+     */
+    public TcpConnectProbe(PingData pingData, InetSocketAddress address, int count, long spacingMillis,
+            long replyTimeoutMillis) {
+        super(pingData, count, spacingMillis, replyTimeoutMillis);
+        this.address = address;
+        this.channels = new SocketChannel[this.count];
+    }
+
+    @Override
+    protected void open() {
+        // every packet opens its own connection
+    }
+
+    @Override
+    protected void send(int sequence) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        channels[sequence] = channel;
+        channel.configureBlocking(false);
+        if (channel.connect(address)) {
+            replied(sequence);
+            release(sequence);
+            return;
+        }
+        reactor.register(channel, SelectionKey.OP_CONNECT, key -> finish(sequence));
+    }
+
+    /**
+     * Finish the connect of the packet
+     *
+     * @param sequence
+     */
+    private void finish(int sequence) {
+        SocketChannel channel = channels[sequence];
+        if (channel == null) {
+            return;
+        }
+        try {
+            if (!channel.finishConnect()) {
+                return; // still connecting
+            }
+            replied(sequence);
+        } catch (IOException e) {
+            lost(sequence);
+        }
+        release(sequence);
+    }
+
+    @Override
+    protected void release(int sequence) {
+        SocketChannel channel = channels[sequence];
+        if (channel == null) {
+            return;
+        }
+        channels[sequence] = null;
+        try {
+            channel.close(); // closing also cancels the selection key
+        } catch (IOException e) {
+            // nothing to release
+        }
+    }
+
+    @Override
+    protected void close() {
+        for (int i = 0; i < channels.length; i++) {
+            release(i);
+        }
+    }
+
+    @Override
+    protected String describe() {
+        return "TCP connect " + address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+}
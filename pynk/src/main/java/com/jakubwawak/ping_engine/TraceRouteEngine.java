@@ -10,8 +10,8 @@ import com.jakubwawak.entity.TraceSinglePath;
 import com.jakubwawak.maintanance.ConsoleColors;
 
 import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -20,6 +20,10 @@ import java.util.regex.Pattern;
  * Service for generating trace route data
  */
 public class TraceRouteEngine {
+
+    // compiled once - lines of every traceroute are matched against them
+    private static final Pattern DIGIT_PATTERN = Pattern.compile("\\d");
+    private static final Pattern HOP_PATTERN = Pattern.compile("\\s*(\\d+)\\s+(?:([\\w.-]+)\\s+)?\\((\\d+\\.\\d+\\.\\d+\\.\\d+)\\)\\s+([\\d.]+ ms\\s*[\\d.]+ ms\\s*[\\d.]+ ms)");
     
     /**
      * Executes traceroute command for a given host and returns list of hops
@@ -29,30 +33,31 @@ public class TraceRouteEngine {
     public List<TraceSinglePath> executeTraceroute(String host) {
         ArrayList<TraceSinglePath> hops = new ArrayList<>();
         try {
-            ProcessBuilder processBuilder = new ProcessBuilder();
             // Use different command based on OS
             boolean isWindows = System.getProperty("os.name").toLowerCase().contains("win");
-            if (isWindows) {
-                processBuilder.command("tracert", host);
-            } else {
-                processBuilder.command("traceroute", host);
-            }
+            List<String> command = isWindows ? Arrays.asList("tracert", host) : Arrays.asList("traceroute", host);
 
-            Process process = processBuilder.start();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-            ArrayList<String> hops_raw = new ArrayList<>();
-            while ((line = reader.readLine()) != null) {
-                TraceSinglePath hop = parseTracerouteLine(line);
-                if (hop != null) {
-                    hops.add(hop);
+            // output is parsed while read, traceroute is stopped at the diagnostics deadline
+            ProbeProcessRunner runner = Pynk.getProcessRunner();
+            ProbeProcessRunner.ProbeResult result = runner.run(ProbeAdmissionController.ProcessType.TRACEROUTE,
+                    ProbeAdmissionController.Priority.DIAGNOSTICS, command, runner.getDiagnosticsDeadline(), reader -> {
+                BufferedReader lines = new BufferedReader(reader);
+                String line;
+                while ((line = lines.readLine()) != null) {
+                    TraceSinglePath hop = parseTracerouteLine(line);
+                    if (hop != null) {
+                        hops.add(hop);
+                    }
                 }
-                hops_raw.add(line);
+            });
+            if (result.notAdmitted) {
+                Pynk.documentDatabaseEngine.addLog("TRACE-ROUTE-DATA", "Trace route for host (" + host
+                        + ") skipped, subprocess budget exhausted", "WARN", ConsoleColors.YELLOW);
+                return hops;
             }
             Pynk.documentDatabaseEngine.addTraceRouteData(hops, host);
-            Pynk.documentDatabaseEngine.addLog("TRACE-ROUTE-DATA", "Added trace route data for host (" + host + ")", "INFO", ConsoleColors.GREEN);
-            process.waitFor();
-            reader.close();
+            Pynk.documentDatabaseEngine.addLog("TRACE-ROUTE-DATA", "Added trace route data for host (" + host + ")"
+                    + (result.timedOut ? " - stopped at deadline" : ""), "INFO", ConsoleColors.GREEN);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -65,16 +70,15 @@ public class TraceRouteEngine {
      * @param line line to parse
      * @return TraceSinglePath object if line contains valid hop data, null otherwise
      */
-    private TraceSinglePath parseTracerouteLine(String line) {
+    public static TraceSinglePath parseTracerouteLine(String line) {
         // Skip empty lines and header lines
-        if (line.trim().isEmpty() || !line.matches(".*\\d+.*")) {
+        if (line.trim().isEmpty() || !DIGIT_PATTERN.matcher(line).find()) {
             return null;
         }
 
         try {
             // Extract hop number and hostname/IP
-            Pattern pattern = Pattern.compile("\\s*(\\d+)\\s+(?:([\\w.-]+)\\s+)?\\((\\d+\\.\\d+\\.\\d+\\.\\d+)\\)\\s+([\\d.]+ ms\\s*[\\d.]+ ms\\s*[\\d.]+ ms)");
-            Matcher matcher = pattern.matcher(line);
+            Matcher matcher = HOP_PATTERN.matcher(line);
 
             if (matcher.find()) {
                 String hopNumber = matcher.group(1);
@@ -0,0 +1,98 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.jakubwawak.entity.PingData;
+
+/**
+ * UDP echo probe - every packet is a datagram with the probe token and the
+ * sequence number sent to the echo service (RFC 862), the echoed datagram is
+ * the reply. One connected channel is used for the whole probe
+ */
+public class UdpEchoProbe extends NioProbe {
+
+    private static final int PAYLOAD_SIZE = 16;
+
+    private final InetSocketAddress address;
+    private final long token = ThreadLocalRandom.current().nextLong();
+    private final ByteBuffer buffer = ByteBuffer.allocate(512);
+    private DatagramChannel channel;
+
+    /**
+     * Constructor
+     *
+     * @param pingData
+     * @param address            resolved address of the echo service
+     * @param count
+     * @param spacingMillis
+     * @param replyTimeoutMillis
+     */
+    public UdpEchoProbe(PingData pingData, InetSocketAddress address, int count, long spacingMillis,
+            long replyTimeoutMillis) {
+        super(pingData, count, spacingMillis, replyTimeoutMillis);
+        this.address = address;
+    }
+
+    @Override
+    protected void open() throws IOException {
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.connect(address);
+        reactor.register(channel, SelectionKey.OP_READ, key -> receive());
+    }
+
+    @Override
+    protected void send(int sequence) throws IOException {
+        ByteBuffer packet = ByteBuffer.allocate(PAYLOAD_SIZE);
+        packet.putLong(token).putInt(sequence).putInt(0).flip();
+        channel.write(packet);
+    }
+
+    /**
+     * Read all echoed datagrams waiting on the channel
+     */
+    private void receive() {
+        try {
+            while (true) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read <= 0) {
+                    return;
+                }
+                buffer.flip();
+                if (read >= PAYLOAD_SIZE && buffer.getLong() == token) {
+                    replied(buffer.getInt());
+                }
+            }
+        } catch (IOException e) {
+            // port unreachable reported by the host - packets are lost by timeout
+        }
+    }
+
+    @Override
+    protected void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing to release
+        }
+    }
+
+    @Override
+    protected String describe() {
+        return "UDP echo " + address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.retention_engine;
+
+/**
+ * Stored progress of a retention target - an unfinished pass is resumed after
+ * restart, a finished one waits for the retention interval
+ */
+public class RetentionCheckpoint {
+
+    public String name;
+    public long lastRunMillis; // start of the last pass
+    public long lastCutoffMillis;
+    public long deletedTotal;
+    public long lastPassDeleted;
+    public boolean passComplete;
+
+    /**
+     * Constructor
+     *
+     * @param name
+     */
+    public RetentionCheckpoint(String name) {
+        this.name = name;
+        this.passComplete = true;
+    }
+}
@@ -0,0 +1,299 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.retention_engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jakubwawak.maintanance.ConsoleColors;
+import com.jakubwawak.maintanance.Properties;
+
+/**
+ * Background retention of ping history and logs - every target is pruned in
+ * time ordered chunks of bounded size, deletes are rate limited and paused
+ * while the writers of the database are backed up, so housekeeping never
+ * competes with probe writes or dashboard reads. Progress is checkpointed
+ * after every chunk
+ */
+public class RetentionEngine {
+
+    static final int MIN_CHUNK_SIZE = 50;
+    static final long RETRY_MILLIS = 60_000;
+
+    private final List<Policy> policies = new ArrayList<>();
+    private final long intervalMillis;
+    private final int chunkSize;
+    private final int maxDeletesPerSecond;
+    private final long maxChunkMillis;
+    private final long busyPauseMillis;
+    private final Object lock = new Object();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // statistics
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong busyWaits = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong activeNanos = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param intervalMillis      time between passes of a target
+     * @param chunkSize           max records deleted at once
+     * @param maxDeletesPerSecond delete rate limit, 0 - unlimited
+     * @param maxChunkMillis      chunk size is halved when a chunk takes longer
+     * @param busyPauseMillis     pause while the database writers are backed up
+     */
+    public RetentionEngine(long intervalMillis, int chunkSize, int maxDeletesPerSecond, long maxChunkMillis,
+            long busyPauseMillis) {
+        this.intervalMillis = Math.max(60_000, intervalMillis);
+        this.chunkSize = Math.max(MIN_CHUNK_SIZE, chunkSize);
+        this.maxDeletesPerSecond = Math.max(0, maxDeletesPerSecond);
+        this.maxChunkMillis = Math.max(10, maxChunkMillis);
+        this.busyPauseMillis = Math.max(10, busyPauseMillis);
+        this.thread = new Thread(this::run, "pynk-retention");
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    /**
+     * Create retention engine configured from properties file
+     *
+     * @param properties
+     * @return RetentionEngine
+     */
+    public static RetentionEngine fromProperties(Properties properties) {
+        return new RetentionEngine(properties.getIntValue("retentionIntervalMinutes", 60) * 60_000L,
+                properties.getIntValue("retentionChunkSize", 1000),
+                properties.getIntValue("retentionMaxDeletesPerSecond", 2000),
+                properties.getIntValue("retentionMaxChunkMillis", 200),
+                properties.getIntValue("retentionBusyPauseMillis", 500));
+    }
+
+    /**
+     * Add target with its retention
+     *
+     * @param target
+     * @param retentionDays records older than this are deleted, 0 - target is
+     *                      kept forever
+     */
+    public void addPolicy(RetentionTarget target, int retentionDays) {
+        if (retentionDays > 0) {
+            policies.add(new Policy(target, retentionDays));
+        }
+    }
+
+    /**
+     * Start the retention thread
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Retention loop - passes of due targets, then wait for the next due one
+     */
+    private void run() {
+        for (Policy policy : policies) {
+            try {
+                RetentionCheckpoint checkpoint = policy.target.loadCheckpoint();
+                if (checkpoint != null) {
+                    policy.checkpoint = checkpoint;
+                }
+            } catch (Exception e) {
+                System.out.println(ConsoleColors.RED_BOLD + "Retention: failed to load checkpoint of "
+                        + policy.target.getName() + " (" + e.getMessage() + ")" + ConsoleColors.RESET);
+            }
+        }
+        while (running) {
+            long now = System.currentTimeMillis();
+            long nextDue = now + intervalMillis;
+            for (Policy policy : policies) {
+                if (!running) {
+                    break;
+                }
+                if (policy.dueAt(intervalMillis) <= now) {
+                    runPass(policy);
+                }
+                nextDue = Math.min(nextDue, policy.dueAt(intervalMillis));
+            }
+            pause(Math.max(1000, nextDue - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Prune the target until nothing older than the cutoff is left
+     *
+     * @param policy
+     */
+    void runPass(Policy policy) {
+        RetentionCheckpoint checkpoint = policy.checkpoint;
+        long passStart = System.currentTimeMillis();
+        long cutoff = passStart - TimeUnit.DAYS.toMillis(policy.retentionDays);
+        if (checkpoint.passComplete) {
+            checkpoint.lastPassDeleted = 0; // resumed pass keeps counting
+        }
+        checkpoint.lastRunMillis = passStart;
+        checkpoint.lastCutoffMillis = cutoff;
+        checkpoint.passComplete = false;
+        int chunk = policy.chunkSize > 0 ? policy.chunkSize : chunkSize;
+        while (running) {
+            while (running && policy.target.isBusy()) {
+                busyWaits.incrementAndGet();
+                pause(busyPauseMillis);
+            }
+            if (!running) {
+                break;
+            }
+            long start = System.nanoTime();
+            long removed;
+            try {
+                removed = policy.target.deleteChunk(cutoff, chunk);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                System.out.println(ConsoleColors.RED_BOLD + "Retention: failed to prune " + policy.target.getName()
+                        + " (" + e.getMessage() + ")" + ConsoleColors.RESET);
+                save(policy);
+                policy.retryAtMillis = System.currentTimeMillis() + RETRY_MILLIS;
+                return;
+            }
+            long elapsed = System.nanoTime() - start;
+            activeNanos.addAndGet(elapsed);
+            chunks.incrementAndGet();
+            deleted.addAndGet(removed);
+            checkpoint.deletedTotal += removed;
+            checkpoint.lastPassDeleted += removed;
+            boolean finished = removed < chunk;
+            checkpoint.passComplete = finished;
+            save(policy);
+            if (finished) {
+                break;
+            }
+            // keep every chunk inside the time budget
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsed);
+            if (elapsedMillis > maxChunkMillis) {
+                chunk = Math.max(MIN_CHUNK_SIZE, chunk / 2);
+            } else if (elapsedMillis < maxChunkMillis / 4) {
+                chunk = Math.min(chunkSize, chunk * 2);
+            }
+            policy.chunkSize = chunk;
+            if (maxDeletesPerSecond > 0) {
+                pause(removed * 1000 / maxDeletesPerSecond - elapsedMillis);
+            }
+        }
+        if (checkpoint.passComplete) {
+            System.out.println(ConsoleColors.CYAN + "Retention: " + policy.target.getName() + " pruned "
+                    + checkpoint.lastPassDeleted + " records older than " + policy.retentionDays + " days in "
+                    + (System.currentTimeMillis() - passStart) + " ms" + ConsoleColors.RESET);
+        }
+    }
+
+    /**
+     * Store checkpoint of the policy
+     *
+     * @param policy
+     */
+    private void save(Policy policy) {
+        try {
+            policy.target.saveCheckpoint(policy.checkpoint);
+        } catch (Exception e) {
+            System.out.println(ConsoleColors.RED_BOLD + "Retention: failed to save checkpoint of "
+                    + policy.target.getName() + " (" + e.getMessage() + ")" + ConsoleColors.RESET);
+        }
+    }
+
+    /**
+     * Wait, returns early when the engine is stopped
+     *
+     * @param millis
+     */
+    private void pause(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            try {
+                lock.wait(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+        }
+    }
+
+    /**
+     * Stop the retention thread - current chunk is finished and checkpointed
+     *
+     * @param timeoutMillis
+     */
+    public void stop(long timeoutMillis) {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get delete throughput while chunks were running
+     *
+     * @return double records per second
+     */
+    public double getThroughput() {
+        long nanos = activeNanos.get();
+        return nanos == 0 ? 0 : deleted.get() / (nanos / 1_000_000_000.0);
+    }
+
+    /**
+     * Get short retention statistics for logging
+     *
+     * @return String
+     */
+    public String getStatistics() {
+        StringBuilder targets = new StringBuilder();
+        for (Policy policy : policies) {
+            RetentionCheckpoint checkpoint = policy.checkpoint;
+            targets.append(targets.length() > 0 ? ", " : "").append(policy.target.getName()).append(": ")
+                    .append(checkpoint.lastPassDeleted).append('/').append(checkpoint.deletedTotal)
+                    .append(checkpoint.passComplete ? "" : " running");
+        }
+        return String.format("deleted: %d, chunks: %d, throughput: %.0f/s, busy waits: %d, failed: %d, "
+                + "last pass/total [%s]", deleted.get(), chunks.get(), getThroughput(), busyWaits.get(), failed.get(),
+                targets);
+    }
+
+    /**
+     * Retention of a single target
+     */
+    static class Policy {
+        final RetentionTarget target;
+        final int retentionDays;
+        RetentionCheckpoint checkpoint;
+        int chunkSize; // adapted chunk size, 0 - configured size
+        long retryAtMillis; // unfinished pass continues at this time
+
+        Policy(RetentionTarget target, int retentionDays) {
+            this.target = target;
+            this.retentionDays = retentionDays;
+            this.checkpoint = new RetentionCheckpoint(target.getName());
+        }
+
+        long dueAt(long intervalMillis) {
+            return checkpoint.passComplete ? checkpoint.lastRunMillis + intervalMillis : retryAtMillis;
+        }
+    }
+}
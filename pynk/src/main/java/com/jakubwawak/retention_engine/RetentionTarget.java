@@ -0,0 +1,53 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.retention_engine;
+
+/**
+ * Collection or table pruned by the retention engine
+ */
+public interface RetentionTarget {
+
+    /**
+     * Get name of the target, used as checkpoint key
+     *
+     * @return String
+     */
+    String getName();
+
+    /**
+     * Delete oldest records older than the cutoff - single bounded chunk
+     *
+     * @param cutoffMillis records older than this time are deleted
+     * @param limit        max amount of records deleted
+     * @return long amount of deleted records, below limit when nothing older
+     *         is left
+     * @throws Exception
+     */
+    long deleteChunk(long cutoffMillis, int limit) throws Exception;
+
+    /**
+     * Check if writes of the database are backed up - housekeeping waits
+     *
+     * @return boolean
+     */
+    boolean isBusy();
+
+    /**
+     * Load stored progress of the target
+     *
+     * @return RetentionCheckpoint or null if target was never pruned
+     * @throws Exception
+     */
+    RetentionCheckpoint loadCheckpoint() throws Exception;
+
+    /**
+     * Store progress of the target
+     *
+     * @param checkpoint
+     * @throws Exception
+     */
+    void saveCheckpoint(RetentionCheckpoint checkpoint) throws Exception;
+}
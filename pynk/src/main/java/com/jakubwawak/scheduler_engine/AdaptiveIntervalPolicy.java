@@ -0,0 +1,142 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.scheduler_engine;
+
+import com.jakubwawak.entity.Host;
+
+/**
+ * Adaptive probe interval policy driven by the ping data classification -
+ * degraded hosts are probed more often, stable hosts back off gradually.
+ * Intervals stay inside the per-host bounds (hostJobTimeMin/hostJobTimeMax),
+ * hosts without bounds get bounds derived from their job time
+ */
+public class AdaptiveIntervalPolicy {
+
+    public static final String STATUS_SUCCESS = "Success";
+    public static final String STATUS_PARTIAL_LOSS = "Partial loss";
+    public static final String STATUS_NO_RESPONSE = "No response";
+
+    static final long MIN_INTERVAL_MILLIS = 1000;
+
+    private final boolean enabled;
+    private final int minDivisor;
+    private final int maxMultiplier;
+    private final int stableProbes;
+
+    /**
+     * Constructor
+     *
+     * @param enabled       false - every host is probed at its job time
+     * @param minDivisor    default min bound is job time / divisor
+     * @param maxMultiplier default max bound is job time * multiplier
+     * @param stableProbes  successful probes in a row needed for every back off
+     *                      step
+     */
+    public AdaptiveIntervalPolicy(boolean enabled, int minDivisor, int maxMultiplier, int stableProbes) {
+        this.enabled = enabled;
+        this.minDivisor = Math.max(1, minDivisor);
+        this.maxMultiplier = Math.max(1, maxMultiplier);
+        this.stableProbes = Math.max(1, stableProbes);
+    }
+
+    /**
+     * Create policy probing every host at its job time
+     *
+     * @return AdaptiveIntervalPolicy
+     */
+    public static AdaptiveIntervalPolicy fixed() {
+        return new AdaptiveIntervalPolicy(false, 1, 1, 1);
+    }
+
+    /**
+     * Get base interval of the host
+     *
+     * @param host
+     * @return long milliseconds
+     */
+    public long baseInterval(Host host) {
+        return clamp(Math.max(MIN_INTERVAL_MILLIS, host.getHostJobTime()), host);
+    }
+
+    /**
+     * Get the lowest interval of the host
+     *
+     * @param host
+     * @return long milliseconds
+     */
+    public long minInterval(Host host) {
+        long base = Math.max(MIN_INTERVAL_MILLIS, host.getHostJobTime());
+        if (!enabled) {
+            return base;
+        }
+        long min = host.getHostJobTimeMin() > 0 ? host.getHostJobTimeMin() : base / minDivisor;
+        return Math.max(MIN_INTERVAL_MILLIS, min);
+    }
+
+    /**
+     * Get the highest interval of the host
+     *
+     * @param host
+     * @return long milliseconds
+     */
+    public long maxInterval(Host host) {
+        long base = Math.max(MIN_INTERVAL_MILLIS, host.getHostJobTime());
+        if (!enabled) {
+            return base;
+        }
+        long max = host.getHostJobTimeMax() > 0 ? host.getHostJobTimeMax() : base * maxMultiplier;
+        return Math.max(minInterval(host), max);
+    }
+
+    /**
+     * Keep interval inside the bounds of the host
+     *
+     * @param intervalMillis
+     * @param host
+     * @return long milliseconds
+     */
+    public long clamp(long intervalMillis, Host host) {
+        return Math.min(maxInterval(host), Math.max(minInterval(host), intervalMillis));
+    }
+
+    /**
+     * Get interval after the probe
+     *
+     * @param host
+     * @param currentMillis current interval of the host
+     * @param status        classification of the probe, null when nothing was
+     *                      measured
+     * @param successStreak successful probes in a row including this one
+     * @return long milliseconds
+     */
+    public long nextInterval(Host host, long currentMillis, String status, int successStreak) {
+        if (!enabled || status == null) {
+            return clamp(currentMillis, host);
+        }
+        if (STATUS_SUCCESS.equals(status)) {
+            if (successStreak % stableProbes != 0) {
+                return clamp(currentMillis, host);
+            }
+            // below the base interval the host returns to it quickly, above it backs off by half
+            long base = baseInterval(host);
+            long relaxed = currentMillis < base ? Math.min(base, currentMillis * 2) : currentMillis + currentMillis / 2;
+            return clamp(relaxed, host);
+        }
+        if (STATUS_PARTIAL_LOSS.equals(status)) {
+            return clamp(Math.min(currentMillis, baseInterval(host)) / 2, host);
+        }
+        return minInterval(host); // no response, full loss
+    }
+
+    /**
+     * Check if intervals adapt to the host state
+     *
+     * @return boolean
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.scheduler_engine;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel - single ticker thread hands expired timeouts to the
+ * executor, schedule cost does not depend on the amount of timeouts
+ */
+public class HashedTimerWheel {
+
+    private final long tickNanos;
+    private final ArrayDeque<Timeout>[] wheel;
+    private final int mask;
+    private final Executor executor;
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final Thread tickerThread;
+    private final long startNanos;
+    private volatile boolean running = true;
+
+    private long tick;
+
+    // schedule lag statistics (how late the ticker woke up compared to the tick deadline)
+    private volatile long lastTickLagNanos;
+    private volatile long maxTickLagNanos;
+    private final AtomicLong tickLagSumNanos = new AtomicLong();
+    private final AtomicLong tickCount = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param tickMillis duration of a single tick
+     * @param wheelSize  amount of buckets (rounded up to power of two)
+     * @param executor   executor running expired tasks
+     */
+    public HashedTimerWheel(long tickMillis, int wheelSize, Executor executor) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        ArrayDeque<Timeout>[] buckets = new ArrayDeque[size];
+        this.wheel = buckets;
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.mask = size - 1;
+        this.executor = executor;
+        this.startNanos = System.nanoTime();
+        this.tickerThread = new Thread(this::runTicker, "pynk-timer-wheel");
+        this.tickerThread.setDaemon(true);
+        this.tickerThread.start();
+    }
+
+    /**
+     * Schedule task at the absolute deadline (System.nanoTime based)
+     *
+     * @param task
+     * @param deadlineNanos
+     * @return Timeout
+     */
+    public Timeout schedule(Runnable task, long deadlineNanos) {
+        Timeout timeout = new Timeout(task, deadlineNanos);
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stop the ticker thread, pending timeouts are dropped
+     */
+    public void stop() {
+        running = false;
+        tickerThread.interrupt();
+    }
+
+    /**
+     * Ticker loop
+     */
+    private void runTicker() {
+        while (running) {
+            long tickDeadline = startNanos + (tick + 1) * tickNanos;
+            long now = System.nanoTime();
+            while (now < tickDeadline) {
+                LockSupport.parkNanos(this, tickDeadline - now);
+                if (!running) {
+                    return;
+                }
+                now = System.nanoTime();
+            }
+            recordTickLag(now - tickDeadline);
+            transferPendingTimeouts();
+            expireBucket(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    /**
+     * Move newly scheduled timeouts into their buckets
+     */
+    private void transferPendingTimeouts() {
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long calculatedTick = Math.max(0, timeout.deadlineNanos - startNanos) / tickNanos;
+            timeout.remainingRounds = (calculatedTick - tick) / wheel.length;
+            long targetTick = Math.max(calculatedTick, tick); // deadlines already in the past fire now
+            wheel[(int) (targetTick & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Dispatch expired timeouts of the bucket
+     *
+     * @param bucket
+     */
+    private void expireBucket(ArrayDeque<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.cancelled) {
+                iterator.remove();
+            } else if (timeout.remainingRounds <= 0) {
+                iterator.remove();
+                try {
+                    executor.execute(timeout.task);
+                } catch (Exception e) {
+                    // executor is shutting down - timeout is dropped
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    /**
+     * Record lag of the current tick
+     *
+     * @param lagNanos
+     */
+    private void recordTickLag(long lagNanos) {
+        lastTickLagNanos = lagNanos;
+        if (lagNanos > maxTickLagNanos) {
+            maxTickLagNanos = lagNanos;
+        }
+        tickLagSumNanos.addAndGet(lagNanos);
+        tickCount.incrementAndGet();
+    }
+
+    /**
+     * Get tick duration
+     *
+     * @return long
+     */
+    public long getTickMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(tickNanos);
+    }
+
+    /**
+     * Get lag of the last tick
+     *
+     * @return double milliseconds
+     */
+    public double getLastTickLagMillis() {
+        return lastTickLagNanos / 1_000_000.0;
+    }
+
+    /**
+     * Get max lag of all ticks
+     *
+     * @return double milliseconds
+     */
+    public double getMaxTickLagMillis() {
+        return maxTickLagNanos / 1_000_000.0;
+    }
+
+    /**
+     * Get average lag of all ticks
+     *
+     * @return double milliseconds
+     */
+    public double getAverageTickLagMillis() {
+        long ticks = tickCount.get();
+        return ticks == 0 ? 0 : tickLagSumNanos.get() / (double) ticks / 1_000_000.0;
+    }
+
+    /**
+     * Single timeout scheduled in the wheel
+     */
+    public static class Timeout {
+        final Runnable task;
+        final long deadlineNanos;
+        long remainingRounds; // accessed only by the ticker thread
+        volatile boolean cancelled;
+
+        Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Cancel the timeout, it is removed lazily by the ticker
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Get deadline of the timeout
+         *
+         * @return long System.nanoTime based
+         */
+        public long getDeadlineNanos() {
+            return deadlineNanos;
+        }
+    }
+}
@@ -0,0 +1,542 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.scheduler_engine;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import com.jakubwawak.entity.Host;
+import com.jakubwawak.maintanance.ConsoleColors;
+import com.jakubwawak.metrics_engine.LatencyHistogram;
+
+/**
+ * Scheduler owning the probe schedule of every host - all hosts share a small
+ * pool of carrier threads instead of having a dedicated thread each. Deadlines
+ * are kept by a hashed timer wheel, every host gets a deterministic start phase
+ * inside its interval so probes are spread evenly instead of firing in bursts
+ */
+public class ProbeScheduler {
+
+    /**
+     * Job executed for every probe of a host, completes with classification of
+     * the stored ping data (null when nothing was measured). Jobs waiting for
+     * in-process probes return before the probe ends and finish on the
+     * executor
+     */
+    public interface ProbeJob {
+        CompletableFuture<String> run(Host host, Executor executor) throws Exception;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final HashedTimerWheel timerWheel;
+    private final ConcurrentHashMap<String, HostTask> tasks = new ConcurrentHashMap<>();
+    private final ProbeJob probeJob;
+    private final AdaptiveIntervalPolicy intervalPolicy;
+    private final BooleanSupplier overloaded;
+    private volatile boolean shutdown;
+
+    // intervals are not tightened while probes are skipped or wait for carriers/permits
+    static final long SATURATION_HOLD_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private volatile long lastSkipNanos = System.nanoTime() - SATURATION_HOLD_NANOS;
+    private final AtomicLong heldIntervals = new AtomicLong();
+
+    // probe start lag statistics (time between deadline and probe start on a carrier thread)
+    private volatile long maxStartLagNanos;
+    private final AtomicLong startLagSumNanos = new AtomicLong();
+    private final AtomicLong startedProbes = new AtomicLong();
+    private final AtomicLong skippedProbes = new AtomicLong();
+    private final AtomicInteger runningProbes = new AtomicInteger();
+    private final AtomicLong reportedSkippedProbes = new AtomicLong();
+    private final AtomicLong tightenedIntervals = new AtomicLong();
+    private final AtomicLong relaxedIntervals = new AtomicLong();
+    private final LatencyHistogram probeDurations = new LatencyHistogram();
+
+    /**
+     * Constructor
+     *
+     * @param carrierThreads amount of threads shared by all host tasks
+     * @param tickMillis     timer wheel tick duration
+     * @param wheelSize      timer wheel bucket count
+     * @param probeJob       job executed for every probe
+     * @param intervalPolicy interval of every host after its probe
+     */
+    public ProbeScheduler(int carrierThreads, long tickMillis, int wheelSize, ProbeJob probeJob,
+            AdaptiveIntervalPolicy intervalPolicy) {
+        this(carrierThreads, tickMillis, wheelSize, probeJob, intervalPolicy, () -> false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param carrierThreads amount of threads shared by all host tasks
+     * @param tickMillis     timer wheel tick duration
+     * @param wheelSize      timer wheel bucket count
+     * @param probeJob       job executed for every probe
+     * @param intervalPolicy interval of every host after its probe
+     * @param overloaded     true while probes wait for resources outside of the
+     *                       scheduler (subprocess permits)
+     */
+    public ProbeScheduler(int carrierThreads, long tickMillis, int wheelSize, ProbeJob probeJob,
+            AdaptiveIntervalPolicy intervalPolicy, BooleanSupplier overloaded) {
+        this.probeJob = probeJob;
+        this.intervalPolicy = intervalPolicy;
+        this.overloaded = overloaded;
+        int threads = Math.max(1, carrierThreads);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new CarrierThreadFactory());
+        this.timerWheel = new HashedTimerWheel(tickMillis, wheelSize, executor);
+    }
+
+    /**
+     * Start probing the host - does nothing when the host is already scheduled
+     *
+     * @param host
+     * @return true if new task was created
+     */
+    public boolean startHost(Host host) {
+        HostTask created = new HostTask(host);
+        HostTask existing = tasks.putIfAbsent(host.getHostKey(), created);
+        if (existing != null) {
+            existing.update(host);
+            return false;
+        }
+        created.arm(System.nanoTime() + phaseOffset(host.getHostKey(), created.intervalNanos()));
+        return true;
+    }
+
+    /**
+     * Update host data used by the next probes of already scheduled host
+     *
+     * @param host
+     */
+    public void updateHost(Host host) {
+        HostTask task = tasks.get(host.getHostKey());
+        if (task != null) {
+            task.update(host);
+        }
+    }
+
+    /**
+     * Stop probing the host
+     *
+     * @param hostKey
+     * @return true if task existed and was cancelled
+     */
+    public boolean stopHost(String hostKey) {
+        HostTask task = tasks.remove(hostKey);
+        if (task == null) {
+            return false;
+        }
+        task.cancel();
+        return true;
+    }
+
+    /**
+     * Check if host is scheduled
+     *
+     * @param hostKey
+     * @return boolean
+     */
+    public boolean isScheduled(String hostKey) {
+        return tasks.containsKey(hostKey);
+    }
+
+    /**
+     * Get keys of all scheduled hosts
+     *
+     * @return Set<String>
+     */
+    public Set<String> getHostKeys() {
+        return Set.copyOf(tasks.keySet());
+    }
+
+    /**
+     * Get amount of live host tasks
+     *
+     * @return int
+     */
+    public int getLiveTaskCount() {
+        return tasks.size();
+    }
+
+    /**
+     * Get amount of probes running right now
+     *
+     * @return int
+     */
+    public int getRunningProbeCount() {
+        return runningProbes.get();
+    }
+
+    /**
+     * Get amount of probes waiting for a free carrier thread
+     *
+     * @return int
+     */
+    public int getQueuedProbeCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Get the timer wheel (tick lag statistics)
+     *
+     * @return HashedTimerWheel
+     */
+    public HashedTimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    /**
+     * Get max delay between probe deadline and probe start
+     *
+     * @return double milliseconds
+     */
+    public double getMaxStartLagMillis() {
+        return maxStartLagNanos / 1_000_000.0;
+    }
+
+    /**
+     * Get average delay between probe deadline and probe start
+     *
+     * @return double milliseconds
+     */
+    public double getAverageStartLagMillis() {
+        long started = startedProbes.get();
+        return started == 0 ? 0 : startLagSumNanos.get() / (double) started / 1_000_000.0;
+    }
+
+    /**
+     * Get histogram of probe job durations (probe, storage and logging)
+     *
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getProbeDurations() {
+        return probeDurations;
+    }
+
+    /**
+     * Get amount of probes skipped because previous probe of the host was still running
+     *
+     * @return long
+     */
+    public long getSkippedProbeCount() {
+        return skippedProbes.get();
+    }
+
+    /**
+     * Check if probe demand is over the capacity - probes were skipped in the
+     * last minute, wait for a carrier thread or for a subprocess permit
+     *
+     * @return boolean
+     */
+    public boolean isSaturated() {
+        return System.nanoTime() - lastSkipNanos < SATURATION_HOLD_NANOS || getQueuedProbeCount() > 0
+                || overloaded.getAsBoolean();
+    }
+
+    /**
+     * Get amount of interval tightenings held back because the scheduler was
+     * saturated
+     *
+     * @return long
+     */
+    public long getHeldIntervalCount() {
+        return heldIntervals.get();
+    }
+
+    /**
+     * Get warning about probes skipped since the previous call - probes are
+     * skipped when a host probe outlasts its interval or the carriers fell
+     * behind the schedule
+     *
+     * @return String or null when nothing was skipped
+     */
+    public String takeSkippedWarning() {
+        long skipped = skippedProbes.get();
+        long previous = reportedSkippedProbes.getAndSet(skipped);
+        if (skipped <= previous) {
+            return null;
+        }
+        return String.format("%d probes skipped since the last report (running: %d, queued: %d) - probe demand "
+                + "is over the capacity, raise subprocessBudget/subprocessQuotaPing or the host intervals",
+                skipped - previous, getRunningProbeCount(), getQueuedProbeCount());
+    }
+
+    /**
+     * Get current probe interval of the host
+     *
+     * @param hostKey
+     * @return long milliseconds, -1 if host is not scheduled
+     */
+    public long getIntervalMillis(String hostKey) {
+        HostTask task = tasks.get(hostKey);
+        return task == null ? -1 : task.intervalMillis;
+    }
+
+    /**
+     * Get amount of probes per minute at the current intervals of all hosts
+     *
+     * @return double
+     */
+    public double getProbeRatePerMinute() {
+        double rate = 0;
+        for (HostTask task : tasks.values()) {
+            rate += 60_000.0 / task.intervalMillis;
+        }
+        return rate;
+    }
+
+    /**
+     * Get short schedule statistics for logging
+     *
+     * @return String
+     */
+    public String getStatistics() {
+        int tightened = 0;
+        int relaxed = 0;
+        for (HostTask task : tasks.values()) {
+            long base = intervalPolicy.baseInterval(task.host);
+            if (task.intervalMillis < base) {
+                tightened++;
+            } else if (task.intervalMillis > base) {
+                relaxed++;
+            }
+        }
+        return String.format("tasks: %d, running: %d, queued: %d, tick lag last/avg/max: %.1f/%.1f/%.1f ms, "
+                + "start lag avg/max: %.1f/%.1f ms, skipped: %d, probes/min: %.1f, "
+                + "hosts tightened/relaxed: %d/%d, interval changes tighten/relax/held: %d/%d/%d",
+                getLiveTaskCount(), getRunningProbeCount(), getQueuedProbeCount(),
+                timerWheel.getLastTickLagMillis(), timerWheel.getAverageTickLagMillis(),
+                timerWheel.getMaxTickLagMillis(), getAverageStartLagMillis(), getMaxStartLagMillis(),
+                getSkippedProbeCount(), getProbeRatePerMinute(), tightened, relaxed, tightenedIntervals.get(),
+                relaxedIntervals.get(), heldIntervals.get());
+    }
+
+    /**
+     * Stop all host tasks and the carrier threads
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (String hostKey : getHostKeys()) {
+            stopHost(hostKey);
+        }
+        timerWheel.stop();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Deterministic start phase of the host inside its interval
+     *
+     * @param hostKey
+     * @param intervalNanos
+     * @return long nanoseconds
+     */
+    static long phaseOffset(String hostKey, long intervalNanos) {
+        // murmur3 finalizer - spreads similar keys (sequential ids) across the interval
+        long hash = hostKey.hashCode();
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return Math.floorMod(hash, Math.max(1, intervalNanos));
+    }
+
+    /**
+     * Schedule of a single host
+     */
+    private class HostTask {
+        volatile Host host;
+        volatile boolean cancelled;
+        volatile HashedTimerWheel.Timeout timeout; // guarded by this for re-arming
+        volatile long intervalMillis; // current adaptive interval
+        int successStreak; // guarded by this
+        long armed; // generation of the live timeout, guarded by this
+        final AtomicBoolean probeRunning = new AtomicBoolean();
+
+        HostTask(Host host) {
+            this.host = host;
+            this.intervalMillis = intervalPolicy.baseInterval(host);
+        }
+
+        long intervalNanos() {
+            return TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        }
+
+        /**
+         * Use new host data - changed job time restarts from the base interval,
+         * changed bounds keep the interval inside them
+         *
+         * @param updated
+         */
+        synchronized void update(Host updated) {
+            Host previous = host;
+            host = updated;
+            if (previous.getHostJobTime() != updated.getHostJobTime()) {
+                intervalMillis = intervalPolicy.baseInterval(updated);
+                successStreak = 0;
+            } else {
+                intervalMillis = intervalPolicy.clamp(intervalMillis, updated);
+            }
+        }
+
+        /**
+         * Called by the timer wheel on deadline - re-arms the next deadline
+         * before the probe runs so probe duration never shifts the schedule
+         *
+         * @param generation generation of the expired timeout
+         */
+        void fire(long generation) {
+            if (cancelled) {
+                return;
+            }
+            long deadline;
+            long now = System.nanoTime();
+            synchronized (this) {
+                if (generation != armed) {
+                    return; // timeout replaced by a tightened interval after it was dispatched
+                }
+                deadline = timeout.getDeadlineNanos();
+                long interval = intervalNanos();
+                long next = deadline + interval;
+                if (next <= now) {
+                    // schedule fell behind - skip the missed slots and keep the phase
+                    long missed = (now - next) / interval + 1;
+                    next += missed * interval;
+                    skippedProbes.addAndGet(missed);
+                    lastSkipNanos = now;
+                }
+                arm(next);
+            }
+
+            if (!probeRunning.compareAndSet(false, true)) {
+                skippedProbes.incrementAndGet();
+                lastSkipNanos = now;
+                return;
+            }
+            recordStartLag(now - deadline);
+            runningProbes.incrementAndGet();
+            Host currentHost = host;
+            long start = System.nanoTime();
+            CompletableFuture<String> result;
+            try {
+                result = probeJob.run(currentHost, executor);
+            } catch (Exception e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+            // carrier thread is free while the probe waits, the task ends with the job
+            result.whenComplete((status, error) -> {
+                try {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause()
+                                : error;
+                        System.out.println(ConsoleColors.RED_BOLD + "Error in probe task for host "
+                                + currentHost.getHostName() + ": " + cause.getMessage() + ConsoleColors.RESET);
+                    } else {
+                        adapt(currentHost, status, deadline);
+                    }
+                } finally {
+                    probeDurations.record(System.nanoTime() - start);
+                    runningProbes.decrementAndGet();
+                    probeRunning.set(false);
+                }
+            });
+        }
+
+        /**
+         * Change the interval by the probe classification - tightened interval
+         * moves the already armed deadline closer. Intervals are not tightened
+         * while the scheduler is saturated, more probes of failing hosts would
+         * only skip probes of the others
+         *
+         * @param probedHost
+         * @param status
+         * @param deadline   deadline of the probe
+         */
+        synchronized void adapt(Host probedHost, String status, long deadline) {
+            if (status == null || probedHost != host) {
+                return; // nothing measured or host changed during the probe
+            }
+            successStreak = AdaptiveIntervalPolicy.STATUS_SUCCESS.equals(status) ? successStreak + 1 : 0;
+            long current = intervalMillis;
+            long next = intervalPolicy.nextInterval(probedHost, current, status, successStreak);
+            if (next == current) {
+                return;
+            }
+            if (next < current && isSaturated()) {
+                heldIntervals.incrementAndGet();
+                return;
+            }
+            intervalMillis = next;
+            if (next > current) {
+                relaxedIntervals.incrementAndGet(); // used when the armed deadline expires
+                return;
+            }
+            tightenedIntervals.incrementAndGet();
+            long sooner = deadline + intervalNanos();
+            HashedTimerWheel.Timeout scheduled = timeout;
+            if (scheduled != null && sooner < scheduled.getDeadlineNanos()) {
+                scheduled.cancel();
+                arm(Math.max(System.nanoTime(), sooner));
+            }
+        }
+
+        synchronized void arm(long deadlineNanos) {
+            if (cancelled || shutdown) {
+                return;
+            }
+            long generation = ++armed;
+            timeout = timerWheel.schedule(() -> fire(generation), deadlineNanos);
+        }
+
+        void cancel() {
+            cancelled = true;
+            HashedTimerWheel.Timeout scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.cancel();
+            }
+        }
+    }
+
+    /**
+     * Record delay between deadline and probe start
+     *
+     * @param lagNanos
+     */
+    private void recordStartLag(long lagNanos) {
+        if (lagNanos > maxStartLagNanos) {
+            maxStartLagNanos = lagNanos;
+        }
+        startLagSumNanos.addAndGet(lagNanos);
+        startedProbes.incrementAndGet();
+    }
+
+    /**
+     * Thread factory for the probe carrier threads
+     */
+    private static class CarrierThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "pynk-probe-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.spool_engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Durable append-only queue of byte records on memory-mapped segment files.
+ * Record layout: length (int), crc32 of the payload (int), payload - length is
+ * written last, so a record torn by a crash ends the segment on restart. Read
+ * position (segment, offset) is kept in the cursor file, segments before it
+ * are deleted. Segments are flushed to disk after every append (always), at
+ * most once per interval (interval) or by the OS only (never)
+ */
+public class SegmentSpool {
+
+    public static final String FSYNC_ALWAYS = "always";
+    public static final String FSYNC_INTERVAL = "interval";
+    public static final String FSYNC_NEVER = "never";
+
+    static final String SEGMENT_PREFIX = "spool-";
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String CURSOR_FILE = "spool.cursor";
+    static final int RECORD_HEADER_BYTES = 8;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final String fsyncPolicy;
+    private final long fsyncIntervalMillis;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final MappedByteBuffer cursor;
+    private Segment writeSegment;
+    private long readSequence;
+    private int readOffset;
+    private long pendingRecords;
+    private boolean dirty;
+    private long lastForceMillis;
+
+    // statistics
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong appendedBytes = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong corrupted = new AtomicLong();
+    private final AtomicLong forces = new AtomicLong();
+
+    /**
+     * Constructor - opens existing segments and continues after the cursor
+     *
+     * @param directory
+     * @param segmentBytes        size of a single segment file
+     * @param maxBytes            max size of all segments, appends are rejected
+     *                            when reached
+     * @param fsyncPolicy         always, interval or never
+     * @param fsyncIntervalMillis max time appended record waits for flush
+     *                            (interval)
+     * @throws IOException when the directory or segments could not be opened
+     */
+    public SegmentSpool(Path directory, int segmentBytes, long maxBytes, String fsyncPolicy,
+            long fsyncIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = Math.max(64 * 1024, segmentBytes);
+        this.maxSegments = (int) Math.max(2, Math.min(Integer.MAX_VALUE, maxBytes / this.segmentBytes));
+        this.fsyncPolicy = FSYNC_ALWAYS.equalsIgnoreCase(fsyncPolicy) ? FSYNC_ALWAYS
+                : FSYNC_NEVER.equalsIgnoreCase(fsyncPolicy) ? FSYNC_NEVER : FSYNC_INTERVAL;
+        this.fsyncIntervalMillis = Math.max(1, fsyncIntervalMillis);
+        Files.createDirectories(directory);
+        this.cursor = map(directory.resolve(CURSOR_FILE), 2 * Long.BYTES);
+        open();
+    }
+
+    /**
+     * Open segments left by the previous run
+     *
+     * @throws IOException
+     */
+    private void open() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long sequence = Long.parseLong(
+                        name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(sequence, new Segment(sequence, file, map(file, segmentBytes)));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected segment file in " + directory + " (" + e.getMessage() + ")");
+        }
+        readSequence = cursor.getLong(0);
+        readOffset = (int) cursor.getLong(Long.BYTES);
+        if (segments.isEmpty() || !segments.containsKey(readSequence)) {
+            readSequence = segments.isEmpty() ? 1 : segments.firstKey(); // cursor lost, replay everything kept
+            readOffset = 0;
+        }
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment.sequence < readSequence) {
+                delete(segment); // consumed before the cursor was advanced
+                continue;
+            }
+            segment.writeOffset = scan(segment, segment.sequence == readSequence ? readOffset : 0);
+        }
+        if (segments.isEmpty()) {
+            writeSegment = createSegment(readSequence);
+        } else {
+            writeSegment = segments.lastEntry().getValue();
+        }
+        storeCursor();
+    }
+
+    /**
+     * Find end of the valid records of the segment, records after the start
+     * are counted as pending
+     *
+     * @param segment
+     * @param start
+     * @return int write offset
+     */
+    private int scan(Segment segment, int start) {
+        int offset = 0;
+        while (true) {
+            int length = recordLength(segment, offset);
+            if (length <= 0) {
+                return offset;
+            }
+            if (!validRecord(segment, offset, length)) {
+                corrupted.incrementAndGet(); // torn write, records after it were never acknowledged
+                return offset;
+            }
+            if (offset >= start) {
+                pendingRecords++;
+            }
+            offset += RECORD_HEADER_BYTES + length;
+        }
+    }
+
+    /**
+     * Append record
+     *
+     * @param payload
+     * @return true if record was stored, false if it is larger than a segment
+     *         or the spool is full
+     * @throws IOException when a new segment could not be created
+     */
+    public synchronized boolean append(byte[] payload) throws IOException {
+        int size = RECORD_HEADER_BYTES + payload.length;
+        if (payload.length == 0 || size > segmentBytes) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        if (writeSegment.writeOffset + size > segmentBytes) {
+            if (segments.size() >= maxSegments) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (!FSYNC_NEVER.equals(fsyncPolicy)) {
+                force(writeSegment);
+            }
+            writeSegment = createSegment(writeSegment.sequence + 1);
+        }
+        int offset = writeSegment.writeOffset;
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        MappedByteBuffer buffer = writeSegment.buffer;
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        ByteBuffer target = buffer.duplicate();
+        target.position(offset + RECORD_HEADER_BYTES);
+        target.put(payload);
+        buffer.putInt(offset, payload.length); // publish
+        writeSegment.writeOffset = offset + size;
+        pendingRecords++;
+        appended.incrementAndGet();
+        appendedBytes.addAndGet(size);
+        if (FSYNC_ALWAYS.equals(fsyncPolicy)) {
+            force(writeSegment);
+        } else {
+            dirty = true;
+            if (FSYNC_INTERVAL.equals(fsyncPolicy)
+                    && System.currentTimeMillis() - lastForceMillis >= fsyncIntervalMillis) {
+                sync();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the oldest records without removing them
+     *
+     * @param maxRecords
+     * @return Batch, empty when nothing is pending
+     */
+    public synchronized Batch read(int maxRecords) {
+        List<byte[]> records = new ArrayList<>();
+        long sequence = readSequence;
+        int offset = readOffset;
+        while (records.size() < maxRecords) {
+            Segment segment = segments.get(sequence);
+            if (segment == null) {
+                break;
+            }
+            int length = offset < segment.writeOffset ? recordLength(segment, offset) : 0;
+            if (length <= 0) {
+                Map.Entry<Long, Segment> next = segments.higherEntry(sequence);
+                if (next == null) {
+                    break; // reached the write position
+                }
+                sequence = next.getKey();
+                offset = 0;
+                continue;
+            }
+            byte[] payload = new byte[length];
+            ByteBuffer source = segment.buffer.duplicate();
+            source.position(offset + RECORD_HEADER_BYTES);
+            source.get(payload);
+            records.add(payload);
+            offset += RECORD_HEADER_BYTES + length;
+        }
+        return new Batch(records, sequence, offset);
+    }
+
+    /**
+     * Remove records of the batch - cursor is moved after them and consumed
+     * segments are deleted
+     *
+     * @param batch
+     */
+    public synchronized void commit(Batch batch) {
+        if (batch.records.isEmpty()) {
+            return;
+        }
+        readSequence = batch.sequence;
+        readOffset = batch.offset;
+        pendingRecords = Math.max(0, pendingRecords - batch.records.size());
+        committed.addAndGet(batch.records.size());
+        storeCursor();
+        for (Segment segment : new ArrayList<>(segments.headMap(readSequence).values())) {
+            delete(segment);
+        }
+        if (pendingRecords == 0 && readOffset == writeSegment.writeOffset && writeSegment.writeOffset > 0) {
+            // drained - start over in a fresh segment instead of growing the current one
+            Segment drained = writeSegment;
+            try {
+                writeSegment = createSegment(drained.sequence + 1);
+                readSequence = writeSegment.sequence;
+                readOffset = 0;
+                storeCursor();
+                delete(drained);
+            } catch (IOException e) {
+                writeSegment = drained; // keep appending to the current segment
+            }
+        }
+    }
+
+    /**
+     * Flush appended records and the cursor to disk (interval policy)
+     */
+    public synchronized void sync() {
+        if (dirty) {
+            for (Segment segment : segments.values()) {
+                force(segment);
+            }
+            cursor.force();
+            dirty = false;
+        }
+        lastForceMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Flush and release the segments
+     */
+    public synchronized void close() {
+        if (!FSYNC_NEVER.equals(fsyncPolicy)) {
+            dirty = true;
+            sync();
+        }
+        segments.clear();
+    }
+
+    /**
+     * Store read position in the cursor file
+     */
+    private void storeCursor() {
+        cursor.putLong(0, readSequence);
+        cursor.putLong(Long.BYTES, readOffset);
+        if (FSYNC_ALWAYS.equals(fsyncPolicy)) {
+            cursor.force();
+        } else {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Create and map new segment file
+     *
+     * @param sequence
+     * @return Segment
+     * @throws IOException
+     */
+    private Segment createSegment(long sequence) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        Segment segment = new Segment(sequence, file, map(file, segmentBytes));
+        segments.put(sequence, segment);
+        return segment;
+    }
+
+    /**
+     * Delete consumed segment
+     *
+     * @param segment
+     */
+    private void delete(Segment segment) {
+        segments.remove(segment.sequence);
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            System.out.println("Spool: failed to delete " + segment.file + " (" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Flush segment to disk
+     *
+     * @param segment
+     */
+    private void force(Segment segment) {
+        segment.buffer.force();
+        forces.incrementAndGet();
+    }
+
+    /**
+     * Get length of the record at the offset
+     *
+     * @param segment
+     * @param offset
+     * @return int 0 if there is no record
+     */
+    private int recordLength(Segment segment, int offset) {
+        if (offset + RECORD_HEADER_BYTES > segmentBytes) {
+            return 0;
+        }
+        int length = segment.buffer.getInt(offset);
+        return length > 0 && offset + RECORD_HEADER_BYTES + length <= segmentBytes ? length : 0;
+    }
+
+    /**
+     * Check crc32 of the record
+     *
+     * @param segment
+     * @param offset
+     * @param length
+     * @return boolean
+     */
+    private static boolean validRecord(Segment segment, int offset, int length) {
+        ByteBuffer payload = segment.buffer.duplicate();
+        payload.position(offset + RECORD_HEADER_BYTES).limit(offset + RECORD_HEADER_BYTES + length);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == segment.buffer.getInt(offset + 4);
+    }
+
+    /**
+     * Map file with the given size, file is created or extended when needed
+     *
+     * @param file
+     * @param size
+     * @return MappedByteBuffer
+     * @throws IOException
+     */
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size); // mapping stays valid after close
+        }
+    }
+
+    /**
+     * Get amount of records waiting for replay
+     *
+     * @return long
+     */
+    public synchronized long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    /**
+     * Get size of the segment files
+     *
+     * @return long bytes
+     */
+    public synchronized long getSizeBytes() {
+        return (long) segments.size() * segmentBytes;
+    }
+
+    /**
+     * Get amount of records rejected because the spool was full
+     *
+     * @return long
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Get short spool statistics for logging
+     *
+     * @return String
+     */
+    public synchronized String getStatistics() {
+        return String.format("pending: %d, segments: %d (%.1f MB), appended: %d (%.1f MB), committed: %d, "
+                + "rejected: %d, torn records: %d, fsync: %s (%d)", pendingRecords, segments.size(),
+                getSizeBytes() / 1048576.0, appended.get(), appendedBytes.get() / 1048576.0, committed.get(),
+                rejected.get(), corrupted.get(), fsyncPolicy, forces.get());
+    }
+
+    /**
+     * Records read from the spool with the position after them
+     */
+    public static class Batch {
+        public final List<byte[]> records;
+        final long sequence;
+        final int offset;
+
+        Batch(List<byte[]> records, long sequence, int offset) {
+            this.records = records;
+            this.sequence = sequence;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Mapped segment file
+     */
+    private static class Segment {
+        final long sequence;
+        final Path file;
+        final MappedByteBuffer buffer;
+        int writeOffset;
+
+        Segment(long sequence, Path file, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
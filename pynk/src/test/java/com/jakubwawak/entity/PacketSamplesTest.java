@@ -0,0 +1,144 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.entity;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+/**
+ * PacketSamples bitmap handling and document / sqlite round trips
+ */
+class PacketSamplesTest {
+
+    @Test
+    void packetsStayAbsentUntilSet() {
+        PacketSamples samples = new PacketSamples(3);
+        assertEquals(3, samples.size());
+        assertEquals(0, samples.presentCount());
+        assertFalse(samples.allPresent());
+        assertEquals(-1, samples.get(0));
+
+        samples.set(0, 12.345);
+        samples.set(1, 0);
+        samples.set(2, 7.5);
+        assertTrue(samples.allPresent());
+        assertEquals(12.345, samples.get(0));
+        assertEquals(0, samples.get(1));
+
+        samples.set(1, -1);
+        assertFalse(samples.isPresent(1));
+        assertEquals(-1, samples.get(1));
+        assertEquals(2, samples.presentCount());
+        assertFalse(new PacketSamples(0).allPresent());
+    }
+
+    @Test
+    void outOfRangeSlotsAreIgnoredOrGrow() {
+        PacketSamples samples = new PacketSamples(2);
+        samples.set(-1, 5);
+        assertEquals(0, samples.presentCount());
+        assertFalse(samples.isPresent(-1));
+        assertEquals(-1, samples.get(5));
+
+        samples.set(69, 1.5);
+        assertEquals(70, samples.size());
+        assertTrue(samples.isPresent(69));
+        assertFalse(samples.isPresent(68));
+        assertFalse(samples.isPresent(5)); // same bit in the first word
+        assertEquals(1, samples.presentCount());
+    }
+
+    @Test
+    void resizeKeepsPresentPacketsAndAddsAbsentOnes() {
+        PacketSamples samples = new PacketSamples(4);
+        samples.set(0, 1);
+        samples.set(3, 4);
+        samples.resize(100);
+        assertEquals(2, samples.presentCount());
+        assertTrue(samples.isPresent(3));
+        assertFalse(samples.isPresent(64));
+
+        samples.resize(2);
+        assertEquals(2, samples.size());
+        assertEquals(1, samples.presentCount());
+        assertEquals(1, samples.get(0));
+        samples.resize(4);
+        assertFalse(samples.isPresent(3));
+    }
+
+    @Test
+    void documentRoundTripKeepsLostPackets() {
+        PacketSamples samples = new PacketSamples(10);
+        for (int slot = 0; slot < 10; slot++) {
+            samples.set(slot, slot == 4 ? -1 : slot * 1.25);
+        }
+        Document document = samples.appendTo(new Document());
+        assertEquals(10, document.size());
+        assertEquals(-1.0, document.get("packet_hop_time5"));
+
+        PacketSamples read = PacketSamples.fromDocument(document);
+        assertEquals(10, read.size());
+        assertEquals(9, read.presentCount());
+        for (int slot = 0; slot < 10; slot++) {
+            assertEquals(samples.get(slot), read.get(slot));
+        }
+    }
+
+    @Test
+    void shortProbeStillWritesEightFields() {
+        PacketSamples samples = new PacketSamples(2);
+        samples.set(0, 3.5);
+        Document document = samples.appendTo(new Document());
+        assertEquals(PacketSamples.DEFAULT_PACKETS, document.size());
+
+        PacketSamples read = PacketSamples.fromDocument(document);
+        assertEquals(PacketSamples.DEFAULT_PACKETS, read.size());
+        assertEquals(3.5, read.get(0));
+        assertEquals(1, read.presentCount());
+    }
+
+    @Test
+    void sqliteRoundTripUsesEightColumns() throws Exception {
+        PacketSamples samples = new PacketSamples(PacketSamples.DEFAULT_PACKETS);
+        for (int slot = 0; slot < PacketSamples.DEFAULT_PACKETS; slot++) {
+            samples.set(slot, slot % 3 == 0 ? -1 : 10.125 + slot);
+        }
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            StringBuilder columns = new StringBuilder("id INTEGER");
+            for (int slot = 1; slot <= PacketSamples.DEFAULT_PACKETS; slot++) {
+                columns.append(", ").append(PacketSamples.FIELD_PREFIX).append(slot).append(" REAL");
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE samples (" + columns + ")");
+            }
+            try (PreparedStatement insert = connection
+                    .prepareStatement("INSERT INTO samples VALUES (?,?,?,?,?,?,?,?,?)")) {
+                insert.setInt(1, 1);
+                samples.bind(insert, 2);
+                insert.executeUpdate();
+            }
+            try (Statement statement = connection.createStatement();
+                    ResultSet resultSet = statement.executeQuery("SELECT * FROM samples")) {
+                assertTrue(resultSet.next());
+                PacketSamples read = PacketSamples.fromResultSet(resultSet);
+                assertEquals(samples.presentCount(), read.presentCount());
+                for (int slot = 0; slot < PacketSamples.DEFAULT_PACKETS; slot++) {
+                    assertEquals(samples.get(slot), read.get(slot));
+                }
+            }
+        }
+    }
+}
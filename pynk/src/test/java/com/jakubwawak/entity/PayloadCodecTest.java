@@ -0,0 +1,109 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.entity;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.bson.types.Binary;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * PayloadCodec round trips and decoding of corrupt stored binaries
+ */
+class PayloadCodecTest {
+
+    static final String TRACEROUTE = "traceroute to dns.google (8.8.8.8), 30 hops max, 60 byte packets\n"
+            + " 1  _gateway (192.168.1.1)  0.512 ms  0.471 ms  0.455 ms\n"
+            + " 2  10.20.0.1 (10.20.0.1)  3.874 ms  3.861 ms  3.902 ms\n"
+            + " 3  * * *\n"
+            + " 4  dns.google (8.8.8.8)  9.871 ms  9.854 ms  9.902 ms - \u017C\u00F3\u0142w\n";
+
+    @AfterEach
+    void tearDown() {
+        PayloadCodec.configure(PayloadCodec.MODE_PLAIN);
+    }
+
+    @Test
+    void plainModeKeepsText() {
+        PayloadCodec.configure(PayloadCodec.MODE_PLAIN);
+        assertSame(TRACEROUTE, PayloadCodec.encode(TRACEROUTE));
+        assertNull(PayloadCodec.encode(null));
+    }
+
+    @Test
+    void compressedModeRoundTrip() {
+        PayloadCodec.configure(PayloadCodec.MODE_COMPRESSED);
+        Object stored = PayloadCodec.encode(TRACEROUTE);
+
+        assertTrue(stored instanceof Binary);
+        assertTrue(PayloadCodec.storedSize(stored) < PayloadCodec.storedSize(TRACEROUTE));
+        assertEquals(TRACEROUTE, PayloadCodec.decode(stored));
+        assertEquals("short", PayloadCodec.encode("short")); // under the compressed length
+    }
+
+    @Test
+    void unknownModeIsPlainAndLeanOmitsSuccess() {
+        PayloadCodec.configure("zstd");
+        assertEquals(PayloadCodec.MODE_PLAIN, PayloadCodec.getMode());
+        PayloadCodec.configure(" LEAN ");
+        assertTrue(PayloadCodec.omitRawPing("Success"));
+        assertFalse(PayloadCodec.omitRawPing("Partial loss"));
+    }
+
+    @Test
+    void rejectsNegativeAndOversizedLength() {
+        assertNull(PayloadCodec.decode(withLength(compressed(), -1)));
+        assertNull(PayloadCodec.decode(withLength(compressed(), Integer.MAX_VALUE)));
+        assertNull(PayloadCodec.decode(withLength(compressed(), PayloadCodec.MAX_PAYLOAD_LENGTH + 1)));
+        // larger than the data could inflate to
+        assertNull(PayloadCodec.decode(withLength(compressed(), 10_000_000)));
+    }
+
+    @Test
+    void rejectsLengthNotMatchingData() {
+        byte[] data = compressed();
+        int length = TRACEROUTE.getBytes(StandardCharsets.UTF_8).length;
+        assertNull(PayloadCodec.decode(withLength(data, length + 1)));
+        assertNull(PayloadCodec.decode(withLength(data, length - 1)));
+        assertEquals(TRACEROUTE, PayloadCodec.decode(withLength(data, length)));
+    }
+
+    @Test
+    void rejectsTruncatedAndForeignBinaries() {
+        byte[] data = compressed();
+        assertNull(PayloadCodec.decode(new Binary(PayloadCodec.SUBTYPE, Arrays.copyOf(data, data.length / 2))));
+        assertNull(PayloadCodec.decode(new Binary(PayloadCodec.SUBTYPE, Arrays.copyOf(data, 4))));
+        assertNull(PayloadCodec.decode(new Binary((byte) 0, data)));
+        byte[] format = data.clone();
+        format[0] = 9;
+        assertNull(PayloadCodec.decode(new Binary(PayloadCodec.SUBTYPE, format)));
+        byte[] garbage = data.clone();
+        Arrays.fill(garbage, 5, garbage.length, (byte) 0x5A);
+        assertNull(PayloadCodec.decode(new Binary(PayloadCodec.SUBTYPE, garbage)));
+        assertNull(PayloadCodec.decode(42));
+    }
+
+    private static byte[] compressed() {
+        return PayloadCodec.compress(TRACEROUTE).getData();
+    }
+
+    private static Binary withLength(byte[] data, int length) {
+        byte[] copy = data.clone();
+        copy[1] = (byte) (length >>> 24);
+        copy[2] = (byte) (length >>> 16);
+        copy[3] = (byte) (length >>> 8);
+        copy[4] = (byte) length;
+        return new Binary(PayloadCodec.SUBTYPE, copy);
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.host_engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.jakubwawak.entity.Host;
+
+/**
+ * HostRegistry snapshot versions and change notifications
+ */
+class HostRegistryTest {
+
+    private HostRegistry registry;
+    private List<String> events;
+
+    @BeforeEach
+    void setUp() {
+        registry = new HostRegistry();
+        events = new ArrayList<>();
+        registry.addListener(new HostRegistryListener() {
+            @Override
+            public void hostAdded(Host host) {
+                events.add("added " + host.getHostKey());
+            }
+
+            @Override
+            public void hostUpdated(Host previous, Host current) {
+                events.add("updated " + current.getHostKey() + " " + previous.getHostJobTime() + "->"
+                        + current.getHostJobTime());
+            }
+
+            @Override
+            public void hostRemoved(Host host) {
+                events.add("removed " + host.getHostKey());
+            }
+        });
+    }
+
+    @Test
+    void publishDiffsAgainstCurrentSnapshot() {
+        assertEquals(2, registry.publish(List.of(host(1, 60000), host(2, 60000))));
+        assertEquals(1, registry.getVersion());
+        assertEquals(List.of("added 1", "added 2"), events);
+
+        events.clear();
+        assertEquals(4, registry.publish(List.of(host(2, 30000), host(3, 60000), host(4, 60000))));
+        assertEquals(2, registry.getVersion());
+        assertEquals(List.of("removed 1", "updated 2 60000->30000", "added 3", "added 4"), events);
+        assertNull(registry.get("1"));
+        assertEquals(30000, registry.get("2").getHostJobTime());
+    }
+
+    @Test
+    void sameConfigurationKeepsVersionAndTakesFreshObjects() {
+        registry.publish(List.of(host(1, 60000)));
+        events.clear();
+        Host fresh = host(1, 60000);
+
+        assertEquals(0, registry.publish(List.of(fresh)));
+        assertEquals(1, registry.getVersion());
+        assertEquals(List.of(), events);
+        assertSame(fresh, registry.get("1"));
+    }
+
+    @Test
+    void incrementalChangesTouchOnlyGivenHosts() {
+        registry.publish(List.of(host(1, 60000), host(2, 60000)));
+        events.clear();
+
+        assertEquals(1, registry.publishChanges(List.of(host(3, 10000)), List.of("9")));
+        assertEquals(3, registry.getSnapshot().size());
+        assertEquals(1, registry.publishChanges(List.of(), List.of("1", "missing")));
+        assertEquals(List.of("added 3", "removed 1"), events);
+        assertEquals(3, registry.getVersion());
+    }
+
+    @Test
+    void publishedSnapshotsAreImmutable() {
+        registry.publish(List.of(host(1, 60000)));
+        HostSnapshot before = registry.getSnapshot();
+        registry.publish(List.of(host(2, 60000)));
+
+        assertEquals(1, before.size());
+        assertEquals(1, before.getVersion());
+        assertEquals(60000, before.get("1").getHostJobTime());
+        assertThrows(UnsupportedOperationException.class, () -> before.asMap().clear());
+    }
+
+    @Test
+    void failingListenerDoesNotStopOthers() {
+        HostRegistry failing = new HostRegistry();
+        List<String> seen = new ArrayList<>();
+        failing.addListener(new HostRegistryListener() {
+            @Override
+            public void hostAdded(Host host) {
+                throw new IllegalStateException("listener failure");
+            }
+
+            @Override
+            public void hostUpdated(Host previous, Host current) {
+            }
+
+            @Override
+            public void hostRemoved(Host host) {
+            }
+        });
+        failing.addListener(new HostRegistryListener() {
+            @Override
+            public void hostAdded(Host host) {
+                seen.add(host.getHostKey());
+            }
+
+            @Override
+            public void hostUpdated(Host previous, Host current) {
+            }
+
+            @Override
+            public void hostRemoved(Host host) {
+            }
+        });
+
+        assertEquals(1, failing.publish(List.of(host(5, 60000))));
+        assertEquals(List.of("5"), seen);
+        assertEquals(1, failing.getVersion());
+    }
+
+    private static Host host(int id, int jobTime) {
+        return new Host(id, "host" + id, "10.0.0." + id, "lan", "", "active", jobTime);
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.log_engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * LogRingBuffer ordering, overwriting and consistency of concurrently read
+ * records
+ */
+class LogRingBufferTest {
+
+    @Test
+    void keepsMostRecentOldestFirst() {
+        LogRingBuffer buffer = new LogRingBuffer(5);
+        assertEquals(8, buffer.getCapacity());
+        for (int i = 0; i < 20; i++) {
+            buffer.record("cat", "message " + i, LogLevel.INFO);
+        }
+
+        List<String> recent = buffer.recent(3);
+        assertEquals(3, recent.size());
+        assertTrue(recent.get(0).endsWith("message 17"));
+        assertTrue(recent.get(2).endsWith("message 19"));
+        assertEquals(8, buffer.recent(100).size());
+        assertEquals(20, buffer.getTotalCount());
+    }
+
+    @Test
+    void filtersByLevel() {
+        LogRingBuffer buffer = new LogRingBuffer(16);
+        buffer.record("a", "debug", LogLevel.DEBUG);
+        buffer.record("b", "warn", LogLevel.WARN);
+        buffer.record("c", "info", LogLevel.INFO);
+        buffer.record("d", "error", LogLevel.ERROR);
+
+        List<String> warnings = buffer.recent(10, LogLevel.WARN);
+        assertEquals(2, warnings.size());
+        assertTrue(warnings.get(0).startsWith("b(") && warnings.get(0).contains(" - WARN - warn"));
+        assertTrue(warnings.get(1).startsWith("d(") && warnings.get(1).contains(" - ERROR - error"));
+    }
+
+    @Test
+    void concurrentReadersSeeWholeRecords() throws InterruptedException {
+        LogRingBuffer buffer = new LogRingBuffer(8); // small, writers lap each other
+        AtomicBoolean running = new AtomicBoolean(true);
+        ConcurrentLinkedQueue<String> broken = new ConcurrentLinkedQueue<>();
+        CountDownLatch writersDone = new CountDownLatch(4);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            LogLevel level = LogLevel.values()[w];
+            String category = "writer" + w;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 200_000; i++) {
+                    buffer.record(category, category + "-" + i, level);
+                }
+                writersDone.countDown();
+            }));
+        }
+        for (int r = 0; r < 2; r++) {
+            threads.add(new Thread(() -> {
+                while (running.get()) {
+                    for (String entry : buffer.recent(8)) {
+                        // category, level and message of one record belong together
+                        String category = entry.substring(0, entry.indexOf('('));
+                        LogLevel level = LogLevel.values()[category.charAt(category.length() - 1) - '0'];
+                        if (!entry.contains(" - " + level + " - " + category + "-")) {
+                            broken.add(entry);
+                        }
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        writersDone.await();
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(broken.isEmpty(), "mixed records: " + broken.peek());
+        assertEquals(800_000, buffer.getTotalCount());
+        assertEquals(8, buffer.recent(8).size());
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.metrics_engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.jakubwawak.entity.PingData;
+
+/**
+ * Prometheus text rendering of MetricsRegistry and LatencyHistogram
+ */
+class MetricsRegistryTest {
+
+    @Test
+    void histogramBucketsAreCumulative() {
+        LatencyHistogram histogram = new LatencyHistogram(new double[] { 1, 10 });
+        histogram.recordMillis(0.5);
+        histogram.recordMillis(5);
+        histogram.recordMillis(5);
+        histogram.recordMillis(20);
+        StringBuilder out = new StringBuilder();
+        histogram.render(out, "pynk_test_seconds", MetricsRegistry.label("host", "a"));
+
+        assertEquals(List.of(
+                "pynk_test_seconds_bucket{host=\"a\",le=\"0.001\"} 1",
+                "pynk_test_seconds_bucket{host=\"a\",le=\"0.01\"} 3",
+                "pynk_test_seconds_bucket{host=\"a\",le=\"+Inf\"} 4",
+                "pynk_test_seconds_sum{host=\"a\"} 0.0305",
+                "pynk_test_seconds_count{host=\"a\"} 4"), out.toString().lines().toList());
+    }
+
+    @Test
+    void histogramWithoutLabels() {
+        LatencyHistogram histogram = new LatencyHistogram(new double[] { 1 });
+        StringBuilder out = new StringBuilder();
+        histogram.render(out, "pynk_empty_seconds", "");
+
+        assertEquals(List.of(
+                "pynk_empty_seconds_bucket{le=\"0.001\"} 0",
+                "pynk_empty_seconds_bucket{le=\"+Inf\"} 0",
+                "pynk_empty_seconds_sum 0",
+                "pynk_empty_seconds_count 0"), out.toString().lines().toList());
+    }
+
+    @Test
+    void counterTypeLineUsesTotalName() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("jobs", "Finished jobs", MetricsRegistry.label("kind", "ping"), () -> 3);
+        registry.gauge("queue", "Queued jobs", "", () -> 1.5);
+        String rendered = registry.render();
+
+        assertTrue(rendered.contains("# HELP pynk_jobs_total Finished jobs\n# TYPE pynk_jobs_total counter\n"
+                + "pynk_jobs_total{kind=\"ping\"} 3\n"), rendered);
+        assertTrue(rendered.contains("# TYPE pynk_queue gauge\npynk_queue 1.5\n"), rendered);
+        assertTrue(rendered.contains("# TYPE pynk_metrics_scrapes_total counter\npynk_metrics_scrapes_total 1\n"),
+                rendered);
+    }
+
+    @Test
+    void everySampleBelongsToItsTypeLine() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("jobs", "Finished jobs", "", () -> 1);
+        registry.histogram("job_seconds", "Job duration", "", new LatencyHistogram());
+        PingData pingData = new PingData();
+        pingData.packetStatusCode = "Success";
+        registry.recordProbe("host", pingData);
+
+        String family = null;
+        for (String line : registry.render().lines().toList()) {
+            if (line.startsWith("# TYPE ")) {
+                family = line.split(" ")[2];
+            } else if (!line.startsWith("#")) {
+                String name = line.split("[{ ]")[0];
+                assertTrue(name.equals(family) || name.equals(family + "_bucket") || name.equals(family + "_sum")
+                        || name.equals(family + "_count"), line + " under " + family);
+            }
+        }
+    }
+
+    @Test
+    void labelValuesAreEscaped() {
+        assertEquals("host=\"a\\\"b\\\\c\\nd\"", MetricsRegistry.label("host", "a\"b\\c\nd"));
+
+        MetricsRegistry registry = new MetricsRegistry();
+        PingData pingData = new PingData();
+        pingData.packetStatusCode = "odd \"status\"";
+        registry.recordProbe("host", pingData);
+        assertTrue(registry.render().contains("pynk_probes_total{status=\"odd \\\"status\\\"\"} 1\n"));
+    }
+}
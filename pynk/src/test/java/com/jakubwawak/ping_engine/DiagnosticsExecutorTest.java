@@ -0,0 +1,64 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Per-target deduplication and the shared outage window of DiagnosticsExecutor
+ */
+class DiagnosticsExecutorTest {
+
+    private DiagnosticsExecutor diagnostics;
+
+    @AfterEach
+    void tearDown() {
+        diagnostics.shutdown(1000);
+    }
+
+    @Test
+    void targetsShareDiagnosticsDuringOutage() throws Exception {
+        diagnostics = create(2);
+        diagnostics.submit("a.invalid");
+        CompletableFuture<DiagnosticsExecutor.DiagnosticsResult> last = diagnostics.submit("b.invalid");
+        CompletableFuture<DiagnosticsExecutor.DiagnosticsResult> outage = diagnostics.submit("c.invalid");
+
+        DiagnosticsExecutor.DiagnosticsResult result = outage.get(30, TimeUnit.SECONDS);
+        assertEquals("c.invalid", result.target);
+        assertTrue(result.tracertData.startsWith("Diagnostics shared with b.invalid"), result.tracertData);
+        assertTrue(result.tracertData.endsWith(last.get().tracertData));
+        assertSame(outage, diagnostics.submit("c.invalid"));
+        assertTrue(diagnostics.getStatistics().contains("submitted: 2, deduplicated: 1, shared: 1"),
+                diagnostics.getStatistics());
+    }
+
+    @Test
+    void everyTargetIsDiagnosedWithoutOutageWindow() throws Exception {
+        diagnostics = create(0);
+        diagnostics.submit("a.invalid");
+        diagnostics.submit("b.invalid");
+        DiagnosticsExecutor.DiagnosticsResult result = diagnostics.submit("c.invalid").get(30, TimeUnit.SECONDS);
+
+        assertEquals("c.invalid", result.target);
+        assertTrue(result.tracertData.contains("Exit Code") || result.tracertData.startsWith("Traceroute failed"),
+                result.tracertData);
+        assertTrue(diagnostics.getStatistics().contains("submitted: 3, deduplicated: 0, shared: 0"),
+                diagnostics.getStatistics());
+    }
+
+    private static DiagnosticsExecutor create(int outageTargets) {
+        return new DiagnosticsExecutor(new ProbeProcessRunner(5000, 5000, 500, null), null, null, 2, 10, 60_000,
+                outageTargets, 60_000);
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.jakubwawak.entity.DnsResult;
+import com.jakubwawak.entity.PingData;
+
+/**
+ * DnsProbe against a local UDP DNS stub
+ */
+class DnsProbeTest {
+
+    private NioProbeReactor reactor;
+    private Stub stub;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        reactor = new NioProbeReactor(1000, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        reactor.shutdown(1000);
+        if (stub != null) {
+            stub.close();
+        }
+    }
+
+    @Test
+    void keepsRcodeAnswerAndLatency() throws Exception {
+        stub = new Stub(query -> {
+            pause(50);
+            return List.of(query.type == DnsMessage.TYPE_A
+                    ? response(query, 0, DnsMessage.TYPE_A, new byte[] { 93, (byte) 184, (byte) 216, 34 })
+                    : response(query, 3, 0, null));
+        });
+        PingData pingData = probe(DnsProbe.addressQueries(new PingData(), stub.address(), "example.com", 2, 0, 1000));
+
+        assertEquals(2, pingData.packetReceived);
+        DnsResult a = pingData.packetDnsResults.get(0);
+        assertEquals("A", a.queryType);
+        assertEquals("NOERROR", a.rcode);
+        assertEquals(1, a.answerCount);
+        assertEquals("93.184.216.34", a.answer);
+        assertTrue(a.timeMillis >= 50, "latency " + a.timeMillis);
+        DnsResult aaaa = pingData.packetDnsResults.get(1);
+        assertEquals("NXDOMAIN", aaaa.rcode);
+        assertEquals(0, aaaa.answerCount);
+        assertNull(aaaa.answer);
+    }
+
+    @Test
+    void ignoresTruncatedAndMalformedReplies() throws Exception {
+        stub = new Stub(query -> {
+            byte[] valid = response(query, 0, DnsMessage.TYPE_PTR, name("host.lan"));
+            byte[] badPointer = response(query, 0, DnsMessage.TYPE_PTR, new byte[] { (byte) 0xC3, (byte) 0xFF });
+            return List.of(Arrays.copyOf(valid, 6), Arrays.copyOf(valid, valid.length - 5), badPointer, valid);
+        });
+        PingData pingData = probe(DnsProbe.diagnostics(new PingData(), stub.address(), "192.168.1.10", 1000));
+
+        assertEquals(1, pingData.packetReceived);
+        DnsResult ptr = pingData.packetDnsResults.get(0);
+        assertEquals("10.1.168.192.in-addr.arpa", ptr.queryName);
+        assertEquals("NOERROR", ptr.rcode);
+        assertEquals("host.lan", ptr.answer);
+    }
+
+    @Test
+    void truncatedOnlyReplyTimesOut() throws Exception {
+        stub = new Stub(query -> List.of(Arrays.copyOf(response(query, 0, DnsMessage.TYPE_A,
+                new byte[] { 10, 0, 0, 1 }), 20)));
+        PingData pingData = probe(DnsProbe.addressQueries(new PingData(), stub.address(), "example.com", 1, 0, 300));
+
+        assertEquals(0, pingData.packetReceived);
+        assertEquals("TIMEOUT", pingData.packetDnsResults.get(0).rcode);
+        assertEquals(-1, pingData.packetDnsResults.get(0).timeMillis);
+    }
+
+    @Test
+    void abandonedProbeLeavesPingDataToCaller() throws Exception {
+        stub = new Stub(query -> {
+            pause(200);
+            return List.of(response(query, 0, DnsMessage.TYPE_A, new byte[] { 10, 0, 0, 1 }));
+        });
+        PingData pingData = new PingData();
+        DnsProbe probe = DnsProbe.addressQueries(pingData, stub.address(), "example.com", 1, 0, 1000);
+        CompletableFuture<PingData> result = reactor.submit(probe);
+
+        assertTrue(probe.abandon(new TimeoutException()));
+        ExecutionException error = assertThrows(ExecutionException.class, () -> result.get(1, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof TimeoutException);
+        pause(400); // reply arrives after the caller owns the ping data
+        assertEquals(0, pingData.packetReceived);
+        assertNull(pingData.packetDnsResults);
+    }
+
+    @Test
+    void completedProbeCannotBeAbandoned() throws Exception {
+        stub = new Stub(query -> List.of(response(query, 0, DnsMessage.TYPE_A, new byte[] { 10, 0, 0, 1 })));
+        DnsProbe probe = DnsProbe.addressQueries(new PingData(), stub.address(), "example.com", 1, 0, 1000);
+        PingData pingData = probe(probe);
+
+        assertFalse(probe.abandon(new TimeoutException()));
+        assertEquals(1, pingData.packetReceived);
+    }
+
+    @Test
+    void decodeRejectsPointerOutsideDatagram() {
+        Query query = new Query(7, "1.0.0.10.in-addr.arpa", DnsMessage.TYPE_PTR);
+        byte[] datagram = response(query, 0, DnsMessage.TYPE_PTR, new byte[] { (byte) 0xC0, (byte) 0xF0 });
+        assertNull(DnsMessage.decode(ByteBuffer.wrap(datagram), DnsMessage.TYPE_PTR));
+
+        DnsMessage.Response response = DnsMessage.decode(ByteBuffer.wrap(response(query, 0, DnsMessage.TYPE_PTR,
+                new byte[] { (byte) 0xC0, 12 })), DnsMessage.TYPE_PTR);
+        assertNotNull(response);
+        assertEquals(7, response.id);
+        assertEquals("1.0.0.10.in-addr.arpa", response.answer); // pointer to the question name
+    }
+
+    private PingData probe(DnsProbe probe) throws Exception {
+        return reactor.submit(probe).get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Build response to the query with a single answer (rdata null - no answer)
+     */
+    private static byte[] response(Query query, int rcode, int type, byte[] rdata) {
+        byte[] question = DnsMessage.encodeQuery(query.id, query.name, query.type).array();
+        int questionLength = DnsMessage.encodeQuery(query.id, query.name, query.type).remaining() - 12;
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        buffer.putShort((short) query.id);
+        buffer.putShort((short) (0x8180 | rcode));
+        buffer.putShort((short) 1);
+        buffer.putShort((short) (rdata != null ? 1 : 0));
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.put(question, 12, questionLength);
+        if (rdata != null) {
+            buffer.putShort((short) 0xC00C); // name of the question
+            buffer.putShort((short) type);
+            buffer.putShort((short) 1);
+            buffer.putInt(60);
+            buffer.putShort((short) rdata.length);
+            buffer.put(rdata);
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static byte[] name(String name) {
+        ByteBuffer buffer = ByteBuffer.allocate(name.length() + 2);
+        for (String label : name.split("\\.")) {
+            buffer.put((byte) label.length()).put(label.getBytes());
+        }
+        return buffer.put((byte) 0).array();
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Decoded query received by the stub
+     */
+    static class Query {
+        final int id;
+        final String name;
+        final int type;
+
+        Query(int id, String name, int type) {
+            this.id = id;
+            this.name = name;
+            this.type = type;
+        }
+
+        static Query parse(ByteBuffer buffer) {
+            int id = buffer.getShort(0) & 0xFFFF;
+            StringBuilder name = new StringBuilder();
+            int position = 12;
+            int length;
+            while ((length = buffer.get(position) & 0xFF) != 0) {
+                if (name.length() > 0) {
+                    name.append('.');
+                }
+                for (int i = 1; i <= length; i++) {
+                    name.append((char) buffer.get(position + i));
+                }
+                position += length + 1;
+            }
+            return new Query(id, name.toString(), buffer.getShort(position + 1) & 0xFFFF);
+        }
+    }
+
+    /**
+     * Local UDP DNS server answering every query with the datagrams of the
+     * responder, in order
+     */
+    static class Stub {
+        private final DatagramChannel channel;
+        private final Thread thread;
+
+        Stub(Function<Query, List<byte[]>> responder) throws IOException {
+            channel = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+            thread = new Thread(() -> {
+                ByteBuffer buffer = ByteBuffer.allocate(512);
+                try {
+                    while (true) {
+                        buffer.clear();
+                        SocketAddress client = channel.receive(buffer);
+                        buffer.flip();
+                        List<byte[]> replies = new ArrayList<>(responder.apply(Query.parse(buffer)));
+                        for (byte[] reply : replies) {
+                            channel.send(ByteBuffer.wrap(reply), client);
+                        }
+                    }
+                } catch (ClosedChannelException e) {
+                    // stopped
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, "dns-stub");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        InetSocketAddress address() throws IOException {
+            return (InetSocketAddress) channel.getLocalAddress();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+}
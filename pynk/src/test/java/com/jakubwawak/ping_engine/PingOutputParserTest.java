@@ -0,0 +1,200 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Test;
+
+import com.jakubwawak.entity.PingData;
+
+/**
+ * PingOutputParser on recorded Linux (iputils) and macOS ping outputs
+ */
+class PingOutputParserTest {
+
+    static final String LINUX_SUCCESS = "PING dns.google (8.8.8.8) 56(84) bytes of data.\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=1 ttl=117 time=10.4 ms\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=2 ttl=117 time=9.87 ms\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=3 ttl=117 time=10.1 ms\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=4 ttl=117 time=11.2 ms\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=5 ttl=117 time=9.95 ms\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=6 ttl=117 time=10.3 ms\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=7 ttl=117 time=10.0 ms\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=8 ttl=117 time=10.6 ms\n"
+            + "\n"
+            + "--- dns.google ping statistics ---\n"
+            + "8 packets transmitted, 8 received, 0% packet loss, time 7011ms\n"
+            + "rtt min/avg/max/mdev = 9.870/10.302/11.200/0.398 ms\n";
+
+    static final String LINUX_PARTIAL_LOSS = "PING 1.1.1.1 (1.1.1.1) 56(84) bytes of data.\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=1 ttl=57 time=14.2 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=2 ttl=57 time=13.9 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=4 ttl=57 time=15.1 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=5 ttl=57 time=14.0 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=6 ttl=57 time=13.8 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=8 ttl=57 time=14.4 ms\n"
+            + "\n"
+            + "--- 1.1.1.1 ping statistics ---\n"
+            + "8 packets transmitted, 6 received, 25% packet loss, time 7009ms\n"
+            + "rtt min/avg/max/mdev = 13.800/14.233/15.100/0.427 ms\n";
+
+    static final String LINUX_NO_RESPONSE = "PING 10.9.9.9 (10.9.9.9) 56(84) bytes of data.\n"
+            + "\n"
+            + "--- 10.9.9.9 ping statistics ---\n"
+            + "8 packets transmitted, 0 received, 100% packet loss, time 7168ms\n";
+
+    static final String MACOS_PARTIAL_LOSS = "PING 1.1.1.1 (1.1.1.1): 56 data bytes\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=0 ttl=57 time=14.203 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=1 ttl=57 time=13.912 ms\n"
+            + "Request timeout for icmp_seq 2\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=3 ttl=57 time=15.101 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=4 ttl=57 time=14.022 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=5 ttl=57 time=13.804 ms\n"
+            + "Request timeout for icmp_seq 6\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=7 ttl=57 time=14.389 ms\n"
+            + "\n"
+            + "--- 1.1.1.1 ping statistics ---\n"
+            + "8 packets transmitted, 6 packets received, 25.0% packet loss\n"
+            + "round-trip min/avg/max/stddev = 13.804/14.239/15.101/0.427 ms\n";
+
+    @Test
+    void parsesLinuxSuccess() throws IOException {
+        PingData pingData = parse(new PingOutputParser(1), new StringReader(LINUX_SUCCESS));
+
+        assertEquals(8, pingData.packetTransmitted);
+        assertEquals(8, pingData.packetReceived);
+        assertEquals(10.4, pingData.getPacketHopTime(0), 1e-4);
+        assertEquals(10.6, pingData.getPacketHopTime(7), 1e-4);
+        assertEquals(9.870, pingData.packetRoundTripTimeMin, 1e-9);
+        assertEquals(10.302, pingData.packetRoundTripTimeAvg, 1e-9);
+        assertEquals(11.200, pingData.packetRoundTripTimeMax, 1e-9);
+        assertEquals(LINUX_SUCCESS, pingData.packetRawPing);
+        pingData.setClassification();
+        assertEquals("Success", pingData.packetStatusCode);
+    }
+
+    @Test
+    void parsesLinuxPartialLoss() throws IOException {
+        PingData pingData = parse(new PingOutputParser(1), new StringReader(LINUX_PARTIAL_LOSS));
+
+        assertEquals(6, pingData.packetReceived);
+        assertFalse(pingData.packetTimes.isPresent(2));
+        assertFalse(pingData.packetTimes.isPresent(6));
+        assertEquals(15.1, pingData.getPacketHopTime(3), 1e-4);
+        pingData.setClassification();
+        assertEquals("Partial loss", pingData.packetStatusCode);
+    }
+
+    @Test
+    void parsesLinuxNoResponse() throws IOException {
+        PingData pingData = parse(new PingOutputParser(1), new StringReader(LINUX_NO_RESPONSE));
+
+        assertEquals(8, pingData.packetTransmitted);
+        assertEquals(0, pingData.packetReceived);
+        assertEquals(0, pingData.packetTimes.presentCount());
+        assertEquals(-1, pingData.packetRoundTripTimeAvg);
+        pingData.setClassification();
+        assertEquals("No response", pingData.packetStatusCode);
+    }
+
+    @Test
+    void parsesMacosNumberingFromZero() throws IOException {
+        PingData pingData = parse(new PingOutputParser(0), new StringReader(MACOS_PARTIAL_LOSS));
+
+        assertEquals(8, pingData.packetTransmitted);
+        assertEquals(6, pingData.packetReceived);
+        assertEquals(14.203, pingData.getPacketHopTime(0), 1e-4);
+        assertFalse(pingData.packetTimes.isPresent(2)); // timeout lines carry no time
+        assertFalse(pingData.packetTimes.isPresent(6));
+        assertEquals(14.389, pingData.getPacketHopTime(7), 1e-4);
+        assertEquals(13.804, pingData.packetRoundTripTimeMin, 1e-9);
+        assertEquals(14.239, pingData.packetRoundTripTimeAvg, 1e-9);
+        assertEquals(15.101, pingData.packetRoundTripTimeMax, 1e-9);
+    }
+
+    @Test
+    void parsesLinesSplitAcrossReads() throws IOException {
+        PingData pingData = parse(new PingOutputParser(1), new TrickleReader(LINUX_SUCCESS.replace("\n", "\r\n"), 7));
+
+        assertEquals(8, pingData.packetReceived);
+        assertTrue(pingData.packetTimes.allPresent());
+        assertEquals(9.87, pingData.getPacketHopTime(1), 1e-4);
+        assertEquals(11.200, pingData.packetRoundTripTimeMax, 1e-9);
+    }
+
+    @Test
+    void parsesLastLineWithoutNewline() throws IOException {
+        String output = LINUX_SUCCESS.substring(0, LINUX_SUCCESS.length() - 1);
+        PingData pingData = parse(new PingOutputParser(1), new StringReader(output));
+
+        assertEquals(10.302, pingData.packetRoundTripTimeAvg, 1e-9);
+        assertEquals(LINUX_SUCCESS, pingData.packetRawPing);
+    }
+
+    @Test
+    void ignoresMalformedValues() throws IOException {
+        String output = "64 bytes from 1.1.1.1: icmp_seq=x ttl=57 time=14.2 ms\n"
+                + "64 bytes from 1.1.1.1: icmp_seq=2 ttl=57 time=abc ms\n"
+                + "rtt min/avg/max/mdev = 13.800/oops\n";
+        PingData pingData = parse(new PingOutputParser(1), new StringReader(output));
+
+        assertEquals(0, pingData.packetTimes.presentCount());
+        assertEquals(-1, pingData.packetRoundTripTimeMin);
+    }
+
+    @Test
+    void reusedParserDoesNotLeakPreviousOutput() throws IOException {
+        PingOutputParser parser = new PingOutputParser(1);
+        parse(parser, new StringReader(LINUX_SUCCESS));
+        PingData pingData = parse(parser, new StringReader(LINUX_NO_RESPONSE));
+
+        assertEquals(LINUX_NO_RESPONSE, pingData.packetRawPing);
+        assertEquals(0, pingData.packetReceived);
+    }
+
+    private static PingData parse(PingOutputParser parser, Reader reader) throws IOException {
+        PingData pingData = new PingData();
+        pingData.setPacketCount(8);
+        parser.parse(reader, pingData);
+        return pingData;
+    }
+
+    /**
+     * Reader returning at most the chunk size per read, like a slow pipe
+     */
+    static class TrickleReader extends Reader {
+        private final String text;
+        private final int chunk;
+        private int position;
+
+        TrickleReader(String text, int chunk) {
+            this.text = text;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position >= text.length()) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, chunk), text.length() - position);
+            text.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.jupiter.api.Test;
+
+import com.jakubwawak.ping_engine.ProbeAdmissionController.Priority;
+import com.jakubwawak.ping_engine.ProbeAdmissionController.ProcessType;
+
+/**
+ * Budget, quotas, priority order and timeouts of ProbeAdmissionController
+ */
+class ProbeAdmissionControllerTest {
+
+    @Test
+    void scheduledProbesAreAdmittedBeforeDiagnostics() throws Exception {
+        ProbeAdmissionController admission = new ProbeAdmissionController(1, Map.of());
+        assertTrue(admission.acquire(ProcessType.PING, Priority.SCHEDULED, 0));
+
+        CompletableFuture<Boolean> diagnostics = admission.acquireAsync(ProcessType.DIG, Priority.DIAGNOSTICS, 5000);
+        CompletableFuture<Boolean> scheduled = admission.acquireAsync(ProcessType.PING, Priority.SCHEDULED, 5000);
+        assertEquals(2, admission.getWaitingCount());
+
+        admission.release(ProcessType.PING);
+        assertTrue(scheduled.get(1, TimeUnit.SECONDS)); // arrived later, higher priority
+        assertFalse(diagnostics.isDone());
+
+        admission.release(ProcessType.PING);
+        assertTrue(diagnostics.get(1, TimeUnit.SECONDS));
+        assertEquals(1, admission.getRunningCount());
+        assertEquals(0, admission.getWaitingCount());
+    }
+
+    @Test
+    void waiterOverQuotaDoesNotBlockOtherTypes() throws Exception {
+        ProbeAdmissionController admission = new ProbeAdmissionController(2, Map.of(ProcessType.PING, 1));
+        assertTrue(admission.acquire(ProcessType.PING, Priority.SCHEDULED, 0));
+
+        CompletableFuture<Boolean> ping = admission.acquireAsync(ProcessType.PING, Priority.SCHEDULED, 5000);
+        assertTrue(admission.acquire(ProcessType.TRACEROUTE, Priority.DIAGNOSTICS, 1000));
+        assertFalse(ping.isDone());
+        assertEquals(2, admission.getRunningCount());
+
+        admission.release(ProcessType.TRACEROUTE);
+        assertFalse(ping.isDone()); // free budget, ping quota still taken
+        admission.release(ProcessType.PING);
+        assertTrue(ping.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void timeoutReturnsFalseAndCountsRejection() throws Exception {
+        ProbeAdmissionController admission = new ProbeAdmissionController(1, Map.of());
+        assertTrue(admission.acquire(ProcessType.PING, Priority.SCHEDULED, 0));
+
+        long start = System.nanoTime();
+        assertFalse(admission.acquire(ProcessType.DIG, Priority.DIAGNOSTICS, 100));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90);
+        assertFalse(admission.acquireAsync(ProcessType.PING, Priority.SCHEDULED, 100).get(1, TimeUnit.SECONDS));
+
+        assertEquals(0, admission.getWaitingCount());
+        assertEquals(1, admission.getRejectedCount(Priority.DIAGNOSTICS));
+        assertEquals(1, admission.getRejectedCount(Priority.SCHEDULED));
+        assertEquals(1, admission.getWaitHistogram(Priority.DIAGNOSTICS).getCount());
+    }
+
+    @Test
+    void permitGrantedWithInterruptIsReturned() throws Exception {
+        ProbeAdmissionController admission = new ProbeAdmissionController(1, Map.of());
+        assertTrue(admission.acquire(ProcessType.PING, Priority.SCHEDULED, 0));
+        AtomicReference<Throwable> outcome = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                outcome.set(admission.acquire(ProcessType.DIG, Priority.DIAGNOSTICS, 10000)
+                        ? new AssertionError("admitted")
+                        : new AssertionError("timed out"));
+            } catch (InterruptedException e) {
+                outcome.set(e);
+            }
+        });
+        waiter.start();
+        while (admission.getWaitingCount() == 0) {
+            Thread.sleep(1);
+        }
+
+        // interrupt arrives first, the permit is granted before the waiter gets the lock back
+        ReentrantLock lock = lock(admission);
+        lock.lock();
+        try {
+            waiter.interrupt();
+            while (!lock.hasQueuedThread(waiter)) {
+                Thread.sleep(1);
+            }
+            admission.release(ProcessType.PING);
+        } finally {
+            lock.unlock();
+        }
+        waiter.join(5000);
+
+        assertTrue(outcome.get() instanceof InterruptedException, String.valueOf(outcome.get()));
+        assertEquals(0, admission.getRunningCount());
+        assertTrue(admission.acquire(ProcessType.PING, Priority.SCHEDULED, 0));
+    }
+
+    @Test
+    void permitOfCancelledAsyncWaiterIsReturned() throws Exception {
+        ProbeAdmissionController admission = new ProbeAdmissionController(1, Map.of());
+        assertTrue(admission.acquire(ProcessType.PING, Priority.SCHEDULED, 0));
+        CompletableFuture<Boolean> cancelled = admission.acquireAsync(ProcessType.PING, Priority.SCHEDULED, 5000);
+        cancelled.cancel(false);
+
+        admission.release(ProcessType.PING);
+        assertEquals(0, admission.getRunningCount());
+        assertEquals(0, admission.getWaitingCount());
+    }
+
+    private static ReentrantLock lock(ProbeAdmissionController admission) throws Exception {
+        Field field = ProbeAdmissionController.class.getDeclaredField("lock");
+        field.setAccessible(true);
+        return (ReentrantLock) field.get(admission);
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.ping_engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Asynchronous process execution of ProbeProcessRunner
+ */
+class ProbeProcessRunnerTest {
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "test-carrier"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void outputIsConsumedOnExecutorAfterExit() throws Exception {
+        ProbeProcessRunner runner = new ProbeProcessRunner(5000, 5000, 500, null);
+        StringBuilder output = new StringBuilder();
+        String[] consumer = new String[1];
+
+        ProbeProcessRunner.ProbeResult result = runner.runAsync(ProbeAdmissionController.ProcessType.PING,
+                ProbeAdmissionController.Priority.SCHEDULED,
+                remaining -> List.of("sh", "-c", "printf 'line 1\\nline 2\\n'; exit 3"), 5000, reader -> {
+                    consumer[0] = Thread.currentThread().getName();
+                    int read;
+                    while ((read = reader.read()) != -1) {
+                        output.append((char) read);
+                    }
+                }, executor).get(5, TimeUnit.SECONDS);
+
+        assertEquals("line 1\nline 2\n", output.toString());
+        assertEquals(3, result.exitCode);
+        assertFalse(result.timedOut);
+        assertEquals("test-carrier", consumer[0]);
+    }
+
+    @Test
+    void callerReturnsBeforeProcessEndsAndDeadlineKeepsOutput() throws Exception {
+        ProbeProcessRunner runner = new ProbeProcessRunner(1000, 1000, 200, null);
+        StringBuilder output = new StringBuilder();
+        long start = System.nanoTime();
+        CompletableFuture<ProbeProcessRunner.ProbeResult> future = runner.runAsync(
+                ProbeAdmissionController.ProcessType.PING, ProbeAdmissionController.Priority.SCHEDULED,
+                remaining -> List.of("sh", "-c", "echo partial; exec sleep 30"), 1000, reader -> {
+                    int read;
+                    while ((read = reader.read()) != -1) {
+                        output.append((char) read);
+                    }
+                }, executor);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+        assertFalse(future.isDone());
+
+        ProbeProcessRunner.ProbeResult result = future.get(5, TimeUnit.SECONDS);
+        assertTrue(result.timedOut);
+        assertTrue(result.elapsedMillis < 3000, "elapsed " + result.elapsedMillis);
+        assertEquals("partial\n", output.toString()); // output before the deadline survives the kill
+    }
+
+    @Test
+    void probeOverBudgetIsNotAdmittedAndPermitIsReturned() throws Exception {
+        ProbeAdmissionController admission = new ProbeAdmissionController(1, Map.of());
+        ProbeProcessRunner runner = new ProbeProcessRunner(1000, 1000, 200, admission);
+        assertTrue(admission.acquire(ProbeAdmissionController.ProcessType.DIG,
+                ProbeAdmissionController.Priority.DIAGNOSTICS, 0));
+
+        ProbeProcessRunner.ProbeResult skipped = runner.runAsync(ProbeAdmissionController.ProcessType.PING,
+                ProbeAdmissionController.Priority.SCHEDULED, remaining -> List.of("true"), 200, reader -> {
+                }, executor).get(5, TimeUnit.SECONDS);
+        assertTrue(skipped.notAdmitted);
+        assertTrue(skipped.admissionWaitMillis >= 150, "waited " + skipped.admissionWaitMillis);
+
+        admission.release(ProbeAdmissionController.ProcessType.DIG);
+        ProbeProcessRunner.ProbeResult admitted = runner.runAsync(ProbeAdmissionController.ProcessType.PING,
+                ProbeAdmissionController.Priority.SCHEDULED, remaining -> List.of("true"), 1000, reader -> {
+                }, executor).get(5, TimeUnit.SECONDS);
+        assertFalse(admitted.notAdmitted);
+        assertEquals(0, admitted.exitCode);
+        assertTrue(admission.getStatistics().startsWith("running: 0/1"), admission.getStatistics());
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.scheduler_engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * HashedTimerWheel expiry and cancellation
+ */
+class HashedTimerWheelTest {
+
+    private HashedTimerWheel wheel;
+
+    @AfterEach
+    void tearDown() {
+        wheel.stop();
+    }
+
+    @Test
+    void firesNotBeforeDeadline() throws InterruptedException {
+        wheel = new HashedTimerWheel(5, 64, Runnable::run);
+        AtomicLong firedNanos = new AtomicLong();
+        CountDownLatch fired = new CountDownLatch(1);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+        wheel.schedule(() -> {
+            firedNanos.set(System.nanoTime());
+            fired.countDown();
+        }, deadline);
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(firedNanos.get() >= deadline, "fired " + (deadline - firedNanos.get()) + " ns early");
+    }
+
+    @Test
+    void firesDeadlinesBeyondOneRotation() throws InterruptedException {
+        wheel = new HashedTimerWheel(5, 4, Runnable::run); // one rotation is 20 ms
+        AtomicLong firedNanos = new AtomicLong();
+        CountDownLatch fired = new CountDownLatch(1);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(120);
+        wheel.schedule(() -> {
+            firedNanos.set(System.nanoTime());
+            fired.countDown();
+        }, deadline);
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(firedNanos.get() >= deadline, "fired " + (deadline - firedNanos.get()) + " ns early");
+    }
+
+    @Test
+    void firesPastDeadlinesOnNextTick() throws InterruptedException {
+        wheel = new HashedTimerWheel(5, 64, Runnable::run);
+        CountDownLatch fired = new CountDownLatch(1);
+        wheel.schedule(fired::countDown, System.nanoTime() - TimeUnit.SECONDS.toNanos(10));
+
+        assertTrue(fired.await(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void cancelledTimeoutDoesNotFire() throws InterruptedException {
+        wheel = new HashedTimerWheel(5, 64, Runnable::run);
+        List<String> fired = new CopyOnWriteArrayList<>();
+        CountDownLatch last = new CountDownLatch(1);
+        long now = System.nanoTime();
+        HashedTimerWheel.Timeout pending = wheel.schedule(() -> fired.add("pending"), now);
+        pending.cancel(); // before it reached its bucket
+        HashedTimerWheel.Timeout bucketed = wheel.schedule(() -> fired.add("bucketed"),
+                now + TimeUnit.MILLISECONDS.toNanos(60));
+        Thread.sleep(20);
+        bucketed.cancel(); // already in its bucket
+        wheel.schedule(() -> {
+            fired.add("last");
+            last.countDown();
+        }, now + TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertTrue(last.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of("last"), fired);
+    }
+
+    @Test
+    void firesInDeadlineOrder() throws InterruptedException {
+        wheel = new HashedTimerWheel(5, 8, Runnable::run);
+        List<Integer> fired = new CopyOnWriteArrayList<>();
+        CountDownLatch all = new CountDownLatch(5);
+        long now = System.nanoTime();
+        for (int i : new int[] { 4, 0, 3, 1, 2 }) {
+            wheel.schedule(() -> {
+                fired.add(i);
+                all.countDown();
+            }, now + TimeUnit.MILLISECONDS.toNanos(20 + i * 25L));
+        }
+
+        assertTrue(all.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of(0, 1, 2, 3, 4), fired);
+        assertFalse(wheel.getMaxTickLagMillis() < 0);
+    }
+}
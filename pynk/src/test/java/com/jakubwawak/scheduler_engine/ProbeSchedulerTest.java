@@ -0,0 +1,75 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.scheduler_engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.jakubwawak.entity.Host;
+
+/**
+ * ProbeScheduler interval adaptation and the saturation guard
+ */
+class ProbeSchedulerTest {
+
+    private ProbeScheduler scheduler;
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void noResponseTightensInterval() throws InterruptedException {
+        CountDownLatch probed = new CountDownLatch(1);
+        scheduler = create(probed, new AtomicBoolean(false));
+        scheduler.startHost(host());
+
+        assertTrue(probed.await(5, TimeUnit.SECONDS));
+        waitForAdapt();
+        assertEquals(1000, scheduler.getIntervalMillis("1"));
+        assertEquals(0, scheduler.getHeldIntervalCount());
+    }
+
+    @Test
+    void saturatedSchedulerHoldsInterval() throws InterruptedException {
+        CountDownLatch probed = new CountDownLatch(1);
+        scheduler = create(probed, new AtomicBoolean(true));
+        scheduler.startHost(host());
+
+        assertTrue(probed.await(5, TimeUnit.SECONDS));
+        waitForAdapt();
+        assertTrue(scheduler.isSaturated());
+        assertEquals(2000, scheduler.getIntervalMillis("1"));
+        assertEquals(1, scheduler.getHeldIntervalCount());
+    }
+
+    private void waitForAdapt() throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (scheduler.getRunningProbeCount() > 0 && System.nanoTime() < end) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static ProbeScheduler create(CountDownLatch probed, AtomicBoolean overloaded) {
+        return new ProbeScheduler(1, 5, 64, (host, executor) -> {
+            probed.countDown();
+            return CompletableFuture.completedFuture(AdaptiveIntervalPolicy.STATUS_NO_RESPONSE);
+        }, new AdaptiveIntervalPolicy(true, 2, 2, 1), overloaded::get);
+    }
+
+    private static Host host() {
+        return new Host(1, "host1", "10.0.0.1", "lan", "", "active", 2000);
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.spool_engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * SegmentSpool cursor handling, segment rollover and recovery of torn records
+ */
+class SegmentSpoolTest {
+
+    static final int SEGMENT_BYTES = 64 * 1024;
+    static final int PAYLOAD_BYTES = 100;
+    static final int RECORD_BYTES = SegmentSpool.RECORD_HEADER_BYTES + PAYLOAD_BYTES;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsInOrderAndCommitRemoves() throws IOException {
+        SegmentSpool spool = open();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(spool.append(record(i)));
+        }
+        SegmentSpool.Batch batch = spool.read(3);
+        assertRecords(batch, 0, 1, 2);
+        assertEquals(5, spool.getPendingRecords());
+        assertRecords(spool.read(3), 0, 1, 2); // read does not remove
+        spool.commit(batch);
+        assertEquals(2, spool.getPendingRecords());
+        assertRecords(spool.read(10), 3, 4);
+        spool.close();
+    }
+
+    @Test
+    void reopenContinuesAfterCursor() throws IOException {
+        SegmentSpool spool = open();
+        for (int i = 0; i < 5; i++) {
+            spool.append(record(i));
+        }
+        spool.commit(spool.read(2));
+        spool.read(2); // read but not committed - replayed again after restart
+        spool.close();
+
+        SegmentSpool reopened = open();
+        assertEquals(3, reopened.getPendingRecords());
+        assertRecords(reopened.read(10), 2, 3, 4);
+        reopened.append(record(5));
+        assertRecords(reopened.read(10), 2, 3, 4, 5);
+        reopened.close();
+    }
+
+    @Test
+    void tornRecordEndsSegmentOnRestart() throws IOException {
+        SegmentSpool spool = open();
+        for (int i = 0; i < 3; i++) {
+            spool.append(record(i));
+        }
+        spool.close();
+        Path segment = segments().get(0);
+        // payload of the last record only partly reached the disk
+        write(segment, 2 * RECORD_BYTES + SegmentSpool.RECORD_HEADER_BYTES + 10, new byte[] { 0x7F, 0x7F });
+
+        SegmentSpool reopened = open();
+        assertEquals(2, reopened.getPendingRecords());
+        assertTrue(reopened.getStatistics().contains("torn records: 1"));
+        assertRecords(reopened.read(10), 0, 1);
+        reopened.append(record(3)); // overwrites the torn record
+        assertRecords(reopened.read(10), 0, 1, 3);
+        reopened.close();
+    }
+
+    @Test
+    void lengthWithoutPayloadIsIgnored() throws IOException {
+        SegmentSpool spool = open();
+        spool.append(record(0));
+        spool.close();
+        // crash after the length of the next record was written, before its crc and payload
+        write(segments().get(0), RECORD_BYTES, ByteBuffer.allocate(4).putInt(PAYLOAD_BYTES).array());
+
+        SegmentSpool reopened = open();
+        assertEquals(1, reopened.getPendingRecords());
+        assertRecords(reopened.read(10), 0);
+        reopened.close();
+    }
+
+    @Test
+    void lostCursorReplaysKeptSegments() throws IOException {
+        SegmentSpool spool = open();
+        for (int i = 0; i < 4; i++) {
+            spool.append(record(i));
+        }
+        spool.commit(spool.read(1));
+        spool.close();
+        Files.delete(directory.resolve(SegmentSpool.CURSOR_FILE));
+
+        SegmentSpool reopened = open();
+        assertEquals(4, reopened.getPendingRecords()); // duplicates are preferred over loss
+        assertRecords(reopened.read(10), 0, 1, 2, 3);
+        reopened.close();
+    }
+
+    @Test
+    void rollsOverAndDeletesConsumedSegments() throws IOException {
+        SegmentSpool spool = open();
+        int count = 3 * SEGMENT_BYTES / RECORD_BYTES;
+        for (int i = 0; i < count; i++) {
+            assertTrue(spool.append(record(i)));
+        }
+        assertTrue(segments().size() >= 3);
+        int read = 0;
+        while (true) {
+            SegmentSpool.Batch batch = spool.read(250);
+            if (batch.records.isEmpty()) {
+                break;
+            }
+            for (byte[] payload : batch.records) {
+                assertArrayEquals(record(read++), payload);
+            }
+            spool.commit(batch);
+        }
+        assertEquals(count, read);
+        assertEquals(0, spool.getPendingRecords());
+        assertEquals(1, segments().size()); // drained into a fresh segment
+        spool.close();
+
+        SegmentSpool reopened = open();
+        assertEquals(0, reopened.getPendingRecords());
+        assertTrue(reopened.read(10).records.isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    void rejectsWhenFullOrOversized() throws IOException {
+        SegmentSpool spool = new SegmentSpool(directory, SEGMENT_BYTES, 2L * SEGMENT_BYTES, SegmentSpool.FSYNC_NEVER,
+                1000);
+        assertFalse(spool.append(new byte[SEGMENT_BYTES]));
+        assertFalse(spool.append(new byte[0]));
+        int stored = 0;
+        while (spool.append(record(stored))) {
+            stored++;
+        }
+        assertEquals(2 * (SEGMENT_BYTES / RECORD_BYTES), stored);
+        assertEquals(3, spool.getRejectedCount());
+        spool.commit(spool.read(stored));
+        assertTrue(spool.append(record(0))); // space is released by commit
+        spool.close();
+    }
+
+    private SegmentSpool open() throws IOException {
+        return new SegmentSpool(directory, SEGMENT_BYTES, 16L * SEGMENT_BYTES, SegmentSpool.FSYNC_ALWAYS, 1000);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(SegmentSpool.SEGMENT_SUFFIX)).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static void write(Path file, int position, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), position);
+        }
+    }
+
+    private static byte[] record(int index) {
+        byte[] payload = new byte[PAYLOAD_BYTES];
+        Arrays.fill(payload, (byte) ' ');
+        byte[] text = ("record-" + index).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(text, 0, payload, 0, text.length);
+        return payload;
+    }
+
+    private static void assertRecords(SegmentSpool.Batch batch, int... indexes) {
+        assertEquals(indexes.length, batch.records.size());
+        for (int i = 0; i < indexes.length; i++) {
+            assertArrayEquals(record(indexes[i]), batch.records.get(i));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.pynk_bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+
+/**
+ * Compare JMH json results (-rf json -prof gc) with the stored baseline -
+ * prints time and allocation per operation of every benchmark and exits with
+ * 1 when any of them is over the baseline by more than the tolerance. Time is
+ * a regression only when the 99.9% confidence interval of the new run lies
+ * entirely above the interval of the baseline
+ *
+ * usage: BaselineCheck baseline.json results.json [timeTolerance%] [allocTolerance%]
+ */
+public class BaselineCheck {
+
+    static final double DEFAULT_TIME_TOLERANCE = 25;
+    static final double DEFAULT_ALLOC_TOLERANCE = 10;
+    static final double ALLOC_NOISE_BYTES = 8; // gc profiler reports fractions of bytes for allocation free paths
+    static final String ALLOC_METRIC = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("usage: BaselineCheck baseline.json results.json [timeTolerance%] [allocTolerance%]");
+            System.exit(2);
+        }
+        double timeTolerance = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TIME_TOLERANCE;
+        double allocTolerance = args.length > 3 ? Double.parseDouble(args[3]) : DEFAULT_ALLOC_TOLERANCE;
+        Map<String, Document> baseline = load(args[0]);
+        Map<String, Document> results = load(args[1]);
+        int regressions = 0;
+        for (Map.Entry<String, Document> entry : results.entrySet()) {
+            Document reference = baseline.get(entry.getKey());
+            if (reference == null) {
+                System.out.println(String.format("%-90s new benchmark, not in baseline", entry.getKey()));
+                continue;
+            }
+            Document primary = entry.getValue().get("primaryMetric", Document.class);
+            Document referencePrimary = reference.get("primaryMetric", Document.class);
+            double time = score(primary);
+            double timeChange = change(score(referencePrimary), time);
+            boolean timeSeparated = confidence(primary, 0) > confidence(referencePrimary, 1);
+            double alloc = score(allocation(entry.getValue()));
+            double referenceAlloc = score(allocation(reference));
+            double allocChange = Math.abs(alloc - referenceAlloc) < ALLOC_NOISE_BYTES ? 0
+                    : change(referenceAlloc, alloc);
+            boolean regressed = (timeChange > timeTolerance && timeSeparated) || allocChange > allocTolerance;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.println(String.format("%-90s %10.3f +- %-8.3f %-6s %+7.1f%%%s  %8.0f B/op %+7.1f%%%s",
+                    entry.getKey(), time, error(primary), primary.getString("scoreUnit"), timeChange,
+                    timeChange > timeTolerance && !timeSeparated ? " (within noise)" : "", alloc, allocChange,
+                    regressed ? "  REGRESSION" : ""));
+        }
+        for (String name : baseline.keySet()) {
+            if (!results.containsKey(name)) {
+                System.out.println(String.format("%-90s missing in results", name));
+            }
+        }
+        System.out.println(regressions == 0 ? "No regressions (time +" + timeTolerance + "%, allocation +"
+                + allocTolerance + "%)" : regressions + " benchmark(s) over the baseline");
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    /**
+     * Load JMH json results keyed by benchmark and parameters
+     *
+     * @param path
+     * @return Map
+     * @throws IOException
+     */
+    static Map<String, Document> load(String path) throws IOException {
+        String json = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        List<Document> runs = Document.parse("{\"runs\": " + json + "}").getList("runs", Document.class);
+        Map<String, Document> results = new LinkedHashMap<>();
+        for (Document run : runs) {
+            String name = run.getString("benchmark").replace("com.jakubwawak.pynk_bench.", "");
+            Document params = run.get("params", Document.class);
+            if (params != null) {
+                StringBuilder key = new StringBuilder(name);
+                for (Map.Entry<String, Object> param : params.entrySet()) {
+                    key.append(key.length() == name.length() ? " [" : ", ").append(param.getKey()).append('=')
+                            .append(param.getValue());
+                }
+                name = key.append(']').toString();
+            }
+            results.put(name, run);
+        }
+        return results;
+    }
+
+    /**
+     * Get allocation per operation metric of the run
+     *
+     * @param run
+     * @return Document or null when run without -prof gc
+     */
+    static Document allocation(Document run) {
+        Document secondary = run.get("secondaryMetrics", Document.class);
+        if (secondary == null) {
+            return null;
+        }
+        for (Map.Entry<String, Object> metric : secondary.entrySet()) {
+            if (metric.getKey().endsWith(ALLOC_METRIC)) { // older JMH prefixes the gc metrics
+                return (Document) metric.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get score of the metric
+     *
+     * @param metric
+     * @return double score or NaN
+     */
+    static double score(Document metric) {
+        if (metric == null || !(metric.get("score") instanceof Number)) {
+            return Double.NaN;
+        }
+        return ((Number) metric.get("score")).doubleValue();
+    }
+
+    /**
+     * Get bound of the confidence interval of the metric, the score when the
+     * run has no interval (single iteration)
+     *
+     * @param metric
+     * @param bound  0 lower, 1 upper
+     * @return double bound or NaN
+     */
+    static double confidence(Document metric, int bound) {
+        if (metric != null && metric.get("scoreConfidence") instanceof List) {
+            List<?> interval = (List<?>) metric.get("scoreConfidence");
+            if (interval.size() == 2 && interval.get(bound) instanceof Number
+                    && !Double.isNaN(((Number) interval.get(bound)).doubleValue())) {
+                return ((Number) interval.get(bound)).doubleValue();
+            }
+        }
+        return score(metric);
+    }
+
+    /**
+     * Get error of the score (half of the confidence interval)
+     *
+     * @param metric
+     * @return double error, 0 when not reported
+     */
+    static double error(Document metric) {
+        if (metric == null || !(metric.get("scoreError") instanceof Number)) {
+            return 0;
+        }
+        double error = ((Number) metric.get("scoreError")).doubleValue();
+        return Double.isNaN(error) ? 0 : error;
+    }
+
+    /**
+     * Get relative change against the baseline
+     *
+     * @param reference
+     * @param value
+     * @return double change in percent, 0 when not comparable
+     */
+    static double change(double reference, double value) {
+        if (Double.isNaN(reference) || Double.isNaN(value)) {
+            return 0;
+        }
+        if (reference == 0) {
+            return value == 0 ? 0 : 100; // allocation free path started to allocate
+        }
+        return (value - reference) / reference * 100;
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.pynk_bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jakubwawak.entity.Host;
+
+/**
+ * Mapping of a stored host document to Host (every host refresh of the
+ * MongoDB manager thread)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class HostBenchmark {
+
+    private Document stored;
+
+    @Setup
+    public void setup() {
+        stored = new Document("_id", new ObjectId())
+                .append("hostName", "dns.google")
+                .append("hostIp", "8.8.8.8")
+                .append("hostCategory", "dns")
+                .append("hostDescription", "Google public resolver")
+                .append("hostStatus", "active")
+                .append("hostJobTime", 60000)
+                .append("hostModified", System.currentTimeMillis())
+                .append("hostProbeType", "icmp")
+                .append("hostProbePort", 0)
+                .append("hostJobTimeMin", 10000)
+                .append("hostJobTimeMax", 300000);
+    }
+
+    @Benchmark
+    public Host fromDocument() {
+        return new Host(stored);
+    }
+}
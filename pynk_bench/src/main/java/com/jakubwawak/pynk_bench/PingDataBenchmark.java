@@ -0,0 +1,82 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.pynk_bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jakubwawak.entity.PayloadCodec;
+import com.jakubwawak.entity.PingData;
+import com.jakubwawak.ping_engine.PingOutputParser;
+
+/**
+ * Per-probe handling of parsed ping data - classification, conversion to the
+ * stored document (payloadStorage mode) and mapping of a stored document back
+ * to PingData (dashboard and rollup reads)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class PingDataBenchmark {
+
+    @Param({ "linux-success", "linux-partial-loss" })
+    public String fixture;
+
+    @Param({ PayloadCodec.MODE_PLAIN, PayloadCodec.MODE_COMPRESSED })
+    public String payloadStorage;
+
+    private PingData pingData;
+    private Document stored;
+
+    @Setup
+    public void setup() throws IOException {
+        PayloadCodec.configure(payloadStorage);
+        pingData = new PingData();
+        PingOutputParser.forCurrentThread().parse(new StringReader(PingFixtures.ping(fixture)), pingData);
+        pingData.pingIdMongo = new ObjectId();
+        pingData.hostIdMongo = new ObjectId();
+        pingData.pingTimestamp = new Timestamp(System.currentTimeMillis());
+        pingData.setClassification();
+        stored = pingData.toDocument();
+        stored.put("ping_timestamp", new Date(pingData.pingTimestamp.getTime())); // as read from the database
+    }
+
+    @Benchmark
+    public String setClassification() {
+        pingData.setClassification();
+        return pingData.packetStatusCode;
+    }
+
+    @Benchmark
+    public Document toDocument() {
+        return pingData.toDocument();
+    }
+
+    @Benchmark
+    public PingData fromDocument() {
+        return new PingData(stored);
+    }
+}
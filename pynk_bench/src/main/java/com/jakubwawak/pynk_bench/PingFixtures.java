@@ -0,0 +1,128 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.pynk_bench;
+
+/**
+ * Recorded ping and traceroute outputs used as benchmark input. icmp_seq
+ * numbering of the parser is resolved from the running OS - macOS outputs
+ * parsed on Linux lose packet 0, parsing cost is the same
+ */
+public class PingFixtures {
+
+    /**
+     * Linux iputils ping -c 8, all packets received
+     */
+    public static final String LINUX_SUCCESS = "PING dns.google (8.8.8.8) 56(84) bytes of data.\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=1 ttl=117 time=10.4 ms\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=2 ttl=117 time=9.87 ms\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=3 ttl=117 time=10.1 ms\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=4 ttl=117 time=11.2 ms\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=5 ttl=117 time=9.95 ms\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=6 ttl=117 time=10.3 ms\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=7 ttl=117 time=10.0 ms\n"
+            + "64 bytes from dns.google (8.8.8.8): icmp_seq=8 ttl=117 time=10.6 ms\n"
+            + "\n"
+            + "--- dns.google ping statistics ---\n"
+            + "8 packets transmitted, 8 received, 0% packet loss, time 7011ms\n"
+            + "rtt min/avg/max/mdev = 9.870/10.302/11.200/0.398 ms\n";
+
+    /**
+     * Linux iputils ping -c 8 to numeric address, two packets lost
+     */
+    public static final String LINUX_PARTIAL_LOSS = "PING 1.1.1.1 (1.1.1.1) 56(84) bytes of data.\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=1 ttl=57 time=14.2 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=2 ttl=57 time=13.9 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=4 ttl=57 time=15.1 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=5 ttl=57 time=14.0 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=6 ttl=57 time=13.8 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=8 ttl=57 time=14.4 ms\n"
+            + "\n"
+            + "--- 1.1.1.1 ping statistics ---\n"
+            + "8 packets transmitted, 6 received, 25% packet loss, time 7009ms\n"
+            + "rtt min/avg/max/mdev = 13.800/14.233/15.100/0.427 ms\n";
+
+    /**
+     * macOS ping -c 8, all packets received
+     */
+    public static final String MACOS_SUCCESS = "PING dns.google (8.8.8.8): 56 data bytes\n"
+            + "64 bytes from 8.8.8.8: icmp_seq=0 ttl=117 time=10.412 ms\n"
+            + "64 bytes from 8.8.8.8: icmp_seq=1 ttl=117 time=9.873 ms\n"
+            + "64 bytes from 8.8.8.8: icmp_seq=2 ttl=117 time=10.104 ms\n"
+            + "64 bytes from 8.8.8.8: icmp_seq=3 ttl=117 time=11.207 ms\n"
+            + "64 bytes from 8.8.8.8: icmp_seq=4 ttl=117 time=9.951 ms\n"
+            + "64 bytes from 8.8.8.8: icmp_seq=5 ttl=117 time=10.298 ms\n"
+            + "64 bytes from 8.8.8.8: icmp_seq=6 ttl=117 time=10.036 ms\n"
+            + "64 bytes from 8.8.8.8: icmp_seq=7 ttl=117 time=10.577 ms\n"
+            + "\n"
+            + "--- dns.google ping statistics ---\n"
+            + "8 packets transmitted, 8 packets received, 0.0% packet loss\n"
+            + "round-trip min/avg/max/stddev = 9.873/10.307/11.207/0.398 ms\n";
+
+    /**
+     * macOS ping -c 8, two packets lost
+     */
+    public static final String MACOS_PARTIAL_LOSS = "PING 1.1.1.1 (1.1.1.1): 56 data bytes\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=0 ttl=57 time=14.203 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=1 ttl=57 time=13.912 ms\n"
+            + "Request timeout for icmp_seq 2\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=3 ttl=57 time=15.101 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=4 ttl=57 time=14.022 ms\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=5 ttl=57 time=13.804 ms\n"
+            + "Request timeout for icmp_seq 6\n"
+            + "64 bytes from 1.1.1.1: icmp_seq=7 ttl=57 time=14.389 ms\n"
+            + "\n"
+            + "--- 1.1.1.1 ping statistics ---\n"
+            + "8 packets transmitted, 6 packets received, 25.0% packet loss\n"
+            + "round-trip min/avg/max/stddev = 13.804/14.239/15.101/0.427 ms\n";
+
+    /**
+     * Linux traceroute (inetutils/modern traceroute), with unanswered hops
+     */
+    public static final String LINUX_TRACEROUTE = "traceroute to dns.google (8.8.8.8), 30 hops max, 60 byte packets\n"
+            + " 1  _gateway (192.168.1.1)  0.512 ms  0.471 ms  0.455 ms\n"
+            + " 2  10.20.0.1 (10.20.0.1)  3.874 ms  3.861 ms  3.902 ms\n"
+            + " 3  * * *\n"
+            + " 4  core1.waw.example.net (195.149.232.17)  6.114 ms  6.098 ms  6.203 ms\n"
+            + " 5  72.14.216.210 (72.14.216.210)  7.315 ms  7.288 ms  7.402 ms\n"
+            + " 6  108.170.250.193 (108.170.250.193)  8.011 ms  7.960 ms  8.127 ms\n"
+            + " 7  142.251.65.79 (142.251.65.79)  9.450 ms  9.412 ms  9.388 ms\n"
+            + " 8  dns.google (8.8.8.8)  9.871 ms  9.854 ms  9.902 ms\n";
+
+    /**
+     * macOS traceroute, with unanswered hops
+     */
+    public static final String MACOS_TRACEROUTE = "traceroute to dns.google (8.8.8.8), 64 hops max, 52 byte packets\n"
+            + " 1  192.168.1.1 (192.168.1.1)  2.345 ms  1.234 ms  1.111 ms\n"
+            + " 2  10.20.0.1 (10.20.0.1)  4.012 ms  3.987 ms  4.108 ms\n"
+            + " 3  * * *\n"
+            + " 4  core1.waw.example.net (195.149.232.17)  6.542 ms  6.310 ms  6.287 ms\n"
+            + " 5  72.14.216.210 (72.14.216.210)  7.611 ms  7.498 ms  7.523 ms\n"
+            + " 6  * * *\n"
+            + " 7  142.251.65.79 (142.251.65.79)  9.774 ms  9.652 ms  9.701 ms\n"
+            + " 8  dns.google (8.8.8.8)  10.102 ms  9.987 ms  10.045 ms\n";
+
+    /**
+     * Get recorded ping output
+     *
+     * @param fixture linux-success, linux-partial-loss, macos-success or
+     *                macos-partial-loss
+     * @return String
+     */
+    public static String ping(String fixture) {
+        switch (fixture) {
+            case "linux-success":
+                return LINUX_SUCCESS;
+            case "linux-partial-loss":
+                return LINUX_PARTIAL_LOSS;
+            case "macos-success":
+                return MACOS_SUCCESS;
+            case "macos-partial-loss":
+                return MACOS_PARTIAL_LOSS;
+            default:
+                throw new IllegalArgumentException("Unknown ping fixture: " + fixture);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.pynk_bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jakubwawak.entity.PingData;
+import com.jakubwawak.ping_engine.PingOutputParser;
+
+/**
+ * Parsing of one ping -c 8 output - line based split parser used before
+ * PingOutputParser against the streaming parser. Run with -prof gc to compare
+ * allocation per probe (gc.alloc.rate.norm)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class PingOutputParserBenchmark {
+
+    @Param({ "linux-success", "linux-partial-loss", "macos-success", "macos-partial-loss" })
+    public String fixture;
+
+    private String output;
+
+    @Setup
+    public void setup() {
+        output = PingFixtures.ping(fixture);
+    }
+
+    @Benchmark
+    public PingData legacySplitParser() throws IOException {
+        PingData pingData = new PingData();
+        String rawPing = "";
+        try (BufferedReader reader = new BufferedReader(new StringReader(output))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                rawPing += line + "\n";
+                if (line.contains("icmp_seq") && line.contains("time=")) { // macOS timeout lines have no time
+                    String[] parts = line.split(" ");
+                    // numeric target layout: ... from 1.1.1.1: icmp_seq=1 ttl=57 time=14.2 ms
+                    int shift = parts[4].startsWith("icmp_seq") ? 0 : 1;
+                    String raw_index = line.split(" ")[4 + shift];
+                    int index = Integer.parseInt(raw_index.substring(raw_index.indexOf("=") + 1));
+                    pingData.setPacketHopTime(line.split(" ")[6 + shift].split("=")[1], index);
+                } else if (line.contains("packets transmitted")) {
+                    pingData.setPacketTransmitted(line.split(" ")[0]);
+                    pingData.setPacketReceived(line.split(" ")[3]);
+                } else if (line.contains("round-trip") || line.contains("rtt")) {
+                    String data = line.split("=")[1].stripLeading().stripTrailing();
+                    pingData.setPacketRoundTripTimeMin(data.split("/")[0]);
+                    pingData.setPacketRoundTripTimeMax(data.split("/")[2]);
+                    pingData.setPacketRoundTripTimeAvg(data.split("/")[1]);
+                }
+            }
+        }
+        pingData.setPacketRawPing(rawPing);
+        return pingData;
+    }
+
+    @Benchmark
+    public PingData streamingParser() throws IOException {
+        PingData pingData = new PingData();
+        PingOutputParser.forCurrentThread().parse(new StringReader(output), pingData);
+        return pingData;
+    }
+}
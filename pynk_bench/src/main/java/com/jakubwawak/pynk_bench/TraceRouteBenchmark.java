@@ -0,0 +1,60 @@
+/**
+ * by Jakub Wawak
+ * kubawawak@gmail.com
+ * all rights reserved
+ */
+package com.jakubwawak.pynk_bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jakubwawak.entity.TraceSinglePath;
+import com.jakubwawak.ping_engine.TraceRouteEngine;
+
+/**
+ * Parsing of one recorded traceroute output line by line with
+ * TraceRouteEngine.parseTracerouteLine (cost of diagnostics of a failed host)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class TraceRouteBenchmark {
+
+    @Param({ "linux", "macos" })
+    public String fixture;
+
+    private String[] lines;
+
+    @Setup
+    public void setup() {
+        lines = (fixture.equals("linux") ? PingFixtures.LINUX_TRACEROUTE : PingFixtures.MACOS_TRACEROUTE).split("\n");
+    }
+
+    @Benchmark
+    public List<TraceSinglePath> parseTraceroute() {
+        List<TraceSinglePath> hops = new ArrayList<>();
+        for (String line : lines) {
+            TraceSinglePath hop = TraceRouteEngine.parseTracerouteLine(line);
+            if (hop != null) {
+                hops.add(hop);
+            }
+        }
+        return hops;
+    }
+}
@@ -16,10 +16,12 @@ import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Accumulators;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.Sorts;
 import com.mongodb.client.result.DeleteResult;
 
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 /**
@@ -29,6 +31,14 @@ public class DatabaseDataEngine {
 
         DatabaseEngine databaseEngine;
 
+        // ping data lists skip the bulky text fields, PingData loads them on demand
+        static final Bson PING_LIST_PROJECTION = Projections.exclude("packet_raw_ping", "packet_dig_data",
+                        "packet_tracert_data");
+
+        // ping history cleanup deletes the oldest documents in chunks
+        static final int CLEANUP_CHUNK_SIZE = 1000;
+        static final long CLEANUP_PAUSE_MILLIS = 100;
+
         /**
          * Constructor
          * 
@@ -52,6 +62,7 @@ public class DatabaseDataEngine {
                                         .find(Filters.and(
                                                         Filters.gt("ping_timestamp", new Date(startDate.getTime())),
                                                         Filters.lt("ping_timestamp", new Date(endDate.getTime()))))
+                                        .projection(PING_LIST_PROJECTION)
                                         .sort(new Document("ping_timestamp", -1)) // DESC order
                                         .map(doc -> new PingData(doc))
                                         .into(pingData);
@@ -85,6 +96,7 @@ public class DatabaseDataEngine {
                                                         Filters.eq("host_id", host.getHostIdMongo()),
                                                         Filters.gt("ping_timestamp", new Date(startDate.getTime())),
                                                         Filters.lt("ping_timestamp", new Date(endDate.getTime()))))
+                                        .projection(PING_LIST_PROJECTION)
                                         .sort(new Document("ping_timestamp", -1)) // DESC order
                                         .map(doc -> new PingData(doc))
                                         .into(pingData);
@@ -125,15 +137,40 @@ public class DatabaseDataEngine {
         }
 
         /**
-         * Remove ping data older than 3 months ago
+         * Remove ping data older than 3 months ago - deleted in chunks of the
+         * oldest documents with a short pause, so probe writes and dashboard
+         * reads are not blocked by one large delete
          * 
-         * @return true if successful, false otherwise
+         * @return number of removed documents, -1 on error
          */
         public int removePingOlderThan3MonthsAgo() {
                 try {
-                        DeleteResult result = databaseEngine.getCollection(DatabaseEngine.PING_HISTORY_COLLECTION)
-                                        .deleteMany(Filters.lt("ping_timestamp", new Date(System.currentTimeMillis() - 90 * 24 * 60 * 60 * 1000)));
-                        return (int) result.getDeletedCount();
+                        if (databaseEngine.isPingDataTimeSeries()) {
+                                return 0; // time-series collection expires ping data by itself
+                        }
+                        MongoCollection<Document> collection = databaseEngine
+                                        .getCollection(DatabaseEngine.PING_HISTORY_COLLECTION);
+                        Bson older = Filters.lt("ping_timestamp",
+                                        new Date(System.currentTimeMillis() - 90L * 24 * 60 * 60 * 1000));
+                        long removed = 0;
+                        while (true) {
+                                List<Object> ids = collection.find(older).sort(Sorts.ascending("ping_timestamp"))
+                                                .projection(Projections.include("_id")).limit(CLEANUP_CHUNK_SIZE)
+                                                .map(document -> document.get("_id")).into(new ArrayList<>());
+                                if (ids.isEmpty()) {
+                                        break;
+                                }
+                                DeleteResult result = collection.deleteMany(Filters.in("_id", ids));
+                                removed += result.getDeletedCount();
+                                if (ids.size() < CLEANUP_CHUNK_SIZE) {
+                                        break;
+                                }
+                                Thread.sleep(CLEANUP_PAUSE_MILLIS);
+                        }
+                        return (int) Math.min(Integer.MAX_VALUE, removed);
+                } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return -1;
                 } catch (Exception e) {
                         databaseEngine.addLog("DatabaseDataEngine",
                                         "Error removing ping data older than 3 months ago " + e.getMessage(),
@@ -150,17 +187,11 @@ public class DatabaseDataEngine {
                 try {
                         MongoCollection<Document> collection = databaseEngine
                                         .getCollection(DatabaseEngine.PING_HISTORY_COLLECTION);
-                        int count = 0;
-                        for (Document doc : collection.find(Filters.and(
+                        return (int) collection.countDocuments(Filters.and(
                                         Filters.gt("ping_timestamp",
                                                         new Date(System.currentTimeMillis() - 24 * 60 * 60 * 1000)),
-                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis()))))) {
-
-                                if (doc.getString("packet_status_code").equals("Success")) {
-                                        count++;
-                                }
-                        }
-                        return count;
+                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis())),
+                                        Filters.eq("packet_status_code", "Success")));
                 } catch (Exception e) {
                         databaseEngine.addLog("DatabaseDataEngine",
                                         "Error getting number of successes from last 24 hours ("
@@ -182,11 +213,10 @@ public class DatabaseDataEngine {
                         MongoCollection<Document> collection = databaseEngine.getCollection(DatabaseEngine.PING_HISTORY_COLLECTION);
                         for (Document doc : collection.find(Filters.and(
                                         Filters.gt("ping_timestamp",
-                                                        new Date(System.currentTimeMillis() - hours * 60 * 60 * 1000)),
-                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis()))))) {
-                                if (doc.getString("packet_status_code").equals("Partial loss")) {
-                                        pingData.add(new PingData(doc));
-                                }
+                                                        new Date(System.currentTimeMillis() - hours * 60L * 60 * 1000)),
+                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis())),
+                                        Filters.eq("packet_status_code", "Partial loss")))) {
+                                pingData.add(new PingData(doc));
                         }
                         return pingData;
                 } catch (Exception e) {
@@ -207,17 +237,11 @@ public class DatabaseDataEngine {
                 try {
                         MongoCollection<Document> collection = databaseEngine
                                         .getCollection(DatabaseEngine.PING_HISTORY_COLLECTION);
-                        int count = 0;
-                        for (Document doc : collection.find(Filters.and(
+                        return (int) collection.countDocuments(Filters.and(
                                         Filters.gt("ping_timestamp",
                                                         new Date(System.currentTimeMillis() - 24 * 60 * 60 * 1000)),
-                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis()))))) {
-
-                                if (doc.getString("packet_status_code").equals("No response")) {
-                                        count++;
-                                }
-                        }
-                        return count;
+                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis())),
+                                        Filters.eq("packet_status_code", "No response")));
                 } catch (Exception e) {
                         databaseEngine.addLog("DatabaseDataEngine",
                                         "Error getting number of no response from last 24 hours ("
@@ -239,11 +263,10 @@ public class DatabaseDataEngine {
                         MongoCollection<Document> collection = databaseEngine.getCollection(DatabaseEngine.PING_HISTORY_COLLECTION);
                         for (Document doc : collection.find(Filters.and(
                                         Filters.gt("ping_timestamp",
-                                                        new Date(System.currentTimeMillis() - hours * 60 * 60 * 1000)),
-                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis()))))) {
-                                if (doc.getString("packet_status_code").equals("No response")) {
-                                        pingData.add(new PingData(doc));
-                                }
+                                                        new Date(System.currentTimeMillis() - hours * 60L * 60 * 1000)),
+                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis())),
+                                        Filters.eq("packet_status_code", "No response")))) {
+                                pingData.add(new PingData(doc));
                         }
                         return pingData;
                 } catch (Exception e) {
@@ -264,17 +287,11 @@ public class DatabaseDataEngine {
                 try {
                         MongoCollection<Document> collection = databaseEngine
                                         .getCollection(DatabaseEngine.PING_HISTORY_COLLECTION);
-                        int count = 0;
-                        for (Document doc : collection.find(Filters.and(
+                        return (int) collection.countDocuments(Filters.and(
                                         Filters.gt("ping_timestamp",
                                                         new Date(System.currentTimeMillis() - 24 * 60 * 60 * 1000)),
-                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis()))))) {
-
-                                if (doc.getString("packet_status_code").equals("Partial loss")) {
-                                        count++;
-                                }
-                        }
-                        return count;
+                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis())),
+                                        Filters.eq("packet_status_code", "Partial loss")));
                 } catch (Exception e) {
                         databaseEngine.addLog("DatabaseDataEngine",
                                         "Error getting number of failures from last 24 hours ("
@@ -297,12 +314,10 @@ public class DatabaseDataEngine {
                         for (Document doc : collection.find(Filters.and(
                                         Filters.gt("ping_timestamp",
                                                         new Date(System.currentTimeMillis() - 24 * 60 * 60 * 1000)),
-                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis()))))
+                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis())),
+                                        Filters.ne("packet_status_code", "Success")))
                                         .sort(Sorts.descending("ping_timestamp"))) {
-
-                                if (!doc.getString("packet_status_code").equals("Success")) {
-                                        pingData.add(new PingData(doc));
-                                }
+                                pingData.add(new PingData(doc));
                         }
                         return pingData;
                 } catch (Exception e) {
@@ -519,7 +534,8 @@ public class DatabaseDataEngine {
                         for (Document doc : collection.find(Filters.and(
                                         Filters.gt("ping_timestamp",
                                                         new Date(System.currentTimeMillis() - 24 * 60 * 60 * 1000)),
-                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis()))))) {
+                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis()))))
+                                        .projection(PING_LIST_PROJECTION)) {
                                 pingData.add(new PingData(doc));
                         }
                         return pingData;
@@ -545,8 +561,9 @@ public class DatabaseDataEngine {
                                         .getCollection(DatabaseEngine.PING_HISTORY_COLLECTION);
                         for (Document doc : collection.find(Filters.and(
                                         Filters.gt("ping_timestamp",
-                                                        new Date(System.currentTimeMillis() - hours * 60 * 60 * 1000)),
-                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis()))))) {
+                                                        new Date(System.currentTimeMillis() - hours * 60L * 60 * 1000)),
+                                        Filters.lt("ping_timestamp", new Date(System.currentTimeMillis()))))
+                                        .projection(PING_LIST_PROJECTION)) {
                                 pingData.add(new PingData(doc));
                         }
                         databaseEngine.addLog("DatabaseDataEngine",
@@ -11,6 +11,7 @@ import java.util.Date;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.jakubwawak.pynk_web.entity.Host;
+import com.jakubwawak.pynk_web.entity.PayloadCodec;
 import com.jakubwawak.pynk_web.entity.PingData;
 import com.jakubwawak.pynk_web.maintanance.ConsoleColors;
 import com.mongodb.client.MongoClient;
@@ -18,12 +19,14 @@ import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.Updates;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.InsertOneResult;
 import com.mongodb.client.result.UpdateResult;
 
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 /**
@@ -216,7 +219,8 @@ public class DatabaseEngine {
                                     Updates.set("hostCategory", host.getHostCategory()),
                                     Updates.set("hostDescription", host.getHostDescription()),
                                     Updates.set("hostStatus", host.getHostStatus()),
-                                    Updates.set("hostJobTime", host.getHostJobTime())));
+                                    Updates.set("hostJobTime", host.getHostJobTime()),
+                                    Updates.inc("hostModified", 1L))); // lets the collector reload only changed hosts
             return result.getModifiedCount() > 0 ? 1 : 0;
         } catch (Exception e) {
             addLog("error", "Error updating host: " + e.getMessage(), "error", ConsoleColors.RED_BOLD);
@@ -413,6 +417,70 @@ public class DatabaseEngine {
         return null;
     }
 
+    /**
+     * Method to check if ping_data is a time-series collection
+     *
+     * @return boolean
+     */
+    public boolean isPingDataTimeSeries() {
+        try {
+            Document info = database.listCollections()
+                    .filter(Filters.eq("name", PING_HISTORY_COLLECTION))
+                    .first();
+            return info != null && "timeseries".equals(info.getString("type"));
+        } catch (Exception e) {
+            addLog("error", "Error checking ping data collection type: " + e.getMessage(), "error", "#FF0000");
+            return false;
+        }
+    }
+
+    /**
+     * Filter of a single ping data document - host and timestamp let the
+     * lookup use the host/time index (time-series collections have no _id
+     * index)
+     *
+     * @param pingData
+     * @return Bson
+     */
+    private Bson pingKeyFilter(PingData pingData) {
+        if (pingData.hostIdMongo == null || pingData.pingTimestamp == null) {
+            return Filters.eq("_id", pingData.pingIdMongo);
+        }
+        return Filters.and(Filters.eq("host_id", pingData.hostIdMongo),
+                Filters.eq("ping_timestamp", new Date(pingData.pingTimestamp.getTime())),
+                Filters.eq("_id", pingData.pingIdMongo));
+    }
+
+    /**
+     * Method to load text fields of ping data read without them (raw ping,
+     * dig and traceroute output)
+     *
+     * @param pingData
+     */
+    public void loadPingText(PingData pingData) {
+        try {
+            Document doc = getCollection(PING_HISTORY_COLLECTION)
+                    .find(pingKeyFilter(pingData))
+                    .projection(Projections.include("packet_raw_ping", "packet_dig_data", "packet_tracert_data"))
+                    .first();
+            if (doc != null) {
+                // values set on the instance before loading are kept
+                if (pingData.packetRawPing == null) {
+                    pingData.packetRawPing = PayloadCodec.decode(doc.get("packet_raw_ping"));
+                }
+                if (pingData.packetDigData == null) {
+                    pingData.packetDigData = PayloadCodec.decode(doc.get("packet_dig_data"));
+                }
+                if (pingData.packetTracertData == null) {
+                    pingData.packetTracertData = PayloadCodec.decode(doc.get("packet_tracert_data"));
+                }
+            }
+        } catch (Exception e) {
+            addLog("error", "Error loading ping text " + pingData.pingIdMongo + ": " + e.getMessage(), "error",
+                    "#FF0000");
+        }
+    }
+
     /**
      * Helper method to get a collection
      * 
@@ -31,17 +31,12 @@ public class PingData {
     public String packetStatusColorHex;
     public int packetTransmitted;
     public int packetReceived;
-    public double packetHopTime1;
-    public double packetHopTime2;
-    public double packetHopTime3;
-    public double packetHopTime4;
-    public double packetHopTime5;
-    public double packetHopTime6;
-    public double packetHopTime7;
-    public double packetHopTime8;
+    public PacketSamples packetTimes; // per-packet round trip times, lost packets flagged
+    // bulky text, excluded from list queries and loaded on demand by the getters
     public String packetDigData;
     public String packetTracertData;
     public String packetRawPing;
+    public boolean textLoaded;
     public double packetRoundTripTimeMin;
     public double packetRoundTripTimeMax;
     public double packetRoundTripTimeAvg;
@@ -61,20 +56,14 @@ public class PingData {
         this.packetStatusColorHex = null;
         this.packetTransmitted = 0;
         this.packetReceived = 0;
-        this.packetHopTime1 = -1;
-        this.packetHopTime2 = -1;
-        this.packetHopTime3 = -1;
-        this.packetHopTime4 = -1;
-        this.packetHopTime5 = -1;
-        this.packetHopTime6 = -1;
-        this.packetHopTime7 = -1;
-        this.packetHopTime8 = -1;
+        this.packetTimes = new PacketSamples(PacketSamples.DEFAULT_PACKETS);
         this.packetDigData = null;
         this.packetTracertData = null;
         this.packetRoundTripTimeMin = -1;
         this.packetRoundTripTimeMax = -1;
         this.packetRoundTripTimeAvg = -1;
         this.packetRawPing = null;
+        this.textLoaded = true;
     }
 
     /**
@@ -87,22 +76,13 @@ public class PingData {
      * @param packetStatusColorHex
      * @param packetTransmitted
      * @param packetReceived
-     * @param packetHopTime1
-     * @param packetHopTime2
-     * @param packetHopTime3
-     * @param packetHopTime4
-     * @param packetHopTime5
-     * @param packetHopTime6
-     * @param packetHopTime7
-     * @param packetHopTime8
+     * @param packetTimes
      * @param packetDigData
      * @param packetTracertData
      */
     public PingData(int pingId, int hostId, Timestamp pingTimestamp, String packetStatusCode,
             String packetStatusColorHex, int packetTransmitted, int packetReceived,
-            double packetHopTime1, double packetHopTime2, double packetHopTime3,
-            double packetHopTime4, double packetHopTime5, double packetHopTime6,
-            double packetHopTime7, double packetHopTime8, String packetDigData,
+            PacketSamples packetTimes, String packetDigData,
             String packetTracertData, double packetRoundTripTimeMin,
             double packetRoundTripTimeMax, double packetRoundTripTimeAvg, String packetRawPing) {
         this.pingId = pingId;
@@ -114,20 +94,14 @@ public class PingData {
         this.packetStatusColorHex = packetStatusColorHex;
         this.packetTransmitted = packetTransmitted;
         this.packetReceived = packetReceived;
-        this.packetHopTime1 = packetHopTime1;
-        this.packetHopTime2 = packetHopTime2;
-        this.packetHopTime3 = packetHopTime3;
-        this.packetHopTime4 = packetHopTime4;
-        this.packetHopTime5 = packetHopTime5;
-        this.packetHopTime6 = packetHopTime6;
-        this.packetHopTime7 = packetHopTime7;
-        this.packetHopTime8 = packetHopTime8;
+        this.packetTimes = packetTimes;
         this.packetDigData = packetDigData;
         this.packetTracertData = packetTracertData;
         this.packetRoundTripTimeMin = packetRoundTripTimeMin;
         this.packetRoundTripTimeMax = packetRoundTripTimeMax;
         this.packetRoundTripTimeAvg = packetRoundTripTimeAvg;
         this.packetRawPing = packetRawPing;
+        this.textLoaded = true;
     }
 
     /**
@@ -145,20 +119,16 @@ public class PingData {
         this.packetStatusColorHex = document.getString("packet_status_color_hex");
         this.packetTransmitted = document.getInteger("packet_transmitted");
         this.packetReceived = document.getInteger("packet_received");
-        this.packetHopTime1 = document.getDouble("packet_hop_time1");
-        this.packetHopTime2 = document.getDouble("packet_hop_time2");
-        this.packetHopTime3 = document.getDouble("packet_hop_time3");
-        this.packetHopTime4 = document.getDouble("packet_hop_time4");
-        this.packetHopTime5 = document.getDouble("packet_hop_time5");
-        this.packetHopTime6 = document.getDouble("packet_hop_time6");
-        this.packetHopTime7 = document.getDouble("packet_hop_time7");
-        this.packetHopTime8 = document.getDouble("packet_hop_time8");
-        this.packetDigData = document.getString("packet_dig_data");
-        this.packetTracertData = document.getString("packet_tracert_data");
+        this.packetTimes = PacketSamples.fromDocument(document);
+        this.packetDigData = PayloadCodec.decode(document.get("packet_dig_data"));
+        this.packetTracertData = PayloadCodec.decode(document.get("packet_tracert_data"));
         this.packetRoundTripTimeMin = document.getDouble("packet_round_trip_time_min");
         this.packetRoundTripTimeMax = document.getDouble("packet_round_trip_time_max");
         this.packetRoundTripTimeAvg = document.getDouble("packet_round_trip_time_avg");
-        this.packetRawPing = document.getString("packet_raw_ping");
+        this.packetRawPing = PayloadCodec.decode(document.get("packet_raw_ping"));
+        // list queries project the text out, it is loaded when first read
+        this.textLoaded = document.containsKey("packet_raw_ping") || document.containsKey("packet_dig_data")
+                || document.containsKey("packet_tracert_data");
     }
 
     /**
@@ -167,26 +137,19 @@ public class PingData {
      * @return Document
      */
     public Document toDocument() {
-        return new Document("host_id", this.hostIdMongo)
+        Document document = new Document("host_id", this.hostIdMongo)
                 .append("ping_timestamp", this.pingTimestamp)
                 .append("packet_status_code", this.packetStatusCode)
                 .append("packet_status_color_hex", this.packetStatusColorHex)
                 .append("packet_transmitted", this.packetTransmitted)
-                .append("packet_received", this.packetReceived)
-                .append("packet_hop_time1", this.packetHopTime1)
-                .append("packet_hop_time2", this.packetHopTime2)
-                .append("packet_hop_time3", this.packetHopTime3)
-                .append("packet_hop_time4", this.packetHopTime4)
-                .append("packet_hop_time5", this.packetHopTime5)
-                .append("packet_hop_time6", this.packetHopTime6)
-                .append("packet_hop_time7", this.packetHopTime7)
-                .append("packet_hop_time8", this.packetHopTime8)
-                .append("packet_dig_data", this.packetDigData)
-                .append("packet_tracert_data", this.packetTracertData)
+                .append("packet_received", this.packetReceived);
+        this.packetTimes.appendTo(document);
+        return document.append("packet_dig_data", PayloadCodec.encode(getPacketDigData()))
+                .append("packet_tracert_data", PayloadCodec.encode(getPacketTracertData()))
                 .append("packet_round_trip_time_min", this.packetRoundTripTimeMin)
                 .append("packet_round_trip_time_max", this.packetRoundTripTimeMax)
                 .append("packet_round_trip_time_avg", this.packetRoundTripTimeAvg)
-                .append("packet_raw_ping", this.packetRawPing);
+                .append("packet_raw_ping", PayloadCodec.encode(getPacketRawPing()));
     }
 
     /**
@@ -205,20 +168,14 @@ public class PingData {
             this.packetStatusColorHex = resultSet.getString("packet_status_color_hex");
             this.packetTransmitted = resultSet.getInt("packet_transmitted");
             this.packetReceived = resultSet.getInt("packet_received");
-            this.packetHopTime1 = resultSet.getDouble("packet_hop_time1");
-            this.packetHopTime2 = resultSet.getDouble("packet_hop_time2");
-            this.packetHopTime3 = resultSet.getDouble("packet_hop_time3");
-            this.packetHopTime4 = resultSet.getDouble("packet_hop_time4");
-            this.packetHopTime5 = resultSet.getDouble("packet_hop_time5");
-            this.packetHopTime6 = resultSet.getDouble("packet_hop_time6");
-            this.packetHopTime7 = resultSet.getDouble("packet_hop_time7");
-            this.packetHopTime8 = resultSet.getDouble("packet_hop_time8");
+            this.packetTimes = PacketSamples.fromResultSet(resultSet);
             this.packetDigData = resultSet.getString("packet_dig_data");
             this.packetTracertData = resultSet.getString("packet_tracert_data");
             this.packetRoundTripTimeMin = resultSet.getDouble("packet_round_trip_time_min");
             this.packetRoundTripTimeMax = resultSet.getDouble("packet_round_trip_time_max");
             this.packetRoundTripTimeAvg = resultSet.getDouble("packet_round_trip_time_avg");
             this.packetRawPing = resultSet.getString("packet_raw_ping");
+            this.textLoaded = true;
         } catch (SQLException e) {
             this.error = true;
             PynkWebApplication.databaseEngine.addLog("error", "Error: " + e.getMessage(), "error", "#FF0000");
@@ -366,9 +323,7 @@ public class PingData {
      * @return boolean
      */
     public boolean verifyPacketHopTimes() {
-        return this.packetHopTime1 != -1 && this.packetHopTime2 != -1 && this.packetHopTime3 != -1 &&
-                this.packetHopTime4 != -1 && this.packetHopTime5 != -1 && this.packetHopTime6 != -1 &&
-                this.packetHopTime7 != -1 && this.packetHopTime8 != -1;
+        return this.packetTimes.allPresent();
     }
 
     /**
@@ -377,9 +332,57 @@ public class PingData {
      * @return boolean
      */
     public boolean hasValidPacketHopTimes() {
-        return this.packetHopTime1 == -1 || this.packetHopTime2 == -1 || this.packetHopTime3 == -1 ||
-                this.packetHopTime4 == -1 || this.packetHopTime5 == -1 || this.packetHopTime6 == -1 ||
-                this.packetHopTime7 == -1 || this.packetHopTime8 == -1;
+        return !this.packetTimes.allPresent();
+    }
+
+    /**
+     * Get packet hop time
+     *
+     * @param slot packet number counted from 0
+     * @return double milliseconds, -1 if packet was lost
+     */
+    public double getPacketHopTime(int slot) {
+        return this.packetTimes.get(slot);
+    }
+
+    /**
+     * Get packet tracert data, loaded on first use
+     *
+     * @return String
+     */
+    public String getPacketTracertData() {
+        loadText();
+        return this.packetTracertData;
+    }
+
+    /**
+     * Get packet dig data, loaded on first use
+     *
+     * @return String
+     */
+    public String getPacketDigData() {
+        loadText();
+        return this.packetDigData;
+    }
+
+    /**
+     * Get raw ping output, loaded on first use
+     *
+     * @return String
+     */
+    public String getPacketRawPing() {
+        loadText();
+        return this.packetRawPing;
+    }
+
+    /**
+     * Load text fields excluded by the list queries
+     */
+    private void loadText() {
+        if (!this.textLoaded && this.pingIdMongo != null && PynkWebApplication.databaseEngine != null) {
+            PynkWebApplication.databaseEngine.loadPingText(this);
+        }
+        this.textLoaded = true;
     }
 
     /**
@@ -412,60 +415,9 @@ public class PingData {
             double packetHopTime = Double.parseDouble(data);
             String os = System.getProperty("os.name").toLowerCase();
             if (os.contains("nix") || os.contains("nux")) {
-                // Unix/Linux specific handling if needed
-                switch (index) {
-                    case 1:
-                        this.packetHopTime1 = packetHopTime;
-                        break;
-                    case 2:
-                        this.packetHopTime2 = packetHopTime;
-                        break;
-                    case 3:
-                        this.packetHopTime3 = packetHopTime;
-                        break;
-                    case 4:
-                        this.packetHopTime4 = packetHopTime;
-                        break;
-                    case 5:
-                        this.packetHopTime5 = packetHopTime;
-                        break;
-                    case 6:
-                        this.packetHopTime6 = packetHopTime;
-                        break;
-                    case 7:
-                        this.packetHopTime7 = packetHopTime;
-                        break;
-                    case 8:
-                        this.packetHopTime8 = packetHopTime;
-                        break;
-                }
+                this.packetTimes.set(index - 1, packetHopTime); // linux icmp_seq starts at 1
             } else if (os.contains("mac")) {
-                switch (index) {
-                    case 0:
-                        this.packetHopTime1 = packetHopTime;
-                        break;
-                    case 1:
-                        this.packetHopTime2 = packetHopTime;
-                        break;
-                    case 2:
-                        this.packetHopTime3 = packetHopTime;
-                        break;
-                    case 3:
-                        this.packetHopTime4 = packetHopTime;
-                        break;
-                    case 4:
-                        this.packetHopTime5 = packetHopTime;
-                        break;
-                    case 5:
-                        this.packetHopTime6 = packetHopTime;
-                        break;
-                    case 6:
-                        this.packetHopTime7 = packetHopTime;
-                        break;
-                    case 7:
-                        this.packetHopTime8 = packetHopTime;
-                        break;
-                }
+                this.packetTimes.set(index, packetHopTime);
             }
         } catch (Exception e) {
             this.error = true;
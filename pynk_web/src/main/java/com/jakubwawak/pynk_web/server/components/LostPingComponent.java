@@ -150,7 +150,7 @@ public class LostPingComponent extends VerticalLayout{
         })).setHeader("Status");
 
         failuresGrid.addColumn(new ComponentRenderer<Component, PingData>(pingData -> {
-            Text traceRouteStatus = new Text(pingData.packetTracertData);
+            Text traceRouteStatus = new Text(pingData.getPacketTracertData());
             VerticalLayout verticalLayout = new VerticalLayout(traceRouteStatus);
             verticalLayout.setWidth("100%");
             verticalLayout.setHeight("250px");
@@ -159,7 +159,7 @@ public class LostPingComponent extends VerticalLayout{
         })).setHeader("Trace Route Status").setResizable(true).addClassName("column");
 
         failuresGrid.addColumn(new ComponentRenderer<Component, PingData>(pingData -> {
-            Text digData = new Text(pingData.packetDigData);
+            Text digData = new Text(pingData.getPacketDigData());
             VerticalLayout verticalLayout = new VerticalLayout(digData);
             verticalLayout.setWidth("100%");
             verticalLayout.setHeight("250px");
@@ -186,8 +186,8 @@ public class LostPingComponent extends VerticalLayout{
                         .append(pingData.getHostName()).append(",")
                         .append(pingData.packetStatusCode).append(",")
                         .append(pingData.getTimeAvg()).append(",")
-                        .append(pingData.packetTracertData).append(",")
-                        .append(pingData.packetDigData).append("\n");
+                        .append(pingData.getPacketTracertData()).append(",")
+                        .append(pingData.getPacketDigData()).append("\n");
             }
 
             // Create a CSV file and write the data
@@ -97,19 +97,19 @@ public class PingDataDetailsWindow extends Dialog {
         header.add(leftLayout, rightLayout);
 
         TextArea traceRoute = new TextArea("Trace");
-        traceRoute.setValue(pingData.packetTracertData);
+        traceRoute.setValue(pingData.getPacketTracertData());
         traceRoute.setWidthFull();
         traceRoute.setHeightFull();
         traceRoute.setReadOnly(true);
 
         TextArea dig = new TextArea("Dig");
-        dig.setValue(pingData.packetDigData);
+        dig.setValue(pingData.getPacketDigData());
         dig.setWidthFull();
         dig.setHeightFull();
         dig.setReadOnly(true);
 
         TextArea nslookup = new TextArea("Raw Ping Data");
-        nslookup.setValue(pingData.packetRawPing);
+        nslookup.setValue(pingData.getPacketRawPing());
         nslookup.setWidthFull();
         nslookup.setHeightFull();
         nslookup.setReadOnly(true);
@@ -90,7 +90,7 @@ public class ShowFailuresReportWindow extends Dialog {
         })).setHeader("Status");
 
         failuresGrid.addColumn(new ComponentRenderer<Component, PingData>(pingData -> {
-            Text traceRouteStatus = new Text(pingData.packetTracertData);
+            Text traceRouteStatus = new Text(pingData.getPacketTracertData());
             VerticalLayout verticalLayout = new VerticalLayout(traceRouteStatus);
             verticalLayout.setWidth("100%");
             verticalLayout.setHeight("250px");
@@ -99,7 +99,7 @@ public class ShowFailuresReportWindow extends Dialog {
         })).setHeader("Trace Route Status").setResizable(true).addClassName("column");
 
         failuresGrid.addColumn(new ComponentRenderer<Component, PingData>(pingData -> {
-            Text digData = new Text(pingData.packetDigData);
+            Text digData = new Text(pingData.getPacketDigData());
             VerticalLayout verticalLayout = new VerticalLayout(digData);
             verticalLayout.setWidth("100%");
             verticalLayout.setHeight("250px");
@@ -120,8 +120,8 @@ public class ShowFailuresReportWindow extends Dialog {
                         .append(pingData.getHostName()).append(",")
                         .append(pingData.packetStatusCode).append(",")
                         .append(pingData.getTimeAvg()).append(",")
-                        .append(pingData.packetTracertData).append(",")
-                        .append(pingData.packetDigData).append("\n");
+                        .append(pingData.getPacketTracertData()).append(",")
+                        .append(pingData.getPacketDigData()).append("\n");
             }
 
             // Create a CSV file and write the data